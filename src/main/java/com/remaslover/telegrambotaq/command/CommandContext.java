@@ -0,0 +1,149 @@
+package com.remaslover.telegrambotaq.command;
+
+import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
+import org.telegram.telegrambots.meta.api.objects.Message;
+
+/**
+ * Контекст вызова команды.
+ * Аргументы не разбиваются заранее: текст хранится целиком вместе со смещением
+ * начала аргументов, а отдельные слова вырезаются только по запросу.
+ */
+public final class CommandContext {
+
+    private final long chatId;
+    private final Long userId;
+    private final String text;
+    private final int argsStart;
+    private final Message message;
+    private final CallbackQuery callbackQuery;
+
+    private String args;
+
+    CommandContext(long chatId, Long userId, String text, int argsStart,
+                   Message message, CallbackQuery callbackQuery) {
+        this.chatId = chatId;
+        this.userId = userId;
+        this.text = text;
+        this.argsStart = skipSpaces(text, argsStart);
+        this.message = message;
+        this.callbackQuery = callbackQuery;
+    }
+
+    public long getChatId() {
+        return chatId;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    /**
+     * Исходный текст сообщения или callback-данные
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Сообщение пользователя (null для callback-запросов)
+     */
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Callback-запрос (null для обычных сообщений)
+     */
+    public CallbackQuery getCallbackQuery() {
+        return callbackQuery;
+    }
+
+    public boolean isCallback() {
+        return callbackQuery != null;
+    }
+
+    /**
+     * Id сообщения, к которому относится команда
+     */
+    public Integer getMessageId() {
+        if (callbackQuery != null && callbackQuery.getMessage() != null) {
+            return callbackQuery.getMessage().getMessageId();
+        }
+        return message != null ? message.getMessageId() : null;
+    }
+
+    public boolean hasArgs() {
+        return argsStart < text.length();
+    }
+
+    /**
+     * Все аргументы одной строкой
+     */
+    public String args() {
+        if (args == null) {
+            args = hasArgs() ? text.substring(argsStart).trim() : "";
+        }
+        return args;
+    }
+
+    /**
+     * Аргумент с указанным номером или пустая строка
+     */
+    public String arg(int index) {
+        int start = tokenStart(index);
+        if (start < 0) {
+            return "";
+        }
+        int end = start;
+        while (end < text.length() && !Character.isWhitespace(text.charAt(end))) {
+            end++;
+        }
+        return text.substring(start, end);
+    }
+
+    /**
+     * Аргументы начиная с указанного номера одной строкой
+     */
+    public String argsFrom(int index) {
+        int start = tokenStart(index);
+        return start < 0 ? "" : text.substring(start).trim();
+    }
+
+    /**
+     * Количество аргументов
+     */
+    public int argCount() {
+        int count = 0;
+        int i = argsStart;
+        while (i < text.length()) {
+            count++;
+            while (i < text.length() && !Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            i = skipSpaces(text, i);
+        }
+        return count;
+    }
+
+    private int tokenStart(int index) {
+        int i = argsStart;
+        for (int n = 0; i < text.length(); n++) {
+            if (n == index) {
+                return i;
+            }
+            while (i < text.length() && !Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            i = skipSpaces(text, i);
+        }
+        return -1;
+    }
+
+    private static int skipSpaces(String text, int from) {
+        int i = from;
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
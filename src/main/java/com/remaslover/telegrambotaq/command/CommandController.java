@@ -0,0 +1,20 @@
+package com.remaslover.telegrambotaq.command;
+
+import org.springframework.stereotype.Component;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Бин, методы которого помечены {@link CommandMapping}.
+ * {@link CommandRegistry} собирает такие методы один раз при старте.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Component
+public @interface CommandController {
+}
@@ -0,0 +1,41 @@
+package com.remaslover.telegrambotaq.command;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Помечает метод-обработчик команды бота.
+ * Метод должен быть public, возвращать void и принимать {@link CommandContext}.
+ * <p>
+ * В value перечисляются все варианты вызова: сама команда, ее псевдонимы,
+ * тексты кнопок клавиатуры и callback-данные inline кнопок.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface CommandMapping {
+
+    /**
+     * Команды, псевдонимы и тексты кнопок
+     */
+    String[] value();
+
+    /**
+     * Команда доступна только владельцу бота
+     */
+    boolean ownerOnly() default false;
+
+    /**
+     * Команда вызывается только сообщением: обработчику нужен {@link CommandContext#getMessage()},
+     * поэтому вызов из inline кнопки отклоняется
+     */
+    boolean messageOnly() default false;
+
+    /**
+     * Текст всплывающего ответа при вызове из inline кнопки
+     */
+    String callbackAnswer() default "";
+}
@@ -0,0 +1,192 @@
+package com.remaslover.telegrambotaq.command;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.MethodIntrospector;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ReflectionUtils;
+import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
+import org.telegram.telegrambots.meta.api.objects.Message;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Реестр команд бота.
+ * Строится один раз при старте из методов, помеченных {@link CommandMapping},
+ * после чего поиск обработчика - одно или два обращения к хеш-таблице:
+ * сначала по тексту целиком (кнопки клавиатуры, callback-данные),
+ * затем по первому слову (команда с аргументами).
+ */
+@Component
+public class CommandRegistry implements SmartInitializingSingleton {
+
+    private static final Logger log = LoggerFactory.getLogger(CommandRegistry.class);
+
+    private final ApplicationContext applicationContext;
+    private volatile Map<String, Route> routes = Map.of();
+
+    public CommandRegistry(ApplicationContext applicationContext) {
+        this.applicationContext = applicationContext;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        Map<String, Route> collected = new HashMap<>();
+
+        applicationContext.getBeansWithAnnotation(CommandController.class).forEach((beanName, bean) -> {
+            Class<?> targetClass = AopUtils.getTargetClass(bean);
+            Map<Method, CommandMapping> methods = MethodIntrospector.selectMethods(targetClass,
+                    (MethodIntrospector.MetadataLookup<CommandMapping>) method ->
+                            AnnotatedElementUtils.findMergedAnnotation(method, CommandMapping.class));
+
+            methods.forEach((method, mapping) -> {
+                Route route = createRoute(bean, method, mapping);
+                for (String command : mapping.value()) {
+                    Route previous = collected.put(command, route);
+                    if (previous != null) {
+                        throw new IllegalStateException("Duplicate command mapping '" + command + "': "
+                                                        + previous.name + " and " + route.name);
+                    }
+                }
+            });
+        });
+
+        this.routes = Map.copyOf(collected);
+        log.info("✅ Command registry initialized: {} commands and aliases", routes.size());
+    }
+
+    private Route createRoute(Object bean, Method method, CommandMapping mapping) {
+        String name = method.getDeclaringClass().getSimpleName() + "." + method.getName();
+
+        if (!Modifier.isPublic(method.getModifiers())
+            || method.getParameterCount() != 1
+            || method.getParameterTypes()[0] != CommandContext.class) {
+            throw new IllegalStateException("Command handler " + name
+                                            + " must be public and accept a single CommandContext");
+        }
+
+        try {
+            ReflectionUtils.makeAccessible(method);
+            MethodHandle handle = MethodHandles.lookup()
+                    .unreflect(method)
+                    .bindTo(bean);
+            return new Route(name, handle, mapping.ownerOnly(), mapping.messageOnly(), mapping.callbackAnswer());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot access command handler " + name, e);
+        }
+    }
+
+    /**
+     * Ищет обработчик для текста сообщения или callback-данных
+     *
+     * @return найденный обработчик или null
+     */
+    public Match resolve(String text) {
+        if (text == null || text.isEmpty()) {
+            return null;
+        }
+
+        Route exact = routes.get(text);
+        if (exact != null) {
+            return new Match(exact, text.length());
+        }
+
+        int end = 0;
+        while (end < text.length() && !Character.isWhitespace(text.charAt(end))) {
+            end++;
+        }
+
+        int tokenEnd = end;
+        int at = text.indexOf('@');
+        if (at > 0 && at < end) {
+            tokenEnd = at;
+        }
+        if (tokenEnd == text.length()) {
+            return null;
+        }
+
+        Route route = routes.get(text.substring(0, tokenEnd));
+        return route != null ? new Match(route, end) : null;
+    }
+
+    public int size() {
+        return routes.size();
+    }
+
+    /**
+     * Зарегистрированный обработчик команды
+     */
+    public static final class Route {
+        private final String name;
+        private final MethodHandle handle;
+        private final boolean ownerOnly;
+        private final boolean messageOnly;
+        private final String callbackAnswer;
+
+        private Route(String name, MethodHandle handle, boolean ownerOnly, boolean messageOnly,
+                      String callbackAnswer) {
+            this.name = name;
+            this.handle = handle;
+            this.ownerOnly = ownerOnly;
+            this.messageOnly = messageOnly;
+            this.callbackAnswer = callbackAnswer;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isOwnerOnly() {
+            return ownerOnly;
+        }
+
+        public boolean isMessageOnly() {
+            return messageOnly;
+        }
+
+        public String getCallbackAnswer() {
+            return callbackAnswer;
+        }
+
+        public void invoke(CommandContext context) {
+            try {
+                handle.invoke(context);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Command handler " + name + " failed", e);
+            }
+        }
+    }
+
+    /**
+     * Результат поиска: обработчик и начало аргументов в тексте
+     */
+    public record Match(Route route, int argsStart) {
+
+        public CommandContext forMessage(Message message, String text) {
+            return new CommandContext(message.getChatId(), message.getFrom().getId(), text,
+                    argsStart, message, null);
+        }
+
+        /**
+         * @throws IllegalStateException если команда вызывается только сообщением
+         */
+        public CommandContext forCallback(CallbackQuery callbackQuery) {
+            if (route.isMessageOnly()) {
+                throw new IllegalStateException("Command handler " + route.getName() + " accepts only messages");
+            }
+            return new CommandContext(callbackQuery.getMessage().getChatId(), callbackQuery.getFrom().getId(),
+                    callbackQuery.getData(), argsStart, null, callbackQuery);
+        }
+    }
+}
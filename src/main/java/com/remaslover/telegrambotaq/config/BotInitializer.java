@@ -8,6 +8,7 @@ import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 import org.telegram.telegrambots.meta.TelegramBotsApi;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
 
@@ -17,13 +18,47 @@ public class BotInitializer {
     private static final Logger log = LoggerFactory.getLogger(BotInitializer.class);
 
     private final TelegramBotService bot;
+    private final TelegramBotConfig config;
+    private final WebhookConfig webhookConfig;
 
-    public BotInitializer(TelegramBotService bot) {
+    public BotInitializer(TelegramBotService bot, TelegramBotConfig config, WebhookConfig webhookConfig) {
         this.bot = bot;
+        this.config = config;
+        this.webhookConfig = webhookConfig;
     }
 
     @EventListener(ContextRefreshedEvent.class)
     public void init() {
+        if (config.isWebhookMode()) {
+            initWebhook();
+        } else {
+            initLongPolling();
+        }
+    }
+
+    /**
+     * Регистрирует webhook: обновления будет присылать сам Telegram
+     * на эндпоинт встроенного Tomcat
+     */
+    private void initWebhook() {
+        log.info("Initializing Telegram Bot in webhook mode...");
+
+        webhookConfig.validate();
+
+        SetWebhook setWebhook = new SetWebhook(webhookConfig.getWebhookUrl());
+        setWebhook.setSecretToken(webhookConfig.getSecretToken());
+        setWebhook.setMaxConnections(webhookConfig.getMaxConnections());
+        setWebhook.setDropPendingUpdates(webhookConfig.isDropPendingUpdates());
+
+        try {
+            bot.execute(setWebhook);
+            log.info("✅ Webhook registered: {}", webhookConfig.getWebhookUrl());
+        } catch (TelegramApiException e) {
+            log.error("❌ Failed to register webhook: {}", e.getMessage(), e);
+        }
+    }
+
+    private void initLongPolling() {
         log.info("Initializing Telegram Bot...");
 
         TelegramBotsApi botsApi;
@@ -60,4 +95,4 @@ public class BotInitializer {
             log.error("❌ Failed to register bot after retry: {}", e.getMessage());
         }
     }
-}
\ No newline at end of file
+}
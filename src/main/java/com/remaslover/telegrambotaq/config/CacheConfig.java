@@ -1,6 +1,8 @@
 package com.remaslover.telegrambotaq.config;
 
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.validation.annotation.Validated;
 
@@ -8,13 +10,29 @@ import java.util.concurrent.TimeUnit;
 
 @Validated
 @Configuration
+@ConfigurationProperties(prefix = "context.cache")
 public class CacheConfig {
+    public static final String ASSEMBLY_TOKEN_BUDGET = "token-budget";
+    public static final String ASSEMBLY_MESSAGE_COUNT = "message-count";
+    public static final String EVICTION_SIZE_BASED = "size-based";
+    public static final String EVICTION_TIME_BASED = "time-based";
+    public static final String EVICTION_WEIGHT_BASED = "weight-based";
+
+    private static final long BYTES_PER_MB = 1024L * 1024L;
+
     private int maxSize = 1000;
     private int ttlMinutes = 30;
     private int historySize = 10;
     private boolean enableStats = true;
     private boolean recordStats = true;
-    private String evictionPolicy = "size-based";
+    private String evictionPolicy = EVICTION_SIZE_BASED;
+    private int maxWeightMb = 64;
+    private String assemblyMode = ASSEMBLY_TOKEN_BUDGET;
+    private int promptTokenBudget = 3000;
+    private boolean summarizeEnabled = true;
+    private int summarizeThreshold = 8;
+    private int keepRecentMessages = 4;
+    private boolean utf8Content = false;
 
     public int getMaxSize() {
         return maxSize;
@@ -70,25 +88,137 @@ public class CacheConfig {
     }
 
     public void setEvictionPolicy(String evictionPolicy) {
+        if (!EVICTION_SIZE_BASED.equalsIgnoreCase(evictionPolicy)
+                && !EVICTION_TIME_BASED.equalsIgnoreCase(evictionPolicy)
+                && !EVICTION_WEIGHT_BASED.equalsIgnoreCase(evictionPolicy)) {
+            throw new IllegalArgumentException("evictionPolicy must be size-based, time-based or weight-based");
+        }
         this.evictionPolicy = evictionPolicy;
     }
 
+    /**
+     * Кэш ограничен суммарным весом записей (оценка байт), а не числом пользователей
+     */
+    public boolean isWeightBased() {
+        return EVICTION_WEIGHT_BASED.equalsIgnoreCase(evictionPolicy);
+    }
+
+    public int getMaxWeightMb() {
+        return maxWeightMb;
+    }
+
+    public void setMaxWeightMb(int maxWeightMb) {
+        if (maxWeightMb <= 0) {
+            throw new IllegalArgumentException("maxWeightMb must be greater than 0");
+        }
+        this.maxWeightMb = maxWeightMb;
+    }
+
+    public long getMaxWeightBytes() {
+        return maxWeightMb * BYTES_PER_MB;
+    }
+
+    public String getAssemblyMode() {
+        return assemblyMode;
+    }
+
+    public void setAssemblyMode(String assemblyMode) {
+        if (!ASSEMBLY_TOKEN_BUDGET.equalsIgnoreCase(assemblyMode)
+                && !ASSEMBLY_MESSAGE_COUNT.equalsIgnoreCase(assemblyMode)) {
+            throw new IllegalArgumentException("assemblyMode must be token-budget or message-count");
+        }
+        this.assemblyMode = assemblyMode;
+    }
+
+    public boolean isTokenBudgetAssembly() {
+        return ASSEMBLY_TOKEN_BUDGET.equalsIgnoreCase(assemblyMode);
+    }
+
+    public int getPromptTokenBudget() {
+        return promptTokenBudget;
+    }
+
+    public void setPromptTokenBudget(int promptTokenBudget) {
+        if (promptTokenBudget <= 0) {
+            throw new IllegalArgumentException("promptTokenBudget must be greater than 0");
+        }
+        this.promptTokenBudget = promptTokenBudget;
+    }
+
+    public boolean isSummarizeEnabled() {
+        return summarizeEnabled;
+    }
+
+    public void setSummarizeEnabled(boolean summarizeEnabled) {
+        this.summarizeEnabled = summarizeEnabled;
+    }
+
+    public int getSummarizeThreshold() {
+        return summarizeThreshold;
+    }
+
+    public void setSummarizeThreshold(int summarizeThreshold) {
+        if (summarizeThreshold <= 1) {
+            throw new IllegalArgumentException("summarizeThreshold must be greater than 1");
+        }
+        this.summarizeThreshold = summarizeThreshold;
+    }
+
+    public int getKeepRecentMessages() {
+        return keepRecentMessages;
+    }
+
+    public void setKeepRecentMessages(int keepRecentMessages) {
+        if (keepRecentMessages <= 0) {
+            throw new IllegalArgumentException("keepRecentMessages must be greater than 0");
+        }
+        this.keepRecentMessages = keepRecentMessages;
+    }
+
+    /**
+     * Хранить текст сообщений как UTF-8 byte[] вместо String: минус заголовок String
+     * на сообщение ценой декодирования при чтении. Для кириллицы размер данных тот же.
+     */
+    public boolean isUtf8Content() {
+        return utf8Content;
+    }
+
+    public void setUtf8Content(boolean utf8Content) {
+        this.utf8Content = utf8Content;
+    }
+
+    /**
+     * Создает builder кэша по настройкам. В режиме weight-based задается
+     * maximumWeight, и вызывающий обязан добавить weigher.
+     * Scheduler удаляет истекшие записи по таймеру, а не только при следующем обращении к кэшу.
+     */
     public Caffeine<Object, Object> createCaffeineBuilder() {
-        Caffeine<Object, Object> builder = Caffeine.newBuilder();
+        return createCaffeineBuilder(TimeUnit.MINUTES.toSeconds(ttlMinutes));
+    }
+
+    /**
+     * То же, но записи истекают после expireAfterAccessSeconds без обращений
+     * (например, раньше ttlMinutes, если за кэшем стоит холодный уровень)
+     */
+    public Caffeine<Object, Object> createCaffeineBuilder(long expireAfterAccessSeconds) {
+        Caffeine<Object, Object> builder = Caffeine.newBuilder()
+                .scheduler(Scheduler.systemScheduler());
 
-        if (maxSize > 0) {
+        if (isWeightBased()) {
+            builder.maximumWeight(getMaxWeightBytes());
+        } else if (maxSize > 0) {
             builder.maximumSize(maxSize);
         }
 
-        if (ttlMinutes > 0) {
-            builder.expireAfterAccess(ttlMinutes, TimeUnit.MINUTES);
+        if (expireAfterAccessSeconds > 0) {
+            builder.expireAfterAccess(expireAfterAccessSeconds, TimeUnit.SECONDS);
         }
 
         if (recordStats) {
             builder.recordStats();
         }
 
-        if ("time-based".equalsIgnoreCase(evictionPolicy)) {
+        if (EVICTION_TIME_BASED.equalsIgnoreCase(evictionPolicy)) {
             builder.expireAfterWrite(ttlMinutes * 2L, TimeUnit.MINUTES);
         }
 
@@ -102,9 +232,16 @@ public class CacheConfig {
                         - TTL: %d minutes
                         - History size: %d messages per user
                         - Statistics enabled: %s
-                        - Eviction policy: %s
+                        - Eviction policy: %s%s
+                        - Context assembly: %s (prompt budget: %d tokens)
+                        - Summarization: %s (threshold: %d messages, keep recent: %d)
+                        - Message content: %s
                         """,
-                maxSize, ttlMinutes, historySize, enableStats, evictionPolicy
+                maxSize, ttlMinutes, historySize, enableStats, evictionPolicy,
+                isWeightBased() ? " (max weight: " + maxWeightMb + " MB)" : "",
+                assemblyMode, promptTokenBudget,
+                summarizeEnabled ? "enabled" : "disabled", summarizeThreshold, keepRecentMessages,
+                utf8Content ? "UTF-8 bytes" : "String"
         );
     }
 
@@ -121,6 +258,9 @@ public class CacheConfig {
         if (historySize <= 0) {
             throw new IllegalStateException("historySize must be positive");
         }
+        if (keepRecentMessages >= summarizeThreshold) {
+            throw new IllegalStateException("keepRecentMessages must be less than summarizeThreshold");
+        }
     }
 
 
@@ -135,7 +275,14 @@ public class CacheConfig {
         private int historySize = 10;
         private boolean enableStats = true;
         private boolean recordStats = true;
-        private String evictionPolicy = "size-based";
+        private String evictionPolicy = EVICTION_SIZE_BASED;
+        private int maxWeightMb = 64;
+        private String assemblyMode = ASSEMBLY_TOKEN_BUDGET;
+        private int promptTokenBudget = 3000;
+        private boolean summarizeEnabled = true;
+        private int summarizeThreshold = 8;
+        private int keepRecentMessages = 4;
+        private boolean utf8Content = false;
 
         private Builder() {
         }
@@ -170,6 +317,41 @@ public class CacheConfig {
             return this;
         }
 
+        public Builder maxWeightMb(int maxWeightMb) {
+            this.maxWeightMb = maxWeightMb;
+            return this;
+        }
+
+        public Builder assemblyMode(String assemblyMode) {
+            this.assemblyMode = assemblyMode;
+            return this;
+        }
+
+        public Builder promptTokenBudget(int promptTokenBudget) {
+            this.promptTokenBudget = promptTokenBudget;
+            return this;
+        }
+
+        public Builder summarizeEnabled(boolean summarizeEnabled) {
+            this.summarizeEnabled = summarizeEnabled;
+            return this;
+        }
+
+        public Builder summarizeThreshold(int summarizeThreshold) {
+            this.summarizeThreshold = summarizeThreshold;
+            return this;
+        }
+
+        public Builder keepRecentMessages(int keepRecentMessages) {
+            this.keepRecentMessages = keepRecentMessages;
+            return this;
+        }
+
+        public Builder utf8Content(boolean utf8Content) {
+            this.utf8Content = utf8Content;
+            return this;
+        }
+
         public CacheConfig build() {
             CacheConfig config = new CacheConfig();
             config.setMaxSize(this.maxSize);
@@ -178,6 +360,13 @@ public class CacheConfig {
             config.setEnableStats(this.enableStats);
             config.setRecordStats(this.recordStats);
             config.setEvictionPolicy(this.evictionPolicy);
+            config.setMaxWeightMb(this.maxWeightMb);
+            config.setAssemblyMode(this.assemblyMode);
+            config.setPromptTokenBudget(this.promptTokenBudget);
+            config.setSummarizeEnabled(this.summarizeEnabled);
+            config.setSummarizeThreshold(this.summarizeThreshold);
+            config.setKeepRecentMessages(this.keepRecentMessages);
+            config.setUtf8Content(this.utf8Content);
             config.validate();
             return config;
         }
@@ -0,0 +1,90 @@
+package com.remaslover.telegrambotaq.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.zip.Deflater;
+
+/**
+ * Настройки холодного уровня кэша разговоров.
+ * <p>
+ * Разговор, к которому не обращались idle-seconds, вытесняется из основного кэша
+ * и сжимается (Deflate) в холодный уровень. При следующем обращении он распаковывается
+ * обратно. Холодный уровень ограничен max-mb сжатых байт и хранит разговор ttl-minutes.
+ * off-heap: сжатые данные лежат в direct ByteBuffer вне кучи.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "context.cold-tier")
+public class ColdTierConfig {
+
+    private boolean enabled = false;
+    private int idleSeconds = 120;
+    private int ttlMinutes = 240;
+    private int maxMb = 64;
+    private boolean offHeap = false;
+    private int compressionLevel = Deflater.BEST_SPEED;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getIdleSeconds() {
+        return idleSeconds;
+    }
+
+    public void setIdleSeconds(int idleSeconds) {
+        if (idleSeconds <= 0) {
+            throw new IllegalArgumentException("idleSeconds must be greater than 0");
+        }
+        this.idleSeconds = idleSeconds;
+    }
+
+    public int getTtlMinutes() {
+        return ttlMinutes;
+    }
+
+    public void setTtlMinutes(int ttlMinutes) {
+        if (ttlMinutes <= 0) {
+            throw new IllegalArgumentException("ttlMinutes must be greater than 0");
+        }
+        this.ttlMinutes = ttlMinutes;
+    }
+
+    public int getMaxMb() {
+        return maxMb;
+    }
+
+    public void setMaxMb(int maxMb) {
+        if (maxMb <= 0) {
+            throw new IllegalArgumentException("maxMb must be greater than 0");
+        }
+        this.maxMb = maxMb;
+    }
+
+    public long getMaxBytes() {
+        return maxMb * 1024L * 1024L;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < Deflater.BEST_SPEED || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("compressionLevel must be between 1 and 9");
+        }
+        this.compressionLevel = compressionLevel;
+    }
+}
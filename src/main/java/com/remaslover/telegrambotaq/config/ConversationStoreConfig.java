@@ -0,0 +1,87 @@
+package com.remaslover.telegrambotaq.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Настройки хранилища разговоров.
+ * <p>
+ * type: memory - только в памяти процесса, postgres - таблица conversation_state.
+ * Изменения пишутся в хранилище не на каждое сообщение, а пачками раз в flush-interval-ms
+ * (или раньше, если накопилось batch-size изменений).
+ * <p>
+ * Хранилище memory ограничено: разговор без изменений дольше memory-ttl-minutes
+ * удаляется, а при превышении memory-max-mb (оценка) вытесняются редко используемые.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "context.store")
+public class ConversationStoreConfig {
+
+    public static final String TYPE_MEMORY = "memory";
+    public static final String TYPE_POSTGRES = "postgres";
+
+    private String type = TYPE_MEMORY;
+    private long flushIntervalMs = 2000;
+    private int batchSize = 200;
+    private long memoryTtlMinutes = 1440;
+    private int memoryMaxMb = 64;
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        if (!TYPE_MEMORY.equals(type) && !TYPE_POSTGRES.equals(type)) {
+            throw new IllegalArgumentException("type must be '" + TYPE_MEMORY + "' or '" + TYPE_POSTGRES + "'");
+        }
+        this.type = type;
+    }
+
+    public long getFlushIntervalMs() {
+        return flushIntervalMs;
+    }
+
+    public void setFlushIntervalMs(long flushIntervalMs) {
+        if (flushIntervalMs < 100) {
+            throw new IllegalArgumentException("flushIntervalMs must be at least 100");
+        }
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be greater than 0");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public long getMemoryTtlMinutes() {
+        return memoryTtlMinutes;
+    }
+
+    public void setMemoryTtlMinutes(long memoryTtlMinutes) {
+        if (memoryTtlMinutes <= 0) {
+            throw new IllegalArgumentException("memoryTtlMinutes must be greater than 0");
+        }
+        this.memoryTtlMinutes = memoryTtlMinutes;
+    }
+
+    public int getMemoryMaxMb() {
+        return memoryMaxMb;
+    }
+
+    public void setMemoryMaxMb(int memoryMaxMb) {
+        if (memoryMaxMb <= 0) {
+            throw new IllegalArgumentException("memoryMaxMb must be greater than 0");
+        }
+        this.memoryMaxMb = memoryMaxMb;
+    }
+
+    public long getMemoryMaxBytes() {
+        return memoryMaxMb * 1024L * 1024L;
+    }
+}
@@ -0,0 +1,94 @@
+package com.remaslover.telegrambotaq.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Настройки диспетчера входящих обновлений.
+ * Внутри одного чата порядок обработки сохраняется, разные чаты обрабатываются параллельно.
+ * <p>
+ * Режимы исполнения:
+ * <ul>
+ *     <li>virtual - каждый обработчик выполняется в отдельном виртуальном потоке,
+ *     число одновременных обработчиков ограничено только maxInFlight</li>
+ *     <li>platform - фиксированный набор дорожек (lanes) с платформенными потоками,
+ *     обновления распределяются по chatId</li>
+ * </ul>
+ */
+@Configuration
+@ConfigurationProperties(prefix = "bot.dispatcher")
+public class DispatcherConfig {
+
+    private ExecutionMode executionMode = ExecutionMode.VIRTUAL;
+    private int maxInFlight = 10_000;
+    private int lanes = Runtime.getRuntime().availableProcessors() * 2;
+    private int queueCapacity = 500;
+    private int shutdownTimeoutSeconds = 10;
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    public void setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be greater than 0");
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    public int getLanes() {
+        return lanes;
+    }
+
+    public void setLanes(int lanes) {
+        if (lanes <= 0) {
+            throw new IllegalArgumentException("lanes must be greater than 0");
+        }
+        this.lanes = lanes;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queueCapacity must be greater than 0");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getShutdownTimeoutSeconds() {
+        return shutdownTimeoutSeconds;
+    }
+
+    public void setShutdownTimeoutSeconds(int shutdownTimeoutSeconds) {
+        this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
+    }
+
+    public String getConfigSummary() {
+        return String.format("""
+                        Dispatcher Configuration:
+                        - Execution mode: %s
+                        - Max in-flight updates (virtual): %d
+                        - Lanes (platform): %d
+                        - Queue capacity per lane (platform): %d
+                        - Shutdown timeout: %d seconds
+                        """,
+                executionMode, maxInFlight, lanes, queueCapacity, shutdownTimeoutSeconds
+        );
+    }
+
+    public enum ExecutionMode {
+        VIRTUAL,
+        PLATFORM
+    }
+}
@@ -0,0 +1,211 @@
+package com.remaslover.telegrambotaq.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.http.client.reactive.JdkClientHttpConnector;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * Общий HTTP клиент для всех внешних API (OpenRouter, NewsAPI, самопинг).
+ * <p>
+ * Один {@link HttpClient} с пулом keep-alive соединений и HTTP/2 (с откатом на HTTP/1.1):
+ * повторные запросы к одному хосту переиспользуют TLS соединение.
+ * Для каждого внешнего сервиса свой профиль таймаутов; таймаут чтения
+ * ограничивает весь обмен, включая чтение тела ответа, поэтому зависший сокет
+ * не держит поток бесконечно.
+ * <p>
+ * Потоковые ответы Spring AI идут через WebClient поверх того же {@link HttpClient}
+ * ({@link JdkClientHttpConnector}), отдельный сетевой стек не создается.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "app.http")
+public class HttpClientConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(HttpClientConfig.class);
+
+    private static final String KEEP_ALIVE_PROPERTY = "jdk.httpclient.keepalive.timeout";
+
+    public static final String OPENROUTER = "openrouter";
+    public static final String NEWS = "news";
+    public static final String PING = "ping";
+
+    private int connectTimeoutMs = 5000;
+    private int keepAliveSeconds = 300;
+    private boolean http2 = true;
+    private boolean gzip = true;
+    private Map<String, Profile> profiles = new HashMap<>(Map.of(
+            OPENROUTER, new Profile(90_000),
+            NEWS, new Profile(10_000),
+            PING, new Profile(3_000)
+    ));
+
+    @Bean
+    public HttpClient upstreamHttpClient() {
+        // JDK читает это свойство один раз, при загрузке пула соединений первого HttpClient
+        // в процессе. Если какая-то библиотека создала клиент раньше этого бина, значение
+        // отсюда не подействует, поэтому в Dockerfile оно задано еще и опцией JVM.
+        if (System.getProperty(KEEP_ALIVE_PROPERTY) == null) {
+            System.setProperty(KEEP_ALIVE_PROPERTY, String.valueOf(keepAliveSeconds));
+        }
+
+        log.info(getConfigSummary());
+
+        return HttpClient.newBuilder()
+                .version(http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    @Bean
+    public JdkClientHttpRequestFactory openRouterRequestFactory(
+            @Qualifier("upstreamHttpClient") HttpClient httpClient) {
+        return createRequestFactory(httpClient, OPENROUTER);
+    }
+
+    @Bean
+    public JdkClientHttpConnector openRouterHttpConnector(
+            @Qualifier("upstreamHttpClient") HttpClient httpClient) {
+        JdkClientHttpConnector connector = new JdkClientHttpConnector(httpClient);
+        connector.setReadTimeout(Duration.ofMillis(getProfile(OPENROUTER).getReadTimeoutMs()));
+        return connector;
+    }
+
+    @Bean
+    public RestTemplate openRouterRestTemplate(
+            @Qualifier("openRouterRequestFactory") JdkClientHttpRequestFactory requestFactory) {
+        return createRestTemplate(requestFactory);
+    }
+
+    @Bean
+    public RestTemplate newsRestTemplate(@Qualifier("upstreamHttpClient") HttpClient httpClient) {
+        return createRestTemplate(createRequestFactory(httpClient, NEWS));
+    }
+
+    @Bean
+    public RestTemplate pingRestTemplate(@Qualifier("upstreamHttpClient") HttpClient httpClient) {
+        return createRestTemplate(createRequestFactory(httpClient, PING));
+    }
+
+    private JdkClientHttpRequestFactory createRequestFactory(HttpClient httpClient, String profileName) {
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient);
+        requestFactory.setReadTimeout(Duration.ofMillis(getProfile(profileName).getReadTimeoutMs()));
+        return requestFactory;
+    }
+
+    private RestTemplate createRestTemplate(JdkClientHttpRequestFactory requestFactory) {
+        RestTemplate restTemplate = new RestTemplate(requestFactory);
+        if (gzip) {
+            restTemplate.getInterceptors().add(new GzipResponseInterceptor());
+        }
+        return restTemplate;
+    }
+
+    public Profile getProfile(String name) {
+        Profile profile = profiles.get(name);
+        if (profile == null) {
+            throw new IllegalArgumentException("Unknown HTTP client profile: " + name);
+        }
+        return profile;
+    }
+
+    public int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    public void setConnectTimeoutMs(int connectTimeoutMs) {
+        if (connectTimeoutMs <= 0) {
+            throw new IllegalArgumentException("connectTimeoutMs must be greater than 0");
+        }
+        this.connectTimeoutMs = connectTimeoutMs;
+    }
+
+    public int getKeepAliveSeconds() {
+        return keepAliveSeconds;
+    }
+
+    public void setKeepAliveSeconds(int keepAliveSeconds) {
+        if (keepAliveSeconds <= 0) {
+            throw new IllegalArgumentException("keepAliveSeconds must be greater than 0");
+        }
+        this.keepAliveSeconds = keepAliveSeconds;
+    }
+
+    public boolean isHttp2() {
+        return http2;
+    }
+
+    public void setHttp2(boolean http2) {
+        this.http2 = http2;
+    }
+
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    public Map<String, Profile> getProfiles() {
+        return profiles;
+    }
+
+    public void setProfiles(Map<String, Profile> profiles) {
+        this.profiles.putAll(profiles);
+    }
+
+    public String getConfigSummary() {
+        return String.format("""
+                        HTTP Client Configuration:
+                        - Protocol: %s
+                        - Connect timeout: %d ms
+                        - Keep-alive: %d seconds
+                        - Gzip: %s
+                        - Read timeout (openrouter/news/ping): %d/%d/%d ms
+                        """,
+                http2 ? "HTTP/2 (fallback HTTP/1.1)" : "HTTP/1.1",
+                connectTimeoutMs, keepAliveSeconds, gzip ? "enabled" : "disabled",
+                getProfile(OPENROUTER).getReadTimeoutMs(),
+                getProfile(NEWS).getReadTimeoutMs(),
+                getProfile(PING).getReadTimeoutMs()
+        );
+    }
+
+    /**
+     * Профиль таймаутов одного внешнего сервиса
+     */
+    public static class Profile {
+        private int readTimeoutMs;
+
+        public Profile() {
+        }
+
+        public Profile(int readTimeoutMs) {
+            this.readTimeoutMs = readTimeoutMs;
+        }
+
+        public int getReadTimeoutMs() {
+            return readTimeoutMs;
+        }
+
+        public void setReadTimeoutMs(int readTimeoutMs) {
+            if (readTimeoutMs <= 0) {
+                throw new IllegalArgumentException("readTimeoutMs must be greater than 0");
+            }
+            this.readTimeoutMs = readTimeoutMs;
+        }
+    }
+}
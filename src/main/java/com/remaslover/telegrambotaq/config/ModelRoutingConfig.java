@@ -0,0 +1,159 @@
+package com.remaslover.telegrambotaq.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Настройки выбора модели OpenRouter.
+ * <p>
+ * Основная модель (OPENROUTER_MODEL) всегда входит в список кандидатов первой.
+ * Модель, вернувшая 429/5xx или не ответившая вовремя, на время исключается
+ * из приоритета, и запрос повторяется на следующей модели.
+ * <p>
+ * Хеджирование: если ответ (или первый фрагмент потока) не пришел за наблюдаемую
+ * p95 задержку модели, отправляется второй такой же запрос. Доля таких
+ * дополнительных запросов ограничена hedgeBudgetPercent.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "app.openrouter.routing")
+public class ModelRoutingConfig {
+
+    private List<String> models = new ArrayList<>();
+    private String shortQuestionModel = "";
+    private int shortQuestionMaxChars = 200;
+    private int shortMaxTokens = 600;
+    private int maxTokens = 1500;
+    private int rateLimitCooldownSeconds = 60;
+    private int errorCooldownSeconds = 30;
+    private int invalidModelCooldownMinutes = 10;
+    private int latencyWindow = 128;
+    private int minLatencySamples = 3;
+    private boolean hedgeEnabled = true;
+    private int hedgeBudgetPercent = 10;
+    private long hedgeMinDelayMs = 300;
+
+    public List<String> getModels() {
+        return models;
+    }
+
+    public void setModels(List<String> models) {
+        this.models = models;
+    }
+
+    public String getShortQuestionModel() {
+        return shortQuestionModel;
+    }
+
+    public void setShortQuestionModel(String shortQuestionModel) {
+        this.shortQuestionModel = shortQuestionModel;
+    }
+
+    public int getShortQuestionMaxChars() {
+        return shortQuestionMaxChars;
+    }
+
+    public void setShortQuestionMaxChars(int shortQuestionMaxChars) {
+        if (shortQuestionMaxChars < 0) {
+            throw new IllegalArgumentException("shortQuestionMaxChars must not be negative");
+        }
+        this.shortQuestionMaxChars = shortQuestionMaxChars;
+    }
+
+    public int getShortMaxTokens() {
+        return shortMaxTokens;
+    }
+
+    public void setShortMaxTokens(int shortMaxTokens) {
+        if (shortMaxTokens <= 0) {
+            throw new IllegalArgumentException("shortMaxTokens must be greater than 0");
+        }
+        this.shortMaxTokens = shortMaxTokens;
+    }
+
+    public int getMaxTokens() {
+        return maxTokens;
+    }
+
+    public void setMaxTokens(int maxTokens) {
+        if (maxTokens <= 0) {
+            throw new IllegalArgumentException("maxTokens must be greater than 0");
+        }
+        this.maxTokens = maxTokens;
+    }
+
+    public int getRateLimitCooldownSeconds() {
+        return rateLimitCooldownSeconds;
+    }
+
+    public void setRateLimitCooldownSeconds(int rateLimitCooldownSeconds) {
+        this.rateLimitCooldownSeconds = rateLimitCooldownSeconds;
+    }
+
+    public int getErrorCooldownSeconds() {
+        return errorCooldownSeconds;
+    }
+
+    public void setErrorCooldownSeconds(int errorCooldownSeconds) {
+        this.errorCooldownSeconds = errorCooldownSeconds;
+    }
+
+    public int getInvalidModelCooldownMinutes() {
+        return invalidModelCooldownMinutes;
+    }
+
+    public void setInvalidModelCooldownMinutes(int invalidModelCooldownMinutes) {
+        this.invalidModelCooldownMinutes = invalidModelCooldownMinutes;
+    }
+
+    public int getLatencyWindow() {
+        return latencyWindow;
+    }
+
+    public void setLatencyWindow(int latencyWindow) {
+        if (latencyWindow <= 0) {
+            throw new IllegalArgumentException("latencyWindow must be greater than 0");
+        }
+        this.latencyWindow = latencyWindow;
+    }
+
+    public int getMinLatencySamples() {
+        return minLatencySamples;
+    }
+
+    public void setMinLatencySamples(int minLatencySamples) {
+        this.minLatencySamples = minLatencySamples;
+    }
+
+    public boolean isHedgeEnabled() {
+        return hedgeEnabled;
+    }
+
+    public void setHedgeEnabled(boolean hedgeEnabled) {
+        this.hedgeEnabled = hedgeEnabled;
+    }
+
+    public int getHedgeBudgetPercent() {
+        return hedgeBudgetPercent;
+    }
+
+    public void setHedgeBudgetPercent(int hedgeBudgetPercent) {
+        if (hedgeBudgetPercent < 0 || hedgeBudgetPercent > 100) {
+            throw new IllegalArgumentException("hedgeBudgetPercent must be between 0 and 100");
+        }
+        this.hedgeBudgetPercent = hedgeBudgetPercent;
+    }
+
+    public long getHedgeMinDelayMs() {
+        return hedgeMinDelayMs;
+    }
+
+    public void setHedgeMinDelayMs(long hedgeMinDelayMs) {
+        if (hedgeMinDelayMs < 0) {
+            throw new IllegalArgumentException("hedgeMinDelayMs must not be negative");
+        }
+        this.hedgeMinDelayMs = hedgeMinDelayMs;
+    }
+}
@@ -1,13 +1,19 @@
 package com.remaslover.telegrambotaq.config;
 
+import io.micrometer.observation.ObservationRegistry;
 import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.openai.OpenAiChatModel;
 import org.springframework.ai.openai.OpenAiChatOptions;
 import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.Resource;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.http.client.reactive.JdkClientHttpConnector;
+import org.springframework.retry.support.RetryTemplate;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.client.DefaultResponseErrorHandler;
@@ -15,14 +21,22 @@ import org.springframework.web.client.ResponseErrorHandler;
 import org.springframework.web.client.RestClient;
 import org.springframework.web.reactive.function.client.WebClient;
 
+/**
+ * Клиент Spring AI для OpenRouter.
+ * <p>
+ * Автоконфигурация моделей Spring AI отключена (spring.ai.model.*: none):
+ * вместо нее здесь один {@link OpenAiApi} на общем JDK HttpClient и одна
+ * {@link OpenAiChatModel}. Повторы Spring AI выключены - переключение моделей,
+ * хеджирование и выключатель уже есть в OpenRouterService.
+ */
 @Configuration
 public class OpenRouterConfig {
 
     @Value("${OPENROUTER_API_KEY:}")
     private String apiKey;
 
-    @Value("${OPENROUTER_BASE_URL}")
-    private String baseUrl;
+    @Value("${app.openrouter.api-url:https://openrouter.ai/api/v1}")
+    private String baseUrl = "https://openrouter.ai/api/v1";
 
     @Value("${OPENROUTER_MODEL}")
     private String model;
@@ -34,31 +48,34 @@ public class OpenRouterConfig {
     }
 
     @Bean
-    public OpenAiApi openAiApi(ResponseErrorHandler responseErrorHandler) {
+    public SystemPrompt systemPrompt(@Value("classpath:prompts/system-prompt.txt") Resource resource) {
+        return SystemPrompt.load(resource);
+    }
+
+    @Bean
+    public OpenAiApi openAiApi(ResponseErrorHandler responseErrorHandler,
+                               @Qualifier("openRouterRequestFactory") JdkClientHttpRequestFactory requestFactory,
+                               @Qualifier("openRouterHttpConnector") JdkClientHttpConnector httpConnector) {
         MultiValueMap<String, String> headers = new LinkedMultiValueMap<>();
-        headers.add("Authorization", "Bearer " + apiKey);
         headers.add("HTTP-Referer", "https://t.me/OfficialAnswerToQuestionBot");
         headers.add("X-Title", "OfficialAnswerToQuestionBot");
 
         RestClient.Builder restClientBuilder = RestClient.builder()
-                .baseUrl(baseUrl)
-                .defaultHeaders(httpHeaders -> httpHeaders.addAll(headers))
+                .requestFactory(requestFactory)
                 .defaultStatusHandler(responseErrorHandler);
 
         WebClient.Builder webClientBuilder = WebClient.builder()
-                .baseUrl(baseUrl)
-                .defaultHeaders(httpHeaders -> httpHeaders.addAll(headers));
+                .clientConnector(httpConnector);
 
-        return new OpenAiApi(
-                baseUrl,
-                () -> apiKey,
-                headers,
-                "/chat/completions",
-                "/embeddings",
-                restClientBuilder,
-                webClientBuilder,
-                responseErrorHandler
-        );
+        return OpenAiApi.builder()
+                .baseUrl(baseUrl)
+                .apiKey(() -> apiKey)
+                .headers(headers)
+                .completionsPath("/chat/completions")
+                .restClientBuilder(restClientBuilder)
+                .webClientBuilder(webClientBuilder)
+                .responseErrorHandler(responseErrorHandler)
+                .build();
     }
 
     @Bean
@@ -71,32 +88,19 @@ public class OpenRouterConfig {
     }
 
     @Bean
-    public ChatClient chatClient(ChatModel chatModel) {
-        return ChatClient.builder(chatModel)
-                .defaultSystem("""
-                        You are a helpful assistant in a Telegram bot.
-                        
-                        IMPORTANT: ALWAYS RESPOND IN THE SAME LANGUAGE AS THE USER'S QUESTION.
-                        If the user writes in English - answer in English.
-                        If the user writes in Russian - answer in Russian.
-                        If the user writes in Spanish - answer in Spanish.
-                        And so on for all languages.
-                        
-                        CRITICAL: NEVER escape characters in your response!
-                        DO NOT use backslashes before dots, brackets, exclamation marks.
-                        DO NOT escape Markdown symbols: *, _, `, [, ], (, ), ~, >, #, +, -, =, |, {, }, ., !
-                        
-                        Use clean symbols without escaping for formatting:
-                        • Bold: **text**
-                        • Italic: *text*
-                        • Code: `code` or ```language code```
-                        • Links: [text](url)
-                        
-                        Be friendly and helpful to users.
-                        If the question is unclear or needs clarification - politely ask for clarification.
-                        Maximum response length: 1500 characters.
-                        Remember conversation context and consider previous messages.
-                        """)
+    public OpenAiChatModel openRouterChatModel(OpenAiApi openAiApi, OpenAiChatOptions openAiChatOptions) {
+        return OpenAiChatModel.builder()
+                .openAiApi(openAiApi)
+                .defaultOptions(openAiChatOptions)
+                .retryTemplate(RetryTemplate.builder().maxAttempts(1).build())
+                .observationRegistry(ObservationRegistry.NOOP)
+                .build();
+    }
+
+    @Bean
+    public ChatClient chatClient(OpenAiChatModel openRouterChatModel, SystemPrompt systemPrompt) {
+        return ChatClient.builder(openRouterChatModel)
+                .defaultSystem(systemPrompt.text())
                 .build();
     }
-}
\ No newline at end of file
+}
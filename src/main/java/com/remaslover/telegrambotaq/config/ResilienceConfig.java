@@ -0,0 +1,141 @@
+package com.remaslover.telegrambotaq.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Настройки защиты вызовов OpenRouter: автоматический выключатель (circuit breaker)
+ * и адаптивный лимит одновременных запросов (AIMD).
+ */
+@Configuration
+@ConfigurationProperties(prefix = "app.openrouter.resilience")
+public class ResilienceConfig {
+
+    private int breakerWindow = 20;
+    private int breakerMinCalls = 10;
+    private int breakerFailureRatePercent = 50;
+    private int breakerConsecutiveFailures = 5;
+    private int breakerOpenSeconds = 30;
+    private int breakerMaxOpenSeconds = 300;
+    private int halfOpenProbes = 1;
+
+    private int limiterInitialLimit = 4;
+    private int limiterMinLimit = 1;
+    private int limiterMaxLimit = 32;
+    private double limiterBackoffRatio = 0.5;
+    private long limiterAcquireTimeoutMs = 3000;
+
+    public int getBreakerWindow() {
+        return breakerWindow;
+    }
+
+    public void setBreakerWindow(int breakerWindow) {
+        if (breakerWindow <= 0) {
+            throw new IllegalArgumentException("breakerWindow must be greater than 0");
+        }
+        this.breakerWindow = breakerWindow;
+    }
+
+    public int getBreakerMinCalls() {
+        return breakerMinCalls;
+    }
+
+    public void setBreakerMinCalls(int breakerMinCalls) {
+        this.breakerMinCalls = breakerMinCalls;
+    }
+
+    public int getBreakerFailureRatePercent() {
+        return breakerFailureRatePercent;
+    }
+
+    public void setBreakerFailureRatePercent(int breakerFailureRatePercent) {
+        if (breakerFailureRatePercent <= 0 || breakerFailureRatePercent > 100) {
+            throw new IllegalArgumentException("breakerFailureRatePercent must be between 1 and 100");
+        }
+        this.breakerFailureRatePercent = breakerFailureRatePercent;
+    }
+
+    public int getBreakerConsecutiveFailures() {
+        return breakerConsecutiveFailures;
+    }
+
+    public void setBreakerConsecutiveFailures(int breakerConsecutiveFailures) {
+        this.breakerConsecutiveFailures = breakerConsecutiveFailures;
+    }
+
+    public int getBreakerOpenSeconds() {
+        return breakerOpenSeconds;
+    }
+
+    public void setBreakerOpenSeconds(int breakerOpenSeconds) {
+        if (breakerOpenSeconds <= 0) {
+            throw new IllegalArgumentException("breakerOpenSeconds must be greater than 0");
+        }
+        this.breakerOpenSeconds = breakerOpenSeconds;
+    }
+
+    public int getBreakerMaxOpenSeconds() {
+        return breakerMaxOpenSeconds;
+    }
+
+    public void setBreakerMaxOpenSeconds(int breakerMaxOpenSeconds) {
+        this.breakerMaxOpenSeconds = breakerMaxOpenSeconds;
+    }
+
+    public int getHalfOpenProbes() {
+        return halfOpenProbes;
+    }
+
+    public void setHalfOpenProbes(int halfOpenProbes) {
+        if (halfOpenProbes <= 0) {
+            throw new IllegalArgumentException("halfOpenProbes must be greater than 0");
+        }
+        this.halfOpenProbes = halfOpenProbes;
+    }
+
+    public int getLimiterInitialLimit() {
+        return limiterInitialLimit;
+    }
+
+    public void setLimiterInitialLimit(int limiterInitialLimit) {
+        this.limiterInitialLimit = limiterInitialLimit;
+    }
+
+    public int getLimiterMinLimit() {
+        return limiterMinLimit;
+    }
+
+    public void setLimiterMinLimit(int limiterMinLimit) {
+        if (limiterMinLimit <= 0) {
+            throw new IllegalArgumentException("limiterMinLimit must be greater than 0");
+        }
+        this.limiterMinLimit = limiterMinLimit;
+    }
+
+    public int getLimiterMaxLimit() {
+        return limiterMaxLimit;
+    }
+
+    public void setLimiterMaxLimit(int limiterMaxLimit) {
+        this.limiterMaxLimit = limiterMaxLimit;
+    }
+
+    public double getLimiterBackoffRatio() {
+        return limiterBackoffRatio;
+    }
+
+    public void setLimiterBackoffRatio(double limiterBackoffRatio) {
+        if (limiterBackoffRatio <= 0 || limiterBackoffRatio >= 1) {
+            throw new IllegalArgumentException("limiterBackoffRatio must be between 0 and 1");
+        }
+        this.limiterBackoffRatio = limiterBackoffRatio;
+    }
+
+    public long getLimiterAcquireTimeoutMs() {
+        return limiterAcquireTimeoutMs;
+    }
+
+    public void setLimiterAcquireTimeoutMs(long limiterAcquireTimeoutMs) {
+        this.limiterAcquireTimeoutMs = limiterAcquireTimeoutMs;
+    }
+}
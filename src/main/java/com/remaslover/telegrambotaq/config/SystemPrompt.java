@@ -0,0 +1,28 @@
+package com.remaslover.telegrambotaq.config;
+
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Системный промпт бота. Единственный источник текста (prompts/system-prompt.txt):
+ * его использует и {@code ChatClient}, и потоковая запись запросов OpenRouter.
+ */
+public record SystemPrompt(String text) {
+
+    public SystemPrompt {
+        if (text == null || text.isBlank()) {
+            throw new IllegalArgumentException("System prompt must not be empty");
+        }
+    }
+
+    public static SystemPrompt load(Resource resource) {
+        try {
+            return new SystemPrompt(resource.getContentAsString(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read system prompt from " + resource, e);
+        }
+    }
+}
@@ -20,6 +20,9 @@ public class TelegramBotConfig {
     @Value("${bot.owner}")
     Long botOwner;
 
+    @Value("${bot.mode:polling}")
+    String botMode = "polling";
+
     public TelegramBotConfig(String botName, String botToken, Long botOwner) {
         this.botName = botName;
         this.botToken = botToken;
@@ -52,4 +55,16 @@ public class TelegramBotConfig {
     public void setBotOwner(Long botOwner) {
         this.botOwner = botOwner;
     }
+
+    public String getBotMode() {
+        return botMode;
+    }
+
+    public void setBotMode(String botMode) {
+        this.botMode = botMode;
+    }
+
+    public boolean isWebhookMode() {
+        return "webhook".equalsIgnoreCase(botMode);
+    }
 }
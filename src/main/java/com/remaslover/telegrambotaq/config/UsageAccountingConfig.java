@@ -0,0 +1,111 @@
+package com.remaslover.telegrambotaq.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Настройки учета токенов и стоимости AI запросов.
+ * <p>
+ * Цены нужны для оценки стоимости, когда OpenRouter не прислал usage.cost
+ * (потоковые ответы через Spring AI). Модели без цены (например, :free) считаются бесплатными.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "app.openrouter.usage")
+public class UsageAccountingConfig {
+
+    private boolean enabled = true;
+    private long flushIntervalMs = 60_000;
+    private int topLimit = 10;
+    private Map<String, Price> prices = new HashMap<>();
+
+    /**
+     * Оценка стоимости в миллионных долях доллара
+     */
+    public long estimateCostMicros(String model, long promptTokens, long completionTokens) {
+        Price price = prices.get(model);
+        if (price == null) {
+            return 0;
+        }
+        return Math.round(promptTokens * price.getPromptPerMillion()
+                          + completionTokens * price.getCompletionPerMillion());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getFlushIntervalMs() {
+        return flushIntervalMs;
+    }
+
+    public void setFlushIntervalMs(long flushIntervalMs) {
+        if (flushIntervalMs < 1000) {
+            throw new IllegalArgumentException("flushIntervalMs must be at least 1000");
+        }
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    public int getTopLimit() {
+        return topLimit;
+    }
+
+    public void setTopLimit(int topLimit) {
+        if (topLimit <= 0) {
+            throw new IllegalArgumentException("topLimit must be greater than 0");
+        }
+        this.topLimit = topLimit;
+    }
+
+    public Map<String, Price> getPrices() {
+        return prices;
+    }
+
+    public void setPrices(Map<String, Price> prices) {
+        this.prices.putAll(prices);
+    }
+
+    /**
+     * Цена модели в долларах за миллион токенов
+     */
+    public static class Price {
+        private double promptPerMillion;
+        private double completionPerMillion;
+
+        public Price() {
+        }
+
+        public Price(double promptPerMillion, double completionPerMillion) {
+            setPromptPerMillion(promptPerMillion);
+            setCompletionPerMillion(completionPerMillion);
+        }
+
+        public double getPromptPerMillion() {
+            return promptPerMillion;
+        }
+
+        public void setPromptPerMillion(double promptPerMillion) {
+            if (promptPerMillion < 0) {
+                throw new IllegalArgumentException("promptPerMillion must not be negative");
+            }
+            this.promptPerMillion = promptPerMillion;
+        }
+
+        public double getCompletionPerMillion() {
+            return completionPerMillion;
+        }
+
+        public void setCompletionPerMillion(double completionPerMillion) {
+            if (completionPerMillion < 0) {
+                throw new IllegalArgumentException("completionPerMillion must not be negative");
+            }
+            this.completionPerMillion = completionPerMillion;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.remaslover.telegrambotaq.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Настройки приема обновлений через webhook.
+ * Используются, только если bot.mode = webhook.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "bot.webhook")
+public class WebhookConfig {
+
+    public static final String SECRET_TOKEN_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+
+    private String url = "";
+    private String path = "/telegram/webhook";
+    private String secretToken = "";
+    private int maxConnections = 40;
+    private boolean dropPendingUpdates = false;
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public String getSecretToken() {
+        return secretToken;
+    }
+
+    public void setSecretToken(String secretToken) {
+        this.secretToken = secretToken;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        if (maxConnections < 1 || maxConnections > 100) {
+            throw new IllegalArgumentException("maxConnections must be between 1 and 100");
+        }
+        this.maxConnections = maxConnections;
+    }
+
+    public boolean isDropPendingUpdates() {
+        return dropPendingUpdates;
+    }
+
+    public void setDropPendingUpdates(boolean dropPendingUpdates) {
+        this.dropPendingUpdates = dropPendingUpdates;
+    }
+
+    /**
+     * Полный адрес, который регистрируется в Telegram через setWebhook
+     */
+    public String getWebhookUrl() {
+        String base = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+        return base + path;
+    }
+
+    /**
+     * Проверяет валидность конфигурации
+     */
+    public void validate() {
+        if (url == null || url.isBlank()) {
+            throw new IllegalStateException("bot.webhook.url must be set in webhook mode");
+        }
+        if (secretToken == null || !secretToken.matches("[A-Za-z0-9_-]{1,256}")) {
+            throw new IllegalStateException(
+                    "bot.webhook.secret-token must be 1-256 characters of A-Z, a-z, 0-9, _ and -");
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.remaslover.telegrambotaq.controller;
+
+import com.remaslover.telegrambotaq.config.WebhookConfig;
+import com.remaslover.telegrambotaq.service.TelegramBotService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Прием обновлений от Telegram через webhook.
+ * Обновление только передается в диспетчер, поэтому HTTP-ответ
+ * возвращается сразу, до запуска обработчиков.
+ */
+@RestController
+@ConditionalOnProperty(name = "bot.mode", havingValue = "webhook")
+public class WebhookController {
+
+    private static final Logger log = LoggerFactory.getLogger(WebhookController.class);
+
+    private final TelegramBotService bot;
+    private final byte[] secretToken;
+
+    public WebhookController(TelegramBotService bot, WebhookConfig webhookConfig) {
+        this.bot = bot;
+        this.secretToken = webhookConfig.getSecretToken().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @PostMapping("${bot.webhook.path:/telegram/webhook}")
+    public ResponseEntity<Void> onUpdate(
+            @RequestHeader(name = WebhookConfig.SECRET_TOKEN_HEADER, required = false) String token,
+            @RequestBody Update update) {
+
+        if (!isValidToken(token)) {
+            log.warn("⚠️ Webhook request with invalid secret token rejected");
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+
+        bot.onUpdateReceived(update);
+        return ResponseEntity.ok().build();
+    }
+
+    private boolean isValidToken(String token) {
+        if (token == null || secretToken.length == 0) {
+            return false;
+        }
+        return MessageDigest.isEqual(secretToken, token.getBytes(StandardCharsets.UTF_8));
+    }
+}
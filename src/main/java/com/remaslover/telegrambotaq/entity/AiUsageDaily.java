@@ -0,0 +1,83 @@
+package com.remaslover.telegrambotaq.entity;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDate;
+
+/**
+ * Суточный расход AI по пользователю и модели.
+ * Строки только накапливаются (upsert в {@code AiUsageDailyRepository}).
+ */
+@Entity
+@Table(name = "ai_usage_daily",
+        uniqueConstraints = @UniqueConstraint(name = "uk_ai_usage_daily_day_user_model",
+                columnNames = {"usage_date", "user_id", "model"}))
+public class AiUsageDaily {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "usage_date", nullable = false)
+    private LocalDate usageDate;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "model", nullable = false)
+    private String model;
+
+    @Column(name = "requests", nullable = false)
+    private long requests;
+
+    @Column(name = "prompt_tokens", nullable = false)
+    private long promptTokens;
+
+    @Column(name = "completion_tokens", nullable = false)
+    private long completionTokens;
+
+    @Column(name = "cost_micros", nullable = false)
+    private long costMicros;
+
+    @Column(name = "latency_ms", nullable = false)
+    private long latencyMs;
+
+    public AiUsageDaily() {
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public LocalDate getUsageDate() {
+        return usageDate;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    public long getPromptTokens() {
+        return promptTokens;
+    }
+
+    public long getCompletionTokens() {
+        return completionTokens;
+    }
+
+    public long getCostMicros() {
+        return costMicros;
+    }
+
+    public long getLatencyMs() {
+        return latencyMs;
+    }
+}
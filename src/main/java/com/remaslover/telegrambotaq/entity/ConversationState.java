@@ -0,0 +1,53 @@
+package com.remaslover.telegrambotaq.entity;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Сохраненный разговор пользователя: краткое содержание и последние сообщения (JSON).
+ * Пишется пачками через {@code PostgresConversationStore}.
+ */
+@Entity
+@Table(name = "conversation_state")
+public class ConversationState {
+
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Column(name = "summary", columnDefinition = "text")
+    private String summary;
+
+    @Column(name = "messages", columnDefinition = "text", nullable = false)
+    private String messages;
+
+    @Column(name = "last_activity", nullable = false)
+    private LocalDateTime lastActivity;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+
+    public ConversationState() {
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public String getSummary() {
+        return summary;
+    }
+
+    public String getMessages() {
+        return messages;
+    }
+
+    public LocalDateTime getLastActivity() {
+        return lastActivity;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+}
@@ -0,0 +1,16 @@
+package com.remaslover.telegrambotaq.exception;
+
+/**
+ * Ошибка обращения к AI сервису.
+ * Сообщение исключения предназначено для показа пользователю.
+ */
+public class AiServiceException extends RuntimeException {
+
+    public AiServiceException(String message) {
+        super(message);
+    }
+
+    public AiServiceException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
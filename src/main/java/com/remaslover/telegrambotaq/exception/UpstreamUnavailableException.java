@@ -0,0 +1,12 @@
+package com.remaslover.telegrambotaq.exception;
+
+/**
+ * Запрос к AI сервису отклонен без обращения к нему: выключатель разомкнут
+ * или превышен лимит одновременных запросов.
+ */
+public class UpstreamUnavailableException extends AiServiceException {
+
+    public UpstreamUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -3,8 +3,8 @@ package com.remaslover.telegrambotaq.job;
 import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.annotation.Scheduled;
@@ -24,12 +24,8 @@ public class AsyncSelfPinger {
     private final RestTemplate restTemplate;
     private final AtomicInteger pingCount = new AtomicInteger(0);
 
-    public AsyncSelfPinger() {
-        this.restTemplate = new RestTemplate();
-        SimpleClientHttpRequestFactory simpleClientHttpRequestFactory = new SimpleClientHttpRequestFactory();
-        simpleClientHttpRequestFactory.setConnectTimeout(3000);
-        simpleClientHttpRequestFactory.setReadTimeout(3000);
-        restTemplate.setRequestFactory(simpleClientHttpRequestFactory);
+    public AsyncSelfPinger(@Qualifier("pingRestTemplate") RestTemplate restTemplate) {
+        this.restTemplate = restTemplate;
     }
 
     @PostConstruct
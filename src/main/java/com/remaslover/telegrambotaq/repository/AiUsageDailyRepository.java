@@ -0,0 +1,79 @@
+package com.remaslover.telegrambotaq.repository;
+
+import com.remaslover.telegrambotaq.entity.AiUsageDaily;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface AiUsageDailyRepository extends JpaRepository<AiUsageDaily, Long> {
+
+    /**
+     * Прибавляет расход к строке (день, пользователь, модель), создавая ее при необходимости
+     */
+    @Modifying
+    @Query(nativeQuery = true, value = """
+            INSERT INTO ai_usage_daily (usage_date, user_id, model, requests, prompt_tokens,
+                                        completion_tokens, cost_micros, latency_ms)
+            VALUES (:usageDate, :userId, :model, :requests, :promptTokens, :completionTokens, :costMicros, :latencyMs)
+            ON CONFLICT (usage_date, user_id, model) DO UPDATE SET
+                requests = ai_usage_daily.requests + EXCLUDED.requests,
+                prompt_tokens = ai_usage_daily.prompt_tokens + EXCLUDED.prompt_tokens,
+                completion_tokens = ai_usage_daily.completion_tokens + EXCLUDED.completion_tokens,
+                cost_micros = ai_usage_daily.cost_micros + EXCLUDED.cost_micros,
+                latency_ms = ai_usage_daily.latency_ms + EXCLUDED.latency_ms
+            """)
+    void upsert(@Param("usageDate") LocalDate usageDate,
+                @Param("userId") Long userId,
+                @Param("model") String model,
+                @Param("requests") long requests,
+                @Param("promptTokens") long promptTokens,
+                @Param("completionTokens") long completionTokens,
+                @Param("costMicros") long costMicros,
+                @Param("latencyMs") long latencyMs);
+
+    @Query("""
+            SELECT u.userId AS key, SUM(u.requests) AS requests, SUM(u.promptTokens) AS promptTokens,
+                   SUM(u.completionTokens) AS completionTokens, SUM(u.costMicros) AS costMicros,
+                   SUM(u.latencyMs) AS latencyMs
+            FROM AiUsageDaily u
+            WHERE u.usageDate >= :since
+            GROUP BY u.userId
+            ORDER BY SUM(u.costMicros) DESC, SUM(u.promptTokens + u.completionTokens) DESC
+            """)
+    List<UsageTotals<Long>> findTopUsers(@Param("since") LocalDate since, Pageable pageable);
+
+    @Query("""
+            SELECT u.model AS key, SUM(u.requests) AS requests, SUM(u.promptTokens) AS promptTokens,
+                   SUM(u.completionTokens) AS completionTokens, SUM(u.costMicros) AS costMicros,
+                   SUM(u.latencyMs) AS latencyMs
+            FROM AiUsageDaily u
+            WHERE u.usageDate >= :since
+            GROUP BY u.model
+            ORDER BY SUM(u.costMicros) DESC, SUM(u.promptTokens + u.completionTokens) DESC
+            """)
+    List<UsageTotals<String>> findTopModels(@Param("since") LocalDate since, Pageable pageable);
+
+    /**
+     * Суммы расхода по пользователю или модели
+     */
+    interface UsageTotals<K> {
+        K getKey();
+
+        long getRequests();
+
+        long getPromptTokens();
+
+        long getCompletionTokens();
+
+        long getCostMicros();
+
+        long getLatencyMs();
+    }
+}
@@ -0,0 +1,143 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Кэш готовых ответов AI на вопросы без контекста (первое сообщение разговора).
+ * Ключ - нормализованный вопрос, модель, лимит токенов ответа и версия системного промпта,
+ * поэтому смена модели или промпта автоматически обходит старые ответы.
+ * Размер кэша ограничен суммарным весом ответов в байтах.
+ */
+@Component
+public class AiAnswerCache {
+
+    private static final Logger log = LoggerFactory.getLogger(AiAnswerCache.class);
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("[\\s?!.…]+$");
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+    private final boolean enabled;
+    private final boolean chargeOnHit;
+    private final Cache<String, String> cache;
+
+    public AiAnswerCache(@Value("${app.openrouter.answer-cache.enabled:true}") boolean enabled,
+                         @Value("${app.openrouter.answer-cache.ttl-minutes:360}") long ttlMinutes,
+                         @Value("${app.openrouter.answer-cache.max-weight-mb:16}") long maxWeightMb,
+                         @Value("${app.openrouter.answer-cache.charge-on-hit:false}") boolean chargeOnHit) {
+        this.enabled = enabled;
+        this.chargeOnHit = chargeOnHit;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxWeightMb * 1024 * 1024)
+                .weigher((String key, String answer) -> weigh(key, answer))
+                .expireAfterWrite(Duration.ofMinutes(ttlMinutes))
+                .recordStats()
+                .build();
+
+        log.info("Кэш ответов AI: {}, TTL {} мин, до {} МБ, списание лимита за попадание: {}",
+                enabled ? "включен" : "выключен", ttlMinutes, maxWeightMb, chargeOnHit ? "да" : "нет");
+    }
+
+    /**
+     * Ключ кэша для вопроса без контекста
+     */
+    public String key(String question, String model, int maxTokens, String promptVersion) {
+        return model + '|' + maxTokens + '|' + promptVersion + '|' + normalize(question);
+    }
+
+    /**
+     * Приводит вопрос к каноническому виду: регистр, пробелы, завершающие знаки препинания
+     */
+    static String normalize(String question) {
+        String normalized = WHITESPACE.matcher(question.trim().toLowerCase(Locale.ROOT)).replaceAll(" ");
+        return TRAILING_PUNCTUATION.matcher(normalized).replaceAll("");
+    }
+
+    /**
+     * Возвращает ответ из кэша или null
+     */
+    public String get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        return cache.getIfPresent(key);
+    }
+
+    public void put(String key, String answer) {
+        if (!enabled || answer == null || answer.isBlank()) {
+            return;
+        }
+        cache.put(key, answer);
+        log.debug("💾 Ответ AI сохранен в кэш ({} символов)", answer.length());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isChargeOnHit() {
+        return chargeOnHit;
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Получает статистику кэша ответов
+     */
+    public Map<String, Object> getStats() {
+        CacheStats caffeineStats = cache.stats();
+        Map<String, Object> stats = new HashMap<>();
+
+        stats.put("enabled", enabled);
+        stats.put("entries", cache.estimatedSize());
+        stats.put("weightBytes", cache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0))
+                .orElse(0L));
+        stats.put("hits", caffeineStats.hitCount());
+        stats.put("misses", caffeineStats.missCount());
+        stats.put("hitRate", String.format("%.2f%%", caffeineStats.hitRate() * 100));
+        stats.put("evictions", caffeineStats.evictionCount());
+
+        return stats;
+    }
+
+    /**
+     * Форматированная статистика кэша ответов
+     */
+    public String getFormattedStats() {
+        Map<String, Object> stats = getStats();
+
+        return String.format("""
+                        💾 Кэш ответов (вопросы без контекста):
+                        • Статус: %s
+                        • Попаданий: %d
+                        • Промахов: %d
+                        • Эффективность: %s
+                        • Записей: %d (%d КБ)
+                        """,
+                enabled ? "включен" : "выключен",
+                stats.get("hits"),
+                stats.get("misses"),
+                stats.get("hitRate"),
+                stats.get("entries"),
+                (Long) stats.get("weightBytes") / 1024);
+    }
+
+    private static int weigh(String key, String answer) {
+        return ENTRY_OVERHEAD_BYTES + 2 * (key.length() + answer.length());
+    }
+}
@@ -0,0 +1,352 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.remaslover.telegrambotaq.exception.UpstreamUnavailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+/**
+ * Планировщик AI запросов: общий лимит одновременно выполняемых запросов
+ * и справедливая очередь между пользователями и чатами.
+ * <p>
+ * Очередь - взвешенная справедливая (self-clocked fair queuing): каждой задаче
+ * присваивается виртуальное время окончания max(V, последняя задача пользователя,
+ * последняя задача чата) + стоимость. Первой запускается задача с наименьшим
+ * временем, поэтому пользователь, отправивший много вопросов подряд, не вытесняет
+ * остальных, а большая группа получает долю как один пользователь.
+ * Задачи владельца бота идут в приоритетном классе, перед всеми остальными.
+ * <p>
+ * Задача выполняется в потоке вызывающего шага {@link AiRequestPipeline}, поэтому
+ * порядок запросов внутри чата сохраняется.
+ * <p>
+ * Одновременно запускается не больше задач, чем текущий адаптивный лимит
+ * {@link OpenRouterGuard}: лишние задачи ждут здесь, с позицией и временем ожидания,
+ * а не отклоняются лимитом после короткого таймаута.
+ */
+@Component
+public class AiJobScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(AiJobScheduler.class);
+
+    private static final int MAX_IDLE_FLOWS = 10_000;
+    private static final double DURATION_SMOOTHING = 0.2;
+
+    private final int maxConcurrent;
+    private final IntSupplier upstreamLimit;
+    private final int maxQueue;
+    private final long positionUpdateNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PriorityQueue<Ticket> waiting = new PriorityQueue<>(Comparator
+            .comparing((Ticket ticket) -> !ticket.priority)
+            .thenComparingDouble(ticket -> ticket.finishTag)
+            .thenComparingLong(ticket -> ticket.sequence));
+    private final Map<String, Double> flowFinishTags = new HashMap<>();
+
+    private int running;
+    private double virtualTime;
+    private long sequence;
+    private double averageJobSeconds;
+
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private volatile int peakQueue;
+
+    /**
+     * Получает место задачи в очереди: позицию (1 - следующая) и примерное время ожидания
+     */
+    @FunctionalInterface
+    public interface QueueListener {
+        void onQueued(int position, long etaSeconds);
+    }
+
+    public AiJobScheduler(int maxConcurrent, int maxQueue, long positionUpdateSeconds, long initialJobSeconds) {
+        this(maxConcurrent, maxQueue, positionUpdateSeconds, initialJobSeconds, () -> maxConcurrent);
+    }
+
+    @Autowired
+    public AiJobScheduler(@Value("${app.ai.scheduler.max-concurrent:8}") int maxConcurrent,
+                          @Value("${app.ai.scheduler.max-queue:200}") int maxQueue,
+                          @Value("${app.ai.scheduler.position-update-seconds:5}") long positionUpdateSeconds,
+                          @Value("${app.ai.scheduler.initial-job-seconds:10}") long initialJobSeconds,
+                          OpenRouterGuard openRouterGuard) {
+        this(maxConcurrent, maxQueue, positionUpdateSeconds, initialJobSeconds, openRouterGuard::getConcurrencyLimit);
+    }
+
+    /**
+     * @param upstreamLimit текущий лимит одновременных запросов к OpenRouter
+     */
+    AiJobScheduler(int maxConcurrent, int maxQueue, long positionUpdateSeconds, long initialJobSeconds,
+                   IntSupplier upstreamLimit) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("maxConcurrent must be greater than 0");
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.upstreamLimit = upstreamLimit;
+        this.maxQueue = maxQueue;
+        this.positionUpdateNanos = TimeUnit.SECONDS.toNanos(positionUpdateSeconds);
+        this.averageJobSeconds = initialJobSeconds;
+
+        log.info("🗂 AI scheduler: {} concurrent jobs, queue up to {}", maxConcurrent, maxQueue);
+    }
+
+    /**
+     * Выполняет задачу, когда до нее дойдет очередь
+     *
+     * @param priority задача владельца бота
+     * @param cost     стоимость задачи (например, оценка токенов вопроса), не меньше 1
+     * @param listener получает позицию в очереди, если задача не запустилась сразу
+     * @throws UpstreamUnavailableException если очередь переполнена
+     */
+    public <T> T execute(long chatId, long userId, boolean priority, int cost,
+                         QueueListener listener, Callable<T> job) throws Exception {
+        Ticket ticket = enqueue(chatId, userId, priority, cost);
+
+        awaitTurn(ticket, listener);
+
+        long waitNanos = System.nanoTime() - ticket.enqueuedAt;
+        totalWaitNanos.addAndGet(waitNanos);
+        if (ticket.wasQueued) {
+            log.info("🗂 AI job for user {} started after {} ms in queue",
+                    userId, TimeUnit.NANOSECONDS.toMillis(waitNanos));
+        }
+
+        long startedAt = System.nanoTime();
+        try {
+            return job.call();
+        } finally {
+            finish(System.nanoTime() - startedAt);
+        }
+    }
+
+    private Ticket enqueue(long chatId, long userId, boolean priority, int cost) {
+        lock.lock();
+        try {
+            if (waiting.size() >= maxQueue && !priority) {
+                rejected.incrementAndGet();
+                log.warn("🗂 AI queue is full ({} jobs), rejecting request from user {}", waiting.size(), userId);
+                throw new UpstreamUnavailableException(
+                        "⏳ Сейчас слишком много вопросов к AI. Попробуйте через пару минут.");
+            }
+
+            String userFlow = "u:" + userId;
+            String chatFlow = "c:" + chatId;
+            double start = Math.max(virtualTime, Math.max(
+                    flowFinishTags.getOrDefault(userFlow, 0.0),
+                    flowFinishTags.getOrDefault(chatFlow, 0.0)));
+            double finishTag = start + Math.max(1, cost);
+
+            flowFinishTags.put(userFlow, finishTag);
+            flowFinishTags.put(chatFlow, finishTag);
+
+            Ticket ticket = new Ticket(priority, finishTag, sequence++, lock.newCondition());
+            waiting.add(ticket);
+            peakQueue = Math.max(peakQueue, waiting.size());
+            return ticket;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ждет, пока задача окажется первой в очереди и освободится место.
+     * Во время ожидания периодически сообщает позицию в очереди.
+     * Если ожидание прервано любой ошибкой, место освобождается, иначе задача
+     * навсегда осталась бы в голове очереди и остановила все следующие.
+     */
+    private void awaitTurn(Ticket ticket, QueueListener listener) throws InterruptedException {
+        int lastPosition = 0;
+        long lastNotifiedAt = 0;
+        boolean admitted = false;
+
+        lock.lock();
+        try {
+            while (running >= concurrencyLimit() || waiting.peek() != ticket) {
+                if (!ticket.wasQueued) {
+                    ticket.wasQueued = true;
+                    queued.incrementAndGet();
+                }
+
+                int position = positionOf(ticket);
+                long now = System.nanoTime();
+                if (listener != null && position != lastPosition
+                        && (lastPosition == 0 || now - lastNotifiedAt >= positionUpdateNanos)) {
+                    long eta = etaSeconds(position);
+                    lastPosition = position;
+                    lastNotifiedAt = now;
+
+                    lock.unlock();
+                    try {
+                        listener.onQueued(position, eta);
+                    } catch (RuntimeException e) {
+                        // позиция - только подсказка пользователю, задача остается в очереди
+                        log.warn("🗂 Could not report queue position {}: {}", position, e.getMessage());
+                    } finally {
+                        lock.lock();
+                    }
+                    continue;
+                }
+
+                ticket.turn.await(positionUpdateNanos, TimeUnit.NANOSECONDS);
+            }
+
+            waiting.poll();
+            running++;
+            admitted = true;
+            virtualTime = Math.max(virtualTime, ticket.finishTag);
+            pruneIdleFlows();
+            signalHead();
+        } finally {
+            if (!admitted) {
+                waiting.remove(ticket);
+                signalHead();
+            }
+            lock.unlock();
+        }
+    }
+
+    private void finish(long durationNanos) {
+        executed.incrementAndGet();
+
+        lock.lock();
+        try {
+            running--;
+            double seconds = durationNanos / 1_000_000_000.0;
+            averageJobSeconds += DURATION_SMOOTHING * (seconds - averageJobSeconds);
+            signalHead();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Сколько задач можно выполнять сейчас: не больше настроенного и не больше,
+     * чем сейчас пропускает OpenRouterGuard
+     */
+    private int concurrencyLimit() {
+        return Math.max(1, Math.min(maxConcurrent, upstreamLimit.getAsInt()));
+    }
+
+    private void signalHead() {
+        Ticket head = waiting.peek();
+        if (head != null) {
+            head.turn.signal();
+        }
+    }
+
+    /**
+     * Позиция задачи: сколько задач запустится раньше нее, плюс один
+     */
+    private int positionOf(Ticket ticket) {
+        int ahead = 0;
+        Comparator<? super Ticket> order = waiting.comparator();
+        for (Ticket other : waiting) {
+            if (other != ticket && order.compare(other, ticket) < 0) {
+                ahead++;
+            }
+        }
+        return ahead + 1;
+    }
+
+    /**
+     * Примерное ожидание: задачи впереди разбираются по текущему лимиту за среднее время задачи
+     */
+    private long etaSeconds(int position) {
+        double rounds = Math.ceil((double) position / concurrencyLimit());
+        return Math.max(1, Math.round(rounds * averageJobSeconds));
+    }
+
+    /**
+     * Удаляет потоки, которые отстали от виртуального времени: их значения больше не влияют на очередь
+     */
+    private void pruneIdleFlows() {
+        if (flowFinishTags.size() > MAX_IDLE_FLOWS) {
+            flowFinishTags.values().removeIf(finishTag -> finishTag <= virtualTime);
+        }
+    }
+
+    /**
+     * Получает статистику планировщика
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long total = executed.get();
+
+        lock.lock();
+        try {
+            stats.put("running", running);
+            stats.put("waiting", waiting.size());
+            stats.put("averageJobSeconds", Math.round(averageJobSeconds * 10) / 10.0);
+        } finally {
+            lock.unlock();
+        }
+        stats.put("maxConcurrent", maxConcurrent);
+        stats.put("concurrencyLimit", concurrencyLimit());
+        stats.put("maxQueue", maxQueue);
+        stats.put("peakQueue", peakQueue);
+        stats.put("executed", total);
+        stats.put("queued", queued.get());
+        stats.put("rejected", rejected.get());
+        stats.put("averageWaitMs", total == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / total));
+
+        return stats;
+    }
+
+    /**
+     * Получает форматированную статистику планировщика
+     */
+    public String getFormattedStats() {
+        Map<String, Object> stats = getStats();
+
+        return String.format("""
+                        🗂 Очередь AI запросов:
+
+                        • Выполняется: %d из %d (настроено: %d)
+                        • В очереди: %d (максимум был: %d, предел: %d)
+                        • Выполнено: %d (ждали в очереди: %d)
+                        • Отклонено из-за переполнения: %d
+                        • Среднее ожидание: %d мс
+                        • Средняя длительность запроса: %s с
+                        """,
+                stats.get("running"), stats.get("concurrencyLimit"), stats.get("maxConcurrent"),
+                stats.get("waiting"), stats.get("peakQueue"), stats.get("maxQueue"),
+                stats.get("executed"), stats.get("queued"),
+                stats.get("rejected"),
+                stats.get("averageWaitMs"),
+                stats.get("averageJobSeconds"));
+    }
+
+    /**
+     * Место в очереди
+     */
+    private static final class Ticket {
+        private final boolean priority;
+        private final double finishTag;
+        private final long sequence;
+        private final Condition turn;
+        private final long enqueuedAt = System.nanoTime();
+        private boolean wasQueued;
+
+        private Ticket(boolean priority, double finishTag, long sequence, Condition turn) {
+            this.priority = priority;
+            this.finishTag = finishTag;
+            this.sequence = sequence;
+            this.turn = turn;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.remaslover.telegrambotaq.exception.AiServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Объединение одинаковых одновременных запросов к AI (single-flight).
+ * Первый запрос с данным ключом выполняет вызов к OpenRouter, остальные
+ * подписываются на его результат: получают уже пришедший текст и дальнейшие
+ * фрагменты потока, а затем полный ответ или ту же ошибку.
+ * Если первый запрос отменен, подписчики, еще не получившие текста,
+ * повторяют вызов сами: отмена одного пользователя не ломает запросы других.
+ */
+@Component
+public class AiRequestCoalescer {
+
+    private static final Logger log = LoggerFactory.getLogger(AiRequestCoalescer.class);
+
+    private final Map<String, Flight> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong upstreamCalls = new AtomicLong();
+    private final AtomicLong coalescedCalls = new AtomicLong();
+    private final AtomicLong abandonedCalls = new AtomicLong();
+
+    /**
+     * Вызов к внешнему сервису. Фрагменты ответа передаются в onDelta по мере получения.
+     */
+    @FunctionalInterface
+    public interface UpstreamCall {
+        String execute(Consumer<String> onDelta) throws Exception;
+    }
+
+    /**
+     * Выполняет вызов или присоединяется к уже выполняющемуся с тем же ключом
+     *
+     * @return полный текст ответа
+     */
+    public String execute(String key, Consumer<String> onDelta, UpstreamCall call) throws Exception {
+        Flight flight = new Flight();
+        Flight existing;
+
+        while ((existing = inFlight.putIfAbsent(key, flight)) != null) {
+            coalescedCalls.incrementAndGet();
+            log.info("🔗 Identical AI request is already in flight, waiting for its result");
+            try {
+                return existing.follow(onDelta);
+            } catch (FlightAbandonedException e) {
+                log.info("🔗 Identical AI request was cancelled, sending own request");
+            }
+        }
+
+        upstreamCalls.incrementAndGet();
+        try {
+            String content = call.execute(delta -> {
+                flight.append(delta);
+                onDelta.accept(delta);
+            });
+            flight.complete(content, null);
+            return content;
+        } catch (Exception e) {
+            if (e instanceof CancellationException || e instanceof InterruptedException
+                    || Thread.currentThread().isInterrupted()) {
+                abandonedCalls.incrementAndGet();
+                // убрать до завершения, чтобы подписчики не нашли этот же вызов снова
+                inFlight.remove(key, flight);
+                flight.complete(null, new FlightAbandonedException());
+            } else {
+                flight.complete(null, e);
+            }
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * Получает статистику объединения запросов
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+
+        stats.put("upstreamCalls", upstreamCalls.get());
+        stats.put("savedCalls", coalescedCalls.get());
+        stats.put("abandonedCalls", abandonedCalls.get());
+        stats.put("inFlight", inFlight.size());
+
+        return stats;
+    }
+
+    /**
+     * Форматированная статистика объединения запросов
+     */
+    public String getFormattedStats() {
+        return String.format("""
+                        🔗 Объединение одинаковых запросов:
+                        • Вызовов OpenRouter: %d
+                        • Сэкономлено вызовов: %d
+                        • Выполняется сейчас: %d
+                        """,
+                upstreamCalls.get(),
+                coalescedCalls.get(),
+                inFlight.size());
+    }
+
+    /**
+     * Первый запрос отменен. Подписчик без полученного текста повторяет вызов
+     */
+    private static final class FlightAbandonedException extends Exception {
+        FlightAbandonedException() {
+            super("Coalesced AI request was cancelled", null, false, false);
+        }
+    }
+
+    /**
+     * Один выполняющийся вызов: накопленный текст и итог для подписчиков.
+     * Используется ReentrantLock, а не synchronized, чтобы ожидание
+     * не закрепляло виртуальный поток за платформенным.
+     */
+    private static final class Flight {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private final StringBuilder received = new StringBuilder();
+        private boolean done;
+        private String content;
+        private Exception error;
+
+        void append(String delta) {
+            lock.lock();
+            try {
+                received.append(delta);
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void complete(String content, Exception error) {
+            lock.lock();
+            try {
+                this.content = content;
+                this.error = error;
+                this.done = true;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        String follow(Consumer<String> onDelta) throws Exception {
+            int seen = 0;
+
+            while (true) {
+                String chunk;
+                boolean finished;
+
+                lock.lock();
+                try {
+                    while (received.length() == seen && !done) {
+                        changed.await();
+                    }
+                    chunk = received.substring(seen);
+                    seen = received.length();
+                    finished = done;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new AiServiceException("⚠️ Запрос к AI прерван", e);
+                } finally {
+                    lock.unlock();
+                }
+
+                if (!chunk.isEmpty()) {
+                    onDelta.accept(chunk);
+                }
+
+                if (finished) {
+                    if (error instanceof FlightAbandonedException && seen > 0) {
+                        throw new AiServiceException("⚠️ Ответ прерван. Повторите вопрос.");
+                    }
+                    if (error != null) {
+                        throw error;
+                    }
+                    if (content != null && content.length() > seen) {
+                        onDelta.accept(content.substring(seen));
+                    }
+                    return content;
+                }
+            }
+        }
+    }
+}
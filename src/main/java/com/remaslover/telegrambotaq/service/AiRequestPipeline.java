@@ -0,0 +1,331 @@
+package com.remaslover.telegrambotaq.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Асинхронный конвейер AI запросов.
+ * <p>
+ * Обработчик обновления только ставит запрос в конвейер и сразу освобождается.
+ * Запросы одного чата выполняются строго по очереди: каждый следующий
+ * присоединяется к цепочке {@link CompletableFuture} предыдущего, поэтому ответы
+ * не перемешиваются. История разговора общая для всех чатов пользователя, поэтому
+ * запрос также ждет завершения уже поставленных запросов того же пользователя
+ * в других чатах. Остальные запросы выполняются параллельно в виртуальных потоках.
+ * <p>
+ * Запросы пользователя можно отменить ({@link #cancel}) во всех чатах сразу:
+ * ожидающие не запускаются, у выполняющегося прерывается поток, что закрывает
+ * HTTP соединение с OpenRouter. Запросы других участников того же (группового)
+ * чата отмена не затрагивает.
+ * Результат отмененного запроса не доставляется, а запись ответа в историю
+ * идет через {@link #commitIfActive}, поэтому устаревший ответ не попадает в контекст.
+ */
+@Service
+public class AiRequestPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(AiRequestPipeline.class);
+
+    private static final ThreadLocal<Job> CURRENT_JOB = new ThreadLocal<>();
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<Long, CompletableFuture<Void>> chatTails = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Job>> userJobs = new ConcurrentHashMap<>();
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong cancelledRunning = new AtomicLong();
+    private final AtomicLong cancelledWorkNanos = new AtomicLong();
+    private final AtomicLong queuedBehindPrevious = new AtomicLong();
+
+    /**
+     * Ставит запрос пользователя в конвейер чата: после завершения предыдущего запроса
+     * этого чата и уже поставленных запросов пользователя выполняется work,
+     * затем delivery с его результатом. Запрос отменяется {@link #cancel}.
+     *
+     * @return будущее, завершающееся после доставки (или с ошибкой work/delivery;
+     * {@link CancellationException}, если запрос отменен)
+     */
+    public <T> CompletableFuture<Void> submit(long chatId, long userId, Callable<T> work, Consumer<T> delivery) {
+        return enqueue(chatId, new Job(userId, true), work, delivery);
+    }
+
+    /**
+     * Выполняет action после всех уже поставленных запросов чата и пользователя
+     * (во всех его чатах). Действие не отменяется {@link #cancel}.
+     */
+    public CompletableFuture<Void> runAfterCurrent(long chatId, long userId, Runnable action) {
+        return enqueue(chatId, new Job(userId, false), () -> {
+            action.run();
+            return null;
+        }, ignored -> {
+        });
+    }
+
+    private <T> CompletableFuture<Void> enqueue(long chatId, Job job, Callable<T> work, Consumer<T> delivery) {
+        submitted.incrementAndGet();
+
+        List<CompletableFuture<Void>> userPrevious = new ArrayList<>();
+        userJobs.compute(job.owner, (key, jobs) -> {
+            Set<Job> owned = jobs != null ? jobs : ConcurrentHashMap.newKeySet();
+            owned.forEach(earlier -> userPrevious.add(earlier.done));
+            owned.add(job);
+            return owned;
+        });
+
+        CompletableFuture<Void> tail = new CompletableFuture<>();
+        CompletableFuture<Void> previous = chatTails.put(chatId, tail);
+        if (previous != null && !previous.isDone()) {
+            queuedBehindPrevious.incrementAndGet();
+        }
+
+        CompletableFuture<Void> start = previous != null ? previous : CompletableFuture.completedFuture(null);
+        if (!userPrevious.isEmpty()) {
+            // запросы пользователя в других чатах работают с той же историей
+            userPrevious.add(start);
+            start = CompletableFuture.allOf(userPrevious.toArray(CompletableFuture[]::new));
+        }
+
+        return start
+                .thenApplyAsync(ignored -> run(job, work), executor)
+                .thenAccept(result -> {
+                    job.finishUnlessCancelled();
+                    delivery.accept(result);
+                })
+                .whenComplete((ignored, error) -> {
+                    if (error == null) {
+                        completed.incrementAndGet();
+                    } else if (unwrap(error) instanceof CancellationException) {
+                        cancelled.incrementAndGet();
+                    } else {
+                        failed.incrementAndGet();
+                    }
+                    userJobs.computeIfPresent(job.owner, (key, jobs) -> {
+                        jobs.remove(job);
+                        return jobs.isEmpty() ? null : jobs;
+                    });
+                    chatTails.remove(chatId, tail);
+                    tail.complete(null);
+                    job.done.complete(null);
+                });
+    }
+
+    private static <T> T run(Job job, Callable<T> work) {
+        job.start();
+        CURRENT_JOB.set(job);
+        try {
+            return work.call();
+        } catch (Exception e) {
+            if (job.cancelled) {
+                throw new CancellationException("AI request was cancelled");
+            }
+            throw e instanceof RuntimeException runtime ? runtime : new CompletionException(e);
+        } finally {
+            CURRENT_JOB.remove();
+            job.stop();
+        }
+    }
+
+    /**
+     * Отменяет ожидающие и выполняющиеся запросы пользователя во всех чатах
+     *
+     * @return число отмененных запросов
+     */
+    public int cancel(long userId) {
+        Set<Job> jobs = userJobs.get(userId);
+        if (jobs == null) {
+            return 0;
+        }
+
+        int count = 0;
+        for (Job job : jobs) {
+            if (job.cancel()) {
+                count++;
+            }
+        }
+        // потоки прерываются только после пометки всех запросов: иначе ожидающий запрос
+        // успел бы стартовать за прерванным раньше, чем до него дойдет отмена
+        jobs.forEach(Job::interruptIfCancelled);
+
+        if (count > 0) {
+            log.info("⏹ Cancelled {} AI requests of user {}", count, userId);
+        }
+        return count;
+    }
+
+    /**
+     * Выполняет action (запись ответа в историю), только если текущий запрос не отменен.
+     * Отмена и action не пересекаются: после отмены action уже не выполнится.
+     * Вне конвейера action выполняется всегда.
+     *
+     * @return false, если запрос отменен и action не выполнен
+     */
+    public boolean commitIfActive(Runnable action) {
+        Job job = CURRENT_JOB.get();
+        if (job == null) {
+            action.run();
+            return true;
+        }
+
+        job.lock.lock();
+        try {
+            if (job.cancelled) {
+                return false;
+            }
+            action.run();
+            return true;
+        } finally {
+            job.lock.unlock();
+        }
+    }
+
+    /**
+     * Отменен ли запрос, выполняющийся в текущем потоке
+     */
+    public boolean isCurrentCancelled() {
+        Job job = CURRENT_JOB.get();
+        return job != null && job.cancelled;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * Получает статистику конвейера
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long total = submitted.get();
+
+        stats.put("submitted", total);
+        stats.put("completed", completed.get());
+        stats.put("failed", failed.get());
+        stats.put("cancelled", cancelled.get());
+        stats.put("cancelledRunning", cancelledRunning.get());
+        stats.put("cancelledWorkMs", TimeUnit.NANOSECONDS.toMillis(cancelledWorkNanos.get()));
+        stats.put("inFlight", total - completed.get() - failed.get() - cancelled.get());
+        stats.put("activeChats", chatTails.size());
+        stats.put("queuedBehindPrevious", queuedBehindPrevious.get());
+
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("⚠️ AI pipeline did not finish in time, {} requests in flight", getStats().get("inFlight"));
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Один запрос конвейера. Поток выполнения и флаг отмены меняются под lock,
+     * поэтому отмена не прерывает поток, уже перешедший к следующей задаче.
+     */
+    private final class Job {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final long owner;
+        private final boolean cancellable;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private volatile boolean cancelled;
+        private boolean finished;
+        private Thread runner;
+        private long startedAt;
+
+        Job(long owner, boolean cancellable) {
+            this.owner = owner;
+            this.cancellable = cancellable;
+        }
+
+        void start() {
+            lock.lock();
+            try {
+                if (cancelled) {
+                    throw new CancellationException("AI request was cancelled before start");
+                }
+                runner = Thread.currentThread();
+                startedAt = System.nanoTime();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void stop() {
+            lock.lock();
+            try {
+                runner = null;
+                // прерывание, пришедшее после окончания работы, не должно помешать доставке
+                Thread.interrupted();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void finishUnlessCancelled() {
+            lock.lock();
+            try {
+                if (cancelled) {
+                    throw new CancellationException("AI request was cancelled before delivery");
+                }
+                finished = true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean cancel() {
+            lock.lock();
+            try {
+                if (!cancellable || cancelled || finished) {
+                    return false;
+                }
+                cancelled = true;
+                if (runner != null) {
+                    cancelledRunning.incrementAndGet();
+                    cancelledWorkNanos.addAndGet(System.nanoTime() - startedAt);
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void interruptIfCancelled() {
+            lock.lock();
+            try {
+                if (cancelled && runner != null) {
+                    runner.interrupt();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
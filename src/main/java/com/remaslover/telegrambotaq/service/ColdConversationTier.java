@@ -0,0 +1,220 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import com.remaslover.telegrambotaq.config.ColdTierConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Холодный уровень кэша разговоров: сжатые Deflate снимки простаивающих разговоров.
+ * <p>
+ * Разговор попадает сюда при вытеснении из основного кэша и забирается обратно
+ * ({@link #take}) при следующем обращении пользователя. Сжатые данные хранятся
+ * в куче или в direct ByteBuffer (off-heap); объем ограничен по сжатым байтам.
+ */
+final class ColdConversationTier {
+
+    /**
+     * Запись Caffeine, ключ и ByteBuffer сверх самих сжатых байт
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 120;
+
+    private final ColdTierConfig config;
+    private final Cache<Long, Compressed> entries;
+
+    private final AtomicLong demotions = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong rawBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+    private final AtomicLong deflateNanos = new AtomicLong();
+    private final AtomicLong inflateNanos = new AtomicLong();
+
+    private record Compressed(ByteBuffer data, int rawLength) {
+    }
+
+    /**
+     * Сжатая запись для снимка состояния: переносится без распаковки
+     */
+    record Entry(long userId, int rawLength, byte[] data) {
+    }
+
+    ColdConversationTier(ColdTierConfig config) {
+        this.config = config;
+        this.entries = Caffeine.newBuilder()
+                .maximumWeight(config.getMaxBytes())
+                .weigher((Long userId, Compressed compressed) -> ENTRY_OVERHEAD_BYTES + compressed.data().capacity())
+                .expireAfterWrite(config.getTtlMinutes(), TimeUnit.MINUTES)
+                .scheduler(Scheduler.systemScheduler())
+                .build();
+    }
+
+    /**
+     * Сжимает разговор и кладет его в холодный уровень
+     */
+    void put(ConversationSnapshot snapshot) {
+        long startedAt = System.nanoTime();
+        byte[] raw = ConversationSnapshotCodec.encode(snapshot);
+        byte[] deflated = deflate(raw);
+
+        ByteBuffer data;
+        if (config.isOffHeap()) {
+            data = ByteBuffer.allocateDirect(deflated.length).put(deflated).flip();
+        } else {
+            data = ByteBuffer.wrap(deflated);
+        }
+        entries.put(snapshot.userId(), new Compressed(data, raw.length));
+
+        demotions.incrementAndGet();
+        rawBytes.addAndGet(raw.length);
+        compressedBytes.addAndGet(deflated.length);
+        deflateNanos.addAndGet(System.nanoTime() - startedAt);
+    }
+
+    /**
+     * Забирает разговор из холодного уровня и распаковывает его
+     */
+    Optional<ConversationSnapshot> take(Long userId) {
+        Compressed compressed = entries.asMap().remove(userId);
+        if (compressed == null) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+
+        long startedAt = System.nanoTime();
+        ConversationSnapshot snapshot = ConversationSnapshotCodec.decode(ByteBuffer.wrap(inflate(compressed)));
+        inflateNanos.addAndGet(System.nanoTime() - startedAt);
+        hits.incrementAndGet();
+        return Optional.of(snapshot);
+    }
+
+    /**
+     * Все сжатые записи как есть, для снимка состояния
+     */
+    List<Entry> export() {
+        List<Entry> result = new ArrayList<>((int) entries.estimatedSize());
+        entries.asMap().forEach((userId, compressed) -> {
+            ByteBuffer data = compressed.data().duplicate();
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            result.add(new Entry(userId, compressed.rawLength(), bytes));
+        });
+        return result;
+    }
+
+    /**
+     * Возвращает сжатую запись из снимка без повторного сжатия
+     */
+    void restore(Entry entry) {
+        ByteBuffer data = config.isOffHeap()
+                ? ByteBuffer.allocateDirect(entry.data().length).put(entry.data()).flip()
+                : ByteBuffer.wrap(entry.data());
+        entries.asMap().putIfAbsent(entry.userId(), new Compressed(data, entry.rawLength()));
+    }
+
+    void invalidate(Long userId) {
+        entries.invalidate(userId);
+    }
+
+    void invalidateAll() {
+        entries.invalidateAll();
+    }
+
+    private byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(config.getCompressionLevel());
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 64);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(Compressed compressed) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.data().duplicate());
+            byte[] raw = new byte[compressed.rawLength()];
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, length, raw.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    // обрезанная запись: без проверки цикл ждал бы входных данных бесконечно
+                    throw new IllegalStateException("Truncated cold conversation entry");
+                }
+                length += inflated;
+            }
+            if (length != raw.length || !inflater.finished()) {
+                throw new IllegalStateException("Cold conversation entry size mismatch: expected "
+                                                + raw.length + " bytes, got " + length);
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted cold conversation entry", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long hitCount = hits.get();
+        long lookups = hitCount + misses.get();
+        long compressed = compressedBytes.get();
+
+        stats.put("enabled", true);
+        stats.put("offHeap", config.isOffHeap());
+        stats.put("entries", entries.estimatedSize());
+        stats.put("bytes", entries.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L))
+                .orElse(0L));
+        stats.put("demotions", demotions.get());
+        stats.put("hits", hitCount);
+        stats.put("misses", misses.get());
+        stats.put("hitRate", lookups == 0 ? 0.0 : hitCount * 100.0 / lookups);
+        stats.put("compressionRatio", compressed == 0 ? 0.0 : (double) rawBytes.get() / compressed);
+        stats.put("averageDeflateMicros", demotions.get() == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(deflateNanos.get() / demotions.get()));
+        stats.put("averageInflateMicros", hitCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(inflateNanos.get() / hitCount));
+
+        return stats;
+    }
+
+    String getFormattedStats() {
+        Map<String, Object> stats = getStats();
+
+        return String.format("""
+                        🧊 Холодный уровень%s:
+                        • Разговоров: %d, сжато: %.1f МБ (в %.1f раза)
+                        • Попаданий: %d, промахов: %d (%.1f%%)
+                        • Сжатие ~%d мкс, распаковка ~%d мкс
+                        """,
+                config.isOffHeap() ? " (вне кучи)" : "",
+                stats.get("entries"),
+                (long) stats.get("bytes") / 1_048_576.0,
+                stats.get("compressionRatio"),
+                stats.get("hits"),
+                stats.get("misses"),
+                stats.get("hitRate"),
+                stats.get("averageDeflateMicros"),
+                stats.get("averageInflateMicros"));
+    }
+}
@@ -1,13 +1,20 @@
 package com.remaslover.telegrambotaq.service;
 
+import com.remaslover.telegrambotaq.command.CommandContext;
+import com.remaslover.telegrambotaq.command.CommandController;
+import com.remaslover.telegrambotaq.command.CommandMapping;
+import com.remaslover.telegrambotaq.command.CommandRegistry;
 import com.remaslover.telegrambotaq.config.TelegramBotConfig;
 import com.remaslover.telegrambotaq.entity.User;
+import com.remaslover.telegrambotaq.exception.AiServiceException;
 import com.remaslover.telegrambotaq.exception.JokeNotFoundException;
+import com.remaslover.telegrambotaq.exception.UpstreamUnavailableException;
+import com.remaslover.telegrambotaq.service.KeyboardManager.Button;
 import com.remaslover.telegrambotaq.util.TelegramMarkdownEscapeUtil;
+import com.remaslover.telegrambotaq.util.TokenEstimator;
 import com.vdurmont.emoji.EmojiParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.stereotype.Component;
 import org.telegram.telegrambots.meta.api.methods.AnswerCallbackQuery;
 import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
 import org.telegram.telegrambots.meta.api.objects.Message;
@@ -16,10 +23,12 @@ import org.telegram.telegrambots.meta.api.objects.replykeyboard.ReplyKeyboardMar
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-@Component
+@CommandController
 public class CommandHandler {
     private final UserService userService;
     private final RateLimitService rateLimitService;
@@ -30,10 +39,17 @@ public class CommandHandler {
     private final TelegramBotConfig config;
     private final MessageSender messageSender;
     private final KeyboardManager keyboardManager;
-    private final MessageQueueService messageQueueService;
+    private final UpdateDispatcher updateDispatcher;
+    private final CommandRegistry commandRegistry;
+    private final StreamingMessageEditor streamingMessageEditor;
+    private final AiJobScheduler aiJobScheduler;
+    private final AiRequestPipeline aiRequestPipeline;
+    private final UsageAccountingService usageAccountingService;
 
     private static final Logger log = LoggerFactory.getLogger(CommandHandler.class);
 
+    private static final String AI_REQUEST_CANCELLED = "⏹ Ответ на этот вопрос отменен";
+
     public static final String HELP_TEXT = """
              🤖 Доступные команды:
                         \s
@@ -70,8 +86,16 @@ public class CommandHandler {
                           OpenRouterLimitService openRouterLimitService,
                           TelegramBotConfig config,
                           MessageSender messageSender,
-                          KeyboardManager keyboardManager, MessageQueueService messageQueueService) {
+                          KeyboardManager keyboardManager,
+                          UpdateDispatcher updateDispatcher,
+                          CommandRegistry commandRegistry,
+                          StreamingMessageEditor streamingMessageEditor,
+                          AiJobScheduler aiJobScheduler,
+                          AiRequestPipeline aiRequestPipeline,
+                          UsageAccountingService usageAccountingService) {
         this.messageSender = messageSender;
+        this.usageAccountingService = usageAccountingService;
+        this.aiJobScheduler = aiJobScheduler;
         this.keyboardManager = keyboardManager;
         this.userService = userService;
         this.rateLimitService = rateLimitService;
@@ -80,7 +104,10 @@ public class CommandHandler {
         this.openRouterService = openRouterService;
         this.openRouterLimitService = openRouterLimitService;
         this.config = config;
-        this.messageQueueService = messageQueueService;
+        this.aiRequestPipeline = aiRequestPipeline;
+        this.updateDispatcher = updateDispatcher;
+        this.commandRegistry = commandRegistry;
+        this.streamingMessageEditor = streamingMessageEditor;
     }
 
     private void sendMessage(long chatId, String text) {
@@ -93,72 +120,124 @@ public class CommandHandler {
     }
 
 
-    public void handleRegularCommands(long chatId, Long userId, String messageText, Message message) {
-        switch (messageText) {
-            case "/start":
-                startCommandReceived(chatId, message.getChat().getFirstName());
-                break;
-            case "/help":
-            case "ℹ️ Помощь":
-                sendMessage(chatId, HELP_TEXT);
-                break;
-            case "/my_data":
-                handleMyDataCommand(chatId, message);
-                break;
-            case "/delete_data":
-                handleDeleteDataCommand(chatId, message);
-                break;
-            case "/time":
-            case "⏰ Время":
-                showCurrentTime(chatId);
-                break;
-            case "/register":
-                register(chatId);
-                break;
-            case "/joke":
-            case "🎭 Шутка":
-                getRandomJoke(chatId);
-                break;
-            case "/usage":
-            case "📊 Лимиты":
-                handleUsageCommand(chatId, userId);
-                break;
-            case "/context":
-            case "🧠 Контекст":
-                showContextMenu(chatId);
-                break;
-            case "📰 Новости":
-                showNewsHelp(chatId);
-                break;
-            case "🔥 Главные новости":
-                handleTopNewsCommand(chatId, "/topnews");
-                break;
-            case "🌍 Новости страны":
-                handleNewsCountryCommand(chatId, "/news_country");
-                break;
-            case "📋 Новости категории":
-                handleNewsCategoryCommand(chatId, "/news_category");
-                break;
-            case "🔍 Поиск новостей":
-                handleNewsSearchCommand(chatId, "/news_search");
-                break;
-            case "🤖 AI помощь":
-                sendMessage(chatId, "💡 Напишите ваш вопрос и я отвечу с учетом контекста разговора!");
-                break;
-            default:
-                if (!messageText.startsWith("/")) {
-                    handleAiRequest(chatId, userId, messageText);
-                } else {
-                    sendMessage(chatId, "❓ Неизвестная команда. Используйте /help для списка команд.");
-                }
+    private boolean isOwner(long chatId) {
+        return config.getBotOwner().equals(chatId);
+    }
+
+    /**
+     * Маршрутизация текстового сообщения через реестр команд.
+     * Текст без команды считается вопросом к AI.
+     */
+    public void handleMessage(Message message) {
+        String messageText = message.getText();
+        long chatId = message.getChatId();
+
+        CommandRegistry.Match match = commandRegistry.resolve(messageText);
+
+        if (match == null) {
+            if (!messageText.startsWith("/")) {
+                handleAiRequest(chatId, message.getFrom().getId(), messageText);
+            } else {
+                sendMessage(chatId, "❓ Неизвестная команда. Используйте /help для списка команд.");
+            }
+            return;
+        }
+
+        if (match.route().isOwnerOnly() && !isOwner(chatId)) {
+            sendMessage(chatId, "❌ Эта команда только для владельца бота");
+            return;
+        }
+
+        match.route().invoke(match.forMessage(message, messageText));
+    }
+
+    /**
+     * Обработка callback-запросов от inline клавиатуры.
+     * Callback-данные обслуживаются тем же реестром, что и текстовые команды.
+     */
+    public void handleCallbackQuery(CallbackQuery callbackQuery) {
+        try {
+            long chatId = callbackQuery.getMessage().getChatId();
+            String callbackData = callbackQuery.getData();
+
+            log.info("Received callback query from chat {}: {}", chatId, callbackData);
+
+            CommandRegistry.Match match = commandRegistry.resolve(callbackData);
+
+            if (match == null) {
+                answerCallback(callbackQuery, "❌ Неизвестная команда");
+                return;
+            }
+
+            if (match.route().isOwnerOnly() && !isOwner(chatId)) {
+                answerCallback(callbackQuery, "❌ Эта команда только для владельца бота");
+                return;
+            }
+
+            if (match.route().isMessageOnly()) {
+                answerCallback(callbackQuery, "❌ Отправьте эту команду сообщением");
+                return;
+            }
+
+            String answerText = match.route().getCallbackAnswer();
+            if (!answerText.isEmpty()) {
+                answerCallback(callbackQuery, answerText);
+            }
+
+            match.route().invoke(match.forCallback(callbackQuery));
+
+        } catch (Exception e) {
+            log.error("Error handling callback query: {}", e.getMessage(), e);
         }
     }
 
-    public void handleNewsCategoryCommand(long chatId, String messageText) {
-        String normalizedText = messageText.replace("/newscategory", "/news_category");
-        String[] parts = normalizedText.split(" ");
+    private void answerCallback(CallbackQuery callbackQuery, String text) {
+        AnswerCallbackQuery answer = new AnswerCallbackQuery();
+        answer.setCallbackQueryId(callbackQuery.getId());
+        answer.setText(text);
+        try {
+            messageSender.getBot().execute(answer);
+        } catch (Exception e) {
+            log.warn("Could not send callback answer: {}", e.getMessage());
+        }
+    }
 
-        if (parts.length == 1) {
+    @CommandMapping(value = "/start", messageOnly = true)
+    public void handleStartCommand(CommandContext context) {
+        startCommandReceived(context.getChatId(), context.getMessage().getChat().getFirstName());
+    }
+
+    @CommandMapping({"/help", Button.HELP})
+    public void handleHelpCommand(CommandContext context) {
+        sendMessage(context.getChatId(), HELP_TEXT);
+    }
+
+    @CommandMapping("/register")
+    public void handleRegisterCommand(CommandContext context) {
+        register(context.getChatId());
+    }
+
+    @CommandMapping(Button.NEWS)
+    public void handleNewsButton(CommandContext context) {
+        showNewsHelp(context.getChatId());
+    }
+
+    @CommandMapping(Button.AI_HELP)
+    public void handleAiHelpButton(CommandContext context) {
+        sendMessage(context.getChatId(), "💡 Напишите ваш вопрос и я отвечу с учетом контекста разговора!");
+    }
+
+    @CommandMapping("/ai")
+    public void handleAiCommand(CommandContext context) {
+        handleAiRequest(context.getChatId(), context.getUserId(), context.args());
+    }
+
+    @CommandMapping(value = {"/news_category", "/newscategory", Button.NEWS_BY_CATEGORY},
+            callbackAnswer = "📰 Получаю новости...")
+    public void handleNewsCategoryCommand(CommandContext context) {
+        long chatId = context.getChatId();
+
+        if (!context.hasArgs()) {
             String categories = """
                      📋 *Доступные категории новостей:*
                                         \s
@@ -177,7 +256,7 @@ public class CommandHandler {
             sendMessage(chatId, categories);
         } else {
             try {
-                String category = String.join(" ", Arrays.copyOfRange(parts, 1, parts.length));
+                String category = context.args();
                 sendMessage(chatId, "📡 Получаю новости категории '" + category + "'...");
                 String news = newsApiService.getTopHeadlinesForCategory(category, 5);
                 sendMessage(chatId, news);
@@ -188,11 +267,12 @@ public class CommandHandler {
         }
     }
 
-    public void handleNewsCountryCommand(long chatId, String messageText) {
-        String normalizedText = messageText.replace("/newscountry", "/news_country");
-        String[] parts = normalizedText.split(" ");
+    @CommandMapping(value = {"/news_country", "/newscountry", Button.NEWS_BY_COUNTRY},
+            callbackAnswer = "📰 Получаю новости...")
+    public void handleNewsCountryCommand(CommandContext context) {
+        long chatId = context.getChatId();
 
-        if (parts.length == 1) {
+        if (!context.hasArgs()) {
             String countries = """
                      🌍 Доступные страны:
                                         \s
@@ -211,7 +291,7 @@ public class CommandHandler {
             sendMessage(chatId, countries);
         } else {
             try {
-                String country = String.join(" ", Arrays.copyOfRange(parts, 1, parts.length));
+                String country = context.args();
                 sendMessage(chatId, "📡 Получаю новости для " + country + "...");
                 String news = newsApiService.getTopHeadlinesForCountry(country, 5);
                 sendMessage(chatId, news);
@@ -222,11 +302,12 @@ public class CommandHandler {
         }
     }
 
-    public void handleNewsSearchCommand(long chatId, String messageText) {
-        String normalizedText = messageText.replace("/newssearch", "/news_search");
-        String[] parts = normalizedText.split(" ");
+    @CommandMapping(value = {"/news_search", "/newssearch", Button.NEWS_SEARCH},
+            callbackAnswer = "📰 Получаю новости...")
+    public void handleNewsSearchCommand(CommandContext context) {
+        long chatId = context.getChatId();
 
-        if (parts.length == 1) {
+        if (!context.hasArgs()) {
             sendMessage(chatId,
                     "🔍 Поиск новостей\n\n" +
                     "Использование: /news_search [запрос]\n" +
@@ -235,7 +316,7 @@ public class CommandHandler {
                     "Я найду самые свежие новости по вашему запросу.");
         } else {
             try {
-                String query = String.join(" ", Arrays.copyOfRange(parts, 1, parts.length));
+                String query = context.args();
                 sendMessage(chatId, "🔍 Ищу новости по запросу: " + query + "...");
                 String news = newsApiService.searchNews(query, 5);
                 sendMessage(chatId, news);
@@ -247,136 +328,38 @@ public class CommandHandler {
     }
 
     /**
-     * Обработка callback-запросов от inline клавиатуры
+     * Ответ на кнопки регистрации
      */
-    public void handleCallbackQuery(CallbackQuery callbackQuery) {
-        try {
-            long chatId = callbackQuery.getMessage().getChatId();
-            Long userId = callbackQuery.getFrom().getId();
-            String callbackData = callbackQuery.getData();
-            Integer messageId = callbackQuery.getMessage().getMessageId();
+    @CommandMapping({Button.YES_BUTTON, Button.NO_BUTTON})
+    public void handleRegistrationChoice(CommandContext context) {
+        long chatId = context.getChatId();
+        String response = Button.YES_BUTTON.equals(context.getText())
+                ? "✅ Вы согласились на регистрацию!"
+                : "❌ Вы отказались от регистрации";
 
-            log.info("Received callback query from chat {}: {}", chatId, callbackData);
+        sendMessage(chatId, response);
 
-            AnswerCallbackQuery answer = new AnswerCallbackQuery();
-            answer.setCallbackQueryId(callbackQuery.getId());
-
-
-            if (callbackData != null && callbackData.startsWith("/context")) {
-                answer.setText("✅ Обрабатываю команду...");
-                try {
-                    messageSender.getBot().execute(answer);
-                } catch (Exception e) {
-                    log.warn("Could not send callback answer: {}", e.getMessage());
-                }
-
-
-                handleContextCommand(chatId, userId, callbackData);
-
-            } else if (callbackData != null && callbackData.startsWith("/news")) {
-
-                answer.setText("📰 Получаю новости...");
-                try {
-                    messageSender.getBot().execute(answer);
-                } catch (Exception e) {
-                    log.warn("Could not send callback answer: {}", e.getMessage());
-                }
-
-                handleNewsCallback(chatId, callbackData);
-
-            } else if (callbackData != null) {
-                handleOtherCallback(chatId, userId, callbackData, messageId);
-
-            } else {
-                answer.setText("❌ Неизвестная команда");
-                try {
-                    messageSender.getBot().execute(answer);
-                } catch (Exception e) {
-                    log.warn("Could not send callback answer: {}", e.getMessage());
-                }
+        Integer messageId = context.getMessageId();
+        if (context.isCallback() && messageId != null) {
+            try {
+                messageSender.editMessage(chatId, messageId, "Ваш выбор принят!");
+            } catch (Exception e) {
+                log.warn("Could not edit message: {}", e.getMessage());
             }
-
-        } catch (Exception e) {
-            log.error("Error handling callback query: {}", e.getMessage(), e);
-        }
-    }
-
-    /**
-     * Обработка новостных callback-команд
-     */
-    private void handleNewsCallback(long chatId, String callbackData) {
-        String[] parts = callbackData.split(" ");
-
-        if (parts.length == 0) {
-            return;
-        }
-
-        String command = parts[0];
-
-        switch (command) {
-            case "/news_category":
-                if (parts.length > 1) {
-                    String category = parts[1];
-                    String fullCommand = "/news_category " + category;
-                    handleNewsCategoryCommand(chatId, fullCommand);
-                } else {
-                    handleNewsCategoryCommand(chatId, "/news_category");
-                }
-                break;
-
-            case "/news_country":
-                if (parts.length > 1) {
-                    String country = parts[1];
-                    String fullCommand = "/news_country " + country;
-                    handleNewsCountryCommand(chatId, fullCommand);
-                } else {
-                    handleNewsCountryCommand(chatId, "/news_country");
-                }
-                break;
-
-            case "/news_search":
-                if (parts.length > 1) {
-                    String query = String.join(" ", Arrays.copyOfRange(parts, 1, parts.length));
-                    String fullCommand = "/news_search " + query;
-                    handleNewsSearchCommand(chatId, fullCommand);
-                } else {
-                    handleNewsSearchCommand(chatId, "/news_search");
-                }
-                break;
-
-            case "/topnews":
-                if (parts.length > 1) {
-                    String country = parts[1];
-                    String category = parts.length > 2 ? parts[2] : "";
-                    String fullCommand = "/topnews " + country + " " + category;
-                    handleTopNewsCommand(chatId, fullCommand);
-                } else {
-                    handleTopNewsCommand(chatId, "/topnews");
-                }
-                break;
         }
     }
 
     /**
-     * Обработка других callback-данных
+     * Рассылка сообщения всем пользователям (только для владельца)
      */
-    private void handleOtherCallback(long chatId, Long userId, String callbackData, Integer messageId) {
-
-        if ("BUTTON_YES".equals(callbackData) || "BUTTON_NO".equals(callbackData)) {
-            String response = callbackData.equals("BUTTON_YES")
-                    ? "✅ Вы согласились на регистрацию!"
-                    : "❌ Вы отказались от регистрации";
-
-            sendMessage(chatId, response);
-
-            if (messageId != null) {
-                try {
-                    messageSender.editMessage(chatId, messageId, "Ваш выбор принят!");
-                } catch (Exception e) {
-                    log.warn("Could not edit message: {}", e.getMessage());
-                }
-            }
+    @CommandMapping(value = "/send", ownerOnly = true)
+    public void handleBroadcastCommand(CommandContext context) {
+        var textToSend = EmojiParser.parseToUnicode(context.args());
+        var users = userService.getAllUsers();
+        for (var user : users) {
+            messageSender.sendMessage(user.getId(), textToSend);
         }
+        log.info("Broadcast message sent to {} users", users.size());
     }
 
     /**
@@ -396,29 +379,35 @@ public class CommandHandler {
     /**
      * Обновленный метод управления контекстом
      */
-    public void handleContextCommand(long chatId, Long userId, String messageText) {
-        String[] parts = messageText.split(" ");
+    @CommandMapping(value = {"/context", Button.CONTEXT}, callbackAnswer = "✅ Обрабатываю команду...")
+    public void handleContextCommand(CommandContext context) {
+        long chatId = context.getChatId();
+        Long userId = context.getUserId();
 
-        if (parts.length == 1) {
+        if (!context.hasArgs()) {
             showContextMenu(chatId);
 
         } else {
-            String subCommand = parts[1].toLowerCase();
+            String subCommand = context.arg(0).toLowerCase();
 
             switch (subCommand) {
                 case "clear":
-                    rateLimitService.debugPrintState(userId);
-                    int before = rateLimitService.getUsedAiRequests(userId);
+                    // выполняющиеся ответы пользователя (в любом чате) относятся к старому
+                    // контексту: отменяем их и очищаем историю после их завершения
+                    aiRequestPipeline.cancel(userId);
+                    aiRequestPipeline.runAfterCurrent(chatId, userId, () -> {
+                        int before = rateLimitService.getUsedAiRequests(userId);
 
-                    openRouterService.clearConversationHistory(userId);
+                        openRouterService.clearConversationHistory(userId);
 
-                    rateLimitService.debugPrintState(userId);
-                    int after = rateLimitService.getUsedAiRequests(userId);
+                        rateLimitService.debugPrintState(userId);
+                        int after = rateLimitService.getUsedAiRequests(userId);
 
-                    log.info("🧹 Context cleared for user {} - AI requests: before={}, after={}",
-                            userId, before, after);
+                        log.info("🧹 Context cleared for user {} - AI requests: before={}, after={}",
+                                userId, before, after);
 
-                    sendMessage(chatId, "✅ История разговора очищена");
+                        sendMessage(chatId, "✅ История разговора очищена");
+                    });
                     break;
 
                 case "show":
@@ -474,7 +463,10 @@ public class CommandHandler {
         }
     }
 
-    private void handleMyDataCommand(long chatId, Message message) {
+    @CommandMapping(value = "/my_data", messageOnly = true)
+    public void handleMyDataCommand(CommandContext context) {
+        long chatId = context.getChatId();
+        Message message = context.getMessage();
         User user = userService.getUser(message);
         if (user != null) {
             sendMessage(chatId, userService.formatUserData(user));
@@ -483,8 +475,10 @@ public class CommandHandler {
         }
     }
 
-    private void handleDeleteDataCommand(long chatId, Message message) {
-        boolean isSuccess = userService.deleteUser(message);
+    @CommandMapping(value = "/delete_data", messageOnly = true)
+    public void handleDeleteDataCommand(CommandContext context) {
+        long chatId = context.getChatId();
+        boolean isSuccess = userService.deleteUser(context.getMessage());
         if (isSuccess) {
             sendMessage(chatId, "✅ Данные успешно удалены");
         } else {
@@ -492,9 +486,15 @@ public class CommandHandler {
         }
     }
 
-    private void handleUsageCommand(long chatId, Long userId) {
-        String usageInfo = rateLimitService.getUsageInfo(userId);
-        sendMessage(chatId, usageInfo);
+    @CommandMapping({"/usage", Button.USAGE})
+    public void handleUsageCommand(CommandContext context) {
+        String usageInfo = rateLimitService.getUsageInfo(context.getUserId());
+        sendMessage(context.getChatId(), usageInfo);
+    }
+
+    @CommandMapping({"/time", Button.TIME})
+    public void handleTimeCommand(CommandContext context) {
+        showCurrentTime(context.getChatId());
     }
 
     private void showCurrentTime(long chatId) {
@@ -504,6 +504,11 @@ public class CommandHandler {
         sendMessage(chatId, "⏰ Текущее время: " + formattedTime);
     }
 
+    @CommandMapping({"/joke", Button.JOKE})
+    public void handleJokeCommand(CommandContext context) {
+        getRandomJoke(context.getChatId());
+    }
+
     public void getRandomJoke(Long chatId) {
         try {
             String joke = jokerService.getJoke();
@@ -541,22 +546,24 @@ public class CommandHandler {
         sendMessage(chatId, newsHelp);
     }
 
-    public void handleTopNewsCommand(long chatId, String messageText) {
-        String[] parts = messageText.split(" ");
+    @CommandMapping(value = {"/topnews", Button.TOP_NEWS}, callbackAnswer = "📰 Получаю новости...")
+    public void handleTopNewsCommand(CommandContext context) {
+        long chatId = context.getChatId();
+        int argCount = context.argCount();
 
         try {
-            if (parts.length == 1) {
+            if (argCount == 0) {
                 sendMessage(chatId, "📡 Получаю главные новости USA...");
                 String news = newsApiService.getTopHeadlinesForCountry("us", 5);
                 sendMessage(chatId, news);
-            } else if (parts.length == 2) {
-                String country = parts[1];
+            } else if (argCount == 1) {
+                String country = context.arg(0);
                 sendMessage(chatId, "📡 Получаю главные новости для " + country + "...");
                 String news = newsApiService.getTopHeadlinesForCountry(country, 5);
                 sendMessage(chatId, news);
-            } else if (parts.length >= 3) {
-                String country = parts[1];
-                String category = String.join(" ", Arrays.copyOfRange(parts, 2, parts.length));
+            } else {
+                String country = context.arg(0);
+                String category = context.argsFrom(1);
                 sendMessage(chatId, "📡 Получаю новости категории '" + category + "' для " + country + "...");
                 String news = newsApiService.getTopHeadlinesForCountryAndCategory(country, category, 5);
                 sendMessage(chatId, news);
@@ -569,72 +576,323 @@ public class CommandHandler {
 
 
     /**
-     * Обработка AI запросов с разбивкой и очередью
+     * Обработка AI запроса. Запрос ставится в асинхронный конвейер чата,
+     * обработчик обновления освобождается сразу.
      */
     public void handleAiRequest(long chatId, Long userId, String messageText) {
-        String question = extractQuestion(messageText);
+        String question = messageText.trim();
 
         if (question.isEmpty()) {
             sendMessage(chatId, "❓ Пожалуйста, введите ваш вопрос");
             return;
         }
 
-        if (!rateLimitService.canMakeAiRequest(userId)) {
-            sendMessage(chatId,
-                    "❌ Лимит AI-запросов исчерпан (5/день). Попробуйте завтра!\n" +
-                    "Используйте /usage для проверки лимитов");
-            return;
+        // новый вопрос делает ненужным ответ на предыдущий вопрос того же пользователя
+        aiRequestPipeline.cancel(userId);
+
+        aiRequestPipeline.submit(chatId, userId,
+                        () -> answerAiRequest(chatId, userId, question),
+                        reply -> deliverAiReply(chatId, userId, reply))
+                .exceptionally(error -> {
+                    if (error.getCause() instanceof CancellationException) {
+                        log.debug("AI request of user {} was cancelled", userId);
+                        return null;
+                    }
+                    log.error("❌ AI pipeline error for user {}: {}", userId, error.getMessage(), error);
+                    sendMessage(chatId, "⚠️ Ошибка при обращении к AI. Попробуйте позже.");
+                    return null;
+                });
+    }
+
+    /**
+     * Шаг конвейера: лимиты, кэш, сообщение "Думаю..." и получение ответа.
+     * Лимит резервируется здесь, а не при получении сообщения: предыдущий запрос
+     * чата к этому моменту уже учтен. Резерв списывается по фактическому usage
+     * после ответа, а если ответа нет - возвращается.
+     *
+     * @return части ответа для доставки (пустой список, если ответ уже показан)
+     */
+    private AiReply answerAiRequest(long chatId, Long userId, String question) throws Exception {
+        boolean chargeCacheHits = openRouterService.isChargingCacheHits();
+
+        if (!chargeCacheHits) {
+            AiReply cached = findCachedReply(userId, question, null);
+            if (cached != null) {
+                return cached;
+            }
         }
 
-        int remaining = rateLimitService.getRemainingAiRequests(userId);
+        RateLimitService.Reservation reservation =
+                rateLimitService.reserve(userId, openRouterService.estimatePromptTokens(userId, question));
+        if (reservation == null) {
+            sendMessage(chatId, rateLimitService.getLimitExceededMessage());
+            return AiReply.DELIVERED;
+        }
 
         try {
-            String thinkingText = "🤔 Думаю над ответом... (осталось AI запросов: " + remaining + ")";
-            sendMessage(chatId, thinkingText);
+            if (chargeCacheHits) {
+                AiReply cached = findCachedReply(userId, question, reservation);
+                if (cached != null) {
+                    return cached;
+                }
+            }
 
-            List<String> responseParts = openRouterService.generateResponseAsParts(userId, question);
+            return requestAiAnswer(chatId, userId, question, reservation);
+        } finally {
+            rateLimitService.refund(reservation);
+        }
+    }
 
-            if (responseParts.isEmpty()) {
-                sendMessage(chatId, "⚠️ Получен пустой ответ от AI. Попробуйте переформулировать вопрос.");
-                return;
+    /**
+     * Сообщение "Думаю...", очередь к модели и сам запрос
+     */
+    private AiReply requestAiAnswer(long chatId, Long userId, String question,
+                                    RateLimitService.Reservation reservation) throws Exception {
+        String thinkingText = "🤔 Думаю над ответом... (" + rateLimitService.describeRemaining(userId) + ")";
+
+        Integer thinkingMessageId = messageSender.sendPlainTextReturningId(chatId, thinkingText);
+        boolean streaming = openRouterService.isStreamingEnabled() && thinkingMessageId != null;
+        if (openRouterService.isStreamingEnabled() && !streaming) {
+            log.warn("Could not send thinking message to chat {}, falling back to blocking request", chatId);
+        }
+
+        AtomicBoolean waitedInQueue = new AtomicBoolean();
+        AiJobScheduler.QueueListener queueListener = (position, etaSeconds) -> {
+            if (thinkingMessageId != null) {
+                waitedInQueue.set(true);
+                messageSender.editMessage(chatId, thinkingMessageId, String.format(
+                        "⏳ Сейчас много вопросов к AI. Вы в очереди: %d-й, ожидание примерно %d с", position, etaSeconds));
             }
+        };
 
-            messageSender.sendAiResponse(chatId, responseParts.get(0));
+        try {
+            return aiJobScheduler.execute(chatId, userId, isOwner(userId), aiJobCost(question), queueListener, () -> {
+                if (waitedInQueue.get()) {
+                    messageSender.editMessage(chatId, thinkingMessageId, thinkingText);
+                }
 
-            if (responseParts.size() > 1) {
-                String notice = String.format(
-                        "📄 Ответ состоит из %d частей. Отправляю продолжение...",
-                        responseParts.size()
-                );
+                if (streaming) {
+                    streamAiResponse(chatId, userId, question, thinkingMessageId, reservation);
+                    return AiReply.DELIVERED;
+                }
+                return generateAiResponse(userId, question, thinkingMessageId, reservation);
+            });
+
+        } catch (UpstreamUnavailableException e) {
+            return new AiReply(thinkingMessageId, List.of(e.getMessage()), false);
+        } catch (CancellationException | InterruptedException e) {
+            // пользователь задал новый вопрос или очистил контекст;
+            // потоковый ответ сам заменяет сообщение, если отмена пришла во время потока
+            if (thinkingMessageId != null && (e instanceof InterruptedException || !streaming)) {
+                Thread.interrupted();
+                messageSender.editMessage(chatId, thinkingMessageId, AI_REQUEST_CANCELLED);
+            }
+            throw new CancellationException("AI request was cancelled");
+        }
+    }
 
-                messageQueueService.enqueueMessage(chatId, notice, 1000);
+    /**
+     * Стоимость вопроса для очереди: длинные вопросы занимают модель дольше
+     */
+    private static int aiJobCost(String question) {
+        return 1 + TokenEstimator.estimate(question) / 200;
+    }
 
-                messageQueueService.enqueueAiResponses(chatId,
-                        responseParts.subList(1, responseParts.size()),
-                        2000);
-            }
+    /**
+     * Обычный (не потоковый) ответ AI, части доставляются в {@link #deliverAiReply}
+     */
+    private AiReply generateAiResponse(Long userId, String question, Integer thinkingMessageId,
+                                       RateLimitService.Reservation reservation) {
+        List<String> responseParts;
+        try {
+            responseParts = openRouterService.generateResponseAsParts(userId, question, reservation::addUsage);
+        } catch (AiServiceException e) {
+            return new AiReply(thinkingMessageId, List.of(e.getMessage()), false);
+        }
 
-            rateLimitService.registerAiRequest(userId);
+        if (responseParts.isEmpty()) {
+            return new AiReply(thinkingMessageId,
+                    List.of("⚠️ Получен пустой ответ от AI. Попробуйте переформулировать вопрос."), false);
+        }
 
-            log.info("✅ AI response sent for user {} in {} parts (remaining: {})",
-                    userId, responseParts.size(), remaining - 1);
+        rateLimitService.settle(reservation);
 
-        } catch (Exception e) {
-            log.error("❌ AI request error for user {}: {}", userId, e.getMessage(), e);
-            sendMessage(chatId, "⚠️ Ошибка при обращении к AI. Попробуйте позже.");
+        log.info("✅ AI response ready for user {} in {} parts ({})",
+                userId, responseParts.size(), rateLimitService.describeRemaining(userId));
+
+        return new AiReply(thinkingMessageId, responseParts, true);
+    }
+
+    /**
+     * Ответ из кэша на вопрос без контекста, без обращения к OpenRouter
+     *
+     * @param reservation резерв лимита, который списывается при попадании, или null, если попадание бесплатно
+     * @return ответ или null, если в кэше его нет
+     */
+    private AiReply findCachedReply(Long userId, String question, RateLimitService.Reservation reservation) {
+        List<String> responseParts = openRouterService.findCachedAnswerParts(userId, question);
+        if (responseParts.isEmpty()) {
+            return null;
+        }
+
+        if (reservation != null) {
+            rateLimitService.settle(reservation);
         }
+
+        log.info("✅ Cached AI response for user {} in {} parts (charged: {})",
+                userId, responseParts.size(), reservation != null);
+        return new AiReply(null, responseParts, true);
     }
 
+    /**
+     * Доставка ответа: первая часть заменяет сообщение "Думаю..." (одно редактирование
+     * вместо нового сообщения), остальные части отправляются следом по порядку.
+     */
+    private void deliverAiReply(long chatId, Long userId, AiReply reply) {
+        List<String> parts = reply.parts();
+        if (parts.isEmpty()) {
+            return;
+        }
 
-    public void handleCreditsCommand(long chatId) {
-        if (config.getBotOwner().equals(chatId)) {
-            String creditsInfo = openRouterLimitService.getUsageInfo();
-            sendMessage(chatId, creditsInfo);
+        String first = parts.get(0);
+        if (reply.thinkingMessageId() == null) {
+            sendReplyPart(chatId, first, reply.aiText());
+        } else if (reply.aiText()) {
+            messageSender.editAiResponse(chatId, reply.thinkingMessageId(), first);
         } else {
-            sendMessage(chatId, "❌ Эта команда только для владельца бота");
+            messageSender.editMessage(chatId, reply.thinkingMessageId(), first);
+        }
+
+        for (String part : parts.subList(1, parts.size())) {
+            sendReplyPart(chatId, part, reply.aiText());
+        }
+
+        log.debug("📨 AI reply for user {} delivered in {} parts", userId, parts.size());
+    }
+
+    private void sendReplyPart(long chatId, String text, boolean aiText) {
+        if (aiText) {
+            messageSender.sendAiResponse(chatId, text);
+        } else {
+            sendMessage(chatId, text);
         }
     }
 
+    /**
+     * Потоковый ответ AI: сообщение "Думаю..." постепенно заменяется текстом ответа
+     */
+    private void streamAiResponse(long chatId, Long userId, String question, int thinkingMessageId,
+                                  RateLimitService.Reservation reservation) {
+        StreamingMessageEditor.Session session = streamingMessageEditor.open(chatId, thinkingMessageId);
+
+        try {
+            openRouterService.streamResponse(userId, question, session, reservation::addUsage);
+            session.finish();
+
+            rateLimitService.settle(reservation);
+
+            log.info("✅ AI response streamed for user {} in {} messages, {} edits ({})",
+                    userId, session.getMessageCount(), session.getEdits(), rateLimitService.describeRemaining(userId));
+
+        } catch (Exception e) {
+            if (aiRequestPipeline.isCurrentCancelled()) {
+                Thread.interrupted();
+                session.fail(AI_REQUEST_CANCELLED);
+                throw new CancellationException("AI request was cancelled");
+            }
+            if (e instanceof AiServiceException) {
+                session.fail(e.getMessage());
+            } else {
+                log.error("❌ AI streaming error for user {}: {}", userId, e.getMessage(), e);
+                session.fail("⚠️ Ошибка при обращении к AI. Попробуйте позже.");
+            }
+        }
+    }
+
+    /**
+     * Результат шага AI запроса
+     *
+     * @param thinkingMessageId сообщение "Думаю...", которое заменяется первой частью (или null)
+     * @param parts             части для отправки; пусто, если ответ уже показан (поток, лимит)
+     * @param aiText            части - текст модели (Markdown), а не служебное сообщение
+     */
+    private record AiReply(Integer thinkingMessageId, List<String> parts, boolean aiText) {
+        static final AiReply DELIVERED = new AiReply(null, List.of(), false);
+    }
+
+
+    @CommandMapping(value = "/credits", ownerOnly = true)
+    public void handleCreditsCommand(CommandContext context) {
+        String creditsInfo = openRouterLimitService.getUsageInfo();
+        sendMessage(context.getChatId(), creditsInfo);
+    }
+
+    /**
+     * Статистика дорожек диспетчера (только для владельца)
+     */
+    @CommandMapping(value = "/lanes", ownerOnly = true)
+    public void handleLanesCommand(CommandContext context) {
+        messageSender.sendPlainTextNoMarkdown(context.getChatId(), updateDispatcher.getFormattedStats());
+    }
+
+    /**
+     * Статистика AI запросов: время до первого токена, длительность ответов (только для владельца)
+     */
+    @CommandMapping(value = "/ai_stats", ownerOnly = true)
+    public void handleAiStatsCommand(CommandContext context) {
+        messageSender.sendPlainTextNoMarkdown(context.getChatId(), openRouterService.getFormattedAiStats());
+    }
+
+    /**
+     * Модели-кандидаты: доля успешных ответов, задержка p50/p95, пауза после ошибок (только для владельца)
+     */
+    @CommandMapping(value = "/models", ownerOnly = true)
+    public void handleModelsCommand(CommandContext context) {
+        messageSender.sendPlainTextNoMarkdown(context.getChatId(), openRouterService.getFormattedModelStats());
+    }
+
+    /**
+     * Очередь AI запросов: выполняется, ждет, среднее ожидание (только для владельца)
+     */
+    @CommandMapping(value = "/ai_queue", ownerOnly = true)
+    public void handleAiQueueCommand(CommandContext context) {
+        Map<String, Object> pipelineStats = aiRequestPipeline.getStats();
+
+        messageSender.sendPlainTextNoMarkdown(context.getChatId(), aiJobScheduler.getFormattedStats()
+                + String.format("""
+
+                                🔀 Конвейер чатов:
+                                • Выполняется: %d (чатов: %d)
+                                • Ждали предыдущий запрос своего чата: %d
+                                • Завершено: %d (с ошибкой: %d)
+                                • Отменено: %d (из них во время запроса: %d, впустую %d мс)
+                                """,
+                        pipelineStats.get("inFlight"), pipelineStats.get("activeChats"),
+                        pipelineStats.get("queuedBehindPrevious"),
+                        pipelineStats.get("completed"), pipelineStats.get("failed"),
+                        pipelineStats.get("cancelled"), pipelineStats.get("cancelledRunning"),
+                        pipelineStats.get("cancelledWorkMs")));
+    }
+
+    /**
+     * Расход токенов и денег по пользователям и моделям: /spend [дней] (только для владельца)
+     */
+    @CommandMapping(value = "/spend", ownerOnly = true)
+    public void handleSpendCommand(CommandContext context) {
+        int days;
+        try {
+            days = context.args().isBlank() ? 1 : Integer.parseInt(context.args().trim());
+        } catch (NumberFormatException e) {
+            days = 0;
+        }
+        if (days <= 0 || days > 366) {
+            messageSender.sendPlainTextNoMarkdown(context.getChatId(), "❌ Использование: /spend [дней от 1 до 366]");
+            return;
+        }
+
+        messageSender.sendPlainTextNoMarkdown(context.getChatId(), usageAccountingService.getFormattedSpend(days));
+    }
+
     /**
      * Обновленная команда /start с информацией о контексте
      */
@@ -664,12 +922,4 @@ public class CommandHandler {
         InlineKeyboardMarkup keyboard = keyboardManager.createRegistrationKeyboard();
         messageSender.sendMessageWithInlineKeyboard(chatId, messageText, keyboard);
     }
-
-    private String extractQuestion(String messageText) {
-        if (messageText.startsWith("/ai")) {
-            return messageText.length() > 4 ? messageText.substring(4).trim() : "";
-        }
-        return messageText.trim();
-    }
-
 }
\ No newline at end of file
@@ -0,0 +1,88 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.remaslover.telegrambotaq.config.SystemPrompt;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ChatMemory} Spring AI поверх {@link ConversationContextService}.
+ * Идентификатор разговора - userId.
+ * <p>
+ * {@link #get} возвращает историю в том же виде, что уходит в обычный запрос
+ * (краткое содержание, сборка по бюджету токенов), но без системного промпта:
+ * его добавляет сам ChatClient (defaultSystem).
+ * Сообщения не пишутся в память автоматически (MessageChatMemoryAdvisor не используется):
+ * при хеджировании запрос выполняется дважды, и сохранять нужно только
+ * ответ победившей попытки.
+ */
+@Component
+public class ConversationChatMemory implements ChatMemory {
+
+    private final ConversationContextService conversationContextService;
+    private final SystemPrompt systemPrompt;
+
+    public ConversationChatMemory(ConversationContextService conversationContextService, SystemPrompt systemPrompt) {
+        this.conversationContextService = conversationContextService;
+        this.systemPrompt = systemPrompt;
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        Long userId = userId(conversationId);
+        for (Message message : messages) {
+            switch (message.getMessageType()) {
+                case USER -> conversationContextService.addUserMessage(userId, message.getText());
+                case ASSISTANT -> conversationContextService.addAssistantMessage(userId, message.getText());
+                default -> {
+                }
+            }
+        }
+    }
+
+    @Override
+    public List<Message> get(String conversationId) {
+        List<Map<String, String>> conversation =
+                conversationContextService.getFullConversation(userId(conversationId), systemPrompt.text());
+
+        List<Message> messages = new ArrayList<>(conversation.size() - 1);
+        for (Map<String, String> message : conversation.subList(1, conversation.size())) {
+            messages.add(toMessage(message.get("role"), message.get("content")));
+        }
+        return messages;
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        conversationContextService.clearHistory(userId(conversationId));
+    }
+
+    public static String conversationId(Long userId) {
+        return String.valueOf(userId);
+    }
+
+    private static Long userId(String conversationId) {
+        try {
+            return Long.valueOf(conversationId);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Conversation id must be a Telegram user id: " + conversationId, e);
+        }
+    }
+
+    private static Message toMessage(String role, String content) {
+        return switch (MessageType.fromValue(role)) {
+            case USER -> new UserMessage(content);
+            case ASSISTANT -> new AssistantMessage(content);
+            case SYSTEM -> new SystemMessage(content);
+            case TOOL -> throw new IllegalStateException("Tool messages are not stored in conversation history");
+        };
+    }
+}
@@ -2,18 +2,42 @@ package com.remaslover.telegrambotaq.service;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.remaslover.telegrambotaq.config.CacheConfig;
+import com.remaslover.telegrambotaq.config.ColdTierConfig;
+import com.remaslover.telegrambotaq.config.ConversationStoreConfig;
+import com.remaslover.telegrambotaq.util.MessageRing;
+import com.remaslover.telegrambotaq.util.MessageRing.Message;
+import com.remaslover.telegrambotaq.util.TokenEstimator;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.nio.ByteBuffer;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Сервис для управления контекстом разговоров с использованием Caffeine Cache.
  * Потокобезопасное хранение истории диалогов пользователей.
+ * <p>
+ * Кэш стоит перед {@link ConversationStore}: при промахе разговор читается из хранилища
+ * (read-through), а изменения пишутся в него асинхронно пачками ({@link ConversationWriteBehind}),
+ * поэтому вытеснение из кэша и перезапуск не теряют историю.
+ * <p>
+ * С включенным холодным уровнем ({@link ColdTierConfig}) разговор, простаивающий
+ * idle-seconds или вытесненный по размеру, сжимается в {@link ColdConversationTier}
+ * и распаковывается при следующем обращении раньше, чем идет чтение из хранилища.
+ * Так же при первом обращении после перезапуска читаются разговоры из снимка
+ * состояния ({@link StateSnapshotService}).
  */
 @Service
 public class ConversationContextService {
@@ -23,18 +47,286 @@ public class ConversationContextService {
     private final Cache<Long, Conversation> conversationCache;
     private final CacheConfig cacheConfig;
 
+    private final AtomicLong assembledPrompts = new AtomicLong();
+    private final AtomicLong totalPromptTokens = new AtomicLong();
+    private final AtomicLong lastPromptTokens = new AtomicLong();
+    private final AtomicLong droppedMessages = new AtomicLong();
+
+    private final ConversationSummarizer summarizer;
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong compactedMessages = new AtomicLong();
+    private final AtomicLong compactionFailures = new AtomicLong();
+
+    private final ConversationStore store;
+    private final ConversationWriteBehind writeBehind;
+    /**
+     * Пользователи, которых точно нет в хранилище: повторный промах не ходит в базу
+     */
+    private final Cache<Long, Boolean> absentInStore;
+    private final AtomicLong readThroughHits = new AtomicLong();
+    private final AtomicLong readThroughMisses = new AtomicLong();
+    private final AtomicLong readThroughFailures = new AtomicLong();
+    private final AtomicLong readThroughNanos = new AtomicLong();
+
+    /**
+     * Холодный уровень со сжатыми разговорами или null, если он выключен
+     */
+    private final ColdConversationTier coldTier;
+
+    /**
+     * Закодированные разговоры из снимка состояния, еще не прочитанные после старта
+     */
+    private final Map<Long, ByteBuffer> warmSnapshots = new ConcurrentHashMap<>();
+    private final AtomicLong warmSnapshotHits = new AtomicLong();
+    private volatile long warmUntil;
+
     public ConversationContextService(CacheConfig cacheConfig) {
+        this(cacheConfig, null);
+    }
+
+    public ConversationContextService(CacheConfig cacheConfig, ConversationSummarizer summarizer) {
+        this(cacheConfig, summarizer, new InMemoryConversationStore(), new ConversationStoreConfig());
+    }
+
+    public ConversationContextService(CacheConfig cacheConfig, ConversationSummarizer summarizer,
+                                      ConversationStore store, ConversationStoreConfig storeConfig) {
+        this(cacheConfig, summarizer, store, storeConfig, new ColdTierConfig());
+    }
+
+    @Autowired
+    public ConversationContextService(CacheConfig cacheConfig, ConversationSummarizer summarizer,
+                                      ConversationStore store, ConversationStoreConfig storeConfig,
+                                      ColdTierConfig coldTierConfig) {
         this.cacheConfig = cacheConfig;
+        this.summarizer = summarizer;
+        this.store = store;
+        this.writeBehind = new ConversationWriteBehind(store, storeConfig.getFlushIntervalMs(),
+                storeConfig.getBatchSize());
+        this.absentInStore = Caffeine.newBuilder()
+                .maximumSize(cacheConfig.getMaxSize())
+                .expireAfterWrite(cacheConfig.getTtlMinutes(), TimeUnit.MINUTES)
+                .build();
 
         log.info("Инициализация ConversationContextService");
         log.info(cacheConfig.getConfigSummary());
 
-        this.conversationCache = cacheConfig.<Long, Conversation>createCaffeineBuilder()
-                .removalListener(this::onRemoval)
-                .build();
+        Caffeine<Long, Conversation> builder;
+        if (coldTierConfig.isEnabled()) {
+            this.coldTier = new ColdConversationTier(coldTierConfig);
+            // evictionListener выполняется атомарно с вытеснением: параллельное
+            // обращение к тому же пользователю дождется, пока разговор ляжет в холодный уровень
+            builder = cacheConfig.createCaffeineBuilder(coldTierConfig.getIdleSeconds())
+                    .removalListener(this::onRemoval)
+                    .evictionListener(this::demote);
+            log.info("🧊 Холодный уровень включен: простой {} с, до {} МБ сжатых данных{}",
+                    coldTierConfig.getIdleSeconds(), coldTierConfig.getMaxMb(),
+                    coldTierConfig.isOffHeap() ? " вне кучи" : "");
+        } else {
+            this.coldTier = null;
+            builder = cacheConfig.createCaffeineBuilder()
+                    .removalListener(this::onRemoval);
+        }
+        if (cacheConfig.isWeightBased()) {
+            builder = builder.weigher((userId, conversation) -> conversation.weight());
+        }
+        this.conversationCache = builder.build();
 
         cacheConfig.validate();
-        log.info("✅ Кэш успешно инициализирован");
+        log.info("✅ Кэш успешно инициализирован, хранилище разговоров: {}", store.name());
+    }
+
+    /**
+     * Записывает накопленные изменения в хранилище перед остановкой
+     */
+    @PreDestroy
+    public void shutdown() {
+        writeBehind.close();
+    }
+
+    /**
+     * Разговоры основного кэша для снимка состояния
+     */
+    List<ConversationSnapshot> exportConversations() {
+        List<ConversationSnapshot> result = new ArrayList<>((int) conversationCache.estimatedSize());
+        conversationCache.asMap().forEach((userId, conversation) -> result.add(conversation.snapshot(userId)));
+        return result;
+    }
+
+    /**
+     * Сжатые разговоры холодного уровня для снимка состояния
+     */
+    List<ColdConversationTier.Entry> exportColdConversations() {
+        return coldTier == null ? List.of() : coldTier.export();
+    }
+
+    /**
+     * Подключает разговоры из снимка состояния без разбора: закодированные записи
+     * (обычно срезы отображенного в память файла) декодируются при первом промахе кэша.
+     * Пользователи, уже попавшие в кэш, пропускаются. Через ttl-minutes кэша
+     * неиспользованные записи отбрасываются: к этому времени разговор все равно истек бы.
+     *
+     * @return количество подключенных разговоров
+     */
+    int restoreConversations(Map<Long, ByteBuffer> encoded) {
+        int restored = 0;
+        for (Map.Entry<Long, ByteBuffer> entry : encoded.entrySet()) {
+            if (conversationCache.getIfPresent(entry.getKey()) == null) {
+                warmSnapshots.put(entry.getKey(), entry.getValue());
+                restored++;
+            }
+        }
+        warmUntil = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(cacheConfig.getTtlMinutes());
+        absentInStore.invalidateAll();
+        return restored;
+    }
+
+    /**
+     * Возвращает сжатый разговор из снимка в холодный уровень
+     *
+     * @return false, если холодный уровень выключен
+     */
+    boolean restoreColdConversation(ColdConversationTier.Entry entry) {
+        if (coldTier == null) {
+            return false;
+        }
+        coldTier.restore(entry);
+        absentInStore.invalidate(entry.userId());
+        return true;
+    }
+
+    /**
+     * Разговор из снимка состояния, подключенного при старте
+     */
+    private Optional<ConversationSnapshot> takeWarmSnapshot(Long userId) {
+        if (warmSnapshots.isEmpty()) {
+            return Optional.empty();
+        }
+        if (System.currentTimeMillis() > warmUntil) {
+            log.info("♻️ Неиспользованные разговоры из снимка состояния отброшены: {}", warmSnapshots.size());
+            warmSnapshots.clear();
+            return Optional.empty();
+        }
+        ByteBuffer encoded = warmSnapshots.remove(userId);
+        if (encoded == null) {
+            return Optional.empty();
+        }
+        try {
+            ConversationSnapshot snapshot = ConversationSnapshotCodec.decode(encoded.duplicate());
+            warmSnapshotHits.incrementAndGet();
+            return Optional.of(snapshot);
+        } catch (RuntimeException e) {
+            log.warn("⚠️ Не удалось разобрать контекст userId: {} из снимка состояния: {}", userId, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Сжимает вытесненный разговор в холодный уровень
+     */
+    private void demote(Long userId, Conversation conversation, RemovalCause cause) {
+        if (userId == null || conversation == null || conversation.size() == 0 && conversation.getSummary() == null) {
+            return;
+        }
+        try {
+            coldTier.put(conversation.snapshot(userId));
+        } catch (RuntimeException e) {
+            log.warn("⚠️ Не удалось сжать контекст userId: {} в холодный уровень: {}", userId, e.getMessage());
+        }
+    }
+
+    /**
+     * Разговор из холодного уровня. Испорченная запись не мешает чтению из хранилища.
+     */
+    private Optional<ConversationSnapshot> takeFromColdTier(Long userId) {
+        if (coldTier == null) {
+            return Optional.empty();
+        }
+        try {
+            return coldTier.take(userId);
+        } catch (RuntimeException e) {
+            log.warn("⚠️ Не удалось распаковать контекст userId: {} из холодного уровня: {}", userId, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Разговор из кэша, а при промахе - из хранилища (null, если его нет)
+     */
+    private Conversation findConversation(Long userId) {
+        Conversation conversation = conversationCache.getIfPresent(userId);
+        if (conversation != null || absentInStore.getIfPresent(userId) != null) {
+            return conversation;
+        }
+        return conversationCache.get(userId, this::loadConversation);
+    }
+
+    /**
+     * Читает разговор при промахе кэша. Холодный уровень хранит последнюю версию
+     * вытесненного разговора, снимок состояния - версию на момент остановки,
+     * еще не записанное изменение важнее версии в хранилище. Ошибка хранилища не мешает ответу: пользователь
+     * просто получит пустую историю, а отметка об отсутствии не ставится.
+     */
+    private Conversation loadConversation(Long userId) {
+        long startedAt = System.nanoTime();
+        try {
+            Optional<ConversationSnapshot> snapshot = takeFromColdTier(userId);
+            if (snapshot.isEmpty()) {
+                snapshot = takeWarmSnapshot(userId);
+            }
+            Optional<ConversationWriteBehind.PendingWrite> pendingWrite = writeBehind.pendingWrite(userId);
+            if (snapshot.isPresent()) {
+                log.debug("🧊 Контекст userId: {} восстановлен из холодного уровня или снимка состояния", userId);
+            } else if (pendingWrite.isPresent()) {
+                snapshot = pendingWrite.get().isDelete()
+                        ? Optional.empty()
+                        : Optional.of(pendingWrite.get().snapshot().get());
+            } else {
+                snapshot = store.load(userId);
+            }
+
+            if (snapshot.isEmpty()) {
+                readThroughMisses.incrementAndGet();
+                absentInStore.put(userId, Boolean.TRUE);
+                return null;
+            }
+
+            readThroughHits.incrementAndGet();
+            log.debug("📥 Контекст userId: {} загружен из хранилища {}, сообщений: {}",
+                    userId, store.name(), snapshot.get().messages().size());
+            return Conversation.restore(snapshot.get(), cacheConfig.getHistorySize(), cacheConfig.isUtf8Content());
+        } catch (RuntimeException e) {
+            readThroughFailures.incrementAndGet();
+            log.warn("⚠️ Не удалось загрузить контекст userId: {} из хранилища {}: {}",
+                    userId, store.name(), e.getMessage());
+            return null;
+        } finally {
+            readThroughNanos.addAndGet(System.nanoTime() - startedAt);
+        }
+    }
+
+    /**
+     * Caffeine считает вес записи только при вставке, а разговор меняется на месте:
+     * повторная замена тем же объектом пересчитывает вес и запускает вытеснение по весу.
+     */
+    private void reweigh(Long userId, Conversation conversation) {
+        if (cacheConfig.isWeightBased()) {
+            conversationCache.asMap().replace(userId, conversation, conversation);
+        }
+    }
+
+    /**
+     * Ставит разговор в очередь на запись. Снимок снимается при сбросе,
+     * поэтому частые сообщения одного пользователя дают одну запись.
+     */
+    private void markDirty(Long userId, Conversation conversation) {
+        reweigh(userId, conversation);
+        absentInStore.invalidate(userId);
+        warmSnapshots.remove(userId);
+        if (coldTier != null && conversationCache.policy().getIfPresentQuietly(userId) == null) {
+            // разговор вытеснили во время изменения: сжатая копия не содержит его, кладем новую версию
+            demote(userId, conversation, RemovalCause.SIZE);
+        }
+        writeBehind.markDirty(userId, () -> conversation.snapshot(userId));
     }
 
     /**
@@ -76,15 +368,24 @@ public class ConversationContextService {
             Conversation conversation = conversationCache.asMap()
                     .computeIfAbsent(userId,
                             key -> {
+                                Conversation stored = absentInStore.getIfPresent(key) == null
+                                        ? loadConversation(key)
+                                        : null;
+                                if (stored != null) {
+                                    return stored;
+                                }
                                 log.debug("Создание нового контекста для userId: {}", key);
-                                return new Conversation(cacheConfig.getHistorySize());
+                                return new Conversation(cacheConfig.getHistorySize(), cacheConfig.isUtf8Content());
                             });
 
             conversation.addMessage(role, content);
+            markDirty(userId, conversation);
 
             log.debug("📝 Добавлено сообщение для userId: {}, роль: {}, длина: {}",
                     userId, role, content.length());
 
+            compactIfNeeded(userId, conversation);
+
         } catch (Exception e) {
             log.error("Ошибка при добавлении сообщения для userId {}: {}",
                     userId, e.getMessage(), e);
@@ -93,7 +394,52 @@ public class ConversationContextService {
     }
 
     /**
-     * Получает полную историю разговора с системным промптом
+     * Запускает фоновое сжатие старых сообщений в краткое содержание,
+     * когда история достигает порога. Последние keepRecentMessages сообщений
+     * остаются как есть. Если сжатие не удалось, история просто продолжает
+     * ограничиваться окном historySize, как и без сжатия.
+     */
+    private void compactIfNeeded(Long userId, Conversation conversation) {
+        if (summarizer == null || !cacheConfig.isSummarizeEnabled()
+                || conversation.size() < cacheConfig.getSummarizeThreshold()
+                || !conversation.compacting.compareAndSet(false, true)) {
+            return;
+        }
+
+        List<Message> toFold = conversation.getOldestExcept(cacheConfig.getKeepRecentMessages());
+        if (toFold.isEmpty()) {
+            conversation.compacting.set(false);
+            return;
+        }
+
+        List<Map<String, String>> foldedMessages = toFold.stream().map(Message::toMap).toList();
+
+        summarizer.summarize(userId, conversation.getSummary(), foldedMessages)
+                .whenComplete((summary, error) -> {
+                    try {
+                        if (error == null) {
+                            conversation.applySummary(summary, toFold);
+                            // история могла быть очищена, пока шло сжатие
+                            if (conversationCache.getIfPresent(userId) == conversation) {
+                                markDirty(userId, conversation);
+                            }
+                            compactions.incrementAndGet();
+                            compactedMessages.addAndGet(toFold.size());
+                            log.debug("🗜️ История userId: {} сжата: {} сообщений свернуто в краткое содержание",
+                                    userId, toFold.size());
+                        } else {
+                            compactionFailures.incrementAndGet();
+                        }
+                    } finally {
+                        conversation.compacting.set(false);
+                    }
+                });
+    }
+
+    /**
+     * Получает полную историю разговора с системным промптом.
+     * В режиме token-budget берутся самые новые сообщения, которые помещаются
+     * в бюджет токенов промпта; последнее сообщение включается всегда.
      */
     public List<Map<String, String>> getFullConversation(Long userId, String systemPrompt) {
         List<Map<String, String>> fullConversation = new ArrayList<>();
@@ -103,22 +449,112 @@ public class ConversationContextService {
                 "content", systemPrompt
         ));
 
-        Conversation conversation = conversationCache.getIfPresent(userId);
+        int promptTokens = TokenEstimator.estimateMessage(systemPrompt);
+        int dropped = 0;
+
+        Conversation conversation = findConversation(userId);
         if (conversation != null) {
-            fullConversation.addAll(conversation.getMessages());
+            Message summary = conversation.getSummaryMessage();
+            if (summary != null) {
+                fullConversation.add(summary.toMap());
+                promptTokens += summary.tokens();
+            }
+
+            List<Message> selected = cacheConfig.isTokenBudgetAssembly()
+                    ? conversation.getNewestWithinBudget(cacheConfig.getPromptTokenBudget() - promptTokens)
+                    : conversation.getStoredMessages();
+
+            for (Message message : selected) {
+                fullConversation.add(message.toMap());
+                promptTokens += message.tokens();
+            }
+            dropped = conversation.size() - selected.size();
         }
 
-        log.debug("📖 Получена история для userId: {}, сообщений: {}",
-                userId, fullConversation.size() - 1);
+        assembledPrompts.incrementAndGet();
+        totalPromptTokens.addAndGet(promptTokens);
+        lastPromptTokens.set(promptTokens);
+        droppedMessages.addAndGet(dropped);
+
+        log.debug("📖 Получена история для userId: {}, сообщений: {}, ~{} токенов, не вошло в бюджет: {}",
+                userId, fullConversation.size() - 1, promptTokens, dropped);
 
         return fullConversation;
     }
 
+    /**
+     * Получает статистику размера промптов (оценка в токенах)
+     */
+    public Map<String, Object> getPromptStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long prompts = assembledPrompts.get();
+
+        stats.put("assembledPrompts", prompts);
+        stats.put("averagePromptTokens", prompts == 0 ? 0 : totalPromptTokens.get() / prompts);
+        stats.put("lastPromptTokens", lastPromptTokens.get());
+        stats.put("droppedMessages", droppedMessages.get());
+        stats.put("promptTokenBudget", cacheConfig.getPromptTokenBudget());
+        stats.put("assemblyMode", cacheConfig.getAssemblyMode());
+        stats.put("compactions", compactions.get());
+        stats.put("compactedMessages", compactedMessages.get());
+        stats.put("compactionFailures", compactionFailures.get());
+
+        return stats;
+    }
+
+    /**
+     * Форматированная статистика размера промпта
+     */
+    public String getFormattedPromptStats() {
+        long prompts = assembledPrompts.get();
+
+        return String.format("""
+                        📏 Размер промпта (оценка):
+                        • Режим сборки контекста: %s (бюджет %d токенов)
+                        • Средний промпт: ~%d токенов
+                        • Последний промпт: ~%d токенов
+                        • Сообщений не вошло в бюджет: %d
+                        • Сжатий истории: %d (свернуто сообщений: %d, ошибок: %d)
+                        """,
+                cacheConfig.getAssemblyMode(),
+                cacheConfig.getPromptTokenBudget(),
+                prompts == 0 ? 0 : totalPromptTokens.get() / prompts,
+                lastPromptTokens.get(),
+                droppedMessages.get(),
+                compactions.get(),
+                compactedMessages.get(),
+                compactionFailures.get());
+    }
+
+    /**
+     * Оценивает размер промпта следующего запроса без сборки истории:
+     * системный промпт, краткое содержание, история (не больше бюджета промпта)
+     * и новое сообщение
+     */
+    public int estimatePromptTokens(Long userId, String systemPrompt, String nextMessage) {
+        int fixed = TokenEstimator.estimateMessage(systemPrompt) + TokenEstimator.estimateMessage(nextMessage);
+        int history = 0;
+
+        Conversation conversation = findConversation(userId);
+        if (conversation != null) {
+            Message summary = conversation.getSummaryMessage();
+            if (summary != null) {
+                history += summary.tokens();
+            }
+            history += (int) conversation.getHistoryTokens();
+        }
+
+        if (cacheConfig.isTokenBudgetAssembly()) {
+            history = Math.min(history, Math.max(0, cacheConfig.getPromptTokenBudget() - fixed));
+        }
+        return fixed + history;
+    }
+
     /**
      * Получает только историю разговора (без системного промпта)
      */
     public List<Map<String, String>> getConversationHistory(Long userId) {
-        Conversation conversation = conversationCache.getIfPresent(userId);
+        Conversation conversation = findConversation(userId);
         return conversation != null ? conversation.getMessages() : Collections.emptyList();
     }
 
@@ -126,7 +562,14 @@ public class ConversationContextService {
      * Очищает весь кэш (для администратора)
      */
     public void clearAllCache() {
+        writeBehind.discardPending();
+        store.clear();
         conversationCache.invalidateAll();
+        if (coldTier != null) {
+            coldTier.invalidateAll();
+        }
+        warmSnapshots.clear();
+        absentInStore.invalidateAll();
         log.info("🧹 Весь кэш очищен администратором");
     }
 
@@ -155,6 +598,12 @@ public class ConversationContextService {
      */
     public void clearHistory(Long userId) {
         conversationCache.invalidate(userId);
+        if (coldTier != null) {
+            coldTier.invalidate(userId);
+        }
+        warmSnapshots.remove(userId);
+        writeBehind.markDeleted(userId);
+        absentInStore.put(userId, Boolean.TRUE);
         log.info("🧹 Очищена история для userId: {}", userId);
     }
 
@@ -162,7 +611,7 @@ public class ConversationContextService {
      * Получает информацию о контексте пользователя
      */
     public Map<String, Object> getUserContextInfo(Long userId) {
-        Conversation conversation = conversationCache.getIfPresent(userId);
+        Conversation conversation = findConversation(userId);
         Map<String, Object> info = new HashMap<>();
 
         if (conversation == null) {
@@ -173,6 +622,7 @@ public class ConversationContextService {
             info.put("messageCount", conversation.size());
             info.put("lastActivity", conversation.getLastActivity());
             info.put("maxHistorySize", cacheConfig.getHistorySize());
+            info.put("hasSummary", conversation.getSummary() != null);
         }
 
         return info;
@@ -193,8 +643,24 @@ public class ConversationContextService {
         stats.put("evictionCount", caffeineStats.evictionCount());
         stats.put("averageLoadPenalty", caffeineStats.averageLoadPenalty());
 
+        long users = conversationCache.estimatedSize();
+        long weightedBytes = getWeightedBytes();
+        stats.put("weightedBytes", weightedBytes);
+        stats.put("averageBytesPerUser", users == 0 ? 0 : weightedBytes / users);
+
+        long loads = readThroughHits.get() + readThroughMisses.get() + readThroughFailures.get();
+        stats.put("readThroughHits", readThroughHits.get());
+        stats.put("readThroughMisses", readThroughMisses.get());
+        stats.put("readThroughFailures", readThroughFailures.get());
+        stats.put("averageReadThroughMs", loads == 0 ? 0.0 : readThroughNanos.get() / 1_000_000.0 / loads);
+        stats.put("store", writeBehind.getStats());
+        stats.put("coldTier", coldTier != null ? coldTier.getStats() : Map.of("enabled", false));
+        stats.put("warmSnapshots", warmSnapshots.size());
+        stats.put("warmSnapshotHits", warmSnapshotHits.get());
+
         stats.put("config", Map.of(
                 "maxSize", cacheConfig.getMaxSize(),
+                "maxWeightBytes", cacheConfig.isWeightBased() ? cacheConfig.getMaxWeightBytes() : 0L,
                 "ttlMinutes", cacheConfig.getTtlMinutes(),
                 "historySize", cacheConfig.getHistorySize(),
                 "evictionPolicy", cacheConfig.getEvictionPolicy()
@@ -208,7 +674,7 @@ public class ConversationContextService {
      */
     public String getFormattedStats() {
         Map<String, Object> stats = getCacheStats();
-        Map<String, Object> config = (Map<String, Object>) stats.get("config");
+        String coldTierText = coldTier != null ? coldTier.getFormattedStats() : "🧊 Холодный уровень: выключен\n";
 
         return String.format("""
                         📊 Статистика контекста:
@@ -219,9 +685,14 @@ public class ConversationContextService {
                         • Промахов кэша: %d
                         • Эффективность кэша: %s
                         • Вытеснено записей: %d
+                        • Занято памяти (оценка): %.1f МБ (~%d байт на пользователя)
                                     
+                        💾 Хранилище (%s):
+                        • Загружено при промахе: %d (не найдено: %d, ошибок: %d, ~%.2f мс)
+                        %s
+                        %s
                         ⚙️ Настройки:
-                        • Максимум пользователей: %d
+                        • Лимит кэша: %s
                         • TTL: %d минут
                         • Максимум сообщений на пользователя: %d
                         • Политика вытеснения: %s
@@ -232,13 +703,39 @@ public class ConversationContextService {
                 stats.get("cacheMisses"),
                 stats.get("hitRate"),
                 stats.get("evictionCount"),
-                config.get("maxSize"),
-                config.get("ttlMinutes"),
-                config.get("historySize"),
-                config.get("evictionPolicy")
+                (long) stats.get("weightedBytes") / 1_048_576.0,
+                stats.get("averageBytesPerUser"),
+                store.name(),
+                stats.get("readThroughHits"),
+                stats.get("readThroughMisses"),
+                stats.get("readThroughFailures"),
+                stats.get("averageReadThroughMs"),
+                writeBehind.getFormattedStats(),
+                coldTierText,
+                cacheConfig.isWeightBased()
+                        ? String.format("%d МБ по весу", cacheConfig.getMaxWeightMb())
+                        : String.format("%d пользователей", cacheConfig.getMaxSize()),
+                cacheConfig.getTtlMinutes(),
+                cacheConfig.getHistorySize(),
+                cacheConfig.getEvictionPolicy()
         );
     }
 
+    /**
+     * Текущий вес кэша в байтах: в режиме weight-based - значение Caffeine (O(1)),
+     * иначе сумма оценок по всем разговорам
+     */
+    private long getWeightedBytes() {
+        if (cacheConfig.isWeightBased()) {
+            return conversationCache.policy().eviction()
+                    .map(eviction -> eviction.weightedSize().orElse(0L))
+                    .orElse(0L);
+        }
+        return conversationCache.asMap().values().stream()
+                .mapToLong(Conversation::weight)
+                .sum();
+    }
+
     /**
      * Подсчитывает общее количество сообщений во всех контекстах
      */
@@ -259,7 +756,7 @@ public class ConversationContextService {
      * Проверяет, есть ли у пользователя активный контекст
      */
     public boolean hasActiveContext(Long userId) {
-        return conversationCache.getIfPresent(userId) != null;
+        return findConversation(userId) != null;
     }
 
 
@@ -268,44 +765,133 @@ public class ConversationContextService {
      * Полностью потокобезопасный
      */
     private static class Conversation {
-        private final Deque<Map<String, String>> messages;
-        private final int maxSize;
-        private volatile LocalDateTime lastActivity;
+        private static final String SUMMARY_PREFIX = "Summary of the earlier part of this conversation: ";
+        /**
+         * Объект Conversation с флагом сжатия, а также ключ и узел записи Caffeine
+         */
+        private static final int CONVERSATION_OVERHEAD_BYTES = 160;
 
-        public Conversation(int maxSize) {
-            this.maxSize = maxSize;
-            this.messages = new ConcurrentLinkedDeque<>();
-            this.lastActivity = LocalDateTime.now();
+        private final MessageRing messages;
+        private final AtomicBoolean compacting = new AtomicBoolean();
+        private volatile long lastActivity;
+        private volatile Message summaryMessage;
+        private volatile String summary;
+
+        public Conversation(int maxSize, boolean utf8Content) {
+            this.messages = new MessageRing(maxSize, utf8Content);
+            this.lastActivity = System.currentTimeMillis();
         }
 
         /**
          * Потокобезопасное добавление сообщения
          */
         public void addMessage(String role, String content) {
-            Map<String, String> message = Map.of(
-                    "role", role,
-                    "content", content,
-                    "timestamp", LocalDateTime.now().toString()
-            );
-
-            messages.addFirst(message);
+            long now = System.currentTimeMillis();
+            messages.add(MessageRing.Role.of(role), content, now);
+            lastActivity = now;
+        }
 
-            if (messages.size() > maxSize) {
-                messages.removeLast();
+        /**
+         * Восстанавливает разговор из снимка хранилища с исходными временными метками
+         */
+        static Conversation restore(ConversationSnapshot snapshot, int maxSize, boolean utf8Content) {
+            Conversation conversation = new Conversation(maxSize, utf8Content);
+            for (ConversationSnapshot.Message message : snapshot.messages()) {
+                conversation.messages.add(MessageRing.Role.of(message.role()), message.content(), message.timestamp());
+            }
+            if (snapshot.summary() != null) {
+                conversation.setSummary(snapshot.summary());
             }
+            if (snapshot.lastActivity() != null) {
+                conversation.lastActivity = snapshot.lastActivity().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            }
+            return conversation;
+        }
 
-            lastActivity = LocalDateTime.now();
+        /**
+         * Неизменяемый снимок для записи в хранилище
+         */
+        ConversationSnapshot snapshot(Long userId) {
+            List<ConversationSnapshot.Message> stored = new ArrayList<>();
+            for (Message message : getStoredMessages()) {
+                stored.add(new ConversationSnapshot.Message(message.role().value(), message.content(), message.timestamp()));
+            }
+            return new ConversationSnapshot(userId, summary, stored, getLastActivity());
         }
 
         /**
          * Получает все сообщения в правильном порядке (от старых к новым)
          */
         public List<Map<String, String>> getMessages() {
-            List<Map<String, String>> result = new ArrayList<>(messages);
-            Collections.reverse(result);
+            List<Message> stored = getStoredMessages();
+            List<Map<String, String>> result = new ArrayList<>(stored.size());
+            for (Message message : stored) {
+                result.add(message.toMap());
+            }
             return result;
         }
 
+        public List<Message> getStoredMessages() {
+            return messages.snapshot();
+        }
+
+        /**
+         * Самые старые сообщения, кроме keepRecent последних (от старых к новым)
+         */
+        public List<Message> getOldestExcept(int keepRecent) {
+            return messages.oldestExcept(keepRecent);
+        }
+
+        /**
+         * Заменяет свернутые сообщения кратким содержанием.
+         * Сообщения удаляются по ссылке: добавленные за время сжатия не затрагиваются.
+         */
+        public void applySummary(String summary, List<Message> folded) {
+            messages.removeAll(folded);
+            setSummary(summary);
+        }
+
+        private void setSummary(String summary) {
+            this.summary = summary;
+            this.summaryMessage = Message.of(MessageRing.Role.SYSTEM, SUMMARY_PREFIX + summary,
+                    System.currentTimeMillis(), false);
+        }
+
+        public String getSummary() {
+            return summary;
+        }
+
+        public Message getSummaryMessage() {
+            return summaryMessage;
+        }
+
+        /**
+         * Самые новые сообщения, суммарно укладывающиеся в бюджет (от старых к новым).
+         * Последнее сообщение возвращается даже если оно одно превышает бюджет.
+         */
+        public List<Message> getNewestWithinBudget(int tokenBudget) {
+            return messages.newestWithinBudget(tokenBudget);
+        }
+
+        /**
+         * Вес для кэша: оценка занятой разговором памяти в байтах
+         */
+        public int weight() {
+            long bytes = CONVERSATION_OVERHEAD_BYTES + messages.estimatedBytes();
+            Message summary = summaryMessage;
+            if (summary != null) {
+                bytes += summary.estimatedBytes() + (long) 2 * this.summary.length();
+            }
+            return (int) Math.min(Integer.MAX_VALUE, bytes);
+        }
+
+        /**
+         * Сумма оценок токенов всех сообщений истории
+         */
+        public long getHistoryTokens() {
+            return messages.totalTokens();
+        }
+
         /**
          * Получает количество сообщений
          */
@@ -317,7 +903,7 @@ public class ConversationContextService {
          * Получает время последней активности
          */
         public LocalDateTime getLastActivity() {
-            return lastActivity;
+            return LocalDateTime.ofInstant(Instant.ofEpochMilli(lastActivity), ZoneId.systemDefault());
         }
     }
 }
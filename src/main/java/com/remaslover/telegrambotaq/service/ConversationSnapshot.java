@@ -0,0 +1,23 @@
+package com.remaslover.telegrambotaq.service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Неизменяемый снимок разговора пользователя для {@link ConversationStore}
+ *
+ * @param summary  краткое содержание свернутой части разговора или null
+ * @param messages сообщения от старых к новым
+ */
+public record ConversationSnapshot(Long userId, String summary, List<Message> messages, LocalDateTime lastActivity) {
+
+    public ConversationSnapshot {
+        messages = List.copyOf(messages);
+    }
+
+    /**
+     * @param timestamp время сообщения, epoch millis
+     */
+    public record Message(String role, String content, long timestamp) {
+    }
+}
@@ -0,0 +1,104 @@
+package com.remaslover.telegrambotaq.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Компактная двоичная запись {@link ConversationSnapshot}: время - epoch millis,
+ * строки - длина и UTF-8 байты (без ограничения 64 КБ у writeUTF).
+ * Чтение идет из ByteBuffer, в том числе из отображенного в память файла.
+ */
+final class ConversationSnapshotCodec {
+
+    private static final byte VERSION = 1;
+
+    private ConversationSnapshotCodec() {
+    }
+
+    static byte[] encode(ConversationSnapshot snapshot) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+            write(snapshot, new DataOutputStream(bytes));
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void write(ConversationSnapshot snapshot, DataOutput out) throws IOException {
+        out.writeByte(VERSION);
+        out.writeLong(snapshot.userId());
+        writeNullableString(out, snapshot.summary());
+        out.writeLong(snapshot.lastActivity() != null
+                ? snapshot.lastActivity().toInstant(ZoneOffset.UTC).toEpochMilli()
+                : Long.MIN_VALUE);
+        out.writeInt(snapshot.messages().size());
+        for (ConversationSnapshot.Message message : snapshot.messages()) {
+            writeString(out, message.role());
+            out.writeLong(message.timestamp());
+            writeString(out, message.content());
+        }
+    }
+
+    /**
+     * Читает снимок с текущей позиции буфера и сдвигает позицию за него
+     */
+    static ConversationSnapshot decode(ByteBuffer in) {
+        byte version = in.get();
+        if (version != VERSION) {
+            throw new IllegalStateException("Unsupported conversation snapshot version: " + version);
+        }
+        long userId = in.getLong();
+        String summary = readNullableString(in);
+        long lastActivity = in.getLong();
+        int count = in.getInt();
+        List<ConversationSnapshot.Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String role = readString(in);
+            long timestamp = in.getLong();
+            messages.add(new ConversationSnapshot.Message(role, readString(in), timestamp));
+        }
+        return new ConversationSnapshot(userId, summary, messages, lastActivity == Long.MIN_VALUE
+                ? null
+                : LocalDateTime.ofEpochSecond(Math.floorDiv(lastActivity, 1000),
+                (int) Math.floorMod(lastActivity, 1000) * 1_000_000, ZoneOffset.UTC));
+    }
+
+    private static void writeNullableString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            writeString(out, value);
+        }
+    }
+
+    private static String readNullableString(ByteBuffer in) {
+        return in.get() != 0 ? readString(in) : null;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (in.hasArray()) {
+            String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            return value;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
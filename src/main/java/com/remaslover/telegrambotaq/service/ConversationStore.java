@@ -0,0 +1,38 @@
+package com.remaslover.telegrambotaq.service;
+
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * Хранилище разговоров за кэшем {@link ConversationContextService}.
+ * <p>
+ * Горячий путь работает только с кэшем: хранилище читается при промахе кэша,
+ * а изменения записываются пачками в фоне ({@link ConversationWriteBehind}).
+ */
+public interface ConversationStore {
+
+    /**
+     * Загружает разговор пользователя
+     */
+    Optional<ConversationSnapshot> load(Long userId);
+
+    /**
+     * Сохраняет разговоры, полностью заменяя сохраненные ранее
+     */
+    void saveAll(Collection<ConversationSnapshot> snapshots);
+
+    /**
+     * Удаляет разговоры пользователей
+     */
+    void deleteAll(Collection<Long> userIds);
+
+    /**
+     * Удаляет все разговоры
+     */
+    void clear();
+
+    /**
+     * Название для логов и статистики
+     */
+    String name();
+}
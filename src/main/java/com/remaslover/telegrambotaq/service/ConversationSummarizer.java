@@ -0,0 +1,192 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.remaslover.telegrambotaq.util.OpenRouterJson;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Сжатие старой части разговора в краткое содержание.
+ * Работает асинхронно и использует отдельную (более дешевую) модель,
+ * поэтому не задерживает ответ пользователю. Запросы идут через {@link OpenRouterGuard},
+ * как и ответы пользователям: при разомкнутом выключателе сжатие откладывается.
+ * Расход на сжатие учитывается в {@link UsageAccountingService} и списывается
+ * с дневного бюджета пользователя, чья история сжимается.
+ */
+@Service
+public class ConversationSummarizer {
+
+    private static final Logger log = LoggerFactory.getLogger(ConversationSummarizer.class);
+
+    private static final String SUMMARY_PROMPT = """
+            Summarize the conversation between a user and an assistant below.
+            Write the summary in the same language as the conversation.
+            Keep facts, names, numbers, decisions and open questions the assistant may need later.
+            Do not add anything that was not said. Maximum 120 words, plain text without formatting.
+            """;
+
+    @Value("${OPENROUTER_API_KEY:}")
+    private String apiKey;
+
+    @Value("${app.openrouter.api-url:https://openrouter.ai/api/v1}")
+    private String apiUrl = "https://openrouter.ai/api/v1";
+
+    @Value("${app.openrouter.summary.model:${OPENROUTER_MODEL:}}")
+    private String summaryModel;
+
+    @Value("${app.openrouter.summary.max-tokens:300}")
+    private int maxTokens = 300;
+
+    private final RestTemplate restTemplate;
+    private final OpenRouterGuard openRouterGuard;
+    private final UsageAccountingService usageAccounting;
+    private final RateLimitService rateLimitService;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final AtomicLong summaries = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+
+    public ConversationSummarizer(@Qualifier("openRouterRestTemplate") RestTemplate restTemplate,
+                                  OpenRouterGuard openRouterGuard, UsageAccountingService usageAccounting,
+                                  RateLimitService rateLimitService) {
+        this.restTemplate = restTemplate;
+        this.openRouterGuard = openRouterGuard;
+        this.usageAccounting = usageAccounting;
+        this.rateLimitService = rateLimitService;
+    }
+
+    /**
+     * Строит новое краткое содержание из предыдущего и сворачиваемых сообщений
+     *
+     * @param userId          пользователь, чья история сжимается; на него записывается расход
+     * @param previousSummary предыдущее краткое содержание или null
+     * @param messages        сообщения от старых к новым
+     */
+    public CompletableFuture<String> summarize(Long userId, String previousSummary,
+                                               List<Map<String, String>> messages) {
+        return CompletableFuture.supplyAsync(() -> {
+            long startedAt = System.nanoTime();
+            try {
+                String summary = requestSummary(userId, buildTranscript(previousSummary, messages));
+                summaries.incrementAndGet();
+                totalLatencyNanos.addAndGet(System.nanoTime() - startedAt);
+                return summary;
+            } catch (RuntimeException e) {
+                failures.incrementAndGet();
+                log.warn("⚠️ Не удалось сжать историю разговора: {}", e.getMessage());
+                throw e;
+            }
+        }, executor);
+    }
+
+    private String buildTranscript(String previousSummary, List<Map<String, String>> messages) {
+        StringBuilder transcript = new StringBuilder();
+
+        if (previousSummary != null && !previousSummary.isBlank()) {
+            transcript.append("Earlier summary: ").append(previousSummary).append("\n\n");
+        }
+        for (Map<String, String> message : messages) {
+            transcript.append(message.get("role"))
+                    .append(": ")
+                    .append(message.get("content"))
+                    .append("\n");
+        }
+
+        return transcript.toString();
+    }
+
+    private String requestSummary(Long userId, String transcript) {
+        if (apiKey == null || apiKey.isEmpty()) {
+            throw new IllegalStateException("OpenRouter API key is not configured");
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("Authorization", "Bearer " + apiKey);
+        headers.set("HTTP-Referer", "https://t.me/OfficialAnswerToQuestionBot");
+        headers.set("X-Title", "OfficialAnswerToQuestionBot");
+
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", summaryModel);
+        requestBody.put("messages", List.of(
+                Map.of("role", "system", "content", SUMMARY_PROMPT),
+                Map.of("role", "user", "content", transcript)
+        ));
+        requestBody.put("max_tokens", maxTokens);
+        requestBody.put("temperature", 0.2);
+
+        long attemptStartedAt = System.nanoTime();
+        OpenRouterJson.ChatResult result;
+        try {
+            result = openRouterGuard.execute(() -> restTemplate.execute(
+                    apiUrl + "/chat/completions",
+                    HttpMethod.POST,
+                    request -> {
+                        request.getHeaders().putAll(headers);
+                        request.getBody().write(objectMapper.writeValueAsBytes(requestBody));
+                    },
+                    response -> OpenRouterJson.readCompletion(response.getBody())
+            ));
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("summary request failed", e);
+        }
+
+        if (result == null || result.errorMessage() != null) {
+            throw new IllegalStateException("summary error: " + (result == null ? "empty body" : result.errorMessage()));
+        }
+
+        // токены потрачены, даже если краткое содержание оказалось пустым
+        usageAccounting.record(userId, summaryModel, result.usage(), System.nanoTime() - attemptStartedAt);
+        if (result.usage() != null) {
+            rateLimitService.chargeUsage(userId, result.usage());
+        }
+
+        String summary = result.content() == null ? "" : result.content().trim();
+        if (summary.isEmpty()) {
+            throw new IllegalStateException("empty summary");
+        }
+        return summary;
+    }
+
+    /**
+     * Получает статистику сжатия истории
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long count = summaries.get();
+
+        stats.put("model", summaryModel);
+        stats.put("summaries", count);
+        stats.put("failures", failures.get());
+        stats.put("averageLatencyMs", count == 0 ? 0
+                : TimeUnit.NANOSECONDS.toMillis(totalLatencyNanos.get() / count));
+
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,238 @@
+package com.remaslover.telegrambotaq.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Асинхронная запись разговоров в {@link ConversationStore} (write-behind).
+ * <p>
+ * На горячем пути {@link #markDirty} только кладет в карту ссылку на источник снимка:
+ * несколько сообщений одного пользователя между сбросами дают одну запись.
+ * Фоновый поток раз в flushIntervalMs (или раньше, если накопилось batchSize
+ * изменений) снимает снимки и пишет их пачками. При ошибке записи изменения
+ * возвращаются в очередь, если за это время не появились более новые.
+ */
+final class ConversationWriteBehind implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ConversationWriteBehind.class);
+
+    /**
+     * Ожидающее изменение: снимок для сохранения или удаление (snapshot == null)
+     */
+    record PendingWrite(Supplier<ConversationSnapshot> snapshot) {
+        static final PendingWrite DELETE = new PendingWrite(null);
+
+        boolean isDelete() {
+            return snapshot == null;
+        }
+    }
+
+    private final ConversationStore store;
+    private final int batchSize;
+    private final Map<Long, PendingWrite> pending = new ConcurrentHashMap<>();
+    private volatile Map<Long, PendingWrite> writing = Map.of();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicBoolean earlyFlushScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService executor;
+
+    private final AtomicLong savedConversations = new AtomicLong();
+    private final AtomicLong deletedConversations = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong totalFlushNanos = new AtomicLong();
+
+    ConversationWriteBehind(ConversationStore store, long flushIntervalMs, int batchSize) {
+        this.store = store;
+        this.batchSize = batchSize;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "conversation-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Отмечает разговор измененным. Снимок будет снят при сбросе.
+     */
+    void markDirty(Long userId, Supplier<ConversationSnapshot> snapshot) {
+        pending.put(userId, new PendingWrite(snapshot));
+        scheduleEarlyFlushIfFull();
+    }
+
+    /**
+     * Отмечает разговор удаленным
+     */
+    void markDeleted(Long userId) {
+        pending.put(userId, PendingWrite.DELETE);
+        scheduleEarlyFlushIfFull();
+    }
+
+    /**
+     * Еще не записанное изменение разговора. Чтение при промахе кэша должно
+     * учитывать его раньше хранилища, иначе вернется устаревшая версия.
+     */
+    Optional<PendingWrite> pendingWrite(Long userId) {
+        PendingWrite write = pending.get(userId);
+        return Optional.ofNullable(write != null ? write : writing.get(userId));
+    }
+
+    /**
+     * Отбрасывает все ожидающие изменения (перед полной очисткой хранилища)
+     */
+    void discardPending() {
+        pending.clear();
+    }
+
+    private void scheduleEarlyFlushIfFull() {
+        if (pending.size() >= batchSize && earlyFlushScheduled.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                earlyFlushScheduled.set(false);
+                flushQuietly();
+            });
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("❌ Conversation write-behind flush failed: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Записывает все накопленные изменения пачками по batchSize
+     */
+    void flush() {
+        flushLock.lock();
+        try {
+            while (!pending.isEmpty()) {
+                if (!flushBatch()) {
+                    return;
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private boolean flushBatch() {
+        Map<Long, PendingWrite> batch = new HashMap<>();
+        for (Map.Entry<Long, PendingWrite> entry : pending.entrySet()) {
+            if (batch.size() >= batchSize) {
+                break;
+            }
+            batch.put(entry.getKey(), entry.getValue());
+        }
+        if (batch.isEmpty()) {
+            return false;
+        }
+
+        // Пакет публикуется до удаления из pending: иначе в промежутке pendingWrite()
+        // не нашел бы запись ни там, ни там, и чтение подняло бы из хранилища старую версию.
+        // Более новая запись, пришедшая после выборки, остается в pending.
+        writing = batch;
+        batch.forEach(pending::remove);
+
+        List<ConversationSnapshot> toSave = new ArrayList<>();
+        List<Long> toDelete = new ArrayList<>();
+        long startedAt = System.nanoTime();
+        try {
+            batch.forEach((userId, write) -> {
+                if (write.isDelete()) {
+                    toDelete.add(userId);
+                } else {
+                    toSave.add(write.snapshot().get());
+                }
+            });
+            if (!toDelete.isEmpty()) {
+                store.deleteAll(toDelete);
+            }
+            if (!toSave.isEmpty()) {
+                store.saveAll(toSave);
+            }
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            batch.forEach(pending::putIfAbsent);
+            log.warn("⚠️ Failed to write {} conversations to {} store, will retry: {}",
+                    batch.size(), store.name(), e.getMessage());
+            return false;
+        } finally {
+            writing = Map.of();
+        }
+
+        batches.incrementAndGet();
+        savedConversations.addAndGet(toSave.size());
+        deletedConversations.addAndGet(toDelete.size());
+        totalFlushNanos.addAndGet(System.nanoTime() - startedAt);
+        log.debug("💾 Wrote {} conversations and deleted {} in {} store",
+                toSave.size(), toDelete.size(), store.name());
+        return true;
+    }
+
+    Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long batchCount = batches.get();
+
+        stats.put("store", store.name());
+        stats.put("pendingWrites", pending.size());
+        stats.put("savedConversations", savedConversations.get());
+        stats.put("deletedConversations", deletedConversations.get());
+        stats.put("writeBatches", batchCount);
+        stats.put("writeFailures", failures.get());
+        stats.put("averageBatchMs", batchCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalFlushNanos.get() / batchCount));
+
+        return stats;
+    }
+
+    /**
+     * Строки статистики записи для форматированной статистики контекста
+     */
+    String getFormattedStats() {
+        Map<String, Object> stats = getStats();
+
+        return String.format("""
+                        • Ожидают записи: %d
+                        • Записано: %d, удалено: %d, пачек: %d (~%d мс), ошибок записи: %d
+                        """,
+                stats.get("pendingWrites"),
+                stats.get("savedConversations"),
+                stats.get("deletedConversations"),
+                stats.get("writeBatches"),
+                stats.get("averageBatchMs"),
+                stats.get("writeFailures"));
+    }
+
+    /**
+     * Останавливает фоновый поток и записывает оставшиеся изменения
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        if (!pending.isEmpty()) {
+            log.warn("⚠️ {} conversation changes were not written to {} store on shutdown",
+                    pending.size(), store.name());
+        }
+    }
+}
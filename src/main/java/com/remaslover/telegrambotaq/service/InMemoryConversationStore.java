@@ -0,0 +1,92 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import com.remaslover.telegrambotaq.config.ConversationStoreConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Хранилище разговоров в памяти процесса. Переживает вытеснение из кэша,
+ * но не перезапуск приложения.
+ * <p>
+ * Хранилище ограничено по времени и объему ({@link ConversationStoreConfig#getMemoryTtlMinutes()},
+ * {@link ConversationStoreConfig#getMemoryMaxBytes()}), иначе вся история оставалась бы
+ * в куче до остановки процесса, в обход ограничений кэша и холодного уровня.
+ */
+@Component
+@ConditionalOnProperty(name = "context.store.type", havingValue = ConversationStoreConfig.TYPE_MEMORY, matchIfMissing = true)
+public class InMemoryConversationStore implements ConversationStore {
+
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+    private static final int MESSAGE_OVERHEAD_BYTES = 64;
+
+    private final Cache<Long, ConversationSnapshot> conversations;
+
+    public InMemoryConversationStore() {
+        this(new ConversationStoreConfig());
+    }
+
+    @Autowired
+    public InMemoryConversationStore(ConversationStoreConfig config) {
+        this.conversations = Caffeine.newBuilder()
+                .maximumWeight(config.getMemoryMaxBytes())
+                .weigher((Long userId, ConversationSnapshot snapshot) -> weigh(snapshot))
+                .expireAfterWrite(config.getMemoryTtlMinutes(), TimeUnit.MINUTES)
+                .scheduler(Scheduler.systemScheduler())
+                .build();
+    }
+
+    @Override
+    public Optional<ConversationSnapshot> load(Long userId) {
+        return Optional.ofNullable(conversations.getIfPresent(userId));
+    }
+
+    @Override
+    public void saveAll(Collection<ConversationSnapshot> snapshots) {
+        snapshots.forEach(snapshot -> conversations.put(snapshot.userId(), snapshot));
+    }
+
+    @Override
+    public void deleteAll(Collection<Long> userIds) {
+        conversations.invalidateAll(userIds);
+    }
+
+    @Override
+    public void clear() {
+        conversations.invalidateAll();
+    }
+
+    @Override
+    public String name() {
+        return ConversationStoreConfig.TYPE_MEMORY;
+    }
+
+    /**
+     * Число хранимых разговоров после применения отложенных вытеснений
+     */
+    long size() {
+        conversations.cleanUp();
+        return conversations.estimatedSize();
+    }
+
+    /**
+     * Оценка занятой разговором памяти в байтах (строки в UTF-16)
+     */
+    private static int weigh(ConversationSnapshot snapshot) {
+        long bytes = ENTRY_OVERHEAD_BYTES;
+        if (snapshot.summary() != null) {
+            bytes += 2L * snapshot.summary().length();
+        }
+        for (ConversationSnapshot.Message message : snapshot.messages()) {
+            bytes += MESSAGE_OVERHEAD_BYTES + 2L * message.content().length();
+        }
+        return (int) Math.min(Integer.MAX_VALUE, bytes);
+    }
+}
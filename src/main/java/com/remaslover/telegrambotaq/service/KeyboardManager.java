@@ -27,6 +27,18 @@ public class KeyboardManager {
         public static final String NEWS_SPORTS = "/news_category спорт";
         public static final String NEWS_RUSSIA = "/news_country россия";
         public static final String NEWS_USA = "/news_country сша";
+
+        public static final String JOKE = "🎭 Шутка";
+        public static final String AI_HELP = "🤖 AI помощь";
+        public static final String NEWS = "📰 Новости";
+        public static final String TIME = "⏰ Время";
+        public static final String USAGE = "📊 Лимиты";
+        public static final String HELP = "ℹ️ Помощь";
+        public static final String NEWS_BY_COUNTRY = "🌍 Новости страны";
+        public static final String NEWS_BY_CATEGORY = "📋 Новости категории";
+        public static final String TOP_NEWS = "🔥 Главные новости";
+        public static final String CONTEXT = "🧠 Контекст";
+        public static final String NEWS_SEARCH = "🔍 Поиск новостей";
     }
 
 
@@ -98,26 +110,26 @@ public class KeyboardManager {
         List<KeyboardRow> keyboardRows = new ArrayList<>();
 
         KeyboardRow row1 = new KeyboardRow();
-        row1.add("🎭 Шутка");
-        row1.add("🤖 AI помощь");
-        row1.add("📰 Новости");
+        row1.add(Button.JOKE);
+        row1.add(Button.AI_HELP);
+        row1.add(Button.NEWS);
         keyboardRows.add(row1);
 
         KeyboardRow row2 = new KeyboardRow();
-        row2.add("⏰ Время");
-        row2.add("📊 Лимиты");
-        row2.add("ℹ️ Помощь");
+        row2.add(Button.TIME);
+        row2.add(Button.USAGE);
+        row2.add(Button.HELP);
         keyboardRows.add(row2);
 
         KeyboardRow row3 = new KeyboardRow();
-        row3.add("🌍 Новости страны");
-        row3.add("📋 Новости категории");
-        row3.add("🔥 Главные новости");
+        row3.add(Button.NEWS_BY_COUNTRY);
+        row3.add(Button.NEWS_BY_CATEGORY);
+        row3.add(Button.TOP_NEWS);
         keyboardRows.add(row3);
 
         KeyboardRow row4 = new KeyboardRow();
-        row4.add("🧠 Контекст");
-        row4.add("🔍 Поиск новостей");
+        row4.add(Button.CONTEXT);
+        row4.add(Button.NEWS_SEARCH);
         keyboardRows.add(row4);
 
         keyboardMarkup.setKeyboard(keyboardRows);
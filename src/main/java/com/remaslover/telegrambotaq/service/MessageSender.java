@@ -9,6 +9,7 @@ import org.springframework.stereotype.Service;
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageText;
+import org.telegram.telegrambots.meta.api.objects.Message;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.ReplyKeyboardMarkup;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
@@ -179,6 +180,44 @@ public class MessageSender {
         }
     }
 
+    /**
+     * Отправляет обычный текст и возвращает id сообщения (null при ошибке)
+     */
+    public Integer sendPlainTextReturningId(long chatId, String text) {
+        try {
+            SendMessage message = new SendMessage();
+            message.setChatId(String.valueOf(chatId));
+            message.setText(text);
+
+            Message sent = getBot().execute(message);
+            return sent != null ? sent.getMessageId() : null;
+
+        } catch (Exception e) {
+            log.error("❌ Failed to send message to chat {}: {}", chatId, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Заменяет текст сообщения ответом AI (MarkdownV2 с откатом на обычный текст)
+     */
+    public void editAiResponse(long chatId, int messageId, String text) {
+        String cleaned = TelegramMarkdownEscapeUtil.cleanAiResponse(text);
+
+        EditMessageText message = new EditMessageText();
+        message.setChatId(String.valueOf(chatId));
+        message.setMessageId(messageId);
+        message.setText(TelegramMarkdownEscapeUtil.escapeMinimal(cleaned));
+        message.setParseMode("MarkdownV2");
+
+        try {
+            getBot().execute(message);
+            log.debug("✅ AI response edited in chat {} ({} chars)", chatId, text.length());
+        } catch (TelegramApiException e) {
+            log.warn("❌ Markdown edit failed, trying plain text: {}", e.getMessage());
+            editMessage(chatId, messageId, cleaned);
+        }
+    }
 
     /**
      * Отправляет сообщение с inline клавиатурой
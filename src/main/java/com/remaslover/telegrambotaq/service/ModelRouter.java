@@ -0,0 +1,347 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.remaslover.telegrambotaq.config.ModelRoutingConfig;
+import com.remaslover.telegrambotaq.exception.AiServiceException;
+import com.remaslover.telegrambotaq.exception.UpstreamUnavailableException;
+import com.remaslover.telegrambotaq.util.RetryAfter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Выбор модели OpenRouter для запроса.
+ * <p>
+ * Для каждой модели-кандидата ведется статистика: доля успешных ответов и задержка
+ * (p50/p95 по последним запросам). Запрос идет на самую быструю здоровую модель,
+ * при 429/5xx/таймауте - на следующую. Модель с ошибкой на время (cooldown)
+ * переносится в конец списка.
+ */
+@Component
+public class ModelRouter {
+
+    private static final Logger log = LoggerFactory.getLogger(ModelRouter.class);
+
+    private final ModelRoutingConfig config;
+    private final Map<String, ModelHealth> models = new LinkedHashMap<>();
+    private final String shortQuestionModel;
+
+    /**
+     * Решение для одного запроса: модели в порядке попыток и лимит токенов ответа
+     */
+    public record Route(List<String> models, int maxTokens) {
+
+        public String primary() {
+            return models.get(0);
+        }
+    }
+
+    public ModelRouter(ModelRoutingConfig config, @Value("${OPENROUTER_MODEL}") String primaryModel) {
+        this.config = config;
+
+        models.put(primaryModel, new ModelHealth(primaryModel, 0));
+        for (String candidate : config.getModels()) {
+            String name = candidate.trim();
+            if (!name.isEmpty() && !models.containsKey(name)) {
+                models.put(name, new ModelHealth(name, models.size()));
+            }
+        }
+
+        String shortModel = config.getShortQuestionModel() == null ? "" : config.getShortQuestionModel().trim();
+        if (!shortModel.isEmpty() && !models.containsKey(shortModel)) {
+            models.put(shortModel, new ModelHealth(shortModel, models.size()));
+        }
+        this.shortQuestionModel = shortModel;
+
+        log.info("🧭 Модели-кандидаты OpenRouter: {}", models.keySet());
+    }
+
+    /**
+     * Выбирает порядок моделей и лимит токенов для вопроса
+     */
+    public Route route(String question) {
+        return new Route(orderedModels(isShortQuestion(question)), maxTokens(question));
+    }
+
+    /**
+     * Лимит токенов ответа для вопроса (меньше для коротких вопросов)
+     */
+    public int maxTokens(String question) {
+        return isShortQuestion(question) ? config.getShortMaxTokens() : config.getMaxTokens();
+    }
+
+    private boolean isShortQuestion(String question) {
+        return question != null && question.length() <= config.getShortQuestionMaxChars();
+    }
+
+    /**
+     * Порядок попыток: сначала модели не на паузе, затем модель для коротких
+     * вопросов (если вопрос короткий), затем по медианной задержке, затем по порядку в настройках
+     */
+    private List<String> orderedModels(boolean shortQuestion) {
+        long now = System.nanoTime();
+
+        // пауза и задержка читаются один раз на модель: сравнения идут по одним и тем же значениям
+        List<Candidate> candidates = new ArrayList<>(models.size());
+        for (ModelHealth health : models.values()) {
+            candidates.add(new Candidate(health.name, health.isCoolingDown(now),
+                    !(shortQuestion && health.name.equals(shortQuestionModel)), latencyScore(health), health.order));
+        }
+        candidates.sort(Comparator
+                .comparing(Candidate::coolingDown)
+                .thenComparing(Candidate::notShortModel)
+                .thenComparingLong(Candidate::latencyScore)
+                .thenComparingInt(Candidate::order));
+
+        return candidates.stream().map(Candidate::name).toList();
+    }
+
+    /**
+     * Оценка модели на момент выбора порядка
+     */
+    private record Candidate(String name, boolean coolingDown, boolean notShortModel, long latencyScore, int order) {
+    }
+
+    public void recordSuccess(String model, long latencyNanos) {
+        ModelHealth health = models.get(model);
+        if (health != null) {
+            health.recordSuccess(latencyNanos);
+        }
+    }
+
+    /**
+     * Записывает время до первого фрагмента потокового ответа
+     */
+    public void recordFirstToken(String model, long latencyNanos) {
+        ModelHealth health = models.get(model);
+        if (health != null) {
+            health.firstTokenLatencies.add(latencyNanos);
+        }
+    }
+
+    /**
+     * Наблюдаемая p95 задержка модели: время до первого фрагмента для потокового
+     * режима и время полного ответа для обычного
+     *
+     * @return задержка в наносекундах или -1, если замеров пока недостаточно
+     */
+    public long latencyP95(String model, boolean streaming) {
+        ModelHealth health = models.get(model);
+        if (health == null) {
+            return -1;
+        }
+
+        long[] samples = streaming ? health.firstTokenLatencies.snapshot() : health.latencies.snapshot();
+        return samples.length < config.getMinLatencySamples() ? -1 : percentile(samples, 95);
+    }
+
+    public boolean isHealthy(String model) {
+        ModelHealth health = models.get(model);
+        return health != null && !health.isCoolingDown(System.nanoTime());
+    }
+
+    public void recordFailure(String model, Exception error) {
+        ModelHealth health = models.get(model);
+        if (health == null) {
+            return;
+        }
+
+        Duration cooldown = cooldownFor(error);
+        health.recordFailure(cooldown);
+        log.warn("⚠️ Модель {} ответила ошибкой ({}), исключена из приоритета на {} с",
+                model, describe(error), cooldown.toSeconds());
+    }
+
+    /**
+     * Можно ли повторить запрос на другой модели после такой ошибки
+     */
+    public static boolean isFallbackWorthy(Exception error) {
+        if (error instanceof HttpStatusCodeException statusError) {
+            int status = statusError.getStatusCode().value();
+            return status == 429 || status == 404 || status == 408 || status >= 500 || isInvalidModel(statusError);
+        }
+        if (error instanceof UpstreamUnavailableException) {
+            return false;
+        }
+        return error instanceof ResourceAccessException || error instanceof AiServiceException;
+    }
+
+    private Duration cooldownFor(Exception error) {
+        if (error instanceof HttpStatusCodeException statusError) {
+            int status = statusError.getStatusCode().value();
+            if (status == 429) {
+                Duration retryAfter = RetryAfter.from(error);
+                return retryAfter != null ? retryAfter : Duration.ofSeconds(config.getRateLimitCooldownSeconds());
+            }
+            if (status == 404 || isInvalidModel(statusError)) {
+                return Duration.ofMinutes(config.getInvalidModelCooldownMinutes());
+            }
+        }
+        return Duration.ofSeconds(config.getErrorCooldownSeconds());
+    }
+
+    private static boolean isInvalidModel(HttpStatusCodeException error) {
+        return error.getStatusCode().value() == 400
+                && error.getResponseBodyAsString().contains("not a valid model");
+    }
+
+    private static String describe(Exception error) {
+        if (error instanceof HttpStatusCodeException statusError) {
+            return String.valueOf(statusError.getStatusCode().value());
+        }
+        return error.getClass().getSimpleName();
+    }
+
+    private long latencyScore(ModelHealth health) {
+        long[] samples = health.latencies.snapshot();
+        if (samples.length < config.getMinLatencySamples()) {
+            return Long.MAX_VALUE;
+        }
+        return percentile(samples, 50);
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    /**
+     * Получает статистику по моделям
+     */
+    public Map<String, Object> getStats() {
+        long now = System.nanoTime();
+        Map<String, Object> stats = new LinkedHashMap<>();
+
+        for (ModelHealth health : models.values()) {
+            long[] samples = health.latencies.snapshot();
+            long successes = health.successes.get();
+            long failures = health.failures.get();
+            long total = successes + failures;
+
+            Map<String, Object> modelStats = new HashMap<>();
+            modelStats.put("requests", total);
+            modelStats.put("successRate", total == 0 ? "-" : String.format("%.1f%%", successes * 100.0 / total));
+            modelStats.put("p50Ms", TimeUnit.NANOSECONDS.toMillis(percentile(samples, 50)));
+            modelStats.put("p95Ms", TimeUnit.NANOSECONDS.toMillis(percentile(samples, 95)));
+            modelStats.put("firstTokenP95Ms",
+                    TimeUnit.NANOSECONDS.toMillis(percentile(health.firstTokenLatencies.snapshot(), 95)));
+            modelStats.put("healthy", !health.isCoolingDown(now));
+            modelStats.put("cooldownSeconds", health.isCoolingDown(now)
+                    ? TimeUnit.NANOSECONDS.toSeconds(health.cooldownUntil - now) : 0);
+
+            stats.put(health.name, modelStats);
+        }
+
+        return stats;
+    }
+
+    /**
+     * Получает форматированную статистику моделей
+     */
+    @SuppressWarnings("unchecked")
+    public String getFormattedStats() {
+        StringBuilder sb = new StringBuilder("🧭 Модели OpenRouter (в порядке выбора для длинного вопроса):\n\n");
+        Map<String, Object> stats = getStats();
+
+        for (String name : orderedModels(false)) {
+            Map<String, Object> modelStats = (Map<String, Object>) stats.get(name);
+            sb.append((Boolean) modelStats.get("healthy") ? "🟢 " : "🔴 ").append(name).append('\n');
+            sb.append(String.format("   запросов: %d, успешных: %s, p50: %d мс, p95: %d мс, первый токен p95: %d мс%n",
+                    modelStats.get("requests"), modelStats.get("successRate"),
+                    modelStats.get("p50Ms"), modelStats.get("p95Ms"), modelStats.get("firstTokenP95Ms")));
+            if (!(Boolean) modelStats.get("healthy")) {
+                sb.append(String.format("   на паузе еще %d с%n", modelStats.get("cooldownSeconds")));
+            }
+        }
+
+        sb.append(String.format("%nmax_tokens: %d (вопросы до %d символов: %d)",
+                config.getMaxTokens(), config.getShortQuestionMaxChars(), config.getShortMaxTokens()));
+        if (!shortQuestionModel.isEmpty()) {
+            sb.append("\nМодель для коротких вопросов: ").append(shortQuestionModel);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Состояние одной модели: счетчики, окна задержек и время окончания паузы
+     */
+    private final class ModelHealth {
+        private final String name;
+        private final int order;
+        private final AtomicLong successes = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final LatencyWindow latencies = new LatencyWindow(config.getLatencyWindow());
+        private final LatencyWindow firstTokenLatencies = new LatencyWindow(config.getLatencyWindow());
+        private volatile long cooldownUntil;
+
+        private ModelHealth(String name, int order) {
+            this.name = name;
+            this.order = order;
+        }
+
+        void recordSuccess(long latencyNanos) {
+            successes.incrementAndGet();
+            cooldownUntil = 0;
+            latencies.add(latencyNanos);
+        }
+
+        void recordFailure(Duration cooldown) {
+            failures.incrementAndGet();
+            cooldownUntil = System.nanoTime() + cooldown.toNanos();
+        }
+
+        boolean isCoolingDown(long now) {
+            long until = cooldownUntil;
+            return until != 0 && now - until < 0;
+        }
+
+    }
+
+    /**
+     * Кольцевой буфер последних замеров задержки
+     */
+    private static final class LatencyWindow {
+        private final long[] values;
+        private int count;
+        private int next;
+
+        private LatencyWindow(int size) {
+            this.values = new long[size];
+        }
+
+        synchronized void add(long latencyNanos) {
+            values[next] = latencyNanos;
+            next = (next + 1) % values.length;
+            count = Math.min(count + 1, values.length);
+        }
+
+        /**
+         * Отсортированная копия замеров
+         */
+        long[] snapshot() {
+            long[] snapshot;
+            synchronized (this) {
+                snapshot = Arrays.copyOf(values, count);
+            }
+            Arrays.sort(snapshot);
+            return snapshot;
+        }
+    }
+}
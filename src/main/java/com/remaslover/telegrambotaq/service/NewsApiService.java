@@ -5,6 +5,7 @@ import com.remaslover.telegrambotaq.dto.ArticleDTO;
 import com.remaslover.telegrambotaq.dto.NewsDTO;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
@@ -71,7 +72,7 @@ public class NewsApiService {
     private final ObjectMapper objectMapper;
     private final RestTemplate restTemplate;
 
-    public NewsApiService(ObjectMapper objectMapper, RestTemplate restTemplate) {
+    public NewsApiService(ObjectMapper objectMapper, @Qualifier("newsRestTemplate") RestTemplate restTemplate) {
         this.objectMapper = objectMapper;
         this.restTemplate = restTemplate;
     }
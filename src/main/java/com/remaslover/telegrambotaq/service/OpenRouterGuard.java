@@ -0,0 +1,199 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.remaslover.telegrambotaq.config.ResilienceConfig;
+import com.remaslover.telegrambotaq.exception.AiServiceException;
+import com.remaslover.telegrambotaq.exception.UpstreamUnavailableException;
+import com.remaslover.telegrambotaq.util.AimdConcurrencyLimiter;
+import com.remaslover.telegrambotaq.util.CircuitBreaker;
+import com.remaslover.telegrambotaq.util.RetryAfter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Защита вызовов chat completions OpenRouter.
+ * <p>
+ * Каждый вызов проходит через автоматический выключатель и адаптивный лимит
+ * одновременных запросов. Пока выключатель разомкнут, запросы отклоняются сразу,
+ * не занимая поток на время таймаута; после паузы пропускаются пробные запросы.
+ * Лимит одновременных запросов растет при успешных ответах и уменьшается вдвое
+ * при 429/5xx/таймаутах.
+ */
+@Component
+public class OpenRouterGuard {
+
+    private static final Logger log = LoggerFactory.getLogger(OpenRouterGuard.class);
+
+    private final ResilienceConfig config;
+    private final CircuitBreaker circuitBreaker;
+    private final AimdConcurrencyLimiter limiter;
+
+    private final AtomicLong rejectedOpen = new AtomicLong();
+    private final AtomicLong rejectedLimit = new AtomicLong();
+
+    @Autowired
+    public OpenRouterGuard(ResilienceConfig config) {
+        this(config, System::nanoTime);
+    }
+
+    OpenRouterGuard(ResilienceConfig config, LongSupplier clock) {
+        this.config = config;
+        this.circuitBreaker = new CircuitBreaker(
+                config.getBreakerWindow(),
+                config.getBreakerMinCalls(),
+                config.getBreakerFailureRatePercent(),
+                config.getBreakerConsecutiveFailures(),
+                Duration.ofSeconds(config.getBreakerOpenSeconds()),
+                Duration.ofSeconds(config.getBreakerMaxOpenSeconds()),
+                config.getHalfOpenProbes(),
+                clock);
+        this.limiter = new AimdConcurrencyLimiter(
+                config.getLimiterInitialLimit(),
+                config.getLimiterMinLimit(),
+                config.getLimiterMaxLimit(),
+                config.getLimiterBackoffRatio());
+    }
+
+    /**
+     * Выполняет вызов OpenRouter под защитой выключателя и лимита
+     *
+     * @throws UpstreamUnavailableException если вызов отклонен без обращения к OpenRouter
+     */
+    public <T> T execute(Callable<T> call) throws Exception {
+        if (!circuitBreaker.tryAcquire()) {
+            rejectedOpen.incrementAndGet();
+            long seconds = Math.max(1, circuitBreaker.getRemainingOpen().toSeconds());
+            throw new UpstreamUnavailableException(String.format(
+                    "⏳ AI сервис сейчас не отвечает. Попробуйте через %d с.", seconds));
+        }
+
+        boolean acquired;
+        try {
+            acquired = limiter.acquire(config.getLimiterAcquireTimeoutMs(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            circuitBreaker.onIgnored();
+            throw e;
+        }
+        if (!acquired) {
+            circuitBreaker.onIgnored();
+            rejectedLimit.incrementAndGet();
+            log.warn("🚦 OpenRouter concurrency limit {} reached, request rejected", limiter.getLimit());
+            throw new UpstreamUnavailableException("⏳ Слишком много одновременных запросов к AI. Попробуйте через минуту.");
+        }
+
+        AimdConcurrencyLimiter.Outcome outcome = AimdConcurrencyLimiter.Outcome.IGNORED;
+        boolean recorded = false;
+        try {
+            T result = call.call();
+            recorded = true;
+            circuitBreaker.onSuccess();
+            outcome = AimdConcurrencyLimiter.Outcome.SUCCESS;
+            return result;
+        } catch (Exception e) {
+            recorded = true;
+            if (e instanceof CancellationException || e instanceof InterruptedException
+                    || Thread.currentThread().isInterrupted()) {
+                circuitBreaker.onIgnored();
+            } else if (isOverload(e)) {
+                Duration retryAfter = RetryAfter.from(e);
+                circuitBreaker.onFailure(retryAfter);
+                outcome = AimdConcurrencyLimiter.Outcome.OVERLOAD;
+                if (circuitBreaker.getState() == CircuitBreaker.State.OPEN) {
+                    log.warn("🔌 OpenRouter circuit is open for {} s after {}",
+                            circuitBreaker.getRemainingOpen().toSeconds(), e.getClass().getSimpleName());
+                }
+            } else {
+                // сервис ответил, ошибка в самом запросе
+                circuitBreaker.onSuccess();
+            }
+            throw e;
+        } finally {
+            if (!recorded) {
+                // Error из вызова: пробу полуоткрытого выключателя нужно вернуть,
+                // иначе при half-open-probes=1 все следующие вызовы отклонялись бы навсегда
+                circuitBreaker.onIgnored();
+            }
+            limiter.release(outcome);
+        }
+    }
+
+    /**
+     * Признак перегрузки или недоступности OpenRouter
+     */
+    static boolean isOverload(Exception error) {
+        if (error instanceof HttpStatusCodeException statusError) {
+            int status = statusError.getStatusCode().value();
+            return status == 429 || status == 408 || status >= 500;
+        }
+        if (error instanceof UpstreamUnavailableException) {
+            return false;
+        }
+        return error instanceof ResourceAccessException || error instanceof AiServiceException;
+    }
+
+    /**
+     * Текущий адаптивный лимит одновременных запросов к OpenRouter
+     */
+    public int getConcurrencyLimit() {
+        return limiter.getLimit();
+    }
+
+    /**
+     * Получает статистику защиты вызовов
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+
+        stats.put("circuitState", circuitBreaker.getState().name());
+        stats.put("openSecondsLeft", circuitBreaker.getRemainingOpen().toSeconds());
+        stats.put("circuitTrips", circuitBreaker.getTrips());
+        stats.put("failureRatePercent", circuitBreaker.getFailureRatePercent());
+        stats.put("rejectedOpen", rejectedOpen.get());
+        stats.put("rejectedLimit", rejectedLimit.get());
+        stats.put("concurrencyLimit", limiter.getLimit());
+        stats.put("inFlight", limiter.getInFlight());
+        stats.put("peakInFlight", limiter.getPeakInFlight());
+
+        return stats;
+    }
+
+    /**
+     * Форматированная статистика защиты OpenRouter
+     */
+    public String getFormattedStats() {
+        return String.format("""
+                        🛡 Защита OpenRouter:
+                        • Выключатель: %s (ошибок в окне: %d%%, срабатываний: %d)
+                        • Отклонено сразу: %d (выключатель), %d (лимит)
+                        • Лимит одновременных запросов: %d (сейчас: %d, максимум: %d)
+                        """,
+                circuitStateName(circuitBreaker.getState(), circuitBreaker.getRemainingOpen().toSeconds()),
+                circuitBreaker.getFailureRatePercent(),
+                circuitBreaker.getTrips(),
+                rejectedOpen.get(),
+                rejectedLimit.get(),
+                limiter.getLimit(),
+                limiter.getInFlight(),
+                limiter.getPeakInFlight());
+    }
+
+    private static String circuitStateName(CircuitBreaker.State state, long openSecondsLeft) {
+        return switch (state) {
+            case OPEN -> "разомкнут, еще " + openSecondsLeft + " с";
+            case HALF_OPEN -> "пробные запросы";
+            default -> "замкнут";
+        };
+    }
+}
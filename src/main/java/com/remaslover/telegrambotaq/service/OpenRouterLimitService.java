@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
@@ -20,8 +21,8 @@ public class OpenRouterLimitService {
     private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper;
 
-    public OpenRouterLimitService() {
-        this.restTemplate = new RestTemplate();
+    public OpenRouterLimitService(@Qualifier("openRouterRestTemplate") RestTemplate restTemplate) {
+        this.restTemplate = restTemplate;
         this.objectMapper = new ObjectMapper();
     }
 
@@ -1,43 +1,120 @@
 package com.remaslover.telegrambotaq.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.remaslover.telegrambotaq.config.SystemPrompt;
+import com.remaslover.telegrambotaq.exception.AiServiceException;
+import com.remaslover.telegrambotaq.util.OpenRouterJson;
 import com.remaslover.telegrambotaq.util.TelegramMarkdownEscapeUtil;
 import com.remaslover.telegrambotaq.util.TelegramMessageSplitter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
-
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 @Service
 public class OpenRouterService {
 
     private static final Logger log = LoggerFactory.getLogger(OpenRouterService.class);
 
+    private static final double TEMPERATURE = 0.7;
+
     @Value("${OPENROUTER_API_KEY}")
     private String apiKey;
 
     @Value("${OPENROUTER_MODEL}")
     private String model;
 
+    @Value("${app.openrouter.api-url:https://openrouter.ai/api/v1}")
+    private String apiUrl = "https://openrouter.ai/api/v1";
+
+    @Value("${app.openrouter.streaming.enabled:true}")
+    private boolean streamingEnabled;
+
+    private final AtomicLong streamedRequests = new AtomicLong();
+    private final AtomicLong streamFailures = new AtomicLong();
+    private final AtomicLong totalTimeToFirstTokenNanos = new AtomicLong();
+    private final AtomicLong totalStreamDurationNanos = new AtomicLong();
+    private final AtomicLong lastTimeToFirstTokenNanos = new AtomicLong();
+    private final AtomicLong fallbackResponses = new AtomicLong();
+    private final AtomicLong usageResponses = new AtomicLong();
+    private final AtomicLong promptTokens = new AtomicLong();
+    private final AtomicLong completionTokens = new AtomicLong();
+
     private final RestTemplate restTemplate;
-    private final ObjectMapper objectMapper;
+    private final ChatClient chatClient;
+    private final ConversationChatMemory chatMemory;
+    private final SystemPrompt systemPrompt;
+    private final OpenRouterJson.RequestWriter requestWriter;
     private final ConversationContextService conversationContextService;
     private final TelegramMessageSplitter telegramMessageSplitter;
     private final LanguageDetector languageDetector;
-
-    public OpenRouterService(ConversationContextService conversationContextService, TelegramMessageSplitter telegramMessageSplitter, LanguageDetector languageDetector) {
+    private final AiAnswerCache answerCache;
+    private final AiRequestCoalescer requestCoalescer;
+    private final ModelRouter modelRouter;
+    private final RequestHedger requestHedger;
+    private final OpenRouterGuard openRouterGuard;
+    private final UsageAccountingService usageAccounting;
+    private final AiRequestPipeline aiRequestPipeline;
+    private final String promptVersion;
+
+    public OpenRouterService(ConversationContextService conversationContextService, TelegramMessageSplitter telegramMessageSplitter, LanguageDetector languageDetector,
+                             @Qualifier("openRouterRestTemplate") RestTemplate restTemplate, AiAnswerCache answerCache,
+                             AiRequestCoalescer requestCoalescer, ModelRouter modelRouter, RequestHedger requestHedger,
+                             OpenRouterGuard openRouterGuard, ChatClient chatClient, ConversationChatMemory chatMemory,
+                             SystemPrompt systemPrompt, UsageAccountingService usageAccounting,
+                             AiRequestPipeline aiRequestPipeline) {
+        this.openRouterGuard = openRouterGuard;
+        this.aiRequestPipeline = aiRequestPipeline;
+        this.usageAccounting = usageAccounting;
+        this.chatClient = chatClient;
+        this.chatMemory = chatMemory;
+        this.systemPrompt = systemPrompt;
+        this.modelRouter = modelRouter;
+        this.requestHedger = requestHedger;
+        this.answerCache = answerCache;
+        this.requestCoalescer = requestCoalescer;
+        this.promptVersion = Integer.toHexString(systemPrompt.text().hashCode());
         this.telegramMessageSplitter = telegramMessageSplitter;
         this.languageDetector = languageDetector;
-        this.restTemplate = new RestTemplate();
-        this.objectMapper = new ObjectMapper();
+        this.restTemplate = restTemplate;
+        this.requestWriter = new OpenRouterJson.RequestWriter(systemPrompt.text());
         this.conversationContextService = conversationContextService;
     }
 
@@ -46,6 +123,21 @@ public class OpenRouterService {
      * (Новый метод, возвращающий список частей)
      */
     public List<String> generateResponseAsParts(Long userId, String userMessage) {
+        try {
+            return generateResponseAsParts(userId, userMessage, usage -> {
+            });
+        } catch (AiServiceException e) {
+            return List.of(e.getMessage());
+        }
+    }
+
+    /**
+     * Генерирует ответ с разбивкой на части; usage каждой попытки передается в onUsage
+     *
+     * @throws AiServiceException с сообщением для пользователя
+     */
+    public List<String> generateResponseAsParts(Long userId, String userMessage,
+                                                Consumer<OpenRouterJson.Usage> onUsage) {
         try {
             log.info("Sending request to OpenRouter for user {}: {}", userId, userMessage);
 
@@ -57,71 +149,508 @@ public class OpenRouterService {
 
             if (apiKey == null || apiKey.isEmpty()) {
                 log.error("OpenRouter API key is not configured");
-                return List.of("❌ API ключ OpenRouter не настроен. Обратитесь к администратору.");
+                throw new AiServiceException("❌ API ключ OpenRouter не настроен. Обратитесь к администратору.");
             }
 
+            boolean firstTurn = isFirstTurn(userId);
             conversationContextService.addUserMessage(userId, userMessage);
 
             List<Map<String, String>> conversationHistory =
-                    conversationContextService.getFullConversation(userId, getSystemPrompt());
+                    conversationContextService.getFullConversation(userId, systemPrompt.text());
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            headers.set("Authorization", "Bearer " + apiKey);
-            headers.set("HTTP-Referer", "https://t.me/OfficialAnswerToQuestionBot");
-            headers.set("X-Title", "OfficialAnswerToQuestionBot");
+            HttpHeaders headers = createHeaders();
+            ModelRouter.Route route = modelRouter.route(userMessage);
 
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", model);
-            requestBody.put("messages", conversationHistory);
-            requestBody.put("max_tokens", 1500);
-            requestBody.put("temperature", 0.7);
+            log.info("Sending HTTP request to OpenRouter with {} messages", conversationHistory.size());
 
-            HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
+            AtomicReference<String> answeredBy = new AtomicReference<>();
+            String content = requestCoalescer.execute(coalescingKey(route, conversationHistory), delta -> {
+                    },
+                    ignored -> executeWithFallback(route, false, delta -> {
+                    }, () -> true, answeredBy, (candidate, candidateDelta) ->
+                            fetchCompletion(userId, headers, conversationHistory, candidate, route, onUsage)));
 
-            log.info("Sending HTTP request to OpenRouter with {} messages", conversationHistory.size());
+            log.info("✅ OpenRouter response received for user {}: {} characters",
+                    userId, content.length());
+
+            if (!aiRequestPipeline.commitIfActive(() -> conversationContextService.addAssistantMessage(userId, content))) {
+                throw new CancellationException("AI request was cancelled");
+            }
+
+            cacheFirstAnswer(firstTurn, userMessage, route, answeredBy.get(), content);
+
+            List<String> messageParts = splitMessageForTelegram(content);
 
-            ResponseEntity<String> response = restTemplate.exchange(
-                    "https://openrouter.ai/api/v1/chat/completions",
-                    HttpMethod.POST,
-                    entity,
-                    String.class
-            );
+            log.info("Split response into {} parts for user {}", messageParts.size(), userId);
 
-            if (response.getStatusCode().is2xxSuccessful()) {
-                JsonNode root = objectMapper.readTree(response.getBody());
-                JsonNode choices = root.path("choices");
+            return messageParts;
 
-                if (choices.isArray() && choices.size() > 0) {
-                    String content = choices.get(0)
-                            .path("message")
-                            .path("content")
-                            .asText();
+        } catch (Exception e) {
+            if (aiRequestPipeline.isCurrentCancelled()) {
+                throw cancelled(userId, e);
+            }
+            if (e instanceof AiServiceException aiError) {
+                throw aiError;
+            }
+            log.error("❌ Error generating AI response for user {}: {}", userId, e.getMessage(), e);
+            throw new AiServiceException(handleOpenRouterError(e), e);
+        }
+    }
 
-                    log.info("✅ OpenRouter response received for user {}: {} characters",
-                            userId, content.length());
+    /**
+     * Обычный (не потоковый) запрос к OpenRouter.
+     * Тело пишется в поток запроса, из ответа читаются только текст и usage.
+     */
+    private String fetchCompletion(Long userId, HttpHeaders headers, List<Map<String, String>> conversationHistory,
+                                   String requestModel, ModelRouter.Route route,
+                                   Consumer<OpenRouterJson.Usage> onUsage) {
+        long attemptStartedAt = System.nanoTime();
+        OpenRouterJson.ChatResult result = restTemplate.execute(
+                apiUrl + "/chat/completions",
+                HttpMethod.POST,
+                request -> {
+                    request.getHeaders().putAll(headers);
+                    requestWriter.write(request.getBody(), requestModel, conversationHistory,
+                            route.maxTokens(), TEMPERATURE, false);
+                },
+                response -> {
+                    if (!response.getStatusCode().is2xxSuccessful()) {
+                        log.error("❌ OpenRouter API error: {}", response.getStatusCode());
+                        throw new AiServiceException("❌ Ошибка API OpenRouter: " + response.getStatusCode());
+                    }
+                    return OpenRouterJson.readCompletion(response.getBody());
+                }
+        );
 
-                    conversationContextService.addAssistantMessage(userId, content);
+        if (result == null || result.errorMessage() != null) {
+            String message = result == null ? "empty body" : result.errorMessage();
+            log.error("❌ OpenRouter returned an error: {}", message);
+            throw new AiServiceException("⚠️ Ошибка AI сервиса: " + message);
+        }
+        if (result.content() == null) {
+            log.error("❌ No choices in OpenRouter response");
+            throw new AiServiceException("❌ Ошибка: пустой ответ от AI сервиса");
+        }
 
-                    List<String> messageParts = splitMessageForTelegram(content);
+        recordUsage(userId, requestModel, result.usage(), attemptStartedAt, onUsage);
+        return result.content();
+    }
 
-                    log.info("Split response into {} parts for user {}", messageParts.size(), userId);
+    private void recordUsage(Long userId, String requestModel, OpenRouterJson.Usage usage, long attemptStartedAt,
+                             Consumer<OpenRouterJson.Usage> onUsage) {
+        usageAccounting.record(userId, requestModel, usage, System.nanoTime() - attemptStartedAt);
+        if (usage == null) {
+            return;
+        }
+        onUsage.accept(usage);
+        usageResponses.incrementAndGet();
+        promptTokens.addAndGet(usage.promptTokens());
+        completionTokens.addAndGet(usage.completionTokens());
+    }
 
-                    return messageParts;
+    /**
+     * Ключ объединения одинаковых запросов: SHA-256 тела запроса к основной модели.
+     * Тело не собирается в строку, а сразу пишется в дайджест.
+     */
+    private String coalescingKey(ModelRouter.Route route, List<Map<String, String>> conversationHistory)
+            throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (DigestOutputStream out = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+                requestWriter.write(out, route.primary(), conversationHistory, route.maxTokens(), TEMPERATURE, false);
+            }
+            return route.primary() + '|' + HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
 
-                } else {
-                    log.error("❌ No choices in OpenRouter response: {}", response.getBody());
-                    return List.of("❌ Ошибка: пустой ответ от AI сервиса");
+    /**
+     * Выполняет запрос на моделях из маршрута по очереди, пока одна не ответит.
+     * Переход к следующей модели только при 429/5xx/таймауте и только
+     * если пользователю еще ничего не отправлено (canFallback).
+     * Каждая попытка может быть продублирована хеджированным запросом
+     * на следующую модель маршрута (или на ту же, если следующей нет или она на паузе).
+     * Каждый HTTP вызов проходит через {@link OpenRouterGuard}.
+     *
+     * @param answeredBy получает модель, чей ответ возвращен
+     */
+    private String executeWithFallback(ModelRouter.Route route, boolean streaming, Consumer<String> onDelta,
+                                       BooleanSupplier canFallback, AtomicReference<String> answeredBy,
+                                       RequestHedger.Attempt call) throws Exception {
+        Exception lastError = null;
+        List<String> candidates = route.models();
+        RequestHedger.Attempt guardedCall = (candidate, candidateDelta) ->
+                openRouterGuard.execute(() -> call.execute(candidate, candidateDelta));
+
+        for (int i = 0; i < candidates.size(); i++) {
+            String candidate = candidates.get(i);
+            String hedgeModel = i + 1 < candidates.size() && modelRouter.isHealthy(candidates.get(i + 1))
+                    ? candidates.get(i + 1) : candidate;
+            try {
+                RequestHedger.Outcome outcome = requestHedger.execute(candidate, hedgeModel, streaming, onDelta, guardedCall);
+                if (!outcome.model().equals(route.primary())) {
+                    fallbackResponses.incrementAndGet();
                 }
-            } else {
-                log.error("❌ OpenRouter API error: {} - {}", response.getStatusCode(), response.getBody());
-                return List.of("❌ Ошибка API OpenRouter: " + response.getStatusCode());
+                answeredBy.set(outcome.model());
+                return outcome.content();
+            } catch (Exception e) {
+                lastError = e;
+                if (!ModelRouter.isFallbackWorthy(e) || !canFallback.getAsBoolean()) {
+                    throw e;
+                }
+                log.warn("↪️ Model {} failed, trying next candidate", candidate);
+            }
+        }
+
+        throw lastError;
+    }
+
+    /**
+     * Ищет готовый ответ в кэше. Кэш используется только для первого вопроса
+     * разговора, когда ответ не зависит от истории.
+     * При попадании вопрос и ответ добавляются в контекст, как при обычном запросе.
+     *
+     * @return части ответа для Telegram или пустой список при промахе
+     */
+    public List<String> findCachedAnswerParts(Long userId, String userMessage) {
+        if (!answerCache.isEnabled() || !isFirstTurn(userId)) {
+            return List.of();
+        }
+
+        long startedAt = System.nanoTime();
+        String content = answerCache.get(answerCacheKey(userMessage, modelRouter.maxTokens(userMessage)));
+        if (content == null) {
+            return List.of();
+        }
+
+        conversationContextService.addUserMessage(userId, userMessage);
+        conversationContextService.addAssistantMessage(userId, content);
+
+        log.info("⚡ Answer for user {} served from cache in {} µs ({} characters)",
+                userId, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startedAt), content.length());
+
+        return splitMessageForTelegram(content);
+    }
+
+    public boolean isChargingCacheHits() {
+        return answerCache.isChargeOnHit();
+    }
+
+    private boolean isFirstTurn(Long userId) {
+        return conversationContextService.getConversationHistory(userId).isEmpty();
+    }
+
+    private String answerCacheKey(String userMessage, int maxTokens) {
+        return answerCache.key(userMessage, model, maxTokens, promptVersion);
+    }
+
+    /**
+     * Кэширует ответ на первый вопрос, только если его дала основная модель с обычным
+     * маршрутом: ответ запасной, хеджированной или модели для коротких вопросов
+     * не должен часами выдаваться за ответ основной модели
+     *
+     * @param answeredBy модель, давшая ответ, или null (ответ получен от другого участника объединенного запроса)
+     */
+    private void cacheFirstAnswer(boolean firstTurn, String userMessage, ModelRouter.Route route,
+                                  String answeredBy, String content) {
+        if (firstTurn && model.equals(answeredBy)) {
+            answerCache.put(answerCacheKey(userMessage, route.maxTokens()), content);
+        }
+    }
+
+    public boolean isStreamingEnabled() {
+        return streamingEnabled;
+    }
+
+    /**
+     * Оценка токенов промпта для следующего вопроса пользователя (до отправки запроса)
+     */
+    public int estimatePromptTokens(Long userId, String userMessage) {
+        return conversationContextService.estimatePromptTokens(userId, systemPrompt.text(), userMessage);
+    }
+
+    /**
+     * Генерирует ответ в потоковом режиме через ChatClient (WebClient, SSE).
+     * История берется из {@link ConversationChatMemory}.
+     * Каждый фрагмент текста передается в onDelta сразу по получении,
+     * поэтому пользователь видит начало ответа через время до первого токена.
+     *
+     * @return полный текст ответа
+     * @throws AiServiceException с сообщением для пользователя
+     */
+    public String streamResponse(Long userId, String userMessage, Consumer<String> onDelta) {
+        return streamResponse(userId, userMessage, onDelta, usage -> {
+        });
+    }
+
+    /**
+     * Потоковый ответ; usage каждой попытки передается в onUsage
+     */
+    public String streamResponse(Long userId, String userMessage, Consumer<String> onDelta,
+                                 Consumer<OpenRouterJson.Usage> onUsage) {
+        if (apiKey == null || apiKey.isEmpty()) {
+            log.error("OpenRouter API key is not configured");
+            throw new AiServiceException("❌ API ключ OpenRouter не настроен. Обратитесь к администратору.");
+        }
+
+        log.info("Streaming request to OpenRouter for user {}: {}", userId, userMessage);
+
+        boolean firstTurn = isFirstTurn(userId);
+        String conversationId = ConversationChatMemory.conversationId(userId);
+        chatMemory.add(conversationId, new UserMessage(userMessage));
+
+        List<Message> history = chatMemory.get(conversationId);
+
+        ModelRouter.Route route = modelRouter.route(userMessage);
+
+        long startedAt = System.nanoTime();
+
+        try {
+            AtomicReference<String> answeredBy = new AtomicReference<>();
+            String content = requestCoalescer.execute(coalescingKey(route, toRequestMessages(history)), onDelta,
+                    upstreamDelta -> {
+                        AtomicBoolean emitted = new AtomicBoolean();
+                        Consumer<String> trackingDelta = delta -> {
+                            emitted.set(true);
+                            upstreamDelta.accept(delta);
+                        };
+
+                        return executeWithFallback(route, true, trackingDelta, () -> !emitted.get(), answeredBy,
+                                (candidate, candidateDelta) ->
+                                        streamCompletion(userId, history, candidate, route, candidateDelta, startedAt, onUsage));
+                    });
+
+            long duration = System.nanoTime() - startedAt;
+            streamedRequests.incrementAndGet();
+            totalStreamDurationNanos.addAndGet(duration);
+
+            if (content == null || content.isBlank()) {
+                // пустой ответ - ошибка, а не успех: иначе резерв лимита списался бы за ничего
+                log.error("❌ Empty streaming response from OpenRouter for user {}", userId);
+                throw new AiServiceException("❌ Ошибка: пустой ответ от AI сервиса");
+            }
+
+            if (!aiRequestPipeline.commitIfActive(() -> chatMemory.add(conversationId, new AssistantMessage(content)))) {
+                throw new CancellationException("AI request was cancelled");
             }
 
+            cacheFirstAnswer(firstTurn, userMessage, route, answeredBy.get(), content);
+
+            log.info("✅ OpenRouter stream finished for user {}: {} characters in {} ms (first token after {} ms)",
+                    userId, content.length(), TimeUnit.NANOSECONDS.toMillis(duration),
+                    TimeUnit.NANOSECONDS.toMillis(lastTimeToFirstTokenNanos.get()));
+
+            return content;
+
         } catch (Exception e) {
-            log.error("❌ Error generating AI response for user {}: {}", userId, e.getMessage(), e);
-            return List.of(handleOpenRouterError(e));
+            if (aiRequestPipeline.isCurrentCancelled()) {
+                throw cancelled(userId, e);
+            }
+            streamFailures.incrementAndGet();
+            if (e instanceof AiServiceException aiError) {
+                throw aiError;
+            }
+            log.error("❌ Error streaming AI response for user {}: {}", userId, e.getMessage(), e);
+            throw new AiServiceException(handleOpenRouterError(e), e);
+        }
+    }
+
+    /**
+     * Один потоковый запрос через ChatClient. Фрагменты передаются в onDelta по мере получения.
+     * Прерывание потока (проигравшая хеджированная попытка) отменяет подписку и закрывает соединение.
+     * Ошибки WebClient переводятся в исключения RestTemplate, по которым ModelRouter
+     * и OpenRouterGuard решают о переключении модели и перегрузке; ошибка внутри потока -
+     * в {@link AiServiceException}.
+     */
+    private String streamCompletion(Long userId, List<Message> history, String requestModel, ModelRouter.Route route,
+                                    Consumer<String> onDelta, long startedAt,
+                                    Consumer<OpenRouterJson.Usage> onUsage) {
+        long attemptStartedAt = System.nanoTime();
+        OpenAiChatOptions options = OpenAiChatOptions.builder()
+                .model(requestModel)
+                .maxTokens(route.maxTokens())
+                .temperature(TEMPERATURE)
+                .streamUsage(true)
+                .build();
+
+        Flux<ChatResponse> responses = chatClient.prompt()
+                .messages(history)
+                .options(options)
+                .stream()
+                .chatResponse();
+
+        StringBuilder content = new StringBuilder();
+        OpenRouterJson.Usage usage = null;
+        boolean firstToken = true;
+
+        try {
+            for (ChatResponse response : responses.toIterable(1)) {
+                OpenRouterJson.Usage chunkUsage = toUsage(response.getMetadata().getUsage());
+                if (chunkUsage != null) {
+                    usage = chunkUsage;
+                }
+
+                Generation generation = response.getResult();
+                if (generation == null) {
+                    continue;
+                }
+
+                String delta = generation.getOutput().getText();
+                if (delta == null || delta.isEmpty()) {
+                    continue;
+                }
+
+                if (firstToken) {
+                    long timeToFirstToken = System.nanoTime() - startedAt;
+                    lastTimeToFirstTokenNanos.set(timeToFirstToken);
+                    totalTimeToFirstTokenNanos.addAndGet(timeToFirstToken);
+                    firstToken = false;
+                }
+
+                content.append(delta);
+                onDelta.accept(delta);
+            }
+        } catch (WebClientResponseException e) {
+            throw toStatusException(e);
+        } catch (WebClientRequestException e) {
+            throw new ResourceAccessException("I/O error on POST request to OpenRouter: " + e.getMessage());
+        } catch (AiServiceException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            if (Exceptions.unwrap(e) instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Stream cancelled");
+            }
+            // Событие с ошибкой провайдера (finish_reason: "error") Spring AI не может разобрать
+            log.error("❌ OpenRouter stream from {} failed: {}", requestModel, e.getMessage());
+            throw new AiServiceException("⚠️ Временная ошибка AI сервиса. Попробуйте позже.", e);
+        }
+
+        recordUsage(userId, requestModel, usage, attemptStartedAt, onUsage);
+        return content.toString();
+    }
+
+    /**
+     * Запрос отменен пользователем: ответ не нужен, ошибкой это не считается
+     */
+    private static CancellationException cancelled(Long userId, Exception cause) {
+        log.info("⏹ AI request of user {} cancelled ({})", userId, cause.getClass().getSimpleName());
+        CancellationException cancellation = new CancellationException("AI request was cancelled");
+        cancellation.initCause(cause);
+        return cancellation;
+    }
+
+    private static OpenRouterJson.Usage toUsage(Usage usage) {
+        if (usage == null || usage.getTotalTokens() == null || usage.getTotalTokens() == 0) {
+            return null;
+        }
+        return new OpenRouterJson.Usage(
+                usage.getPromptTokens() != null ? usage.getPromptTokens() : 0,
+                usage.getCompletionTokens() != null ? usage.getCompletionTokens() : 0,
+                usage.getTotalTokens());
+    }
+
+    private static HttpStatusCodeException toStatusException(WebClientResponseException e) {
+        return e.getStatusCode().is4xxClientError()
+                ? HttpClientErrorException.create(e.getMessage(), e.getStatusCode(), e.getStatusText(),
+                e.getHeaders(), e.getResponseBodyAsByteArray(), StandardCharsets.UTF_8)
+                : HttpServerErrorException.create(e.getMessage(), e.getStatusCode(), e.getStatusText(),
+                e.getHeaders(), e.getResponseBodyAsByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * История из памяти ChatClient в виде сообщений запроса (с системным промптом) -
+     * для общего с обычным режимом ключа объединения запросов
+     */
+    private List<Map<String, String>> toRequestMessages(List<Message> history) {
+        List<Map<String, String>> messages = new ArrayList<>(history.size() + 1);
+        messages.add(Map.of("role", "system", "content", systemPrompt.text()));
+        for (Message message : history) {
+            messages.add(Map.of("role", message.getMessageType().getValue(), "content", message.getText()));
         }
+        return messages;
+    }
+
+    private HttpHeaders createHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("Authorization", "Bearer " + apiKey);
+        headers.set("HTTP-Referer", "https://t.me/OfficialAnswerToQuestionBot");
+        headers.set("X-Title", "OfficialAnswerToQuestionBot");
+        return headers;
+    }
+
+    /**
+     * Получает статистику AI запросов
+     */
+    public Map<String, Object> getAiStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long streamed = streamedRequests.get();
+
+        stats.put("streamingEnabled", streamingEnabled);
+        stats.put("streamedRequests", streamed);
+        stats.put("streamFailures", streamFailures.get());
+        stats.put("averageTimeToFirstTokenMs", streamed == 0 ? 0
+                : TimeUnit.NANOSECONDS.toMillis(totalTimeToFirstTokenNanos.get() / streamed));
+        stats.put("averageStreamDurationMs", streamed == 0 ? 0
+                : TimeUnit.NANOSECONDS.toMillis(totalStreamDurationNanos.get() / streamed));
+        stats.put("lastTimeToFirstTokenMs", TimeUnit.NANOSECONDS.toMillis(lastTimeToFirstTokenNanos.get()));
+        stats.put("fallbackResponses", fallbackResponses.get());
+        stats.put("usageResponses", usageResponses.get());
+        stats.put("promptTokens", promptTokens.get());
+        stats.put("completionTokens", completionTokens.get());
+        stats.put("answerCache", answerCache.getStats());
+        stats.put("coalescing", requestCoalescer.getStats());
+        stats.put("hedging", requestHedger.getStats());
+        stats.put("resilience", openRouterGuard.getStats());
+        stats.put("prompt", conversationContextService.getPromptStats());
+
+        return stats;
+    }
+
+    /**
+     * Получает форматированную статистику моделей
+     */
+    public String getFormattedModelStats() {
+        return modelRouter.getFormattedStats();
+    }
+
+    /**
+     * Получает форматированную статистику AI запросов
+     */
+    public String getFormattedAiStats() {
+        Map<String, Object> stats = getAiStats();
+
+        String requests = String.format("""
+                        🤖 Статистика AI:
+
+                        • Потоковый режим: %s
+                        • Потоковых ответов: %d (ошибок: %d)
+                        • Среднее время до первого токена: %d мс
+                        • Последнее время до первого токена: %d мс
+                        • Средняя длительность ответа: %d мс
+                        • Ответов от резервной модели: %d
+                        • Токенов по данным OpenRouter: %d в промптах, %d в ответах (%d ответов с usage)
+                        """,
+                (Boolean) stats.get("streamingEnabled") ? "включен" : "выключен",
+                stats.get("streamedRequests"),
+                stats.get("streamFailures"),
+                stats.get("averageTimeToFirstTokenMs"),
+                stats.get("lastTimeToFirstTokenMs"),
+                stats.get("averageStreamDurationMs"),
+                stats.get("fallbackResponses"),
+                stats.get("promptTokens"),
+                stats.get("completionTokens"),
+                stats.get("usageResponses"));
+
+        return String.join("\n",
+                requests,
+                answerCache.getFormattedStats(),
+                requestCoalescer.getFormattedStats(),
+                requestHedger.getFormattedStats(),
+                openRouterGuard.getFormattedStats(),
+                conversationContextService.getFormattedPromptStats());
     }
 
     /**
@@ -337,35 +866,8 @@ public class OpenRouterService {
         return conversationContextService.getFormattedStats();
     }
 
-    private String getSystemPrompt() {
-        return """
-                        You are a helpful assistant in a Telegram bot.
-                        
-                        IMPORTANT: ALWAYS RESPOND IN THE SAME LANGUAGE AS THE USER'S QUESTION.
-                        If the user writes in English - answer in English.
-                        If the user writes in Russian - answer in Russian.
-                        If the user writes in Spanish - answer in Spanish.
-                        And so on for all languages.
-                        
-                        CRITICAL: NEVER escape characters in your response!
-                        DO NOT use backslashes before dots, brackets, exclamation marks.
-                        DO NOT escape Markdown symbols: *, _, `, [, ], (, ), ~, >, #, +, -, =, |, {, }, ., !
-                        
-                        Use clean symbols without escaping for formatting:
-                        • Bold: **text**
-                        • Italic: *text*
-                        • Code: `code` or ```language code```
-                        • Links: [text](url)
-                        
-                        Be friendly and helpful to users.
-                        If the question is unclear or needs clarification - politely ask for clarification.
-                        Maximum response length: 1500 characters.
-                        Remember conversation context and consider previous messages.
-                        """;
-    }
-
     private String handleOpenRouterError(Exception e) {
-        String errorMessage = e.getMessage();
+        String errorMessage = String.valueOf(e.getMessage());
 
         if (errorMessage.contains("400") && errorMessage.contains("not a valid model")) {
             return "❌ Неправильное название модели '" + model + "'. Используйте /models для списка доступных моделей.";
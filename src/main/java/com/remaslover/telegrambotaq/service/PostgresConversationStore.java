@@ -0,0 +1,104 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.remaslover.telegrambotaq.config.ConversationStoreConfig;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Хранилище разговоров в Postgres (таблица conversation_state, схему создает
+ * Hibernate по сущности {@code ConversationState}).
+ * <p>
+ * Пачка изменений записывается одним JDBC batch из INSERT ... ON CONFLICT,
+ * а не через merge сущностей, которому нужен SELECT на каждую строку.
+ */
+@Component
+@ConditionalOnProperty(name = "context.store.type", havingValue = ConversationStoreConfig.TYPE_POSTGRES)
+public class PostgresConversationStore implements ConversationStore {
+
+    private static final TypeReference<List<ConversationSnapshot.Message>> MESSAGES_TYPE = new TypeReference<>() {
+    };
+
+    private static final String UPSERT = """
+            INSERT INTO conversation_state (user_id, summary, messages, last_activity, updated_at)
+            VALUES (?, ?, ?, ?, ?)
+            ON CONFLICT (user_id) DO UPDATE SET
+                summary = EXCLUDED.summary,
+                messages = EXCLUDED.messages,
+                last_activity = EXCLUDED.last_activity,
+                updated_at = EXCLUDED.updated_at
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+
+    public PostgresConversationStore(JdbcTemplate jdbcTemplate, ObjectMapper objectMapper) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public Optional<ConversationSnapshot> load(Long userId) {
+        List<ConversationSnapshot> rows = jdbcTemplate.query(
+                "SELECT summary, messages, last_activity FROM conversation_state WHERE user_id = ?",
+                (rs, rowNum) -> new ConversationSnapshot(userId,
+                        rs.getString("summary"),
+                        readMessages(rs.getString("messages")),
+                        rs.getTimestamp("last_activity").toLocalDateTime()),
+                userId);
+        return rows.stream().findFirst();
+    }
+
+    @Override
+    public void saveAll(Collection<ConversationSnapshot> snapshots) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.batchUpdate(UPSERT, snapshots, snapshots.size(), (ps, snapshot) -> {
+            ps.setLong(1, snapshot.userId());
+            ps.setString(2, snapshot.summary());
+            ps.setString(3, writeMessages(snapshot.messages()));
+            ps.setTimestamp(4, Timestamp.valueOf(snapshot.lastActivity()));
+            ps.setTimestamp(5, now);
+        });
+    }
+
+    @Override
+    public void deleteAll(Collection<Long> userIds) {
+        jdbcTemplate.batchUpdate("DELETE FROM conversation_state WHERE user_id = ?", userIds, userIds.size(),
+                (ps, userId) -> ps.setLong(1, userId));
+    }
+
+    @Override
+    public void clear() {
+        jdbcTemplate.update("DELETE FROM conversation_state");
+    }
+
+    @Override
+    public String name() {
+        return ConversationStoreConfig.TYPE_POSTGRES;
+    }
+
+    private String writeMessages(List<ConversationSnapshot.Message> messages) {
+        try {
+            return objectMapper.writeValueAsString(messages);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize conversation messages", e);
+        }
+    }
+
+    private List<ConversationSnapshot.Message> readMessages(String json) {
+        try {
+            return objectMapper.readValue(json, MESSAGES_TYPE);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot read stored conversation messages", e);
+        }
+    }
+}
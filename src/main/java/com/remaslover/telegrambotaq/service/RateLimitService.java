@@ -1,24 +1,73 @@
 package com.remaslover.telegrambotaq.service;
 
+import com.remaslover.telegrambotaq.util.OpenRouterJson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
+/**
+ * Дневные лимиты AI запросов.
+ * <p>
+ * Режим requests: не больше app.openrouter.daily-limit запросов в день.
+ * Режим tokens: у каждого пользователя дневной бюджет токенов. Перед запросом
+ * резервируется оценка его стоимости ({@link #reserve}), после ответа резерв
+ * заменяется фактическим расходом из usage ({@link #settle}), при ошибке
+ * резерв возвращается ({@link #refund}). Поэтому длинные промпты быстрее
+ * упираются в лимит, а короткие вопросы дают больше ходов.
+ */
 @Service
 public class RateLimitService {
 
     private static final Logger log = LoggerFactory.getLogger(RateLimitService.class);
 
     private final Map<Long, UserUsage> userUsage = new ConcurrentHashMap<>();
-    private static final int DAILY_FREE_LIMIT = 10;
+
+    private final int dailyRequestLimit;
+    private final BudgetMode mode;
+    private final long dailyTokenBudget;
+    private final int reserveCompletionTokens;
+
+    private final LongAdder settledReservations = new LongAdder();
+    private final LongAdder refundedReservations = new LongAdder();
+    private final LongAdder reservedTokensTotal = new LongAdder();
+    private final LongAdder settledTokensTotal = new LongAdder();
+    private final LongAdder backgroundTokensTotal = new LongAdder();
+
+    public RateLimitService(@Value("${app.openrouter.daily-limit:10}") int dailyRequestLimit,
+                            @Value("${app.openrouter.budget.mode:requests}") String mode,
+                            @Value("${app.openrouter.budget.daily-tokens:30000}") long dailyTokenBudget,
+                            @Value("${app.openrouter.budget.reserve-completion-tokens:500}") int reserveCompletionTokens) {
+        if (dailyRequestLimit <= 0) {
+            throw new IllegalArgumentException("app.openrouter.daily-limit must be greater than 0");
+        }
+        if (dailyTokenBudget <= 0) {
+            throw new IllegalArgumentException("app.openrouter.budget.daily-tokens must be greater than 0");
+        }
+        if (reserveCompletionTokens < 0) {
+            throw new IllegalArgumentException("app.openrouter.budget.reserve-completion-tokens must not be negative");
+        }
+        this.dailyRequestLimit = dailyRequestLimit;
+        this.mode = BudgetMode.from(mode);
+        this.dailyTokenBudget = dailyTokenBudget;
+        this.reserveCompletionTokens = reserveCompletionTokens;
+
+        log.info("Лимит AI: режим {}, {} запросов или {} токенов в день",
+                this.mode.name().toLowerCase(Locale.ROOT), dailyRequestLimit, dailyTokenBudget);
+    }
 
     /**
      * Отладочный метод - показывает все записи
@@ -27,8 +76,7 @@ public class RateLimitService {
         log.info("=== RateLimitService Debug ===");
         log.info("Total users in map: {}", userUsage.size());
         userUsage.forEach((userId, usage) -> {
-            log.info("User {}: count={}, lastDate={}",
-                    userId, usage.dailyCount, usage.lastRequestDate);
+            log.info("User {}: {}", userId, usage);
         });
         log.info("=== End Debug ===");
     }
@@ -37,46 +85,144 @@ public class RateLimitService {
      * Проверяет, может ли пользователь сделать AI запрос
      */
     public boolean canMakeAiRequest(Long userId) {
-        UserUsage usage = getUserUsage(userId);
+        return canReserve(getCurrentUsage(userId), 1);
+    }
+
+    /**
+     * Резервирует лимит под AI запрос.
+     *
+     * @param estimatedPromptTokens оценка токенов промпта; к ней добавляется
+     *                              reserve-completion-tokens на ответ
+     * @return резерв или null, если лимит исчерпан
+     */
+    public Reservation reserve(Long userId, int estimatedPromptTokens) {
+        long cost = mode == BudgetMode.TOKENS ? Math.max(estimatedPromptTokens + (long) reserveCompletionTokens, 1) : 1;
+        UserUsage usage = getCurrentUsage(userId);
+
+        synchronized (usage) {
+            if (!canReserve(usage, cost)) {
+                log.info("User {} exceeded daily AI limit: {}", userId, usage);
+                return null;
+            }
+            if (mode == BudgetMode.TOKENS) {
+                usage.tokensReserved += cost;
+            } else {
+                usage.requestsReserved++;
+            }
+        }
+
+        reservedTokensTotal.add(mode == BudgetMode.TOKENS ? cost : 0);
+        log.debug("User {} reserved {} {} for AI request", userId, cost, mode == BudgetMode.TOKENS ? "tokens" : "request");
+        return new Reservation(userId, cost);
+    }
+
+    /**
+     * Списывает фактический расход запроса и снимает резерв.
+     * Если провайдер не прислал usage, списывается оценка из резерва.
+     */
+    public void settle(Reservation reservation) {
+        if (!reservation.closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        UserUsage usage = getCurrentUsage(reservation.userId);
+        long actualTokens = reservation.hasUsage() ? reservation.actualTokens.sum() : reservation.reservedCost;
+
+        synchronized (usage) {
+            release(usage, reservation);
+            usage.dailyCount++;
+            usage.tokensUsed += mode == BudgetMode.TOKENS ? actualTokens : reservation.actualTokens.sum();
+        }
+
+        settledReservations.increment();
+        if (mode == BudgetMode.TOKENS) {
+            settledTokensTotal.add(actualTokens);
+        }
+        log.info("✅ AI request settled for user {}: {} tokens (reserved {}), {}",
+                reservation.userId, reservation.actualTokens.sum(), reservation.reservedCost, describeUsage(usage));
+    }
 
-        if (!usage.lastRequestDate.equals(LocalDate.now())) {
-            usage.dailyCount = 0;
-            usage.lastRequestDate = LocalDate.now();
-            userUsage.put(userId, usage);
-            log.debug("New day for user {}, counter reset to 0", userId);
+    /**
+     * Возвращает резерв, если запрос не был выполнен. После {@link #settle} ничего не делает.
+     */
+    public void refund(Reservation reservation) {
+        if (!reservation.closed.compareAndSet(false, true)) {
+            return;
         }
 
-        if (usage.dailyCount >= DAILY_FREE_LIMIT) {
-            log.info("User {} exceeded daily AI limit: {}/{}",
-                    userId, usage.dailyCount, DAILY_FREE_LIMIT);
-            return false;
+        UserUsage usage = getCurrentUsage(reservation.userId);
+        synchronized (usage) {
+            release(usage, reservation);
         }
 
-        log.debug("User {} can make AI request: {}/{}",
-                userId, usage.dailyCount, DAILY_FREE_LIMIT);
-        return true;
+        refundedReservations.increment();
+        log.debug("↩️ AI reservation refunded for user {}: {}", reservation.userId, reservation.reservedCost);
     }
 
     /**
-     * Регистрирует AI запрос пользователя
+     * Списывает расход фонового запроса пользователя (сжатие его истории):
+     * токены идут в дневной бюджет, но запросом в счетчике не считаются
+     */
+    public void chargeUsage(Long userId, OpenRouterJson.Usage usage) {
+        long tokens = usage.promptTokens() + (long) usage.completionTokens();
+        UserUsage current = getCurrentUsage(userId);
+        synchronized (current) {
+            current.tokensUsed += tokens;
+        }
+
+        backgroundTokensTotal.add(tokens);
+        log.debug("User {} charged {} tokens for background AI work", userId, tokens);
+    }
+
+    /**
+     * Регистрирует AI запрос пользователя без резерва
      */
     public void registerAiRequest(Long userId) {
-        UserUsage usage = getUserUsage(userId);
+        Reservation reservation = reserve(userId, 0);
+        if (reservation == null) {
+            log.warn("⚠️ Attempt to register AI request for user {} beyond limit", userId);
+            return;
+        }
+        settle(reservation);
+    }
 
-        if (!usage.lastRequestDate.equals(LocalDate.now())) {
-            usage.dailyCount = 0;
-            usage.lastRequestDate = LocalDate.now();
+    private boolean canReserve(UserUsage usage, long cost) {
+        synchronized (usage) {
+            if (mode == BudgetMode.TOKENS) {
+                long committed = usage.tokensUsed + usage.tokensReserved;
+                // Первый запрос дня проходит даже с оценкой больше бюджета
+                return committed == 0 || committed + cost <= dailyTokenBudget;
+            }
+            return usage.dailyCount + usage.requestsReserved + cost <= dailyRequestLimit;
         }
+    }
 
-        if (usage.dailyCount < DAILY_FREE_LIMIT) {
-            usage.dailyCount++;
-            userUsage.put(userId, usage);
-            log.info("✅ AI request registered for user {}: {}/{}",
-                    userId, usage.dailyCount, DAILY_FREE_LIMIT);
+    private void release(UserUsage usage, Reservation reservation) {
+        if (!usage.lastRequestDate.equals(reservation.date)) {
+            // резерв был сделан до сброса счетчиков
+            return;
+        }
+        if (mode == BudgetMode.TOKENS) {
+            usage.tokensReserved = Math.max(0, usage.tokensReserved - reservation.reservedCost);
         } else {
-            log.warn("⚠️ Attempt to register AI request for user {} beyond limit: {}/{}",
-                    userId, usage.dailyCount, DAILY_FREE_LIMIT);
+            usage.requestsReserved = Math.max(0, usage.requestsReserved - 1);
+        }
+    }
+
+    /**
+     * Возвращает запись пользователя, сбрасывая ее, если наступил новый день
+     */
+    private UserUsage getCurrentUsage(Long userId) {
+        UserUsage usage = getUserUsage(userId);
+        LocalDate today = LocalDate.now();
+
+        synchronized (usage) {
+            if (!usage.lastRequestDate.equals(today)) {
+                usage.reset(today);
+                log.debug("New day for user {}, counter reset to 0", userId);
+            }
         }
+        return usage;
     }
 
     /**
@@ -95,59 +241,87 @@ public class RateLimitService {
      * Получает информацию о лимитах пользователя
      */
     public String getUsageInfo(Long userId) {
-        UserUsage usage = getUserUsage(userId);
-
+        UserUsage usage = getCurrentUsage(userId);
+
+        synchronized (usage) {
+            if (mode == BudgetMode.TOKENS) {
+                return """
+                        🤖 *Ваши лимиты использования AI:*
+                                    
+                        • **Использовано сегодня:** %d из %d токенов (%d запросов)
+                        • **Осталось сегодня:** %d токенов
+                                    
+                        💡 Длинные вопросы и длинная история разговора расходуют больше токенов.
+                        Очистите контекст (/context clear), чтобы тратить меньше.
+                        💡 Лимиты сбрасываются каждый день в 00:00
+                        """.formatted(usage.tokensUsed, dailyTokenBudget, usage.dailyCount,
+                        remainingTokens(usage));
+            }
+
+            return """
+                    🤖 *Ваши лимиты использования AI:*
+                                
+                    • **Использовано сегодня:** %d из %d запросов
+                    • **Осталось сегодня:** %d запросов
+                                
+                    💡 Лимиты сбрасываются каждый день в 00:00
+                    """.formatted(usage.dailyCount, dailyRequestLimit, dailyRequestLimit - usage.dailyCount);
+        }
+    }
 
-        if (!usage.lastRequestDate.equals(LocalDate.now())) {
-            usage.dailyCount = 0;
-            usage.lastRequestDate = LocalDate.now();
-            userUsage.put(userId, usage);
-            log.debug("New day for user {}, counter reset to 0", userId);
+    /**
+     * Остаток лимита для сообщений пользователю, например "осталось AI запросов: 7"
+     */
+    public String describeRemaining(Long userId) {
+        UserUsage usage = getCurrentUsage(userId);
+        synchronized (usage) {
+            return mode == BudgetMode.TOKENS
+                    ? "осталось токенов: " + remainingTokens(usage)
+                    : "осталось AI запросов: " + (dailyRequestLimit - usage.dailyCount - usage.requestsReserved);
         }
+    }
 
-        int remaining = DAILY_FREE_LIMIT - usage.dailyCount;
+    /**
+     * Сообщение об исчерпанном лимите
+     */
+    public String getLimitExceededMessage() {
+        String limit = mode == BudgetMode.TOKENS
+                ? dailyTokenBudget + " токенов/день"
+                : dailyRequestLimit + "/день";
+        return "❌ Лимит AI-запросов исчерпан (" + limit + "). Попробуйте завтра!\n" +
+               "Используйте /usage для проверки лимитов";
+    }
 
-        return """
-                🤖 *Ваши лимиты использования AI:*
-                            
-                • **Использовано сегодня:** %d из 10 запросов
-                • **Осталось сегодня:** %d запросов
-                            
-                💡 Лимиты сбрасываются каждый день в 00:00
-                """.formatted(usage.dailyCount, remaining);
+    private long remainingTokens(UserUsage usage) {
+        return Math.max(0, dailyTokenBudget - usage.tokensUsed - usage.tokensReserved);
+    }
+
+    private String describeUsage(UserUsage usage) {
+        synchronized (usage) {
+            return mode == BudgetMode.TOKENS
+                    ? String.format("%d/%d tokens", usage.tokensUsed, dailyTokenBudget)
+                    : String.format("%d/%d requests", usage.dailyCount, dailyRequestLimit);
+        }
     }
 
     /**
      * Получает количество оставшихся AI запросов
      */
     public int getRemainingAiRequests(Long userId) {
-        UserUsage usage = getUserUsage(userId);
-
-        if (!usage.lastRequestDate.equals(LocalDate.now())) {
-            usage.dailyCount = 0;
-            usage.lastRequestDate = LocalDate.now();
-            userUsage.put(userId, usage);
-            log.debug("New day for user {}, counter reset to 0", userId);
+        UserUsage usage = getCurrentUsage(userId);
+        synchronized (usage) {
+            return dailyRequestLimit - usage.dailyCount;
         }
-
-        return DAILY_FREE_LIMIT - usage.dailyCount;
     }
 
     /**
      * Получает количество использованных AI запросов
      */
     public int getUsedAiRequests(Long userId) {
-        UserUsage usage = getUserUsage(userId);
-
-        if (!usage.lastRequestDate.equals(LocalDate.now())) {
-            usage.dailyCount = 0;
-            usage.lastRequestDate = LocalDate.now();
-            userUsage.put(userId, usage);
-            log.debug("New day for user {}, counter reset to 0", userId);
-            return 0;
+        UserUsage usage = getCurrentUsage(userId);
+        synchronized (usage) {
+            return usage.dailyCount;
         }
-
-        return usage.dailyCount;
     }
 
     /**
@@ -158,9 +332,11 @@ public class RateLimitService {
         int userCount = userUsage.size();
         log.info("🔄 Starting daily reset for {} users", userCount);
 
+        LocalDate today = LocalDate.now();
         userUsage.forEach((userId, usage) -> {
-            usage.dailyCount = 0;
-            usage.lastRequestDate = LocalDate.now();
+            synchronized (usage) {
+                usage.reset(today);
+            }
             log.debug("Reset counter for user {} to 0", userId);
         });
 
@@ -180,11 +356,22 @@ public class RateLimitService {
         int totalRequests = userUsage.values().stream()
                 .mapToInt(usage -> usage.dailyCount)
                 .sum();
+        long totalTokens = userUsage.values().stream()
+                .mapToLong(usage -> usage.tokensUsed)
+                .sum();
 
+        stats.put("mode", mode.name().toLowerCase(Locale.ROOT));
         stats.put("totalUsers", totalUsers);
         stats.put("activeUsers", activeUsers);
         stats.put("totalRequests", totalRequests);
-        stats.put("dailyLimit", DAILY_FREE_LIMIT);
+        stats.put("totalTokens", totalTokens);
+        stats.put("dailyLimit", dailyRequestLimit);
+        stats.put("dailyTokenBudget", dailyTokenBudget);
+        stats.put("settledReservations", settledReservations.sum());
+        stats.put("refundedReservations", refundedReservations.sum());
+        stats.put("reservedTokens", reservedTokensTotal.sum());
+        stats.put("settledTokens", settledTokensTotal.sum());
+        stats.put("backgroundTokens", backgroundTokensTotal.sum());
 
         return stats;
     }
@@ -205,38 +392,150 @@ public class RateLimitService {
         if (usage == null) {
             log.info("DEBUG: User {} not found in userUsage map", userId);
         } else {
-            log.info("DEBUG: User {} - count: {}, lastDate: {}, mapSize: {}",
-                    userId, usage.dailyCount, usage.lastRequestDate, userUsage.size());
+            log.info("DEBUG: User {} - {}, mapSize: {}", userId, usage, userUsage.size());
         }
     }
 
 
+    /**
+     * Счетчики всех пользователей для снимка состояния. Резервы не выгружаются:
+     * выполняющиеся запросы не переживают перезапуск.
+     */
+    public List<UsageSnapshot> exportUsage() {
+        List<UsageSnapshot> result = new ArrayList<>(userUsage.size());
+        userUsage.forEach((userId, usage) -> {
+            synchronized (usage) {
+                if (usage.dailyCount > 0 || usage.tokensUsed > 0) {
+                    result.add(new UsageSnapshot(userId, usage.lastRequestDate, usage.dailyCount, usage.tokensUsed));
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Восстанавливает счетчики из снимка. Записи прошлых дней пропускаются,
+     * из двух значений берется большее, чтобы восстановление не вернуло лимит.
+     *
+     * @return количество восстановленных пользователей
+     */
+    public int restoreUsage(Collection<UsageSnapshot> snapshots) {
+        LocalDate today = LocalDate.now();
+        int restored = 0;
+        for (UsageSnapshot snapshot : snapshots) {
+            if (!today.equals(snapshot.date())) {
+                continue;
+            }
+            UserUsage usage = getCurrentUsage(snapshot.userId());
+            synchronized (usage) {
+                usage.dailyCount = Math.max(usage.dailyCount, snapshot.dailyCount());
+                usage.tokensUsed = Math.max(usage.tokensUsed, snapshot.tokensUsed());
+            }
+            restored++;
+        }
+        return restored;
+    }
+
     /**
      * Получает топ пользователей по использованию
      */
     public List<Map<String, Object>> getTopUsersByUsage(int limit) {
         return userUsage.entrySet().stream()
-                .sorted((e1, e2) -> Integer.compare(e2.getValue().dailyCount, e1.getValue().dailyCount))
+                .sorted((e1, e2) -> mode == BudgetMode.TOKENS
+                        ? Long.compare(e2.getValue().tokensUsed, e1.getValue().tokensUsed)
+                        : Integer.compare(e2.getValue().dailyCount, e1.getValue().dailyCount))
                 .limit(limit)
                 .map(entry -> {
                     Map<String, Object> info = new HashMap<>();
                     info.put("userId", entry.getKey());
                     info.put("dailyCount", entry.getValue().dailyCount);
+                    info.put("tokensUsed", entry.getValue().tokensUsed);
                     return info;
                 })
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Режим лимита
+     */
+    enum BudgetMode {
+        REQUESTS,
+        TOKENS;
+
+        static BudgetMode from(String value) {
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown app.openrouter.budget.mode: " + value
+                                                   + " (expected requests or tokens)", e);
+            }
+        }
+    }
+
+    /**
+     * Резерв лимита под один AI запрос. Фактический расход накапливается
+     * из usage всех попыток запроса ({@link #addUsage}), затем резерв
+     * закрывается ровно один раз: {@link #settle} или {@link #refund}.
+     */
+    public static final class Reservation {
+        private final Long userId;
+        private final long reservedCost;
+        private final LocalDate date = LocalDate.now();
+        private final LongAdder actualTokens = new LongAdder();
+        private final LongAdder usageReports = new LongAdder();
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Reservation(Long userId, long reservedCost) {
+            this.userId = userId;
+            this.reservedCost = reservedCost;
+        }
+
+        /**
+         * Учитывает usage одной попытки запроса к модели
+         */
+        public void addUsage(OpenRouterJson.Usage usage) {
+            actualTokens.add(usage.promptTokens() + (long) usage.completionTokens());
+            usageReports.increment();
+        }
+
+        boolean hasUsage() {
+            return usageReports.sum() > 0;
+        }
+
+        public long getActualTokens() {
+            return actualTokens.sum();
+        }
+    }
+
+    /**
+     * Дневные счетчики пользователя в снимке состояния
+     */
+    public record UsageSnapshot(long userId, LocalDate date, int dailyCount, long tokensUsed) {
+    }
+
     /**
      * Внутренний класс для хранения данных использования пользователя
      */
     private static class UserUsage {
         private int dailyCount = 0;
+        private int requestsReserved = 0;
+        private long tokensUsed = 0;
+        private long tokensReserved = 0;
         private LocalDate lastRequestDate = LocalDate.now();
 
+        void reset(LocalDate today) {
+            dailyCount = 0;
+            tokensUsed = 0;
+            lastRequestDate = today;
+            // резервы выполняющихся запросов переживают сброс только до своего завершения
+            requestsReserved = 0;
+            tokensReserved = 0;
+        }
+
         @Override
         public String toString() {
-            return String.format("UserUsage{count=%d, date=%s}", dailyCount, lastRequestDate);
+            return String.format("UserUsage{count=%d, reserved=%d, tokens=%d, reservedTokens=%d, date=%s}",
+                    dailyCount, requestsReserved, tokensUsed, tokensReserved, lastRequestDate);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,299 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.remaslover.telegrambotaq.config.ModelRoutingConfig;
+import com.remaslover.telegrambotaq.exception.UpstreamUnavailableException;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Хеджирование запросов к OpenRouter для сокращения хвоста задержек.
+ * <p>
+ * Запрос отправляется на модель; если за наблюдаемую p95 задержку этой модели
+ * ответ (в потоковом режиме - первый фрагмент) не пришел, отправляется второй
+ * запрос на резервную модель или на ту же. Побеждает первый ответивший,
+ * второй запрос отменяется (поток прерывается, соединение закрывается).
+ * <p>
+ * Бюджет: каждый запрос добавляет hedgeBudgetPercent сотых жетона, второй запрос
+ * тратит целый жетон, поэтому дополнительных вызовов не больше заданной доли.
+ */
+@Component
+public class RequestHedger {
+
+    private static final Logger log = LoggerFactory.getLogger(RequestHedger.class);
+
+    private static final int HEDGE_COST = 100;
+    private static final int MAX_BUDGET = 5 * HEDGE_COST;
+
+    private final ModelRoutingConfig config;
+    private final ModelRouter modelRouter;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private int budget;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedgesLaunched = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong budgetDenied = new AtomicLong();
+    private final AtomicLong cancelledLosers = new AtomicLong();
+
+    /**
+     * Одна попытка запроса к модели. Фрагменты ответа передаются в onDelta.
+     */
+    @FunctionalInterface
+    public interface Attempt {
+        String execute(String model, Consumer<String> onDelta) throws Exception;
+    }
+
+    /**
+     * Результат: текст ответа и модель, которая ответила первой
+     */
+    public record Outcome(String model, String content) {
+    }
+
+    /**
+     * Попытка проиграла гонку: ответ уже идет от другого запроса
+     */
+    static final class HedgeLostException extends CancellationException {
+        HedgeLostException() {
+            super("hedged request lost the race");
+        }
+    }
+
+    public RequestHedger(ModelRoutingConfig config, ModelRouter modelRouter) {
+        this.config = config;
+        this.modelRouter = modelRouter;
+    }
+
+    /**
+     * Выполняет запрос к модели с возможным вторым запросом на hedgeModel.
+     * Успехи и ошибки попыток записываются в {@link ModelRouter}; отмененная
+     * попытка ошибкой не считается.
+     *
+     * @param streaming ждать первого фрагмента (true) или полного ответа (false)
+     */
+    public Outcome execute(String model, String hedgeModel, boolean streaming,
+                           Consumer<String> onDelta, Attempt attempt) throws Exception {
+        requests.incrementAndGet();
+        addBudget(config.getHedgeBudgetPercent());
+
+        long hedgeDelay = hedgeDelayNanos(model, streaming);
+        if (hedgeDelay < 0) {
+            return run(model, streaming, onDelta, attempt, null, null);
+        }
+
+        Race race = new Race();
+        Lane primary = launch(race, model, streaming, onDelta, attempt);
+        Lane hedge = null;
+
+        try {
+            try {
+                return race.result.get(hedgeDelay, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                if (tryAcquireBudget()) {
+                    hedgesLaunched.incrementAndGet();
+                    log.info("🪁 No answer from {} after {} ms (p95), sending hedged request to {}",
+                            model, TimeUnit.NANOSECONDS.toMillis(hedgeDelay), hedgeModel);
+                    hedge = launch(race, hedgeModel, streaming, onDelta, attempt);
+                } else {
+                    budgetDenied.incrementAndGet();
+                }
+            }
+
+            Outcome outcome = race.result.get();
+            if (hedge != null && race.winner.get() == hedge) {
+                hedgeWins.incrementAndGet();
+            }
+            return outcome;
+
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        } finally {
+            cancelLoser(primary, race);
+            cancelLoser(hedge, race);
+        }
+    }
+
+    /**
+     * Задержка перед вторым запросом: p95 модели, но не меньше hedgeMinDelayMs.
+     *
+     * @return -1, если хеджирование выключено или замеров еще нет
+     */
+    private long hedgeDelayNanos(String model, boolean streaming) {
+        if (!config.isHedgeEnabled() || config.getHedgeBudgetPercent() == 0) {
+            return -1;
+        }
+
+        long p95 = modelRouter.latencyP95(model, streaming);
+        if (p95 < 0) {
+            return -1;
+        }
+        return Math.max(p95, TimeUnit.MILLISECONDS.toNanos(config.getHedgeMinDelayMs()));
+    }
+
+    private Lane launch(Race race, String model, boolean streaming, Consumer<String> onDelta, Attempt attempt) {
+        race.pending.incrementAndGet();
+        Lane lane = new Lane();
+
+        lane.future = executor.submit(() -> {
+            try {
+                String content = run(model, streaming, onDelta, attempt, race, lane).content();
+                if (race.claim(lane)) {
+                    race.result.complete(new Outcome(model, content));
+                }
+            } catch (Throwable e) {
+                race.fail(e);
+            }
+        });
+        return lane;
+    }
+
+    /**
+     * Одна попытка с учетом гонки: фрагменты передаются дальше только от попытки,
+     * первой приславшей фрагмент; у проигравшей следующий фрагмент прерывает чтение.
+     */
+    private Outcome run(String model, boolean streaming, Consumer<String> onDelta, Attempt attempt,
+                        Race race, Lane self) throws Exception {
+        long startedAt = System.nanoTime();
+        boolean[] firstDelta = {true};
+
+        Consumer<String> gatedDelta = delta -> {
+            if (race != null && !race.claim(self)) {
+                throw new HedgeLostException();
+            }
+            if (firstDelta[0]) {
+                firstDelta[0] = false;
+                modelRouter.recordFirstToken(model, System.nanoTime() - startedAt);
+            }
+            onDelta.accept(delta);
+        };
+
+        try {
+            String content = attempt.execute(model, gatedDelta);
+            if (race != null && race.winner.get() != null && race.winner.get() != self) {
+                throw new HedgeLostException();
+            }
+            modelRouter.recordSuccess(model, System.nanoTime() - startedAt);
+            return new Outcome(model, content);
+        } catch (Exception e) {
+            boolean lost = race != null && race.winner.get() != null && race.winner.get() != self;
+            if (!lost && !(e instanceof HedgeLostException) && !(e instanceof UpstreamUnavailableException)
+                    && !Thread.currentThread().isInterrupted()) {
+                modelRouter.recordFailure(model, e);
+            }
+            throw e;
+        }
+    }
+
+    private void cancelLoser(Lane lane, Race race) {
+        if (lane != null && lane != race.winner.get() && !lane.future.isDone()) {
+            lane.future.cancel(true);
+            cancelledLosers.incrementAndGet();
+        }
+    }
+
+    private synchronized void addBudget(int amount) {
+        budget = Math.min(MAX_BUDGET, budget + amount);
+    }
+
+    private synchronized boolean tryAcquireBudget() {
+        if (budget < HEDGE_COST) {
+            return false;
+        }
+        budget -= HEDGE_COST;
+        return true;
+    }
+
+    /**
+     * Получает статистику хеджирования
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long total = requests.get();
+        long hedges = hedgesLaunched.get();
+
+        stats.put("enabled", config.isHedgeEnabled());
+        stats.put("budgetPercent", config.getHedgeBudgetPercent());
+        stats.put("requests", total);
+        stats.put("hedges", hedges);
+        stats.put("hedgeRate", total == 0 ? "0.0%" : String.format("%.1f%%", hedges * 100.0 / total));
+        stats.put("hedgeWins", hedgeWins.get());
+        stats.put("budgetDenied", budgetDenied.get());
+        stats.put("cancelledLosers", cancelledLosers.get());
+
+        return stats;
+    }
+
+    /**
+     * Форматированная статистика хеджирования
+     */
+    public String getFormattedStats() {
+        Map<String, Object> stats = getStats();
+
+        return String.format("""
+                        🪁 Хеджирование (второй запрос после p95):
+                        • Статус: %s (бюджет %d%%)
+                        • Дополнительных запросов: %d (%s)
+                        • Побед второго запроса: %d
+                        • Отказов по бюджету: %d
+                        """,
+                config.isHedgeEnabled() ? "включено" : "выключено",
+                config.getHedgeBudgetPercent(),
+                stats.get("hedges"),
+                stats.get("hedgeRate"),
+                stats.get("hedgeWins"),
+                stats.get("budgetDenied"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Одна из параллельных попыток
+     */
+    private static final class Lane {
+        private volatile Future<?> future;
+    }
+
+    /**
+     * Состояние гонки двух запросов: победитель, число незавершенных попыток и результат
+     */
+    private static final class Race {
+        private final AtomicReference<Lane> winner = new AtomicReference<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicReference<Throwable> firstError = new AtomicReference<>();
+        private final CompletableFuture<Outcome> result = new CompletableFuture<>();
+
+        boolean claim(Lane attempt) {
+            return winner.compareAndSet(null, attempt) || winner.get() == attempt;
+        }
+
+        void fail(Throwable error) {
+            if (!(error instanceof HedgeLostException)) {
+                firstError.compareAndSet(null, error);
+            }
+            if (pending.decrementAndGet() == 0) {
+                Throwable cause = firstError.get();
+                result.completeExceptionally(cause != null ? cause : error);
+            }
+        }
+    }
+}
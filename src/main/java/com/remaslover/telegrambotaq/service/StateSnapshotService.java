@@ -0,0 +1,281 @@
+package com.remaslover.telegrambotaq.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Снимок состояния в памяти на время перезапуска.
+ * <p>
+ * При остановке дневные счетчики {@link RateLimitService}, разговоры основного кэша
+ * и сжатые записи холодного уровня {@link ConversationContextService} пишутся в
+ * компактный бинарный файл. При старте файл отображается в память и восстанавливается
+ * до начала приема обновлений ({@code BotInitializer} запускается после создания всех
+ * бинов): счетчики и сжатые записи сразу, разговоры - срезами отображения, которые
+ * разбираются при первом обращении пользователя. Затем файл удаляется, чтобы устаревший
+ * снимок не применился повторно; отображение остается действительным до сборки мусора.
+ * <p>
+ * Формат: заголовок (magic, версия, время создания), секции {@code тег, количество, записи}
+ * с тегом 0 в конце и CRC32 всего предшествующего содержимого. Файл с неверной
+ * контрольной суммой или версией пропускается: разговоры все равно прочитаются из хранилища.
+ */
+@Service
+public class StateSnapshotService {
+
+    private static final Logger log = LoggerFactory.getLogger(StateSnapshotService.class);
+
+    private static final int MAGIC = 0x54515353;
+    private static final byte VERSION = 1;
+
+    private static final byte SECTION_END = 0;
+    private static final byte SECTION_RATE_LIMITS = 1;
+    private static final byte SECTION_CONVERSATIONS = 2;
+    private static final byte SECTION_COLD_CONVERSATIONS = 3;
+
+    private static final int HEADER_BYTES = 4 + 1 + 8;
+    private static final int TRAILER_BYTES = 8;
+
+    private final RateLimitService rateLimitService;
+    private final ConversationContextService contextService;
+    private final boolean enabled;
+    private final Path path;
+
+    public StateSnapshotService(RateLimitService rateLimitService,
+                                ConversationContextService contextService,
+                                @Value("${app.state-snapshot.enabled:true}") boolean enabled,
+                                @Value("${app.state-snapshot.path:./data/state-snapshot.bin}") String path) {
+        if (path == null || path.isBlank()) {
+            throw new IllegalArgumentException("app.state-snapshot.path must not be blank");
+        }
+        this.rateLimitService = rateLimitService;
+        this.contextService = contextService;
+        this.enabled = enabled;
+        this.path = Paths.get(path);
+    }
+
+    /**
+     * Результат восстановления снимка
+     */
+    public record RestoreResult(int rateLimits, int conversations, int coldConversations, long nanos) {
+    }
+
+    /**
+     * Восстанавливает снимок предыдущего запуска и удаляет файл
+     */
+    @PostConstruct
+    public void restoreOnStartup() {
+        if (!enabled || !Files.exists(path)) {
+            return;
+        }
+        try {
+            RestoreResult result = restore(path);
+            log.info("♻️ Состояние восстановлено из {} за {} мс: лимиты {}, разговоры {}, холодный уровень {}",
+                    path, TimeUnit.NANOSECONDS.toMillis(result.nanos()), result.rateLimits(),
+                    result.conversations(), result.coldConversations());
+        } catch (IOException | RuntimeException e) {
+            log.warn("⚠️ Снимок состояния {} не восстановлен: {}", path, e.getMessage());
+        } finally {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("⚠️ Не удалось удалить снимок состояния {}: {}", path, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Пишет снимок при остановке. Spring останавливает этот бин раньше сервисов,
+     * от которых он зависит, поэтому их состояние еще на месте.
+     */
+    @PreDestroy
+    public void snapshotOnShutdown() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            long startedAt = System.nanoTime();
+            long bytes = write(path);
+            log.info("💾 Снимок состояния записан в {}: {} КБ за {} мс", path, bytes / 1024,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+        } catch (IOException | RuntimeException e) {
+            log.warn("⚠️ Не удалось записать снимок состояния {}: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * Пишет снимок во временный файл и атомарно переименовывает его,
+     * чтобы прерванная запись не оставила половину файла
+     *
+     * @return размер файла в байтах
+     */
+    public long write(Path target) throws IOException {
+        Path parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, target.getFileName().toString(), ".tmp");
+
+        try {
+            CRC32 crc = new CRC32();
+            try (OutputStream file = Files.newOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                         new CheckedOutputStream(file, crc), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.writeLong(System.currentTimeMillis());
+
+                writeRateLimits(out, rateLimitService.exportUsage());
+                writeConversations(out, contextService.exportConversations());
+                writeColdConversations(out, contextService.exportColdConversations());
+                out.writeByte(SECTION_END);
+
+                // CRC считается по всему, что прошло через CheckedOutputStream до трейлера
+                out.flush();
+                out.writeLong(crc.getValue());
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return Files.size(target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeRateLimits(DataOutputStream out, List<RateLimitService.UsageSnapshot> usage)
+            throws IOException {
+        out.writeByte(SECTION_RATE_LIMITS);
+        out.writeInt(usage.size());
+        for (RateLimitService.UsageSnapshot entry : usage) {
+            out.writeLong(entry.userId());
+            out.writeLong(entry.date().toEpochDay());
+            out.writeInt(entry.dailyCount());
+            out.writeLong(entry.tokensUsed());
+        }
+    }
+
+    private static void writeConversations(DataOutputStream out, List<ConversationSnapshot> conversations)
+            throws IOException {
+        out.writeByte(SECTION_CONVERSATIONS);
+        out.writeInt(conversations.size());
+        for (ConversationSnapshot conversation : conversations) {
+            byte[] encoded = ConversationSnapshotCodec.encode(conversation);
+            out.writeLong(conversation.userId());
+            out.writeInt(encoded.length);
+            out.write(encoded);
+        }
+    }
+
+    private static void writeColdConversations(DataOutputStream out, List<ColdConversationTier.Entry> entries)
+            throws IOException {
+        out.writeByte(SECTION_COLD_CONVERSATIONS);
+        out.writeInt(entries.size());
+        for (ColdConversationTier.Entry entry : entries) {
+            out.writeLong(entry.userId());
+            out.writeInt(entry.rawLength());
+            out.writeInt(entry.data().length);
+            out.write(entry.data());
+        }
+    }
+
+    /**
+     * Отображает файл снимка в память и восстанавливает состояние. Файл не удаляется.
+     */
+    public RestoreResult restore(Path source) throws IOException {
+        long startedAt = System.nanoTime();
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES + TRAILER_BYTES || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Unexpected state snapshot size: " + channel.size());
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int contentLength = buffer.capacity() - TRAILER_BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(0, contentLength));
+        if (crc.getValue() != buffer.getLong(contentLength)) {
+            throw new IOException("State snapshot checksum mismatch");
+        }
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a state snapshot");
+        }
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported state snapshot version: " + version);
+        }
+        buffer.getLong();
+
+        int rateLimits = 0;
+        int conversations = 0;
+        int coldConversations = 0;
+        for (byte section = buffer.get(); section != SECTION_END; section = buffer.get()) {
+            int count = buffer.getInt();
+            switch (section) {
+                case SECTION_RATE_LIMITS -> rateLimits = restoreRateLimits(buffer, count);
+                case SECTION_CONVERSATIONS -> conversations = restoreConversations(buffer, count);
+                case SECTION_COLD_CONVERSATIONS -> coldConversations = restoreColdConversations(buffer, count);
+                default -> throw new IOException("Unknown state snapshot section: " + section);
+            }
+        }
+        return new RestoreResult(rateLimits, conversations, coldConversations, System.nanoTime() - startedAt);
+    }
+
+    private int restoreRateLimits(ByteBuffer buffer, int count) {
+        List<RateLimitService.UsageSnapshot> usage = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            usage.add(new RateLimitService.UsageSnapshot(buffer.getLong(), LocalDate.ofEpochDay(buffer.getLong()),
+                    buffer.getInt(), buffer.getLong()));
+        }
+        return rateLimitService.restoreUsage(usage);
+    }
+
+    /**
+     * Разговоры не разбираются: сервис получает срезы отображенного файла
+     * и декодирует каждый при первом обращении пользователя
+     */
+    private int restoreConversations(ByteBuffer buffer, int count) {
+        Map<Long, ByteBuffer> encoded = new HashMap<>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            long userId = buffer.getLong();
+            int length = buffer.getInt();
+            encoded.put(userId, buffer.slice(buffer.position(), length));
+            buffer.position(buffer.position() + length);
+        }
+        return contextService.restoreConversations(encoded);
+    }
+
+    private int restoreColdConversations(ByteBuffer buffer, int count) {
+        int restored = 0;
+        for (int i = 0; i < count; i++) {
+            long userId = buffer.getLong();
+            int rawLength = buffer.getInt();
+            byte[] data = new byte[buffer.getInt()];
+            buffer.get(data);
+            if (contextService.restoreColdConversation(new ColdConversationTier.Entry(userId, rawLength, data))) {
+                restored++;
+            }
+        }
+        return restored;
+    }
+}
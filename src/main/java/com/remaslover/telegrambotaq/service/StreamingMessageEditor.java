@@ -0,0 +1,170 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.remaslover.telegrambotaq.util.TelegramMarkdownEscapeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Consumer;
+
+/**
+ * Постепенное обновление сообщения по мере поступления потокового ответа AI.
+ * Правки одного сообщения ограничены по частоте, чтобы не упереться в лимиты
+ * Telegram на editMessageText; при приближении к 4096 символам сообщение
+ * фиксируется и продолжение пишется в новое.
+ */
+@Component
+public class StreamingMessageEditor {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamingMessageEditor.class);
+
+    private static final String TYPING_MARK = " ▌";
+
+    private final MessageSender messageSender;
+
+    @Value("${app.openrouter.streaming.edit-interval-ms:1500}")
+    private long editIntervalMs = 1500;
+
+    @Value("${app.openrouter.streaming.rollover-length:3800}")
+    private int rolloverLength = 3800;
+
+    public StreamingMessageEditor(MessageSender messageSender) {
+        this.messageSender = messageSender;
+    }
+
+    /**
+     * Начинает вывод ответа в уже отправленное сообщение
+     */
+    public Session open(long chatId, int messageId) {
+        return new Session(chatId, messageId);
+    }
+
+    /**
+     * Сессия вывода одного ответа. Используется из одного потока.
+     */
+    public class Session implements Consumer<String> {
+        private final long chatId;
+        private final StringBuilder current = new StringBuilder();
+        private int messageId;
+        private int messageCount = 1;
+        private long lastEditAt;
+        private int lastEditedLength = -1;
+        private int edits;
+
+        private Session(long chatId, int messageId) {
+            this.chatId = chatId;
+            this.messageId = messageId;
+        }
+
+        @Override
+        public void accept(String delta) {
+            current.append(delta);
+
+            if (current.length() >= rolloverLength) {
+                rollover();
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            if (now - lastEditAt >= editIntervalMs) {
+                editProgress(now);
+            }
+        }
+
+        /**
+         * Выводит окончательный текст ответа
+         */
+        public void finish() {
+            if (current.isEmpty()) {
+                messageSender.editMessage(chatId, messageId,
+                        "⚠️ Получен пустой ответ от AI. Попробуйте переформулировать вопрос.");
+                return;
+            }
+
+            messageSender.editAiResponse(chatId, messageId, current.toString());
+            edits++;
+            log.debug("Streaming reply for chat {} finished: {} messages, {} edits",
+                    chatId, messageCount, edits);
+        }
+
+        /**
+         * Заменяет сообщение текстом ошибки (уже выведенные части сохраняются)
+         */
+        public void fail(String errorText) {
+            if (current.isEmpty()) {
+                messageSender.editMessage(chatId, messageId, errorText);
+            } else {
+                messageSender.editAiResponse(chatId, messageId, current.toString());
+                messageSender.sendMessage(chatId, errorText);
+            }
+        }
+
+        public int getMessageCount() {
+            return messageCount;
+        }
+
+        public int getEdits() {
+            return edits;
+        }
+
+        private void editProgress(long now) {
+            if (current.length() == lastEditedLength) {
+                return;
+            }
+            String text = TelegramMarkdownEscapeUtil.cleanAiResponse(current.toString()) + TYPING_MARK;
+            messageSender.editMessage(chatId, messageId, text);
+            lastEditAt = now;
+            lastEditedLength = current.length();
+            edits++;
+        }
+
+        private void rollover() {
+            int cut = findSplitPosition(current, rolloverLength);
+            String head = current.substring(0, cut);
+            String tail = current.substring(cut).stripLeading();
+
+            messageSender.editAiResponse(chatId, messageId, head);
+            edits++;
+
+            Integer nextId = messageSender.sendPlainTextReturningId(chatId,
+                    tail.isEmpty() ? "…" : TelegramMarkdownEscapeUtil.cleanAiResponse(tail) + TYPING_MARK);
+            if (nextId == null) {
+                log.warn("Could not continue streaming reply for chat {}", chatId);
+                current.setLength(0);
+                current.append(tail);
+                return;
+            }
+
+            messageId = nextId;
+            messageCount++;
+            current.setLength(0);
+            current.append(tail);
+            lastEditAt = System.currentTimeMillis();
+            lastEditedLength = current.length();
+        }
+
+        /**
+         * Позиция разреза: конец абзаца, строки или слова до лимита
+         */
+        private int findSplitPosition(CharSequence text, int limit) {
+            int max = Math.min(limit, text.length());
+            int minAcceptable = max / 2;
+            String head = text.subSequence(0, max).toString();
+
+            int paragraph = head.lastIndexOf("\n\n");
+            if (paragraph >= minAcceptable) {
+                return paragraph;
+            }
+            int line = head.lastIndexOf('\n');
+            if (line >= minAcceptable) {
+                return line;
+            }
+            int space = head.lastIndexOf(' ');
+            if (space >= minAcceptable) {
+                return space;
+            }
+            return max;
+        }
+    }
+}
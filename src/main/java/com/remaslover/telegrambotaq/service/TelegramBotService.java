@@ -2,7 +2,6 @@ package com.remaslover.telegrambotaq.service;
 
 
 import com.remaslover.telegrambotaq.config.TelegramBotConfig;
-import com.vdurmont.emoji.EmojiParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -24,6 +23,7 @@ public class TelegramBotService extends TelegramLongPollingBot {
     private final CommandHandler commandHandler;
     private final KeyboardManager keyboardManager;
     private final MessageSender messageSender;
+    private final UpdateDispatcher updateDispatcher;
 
     private static final Logger log = LoggerFactory.getLogger(TelegramBotService.class);
 
@@ -31,13 +31,15 @@ public class TelegramBotService extends TelegramLongPollingBot {
                               UserService userService,
                               CommandHandler commandHandler,
                               KeyboardManager keyboardManager,
-                              MessageSender messageSender) {
+                              MessageSender messageSender,
+                              UpdateDispatcher updateDispatcher) {
         super(config.getBotToken());
         this.config = config;
         this.userService = userService;
         this.commandHandler = commandHandler;
         this.keyboardManager = keyboardManager;
         this.messageSender = messageSender;
+        this.updateDispatcher = updateDispatcher;
 
         initializeBotCommands();
     }
@@ -61,8 +63,33 @@ public class TelegramBotService extends TelegramLongPollingBot {
         return config.getBotToken();
     }
 
+    /**
+     * Не обрабатывает обновление в потоке получения, а передает его
+     * на дорожку диспетчера, соответствующую чату
+     */
     @Override
     public void onUpdateReceived(Update update) {
+        Long chatId = extractChatId(update);
+        if (chatId == null) {
+            return;
+        }
+
+        if (!updateDispatcher.dispatch(chatId, () -> handleUpdate(update))) {
+            messageSender.sendPlainTextNoMarkdown(chatId,
+                    "⏳ Бот сейчас перегружен, повторите запрос через несколько секунд.");
+        }
+    }
+
+    private Long extractChatId(Update update) {
+        if (update.hasMessage() && update.getMessage().hasText()) {
+            return update.getMessage().getChatId();
+        } else if (update.hasCallbackQuery() && update.getCallbackQuery().getMessage() != null) {
+            return update.getCallbackQuery().getMessage().getChatId();
+        }
+        return null;
+    }
+
+    private void handleUpdate(Update update) {
         if (update.hasMessage() && update.getMessage().hasText()) {
             String messageText = update.getMessage().getText();
             long chatId = update.getMessage().getChatId();
@@ -71,40 +98,12 @@ public class TelegramBotService extends TelegramLongPollingBot {
             log.info("ChatId: {}, UserId: {}, Message: {}", chatId, userId, messageText);
 
             userService.registerUser(update.getMessage());
-
-            if (messageText.contains("/send") && config.getBotOwner().equals(chatId)) {
-                handleBroadcastMessage(messageText);
-            } else if (messageText.startsWith("/ai")) {
-                commandHandler.handleAiRequest(chatId, userId, messageText);
-            } else if (messageText.startsWith("/context")) {
-                commandHandler.handleContextCommand(chatId, userId, messageText);
-            } else if (messageText.startsWith("/topnews")) {
-                commandHandler.handleTopNewsCommand(chatId, messageText);
-            } else if (messageText.startsWith("/news_category") || messageText.startsWith("/newscategory")) {
-                commandHandler.handleNewsCategoryCommand(chatId, messageText);
-            } else if (messageText.startsWith("/news_country") || messageText.startsWith("/newscountry")) {
-                commandHandler.handleNewsCountryCommand(chatId, messageText);
-            } else if (messageText.startsWith("/news_search") || messageText.startsWith("/newssearch")) {
-                commandHandler.handleNewsSearchCommand(chatId, messageText);
-            } else if (messageText.equals("/credits")) {
-                commandHandler.handleCreditsCommand(chatId);
-            } else {
-                commandHandler.handleRegularCommands(chatId, userId, messageText, update.getMessage());
-            }
+            commandHandler.handleMessage(update.getMessage());
         } else if (update.hasCallbackQuery()) {
             commandHandler.handleCallbackQuery(update.getCallbackQuery());
         }
     }
 
-    private void handleBroadcastMessage(String messageText) {
-        var textToSend = EmojiParser.parseToUnicode(messageText.substring(messageText.indexOf(" ")));
-        var users = userService.getAllUsers();
-        for (var user : users) {
-            messageSender.sendMessage(user.getId(), textToSend);
-        }
-        log.info("Broadcast message sent to {} users", users.size());
-    }
-
     @Deprecated
     public void prepareAndSendMessage(long chatId, String textToSend) {
         messageSender.sendMessage(chatId, textToSend);
@@ -0,0 +1,430 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.remaslover.telegrambotaq.config.DispatcherConfig;
+import com.remaslover.telegrambotaq.config.DispatcherConfig.ExecutionMode;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Диспетчер входящих обновлений.
+ * Сообщения одного чата обрабатываются строго по порядку, а медленный
+ * запрос одного пользователя не блокирует остальных.
+ * <p>
+ * В режиме virtual каждый чат получает собственную последовательную очередь,
+ * которую разбирает виртуальный поток, поэтому тысячи блокирующих вызовов
+ * (OpenRouter, News API, Jsoup, JDBC) не требуют подбора размера пула.
+ * В режиме platform обновления распределяются по chatId на фиксированный
+ * набор дорожек - однопоточных исполнителей с ограниченной очередью.
+ */
+@Service
+public class UpdateDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(UpdateDispatcher.class);
+
+    private final DispatcherConfig dispatcherConfig;
+    private final ExecutionMode executionMode;
+    private final Lane[] lanes;
+    private final VirtualChatExecutor virtualExecutor;
+
+    public UpdateDispatcher(DispatcherConfig dispatcherConfig) {
+        this.dispatcherConfig = dispatcherConfig;
+        this.executionMode = dispatcherConfig.getExecutionMode();
+
+        log.info("Инициализация UpdateDispatcher");
+        log.info(dispatcherConfig.getConfigSummary());
+
+        if (executionMode == ExecutionMode.VIRTUAL) {
+            this.lanes = new Lane[0];
+            this.virtualExecutor = new VirtualChatExecutor(dispatcherConfig.getMaxInFlight());
+        } else {
+            this.lanes = new Lane[dispatcherConfig.getLanes()];
+            for (int i = 0; i < lanes.length; i++) {
+                lanes[i] = new Lane(i, dispatcherConfig.getQueueCapacity());
+            }
+            this.virtualExecutor = null;
+        }
+    }
+
+    /**
+     * Ставит обработку обновления в очередь чата.
+     *
+     * @return false, если очередь переполнена и задача отброшена
+     */
+    public boolean dispatch(long chatId, Runnable task) {
+        if (virtualExecutor != null) {
+            return virtualExecutor.submit(chatId, task);
+        }
+        return laneFor(chatId).submit(chatId, task);
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * Номер дорожки для чата (режим platform)
+     */
+    public int laneIndex(long chatId) {
+        return (int) Math.floorMod(chatId, (long) lanes.length);
+    }
+
+    private Lane laneFor(long chatId) {
+        return lanes[laneIndex(chatId)];
+    }
+
+    /**
+     * Получает статистику диспетчера
+     */
+    public Map<String, Object> getStats() {
+        if (virtualExecutor != null) {
+            Map<String, Object> stats = virtualExecutor.getStats();
+            stats.put("mode", executionMode.name().toLowerCase());
+            return stats;
+        }
+
+        Map<String, Object> stats = new HashMap<>();
+        List<Map<String, Object>> laneStats = new ArrayList<>(lanes.length);
+
+        long submitted = 0;
+        long completed = 0;
+        long rejected = 0;
+        long failed = 0;
+        int queued = 0;
+
+        for (Lane lane : lanes) {
+            Map<String, Object> info = lane.getStats();
+            laneStats.add(info);
+            submitted += lane.counters.submitted.get();
+            completed += lane.counters.completed.get();
+            rejected += lane.counters.rejected.get();
+            failed += lane.counters.failed.get();
+            queued += lane.executor.getQueue().size();
+        }
+
+        stats.put("mode", executionMode.name().toLowerCase());
+        stats.put("lanes", lanes.length);
+        stats.put("queueCapacity", dispatcherConfig.getQueueCapacity());
+        stats.put("submitted", submitted);
+        stats.put("completed", completed);
+        stats.put("rejected", rejected);
+        stats.put("failed", failed);
+        stats.put("queued", queued);
+        stats.put("laneStats", laneStats);
+
+        return stats;
+    }
+
+    /**
+     * Получает форматированную статистику для отображения
+     */
+    public String getFormattedStats() {
+        Map<String, Object> stats = getStats();
+
+        if (virtualExecutor != null) {
+            return String.format("""
+                            📬 Диспетчер обновлений (виртуальные потоки):
+
+                            • Выполняется сейчас: %d (пик %d, лимит %d)
+                            • Активных чатов: %d
+                            • Принято: %d
+                            • Обработано: %d
+                            • Ошибок: %d
+                            • Отклонено: %d
+                            • Среднее ожидание: %s мс
+                            • Средняя работа: %s мс
+                            """,
+                    stats.get("inFlight"),
+                    stats.get("peakInFlight"),
+                    stats.get("maxInFlight"),
+                    stats.get("activeChats"),
+                    stats.get("submitted"),
+                    stats.get("completed"),
+                    stats.get("failed"),
+                    stats.get("rejected"),
+                    stats.get("averageWaitMs"),
+                    stats.get("averageRunMs")
+            );
+        }
+
+        StringBuilder sb = new StringBuilder();
+
+        sb.append(String.format("""
+                        📬 Диспетчер обновлений (дорожки):
+
+                        • Дорожек: %d (очередь до %d)
+                        • Принято: %d
+                        • Обработано: %d
+                        • Ошибок: %d
+                        • Отклонено: %d
+                        • В очередях: %d
+
+                        """,
+                stats.get("lanes"),
+                stats.get("queueCapacity"),
+                stats.get("submitted"),
+                stats.get("completed"),
+                stats.get("failed"),
+                stats.get("rejected"),
+                stats.get("queued")
+        ));
+
+        for (Lane lane : lanes) {
+            if (lane.counters.submitted.get() == 0) {
+                continue;
+            }
+            sb.append(String.format("#%d: очередь %d (макс %d), обработано %d, ожидание %.1f мс, работа %.1f мс%n",
+                    lane.index,
+                    lane.executor.getQueue().size(),
+                    lane.maxQueueDepth.get(),
+                    lane.counters.completed.get(),
+                    lane.counters.averageWaitMillis(),
+                    lane.counters.averageRunMillis()));
+        }
+
+        return sb.toString();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        log.info("🛑 Остановка UpdateDispatcher...");
+        List<ExecutorService> executors = new ArrayList<>();
+        if (virtualExecutor != null) {
+            executors.add(virtualExecutor.executor);
+        }
+        for (Lane lane : lanes) {
+            executors.add(lane.executor);
+        }
+
+        executors.forEach(ExecutorService::shutdown);
+        for (ExecutorService executor : executors) {
+            try {
+                if (!executor.awaitTermination(dispatcherConfig.getShutdownTimeoutSeconds(), TimeUnit.SECONDS)) {
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Счетчики исполнения обработчиков
+     */
+    private static class Counters {
+        private final AtomicLong submitted = new AtomicLong();
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong totalWaitNanos = new AtomicLong();
+        private final AtomicLong totalRunNanos = new AtomicLong();
+
+        void run(long chatId, Runnable task, long enqueuedAt) {
+            long startedAt = System.nanoTime();
+            totalWaitNanos.addAndGet(startedAt - enqueuedAt);
+            try {
+                task.run();
+            } catch (Throwable e) {
+                // Error тоже перехватывается: иначе поток очереди чата погиб бы посреди разбора,
+                // и следующие обновления этого чата больше никогда не обработались бы
+                failed.incrementAndGet();
+                log.error("Error processing update for chat {}: {}", chatId, e.getMessage(), e);
+            } finally {
+                totalRunNanos.addAndGet(System.nanoTime() - startedAt);
+                completed.incrementAndGet();
+            }
+        }
+
+        double averageWaitMillis() {
+            long done = completed.get();
+            return done == 0 ? 0 : totalWaitNanos.get() / 1_000_000.0 / done;
+        }
+
+        double averageRunMillis() {
+            long done = completed.get();
+            return done == 0 ? 0 : totalRunNanos.get() / 1_000_000.0 / done;
+        }
+
+        void fill(Map<String, Object> info) {
+            info.put("submitted", submitted.get());
+            info.put("completed", completed.get());
+            info.put("failed", failed.get());
+            info.put("rejected", rejected.get());
+            info.put("averageWaitMs", String.format("%.1f", averageWaitMillis()));
+            info.put("averageRunMs", String.format("%.1f", averageRunMillis()));
+        }
+    }
+
+    /**
+     * Дорожка обработки: один платформенный поток и ограниченная очередь
+     */
+    private static class Lane {
+        private final int index;
+        private final ThreadPoolExecutor executor;
+        private final Counters counters = new Counters();
+        private final AtomicLong maxQueueDepth = new AtomicLong();
+
+        Lane(int index, int queueCapacity) {
+            this.index = index;
+            this.executor = new ThreadPoolExecutor(
+                    1, 1,
+                    0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "update-lane-" + index);
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    new ThreadPoolExecutor.AbortPolicy()
+            );
+        }
+
+        boolean submit(long chatId, Runnable task) {
+            long enqueuedAt = System.nanoTime();
+            counters.submitted.incrementAndGet();
+            try {
+                executor.execute(() -> counters.run(chatId, task, enqueuedAt));
+            } catch (RejectedExecutionException e) {
+                counters.submitted.decrementAndGet();
+                counters.rejected.incrementAndGet();
+                log.warn("⚠️ Lane {} is full, update for chat {} rejected", index, chatId);
+                return false;
+            }
+
+            maxQueueDepth.accumulateAndGet(executor.getQueue().size(), Math::max);
+            return true;
+        }
+
+        Map<String, Object> getStats() {
+            Map<String, Object> info = new HashMap<>();
+            info.put("lane", index);
+            info.put("queueDepth", executor.getQueue().size());
+            info.put("maxQueueDepth", maxQueueDepth.get());
+            counters.fill(info);
+            return info;
+        }
+    }
+
+    /**
+     * Исполнитель на виртуальных потоках.
+     * У каждого активного чата своя очередь задач; пока она не пуста,
+     * ее разбирает один виртуальный поток, затем очередь удаляется.
+     */
+    private static class VirtualChatExecutor {
+        private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("update-vt-", 0).factory());
+        private final Map<Long, ChatQueue> chats = new ConcurrentHashMap<>();
+        private final Semaphore permits;
+        private final int maxInFlight;
+        private final Counters counters = new Counters();
+        private final AtomicLong inFlight = new AtomicLong();
+        private final AtomicLong peakInFlight = new AtomicLong();
+
+        VirtualChatExecutor(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            this.permits = new Semaphore(maxInFlight);
+        }
+
+        boolean submit(long chatId, Runnable task) {
+            if (!permits.tryAcquire()) {
+                counters.rejected.incrementAndGet();
+                log.warn("⚠️ {} updates in flight, update for chat {} rejected", maxInFlight, chatId);
+                return false;
+            }
+
+            counters.submitted.incrementAndGet();
+            long enqueuedAt = System.nanoTime();
+            Runnable timed = () -> counters.run(chatId, task, enqueuedAt);
+
+            boolean[] start = new boolean[1];
+            ChatQueue queue = chats.compute(chatId, (id, existing) -> {
+                ChatQueue q = existing != null ? existing : new ChatQueue();
+                q.tasks.add(timed);
+                if (!q.draining) {
+                    q.draining = true;
+                    start[0] = true;
+                }
+                return q;
+            });
+
+            if (start[0]) {
+                try {
+                    executor.execute(() -> drain(chatId, queue));
+                } catch (RejectedExecutionException e) {
+                    chats.remove(chatId, queue);
+                    int dropped = queue.tasks.size();
+                    permits.release(dropped);
+                    counters.submitted.addAndGet(-dropped);
+                    counters.rejected.addAndGet(dropped);
+                    log.warn("⚠️ Dispatcher is shutting down, update for chat {} rejected", chatId);
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void drain(long chatId, ChatQueue queue) {
+            while (true) {
+                Runnable task;
+                while ((task = queue.tasks.poll()) != null) {
+                    peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    try {
+                        task.run();
+                    } finally {
+                        inFlight.decrementAndGet();
+                        permits.release();
+                    }
+                }
+
+                ChatQueue remaining = chats.compute(chatId, (id, q) -> {
+                    if (q != queue || !q.tasks.isEmpty()) {
+                        return q;
+                    }
+                    q.draining = false;
+                    return null;
+                });
+
+                if (remaining != queue) {
+                    return;
+                }
+            }
+        }
+
+        Map<String, Object> getStats() {
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("maxInFlight", maxInFlight);
+            stats.put("inFlight", inFlight.get());
+            stats.put("peakInFlight", peakInFlight.get());
+            stats.put("activeChats", chats.size());
+            stats.put("queued", maxInFlight - permits.availablePermits() - inFlight.get());
+            counters.fill(stats);
+            return stats;
+        }
+    }
+
+    /**
+     * Очередь задач одного чата; флаг draining меняется только внутри compute
+     */
+    private static class ChatQueue {
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private boolean draining;
+    }
+}
@@ -0,0 +1,239 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.remaslover.telegrambotaq.config.UsageAccountingConfig;
+import com.remaslover.telegrambotaq.repository.AiUsageDailyRepository;
+import com.remaslover.telegrambotaq.repository.AiUsageDailyRepository.UsageTotals;
+import com.remaslover.telegrambotaq.util.OpenRouterJson;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Учет токенов и стоимости AI запросов по пользователю, модели и дню.
+ * <p>
+ * Горячий путь ({@link #record}) только прибавляет к {@link LongAdder} без блокировок.
+ * Раз в flush-interval-ms накопленные суммы снимаются (sumThenReset) и одной транзакцией
+ * прибавляются к строкам ai_usage_daily. Если запись в базу не удалась, суммы
+ * возвращаются в счетчики и уйдут со следующим сбросом.
+ * <p>
+ * Стоимость берется из usage.cost ответа OpenRouter, а если ее нет - оценивается
+ * по таблице цен {@link UsageAccountingConfig}.
+ */
+@Service
+public class UsageAccountingService {
+
+    private static final Logger log = LoggerFactory.getLogger(UsageAccountingService.class);
+
+    private static final double MICROS_PER_DOLLAR = 1_000_000d;
+
+    private final Map<UsageKey, Counters> pending = new ConcurrentHashMap<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private final AtomicLong recordedRequests = new AtomicLong();
+    private final AtomicLong requestsWithoutUsage = new AtomicLong();
+    private final AtomicLong flushedRows = new AtomicLong();
+    private final AtomicLong flushFailures = new AtomicLong();
+
+    private final AiUsageDailyRepository usageRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final UsageAccountingConfig config;
+
+    public UsageAccountingService(AiUsageDailyRepository usageRepository, TransactionTemplate transactionTemplate,
+                                  UsageAccountingConfig config) {
+        this.usageRepository = usageRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.config = config;
+    }
+
+    /**
+     * Учитывает одну попытку запроса к модели.
+     *
+     * @param usage        usage из ответа OpenRouter или null, если провайдер его не прислал
+     * @param latencyNanos длительность попытки
+     */
+    public void record(Long userId, String model, OpenRouterJson.Usage usage, long latencyNanos) {
+        if (!config.isEnabled() || userId == null || model == null) {
+            return;
+        }
+
+        recordedRequests.incrementAndGet();
+        Counters counters = pending.computeIfAbsent(new UsageKey(LocalDate.now(), userId, model),
+                key -> new Counters());
+
+        counters.requests.increment();
+        counters.latencyMs.add(TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+
+        if (usage == null) {
+            requestsWithoutUsage.incrementAndGet();
+            return;
+        }
+
+        counters.promptTokens.add(usage.promptTokens());
+        counters.completionTokens.add(usage.completionTokens());
+        counters.costMicros.add(usage.cost() > 0
+                ? Math.round(usage.cost() * MICROS_PER_DOLLAR)
+                : config.estimateCostMicros(model, usage.promptTokens(), usage.completionTokens()));
+    }
+
+    /**
+     * Сбрасывает накопленные суммы в базу
+     */
+    @Scheduled(fixedDelayString = "${app.openrouter.usage.flush-interval-ms:60000}",
+            initialDelayString = "${app.openrouter.usage.flush-interval-ms:60000}")
+    public void flush() {
+        if (!flushLock.tryLock()) {
+            return;
+        }
+        try {
+            List<Map.Entry<UsageKey, Snapshot>> batch = drain();
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    for (Map.Entry<UsageKey, Snapshot> entry : batch) {
+                        UsageKey key = entry.getKey();
+                        Snapshot s = entry.getValue();
+                        usageRepository.upsert(key.day(), key.userId(), key.model(), s.requests(),
+                                s.promptTokens(), s.completionTokens(), s.costMicros(), s.latencyMs());
+                    }
+                });
+                flushedRows.addAndGet(batch.size());
+                log.debug("💾 Flushed {} AI usage rows", batch.size());
+            } catch (RuntimeException e) {
+                flushFailures.incrementAndGet();
+                batch.forEach(entry -> restore(entry.getKey(), entry.getValue()));
+                log.error("❌ Failed to flush {} AI usage rows, will retry: {}", batch.size(), e.getMessage());
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private List<Map.Entry<UsageKey, Snapshot>> drain() {
+        LocalDate today = LocalDate.now();
+        List<Map.Entry<UsageKey, Snapshot>> batch = new ArrayList<>();
+
+        pending.forEach((key, counters) -> {
+            Snapshot snapshot = counters.drain();
+            if (snapshot.requests() > 0) {
+                batch.add(Map.entry(key, snapshot));
+            } else if (key.day().isBefore(today)) {
+                // прошедший день без новых данных: счетчик больше не нужен
+                pending.remove(key, counters);
+            }
+        });
+
+        return batch;
+    }
+
+    private void restore(UsageKey key, Snapshot snapshot) {
+        Counters counters = pending.computeIfAbsent(key, k -> new Counters());
+        counters.requests.add(snapshot.requests());
+        counters.promptTokens.add(snapshot.promptTokens());
+        counters.completionTokens.add(snapshot.completionTokens());
+        counters.costMicros.add(snapshot.costMicros());
+        counters.latencyMs.add(snapshot.latencyMs());
+    }
+
+    /**
+     * Расход за последние days дней: топ пользователей и моделей
+     */
+    public String getFormattedSpend(int days) {
+        if (days <= 0) {
+            throw new IllegalArgumentException("days must be greater than 0");
+        }
+        flush();
+
+        LocalDate since = LocalDate.now().minusDays(days - 1L);
+        PageRequest top = PageRequest.of(0, config.getTopLimit());
+        List<UsageTotals<Long>> users = usageRepository.findTopUsers(since, top);
+        List<UsageTotals<String>> models = usageRepository.findTopModels(since, top);
+
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("💰 Расход AI с %s (%d дн.)%n", since, days));
+
+        text.append("\n👤 Пользователи:\n");
+        if (users.isEmpty()) {
+            text.append("   нет данных\n");
+        }
+        users.forEach(row -> appendTotals(text, String.valueOf(row.getKey()), row));
+
+        text.append("\n🤖 Модели:\n");
+        if (models.isEmpty()) {
+            text.append("   нет данных\n");
+        }
+        models.forEach(row -> appendTotals(text, row.getKey(), row));
+
+        return text.toString();
+    }
+
+    private static void appendTotals(StringBuilder text, String name, UsageTotals<?> row) {
+        long requests = Math.max(row.getRequests(), 1);
+        text.append(String.format("• %s: $%.4f, %d запр., токены %d/%d, ~%d ток. промпта, ~%d мс%n",
+                name,
+                row.getCostMicros() / MICROS_PER_DOLLAR,
+                row.getRequests(),
+                row.getPromptTokens(),
+                row.getCompletionTokens(),
+                row.getPromptTokens() / requests,
+                row.getLatencyMs() / requests));
+    }
+
+    /**
+     * Получает статистику учета
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+
+        stats.put("enabled", config.isEnabled());
+        stats.put("recordedRequests", recordedRequests.get());
+        stats.put("requestsWithoutUsage", requestsWithoutUsage.get());
+        stats.put("pendingKeys", pending.size());
+        stats.put("flushedRows", flushedRows.get());
+        stats.put("flushFailures", flushFailures.get());
+
+        return stats;
+    }
+
+    record UsageKey(LocalDate day, Long userId, String model) {
+    }
+
+    private record Snapshot(long requests, long promptTokens, long completionTokens, long costMicros,
+                            long latencyMs) {
+    }
+
+    private static final class Counters {
+        final LongAdder requests = new LongAdder();
+        final LongAdder promptTokens = new LongAdder();
+        final LongAdder completionTokens = new LongAdder();
+        final LongAdder costMicros = new LongAdder();
+        final LongAdder latencyMs = new LongAdder();
+
+        Snapshot drain() {
+            return new Snapshot(requests.sumThenReset(), promptTokens.sumThenReset(),
+                    completionTokens.sumThenReset(), costMicros.sumThenReset(), latencyMs.sumThenReset());
+        }
+    }
+}
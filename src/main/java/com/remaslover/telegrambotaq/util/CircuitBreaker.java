@@ -0,0 +1,190 @@
+package com.remaslover.telegrambotaq.util;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Автоматический выключатель для вызовов внешнего сервиса.
+ * <p>
+ * CLOSED - вызовы проходят, результаты последних {@code window} вызовов
+ * запоминаются. Выключатель размыкается (OPEN), если подряд случилось
+ * {@code consecutiveFailures} ошибок или доля ошибок в окне достигла порога.
+ * OPEN - вызовы отклоняются сразу. Пауза удваивается при каждом повторном
+ * размыкании (до maxOpenDuration) и не короче Retry-After, если сервис его прислал.
+ * HALF_OPEN - после паузы пропускается {@code halfOpenProbes} пробных вызовов:
+ * успех замыкает выключатель, ошибка снова размыкает.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int window;
+    private final int minCalls;
+    private final int failureRatePercent;
+    private final int consecutiveFailuresToOpen;
+    private final Duration openDuration;
+    private final Duration maxOpenDuration;
+    private final int halfOpenProbes;
+    private final LongSupplier clock;
+
+    private final boolean[] outcomes;
+    private int outcomeCount;
+    private int outcomeNext;
+    private int failuresInWindow;
+    private int consecutiveFailures;
+
+    private State state = State.CLOSED;
+    private long openUntil;
+    private int reopenCount;
+    private int probesInFlight;
+    private long trips;
+
+    public CircuitBreaker(int window, int minCalls, int failureRatePercent, int consecutiveFailuresToOpen,
+                          Duration openDuration, Duration maxOpenDuration, int halfOpenProbes) {
+        this(window, minCalls, failureRatePercent, consecutiveFailuresToOpen,
+                openDuration, maxOpenDuration, halfOpenProbes, System::nanoTime);
+    }
+
+    public CircuitBreaker(int window, int minCalls, int failureRatePercent, int consecutiveFailuresToOpen,
+                          Duration openDuration, Duration maxOpenDuration, int halfOpenProbes, LongSupplier clock) {
+        this.window = window;
+        this.minCalls = minCalls;
+        this.failureRatePercent = failureRatePercent;
+        this.consecutiveFailuresToOpen = consecutiveFailuresToOpen;
+        this.openDuration = openDuration;
+        this.maxOpenDuration = maxOpenDuration;
+        this.halfOpenProbes = halfOpenProbes;
+        this.clock = clock;
+        this.outcomes = new boolean[window];
+    }
+
+    /**
+     * Можно ли выполнить вызов сейчас. Разрешение в состоянии HALF_OPEN
+     * нужно вернуть через onSuccess/onFailure/onIgnored.
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (clock.getAsLong() - openUntil < 0) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            probesInFlight = 0;
+        }
+
+        if (state == State.HALF_OPEN) {
+            if (probesInFlight >= halfOpenProbes) {
+                return false;
+            }
+            probesInFlight++;
+        }
+
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            close();
+            return;
+        }
+        record(false);
+        consecutiveFailures = 0;
+    }
+
+    /**
+     * Ошибка вызова
+     *
+     * @param retryAfter пауза, запрошенная сервисом (Retry-After), или null
+     */
+    public synchronized void onFailure(Duration retryAfter) {
+        if (state == State.HALF_OPEN) {
+            open(retryAfter);
+            return;
+        }
+        if (state == State.OPEN) {
+            return;
+        }
+
+        record(true);
+        consecutiveFailures++;
+
+        boolean tooManyInRow = consecutiveFailures >= consecutiveFailuresToOpen;
+        boolean highFailureRate = outcomeCount >= minCalls
+                && failuresInWindow * 100 >= failureRatePercent * outcomeCount;
+        if (tooManyInRow || highFailureRate) {
+            open(retryAfter);
+        }
+    }
+
+    /**
+     * Вызов завершился без результата (отменен) - пробное разрешение возвращается
+     */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN && probesInFlight > 0) {
+            probesInFlight--;
+        }
+    }
+
+    private void record(boolean failure) {
+        if (outcomeCount == window) {
+            if (outcomes[outcomeNext]) {
+                failuresInWindow--;
+            }
+        } else {
+            outcomeCount++;
+        }
+        outcomes[outcomeNext] = failure;
+        if (failure) {
+            failuresInWindow++;
+        }
+        outcomeNext = (outcomeNext + 1) % window;
+    }
+
+    private void open(Duration retryAfter) {
+        long pause = Math.min(openDuration.toNanos() << Math.min(reopenCount, 16), maxOpenDuration.toNanos());
+        if (retryAfter != null) {
+            pause = Math.max(pause, retryAfter.toNanos());
+        }
+
+        state = State.OPEN;
+        openUntil = clock.getAsLong() + pause;
+        reopenCount++;
+        trips++;
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        reopenCount = 0;
+        probesInFlight = 0;
+        consecutiveFailures = 0;
+        outcomeCount = 0;
+        outcomeNext = 0;
+        failuresInWindow = 0;
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && clock.getAsLong() - openUntil >= 0) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * Сколько еще выключатель будет разомкнут
+     */
+    public synchronized Duration getRemainingOpen() {
+        if (state != State.OPEN) {
+            return Duration.ZERO;
+        }
+        return Duration.ofNanos(Math.max(0, openUntil - clock.getAsLong()));
+    }
+
+    public synchronized long getTrips() {
+        return trips;
+    }
+
+    public synchronized int getFailureRatePercent() {
+        return outcomeCount == 0 ? 0 : failuresInWindow * 100 / outcomeCount;
+    }
+}
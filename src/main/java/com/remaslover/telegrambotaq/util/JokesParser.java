@@ -9,9 +9,13 @@ public class JokesParser {
 
     private static final Logger log = LoggerFactory.getLogger(JokesParser.class);
 
+    private static final int TIMEOUT_MS = 10_000;
+
     public static String getJokeFromSites() {
         try {
-            Document document = Jsoup.connect("https://www.anekdot.ru/random/anekdot/").get();
+            Document document = Jsoup.connect("https://www.anekdot.ru/random/anekdot/")
+                    .timeout(TIMEOUT_MS)
+                    .get();
 
             String joke = document.select("div.text").first().text();
 
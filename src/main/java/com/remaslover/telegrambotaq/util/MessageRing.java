@@ -0,0 +1,240 @@
+package com.remaslover.telegrambotaq.util;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * История сообщений фиксированной емкости: кольцевой буфер компактных записей.
+ * <p>
+ * Новое сообщение при заполненном буфере затирает самое старое. Размер, сумма
+ * токенов и оценка занятой памяти хранятся в полях, поэтому {@link #size()},
+ * {@link #totalTokens()} и {@link #estimatedBytes()} - O(1).
+ * Снимок сообщений от старых к новым - одно копирование массива, без разворота.
+ * Методы синхронизированы: буфер принадлежит одному пользователю, конкуренции почти нет.
+ */
+public final class MessageRing {
+
+    private static final int ARRAY_OVERHEAD_BYTES = 16;
+    private static final int RING_OVERHEAD_BYTES = 48;
+
+    /**
+     * Роль сообщения чата
+     */
+    public enum Role {
+        SYSTEM("system"),
+        USER("user"),
+        ASSISTANT("assistant");
+
+        private final String value;
+
+        Role(String value) {
+            this.value = value;
+        }
+
+        public String value() {
+            return value;
+        }
+
+        public static Role of(String value) {
+            for (Role role : values()) {
+                if (role.value.equals(value)) {
+                    return role;
+                }
+            }
+            throw new IllegalArgumentException("Unknown message role: " + value);
+        }
+    }
+
+    /**
+     * Компактное сообщение: роль - enum, время - epoch millis, число токенов
+     * посчитано один раз, текст - String или UTF-8 byte[].
+     */
+    public static final class Message {
+        /**
+         * Объект Message (заголовок и 4 поля) и ссылка на него в массиве буфера
+         */
+        private static final int MESSAGE_OVERHEAD_BYTES = 36;
+        private static final int STRING_OVERHEAD_BYTES = 24;
+
+        private final Role role;
+        private final long timestamp;
+        private final int tokens;
+        private final Object content;
+
+        private Message(Role role, long timestamp, int tokens, Object content) {
+            this.role = role;
+            this.timestamp = timestamp;
+            this.tokens = tokens;
+            this.content = content;
+        }
+
+        public static Message of(Role role, String content, long timestamp, boolean utf8Content) {
+            return new Message(role, timestamp, TokenEstimator.estimateMessage(content),
+                    utf8Content ? content.getBytes(StandardCharsets.UTF_8) : content);
+        }
+
+        public Role role() {
+            return role;
+        }
+
+        public long timestamp() {
+            return timestamp;
+        }
+
+        public int tokens() {
+            return tokens;
+        }
+
+        public String content() {
+            return content instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : (String) content;
+        }
+
+        /**
+         * Оценка занятой сообщением памяти. Для String берется верхняя граница
+         * (2 байта на символ), чтобы не сканировать текст.
+         */
+        public int estimatedBytes() {
+            int contentBytes = content instanceof byte[] bytes
+                    ? ARRAY_OVERHEAD_BYTES + bytes.length
+                    : STRING_OVERHEAD_BYTES + ARRAY_OVERHEAD_BYTES + 2 * ((String) content).length();
+            return MESSAGE_OVERHEAD_BYTES + contentBytes;
+        }
+
+        public Map<String, String> toMap() {
+            return Map.of(
+                    "role", role.value(),
+                    "content", content(),
+                    "timestamp", LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault()).toString()
+            );
+        }
+    }
+
+    private final Message[] ring;
+    private final boolean utf8Content;
+    private int head;
+    private int count;
+    private long totalTokens;
+    private long totalBytes;
+
+    public MessageRing(int capacity, boolean utf8Content) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be greater than 0");
+        }
+        this.ring = new Message[capacity];
+        this.utf8Content = utf8Content;
+    }
+
+    /**
+     * Добавляет сообщение; при заполненном буфере вытесняет самое старое
+     */
+    public synchronized Message add(Role role, String content, long timestamp) {
+        Message message = Message.of(role, content, timestamp, utf8Content);
+        if (count == ring.length) {
+            totalTokens -= ring[head].tokens;
+            totalBytes -= ring[head].estimatedBytes();
+            ring[head] = message;
+            head = (head + 1) % ring.length;
+        } else {
+            ring[(head + count) % ring.length] = message;
+            count++;
+        }
+        totalTokens += message.tokens;
+        totalBytes += message.estimatedBytes();
+        return message;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized long totalTokens() {
+        return totalTokens;
+    }
+
+    /**
+     * Оценка памяти, занятой буфером и сообщениями
+     */
+    public synchronized long estimatedBytes() {
+        return RING_OVERHEAD_BYTES + ARRAY_OVERHEAD_BYTES + 4L * ring.length + totalBytes;
+    }
+
+    public int capacity() {
+        return ring.length;
+    }
+
+    /**
+     * Все сообщения от старых к новым
+     */
+    public synchronized List<Message> snapshot() {
+        return copyRange(0, count);
+    }
+
+    /**
+     * Самые старые сообщения, кроме keepRecent последних (от старых к новым)
+     */
+    public synchronized List<Message> oldestExcept(int keepRecent) {
+        return count <= keepRecent ? List.of() : copyRange(0, count - keepRecent);
+    }
+
+    /**
+     * Самые новые сообщения, суммарно укладывающиеся в бюджет (от старых к новым).
+     * Последнее сообщение возвращается даже если оно одно превышает бюджет.
+     */
+    public synchronized List<Message> newestWithinBudget(int tokenBudget) {
+        int selected = 0;
+        long used = 0;
+        while (selected < count) {
+            Message message = ring[(head + count - 1 - selected) % ring.length];
+            if (selected > 0 && used + message.tokens > tokenBudget) {
+                break;
+            }
+            used += message.tokens;
+            selected++;
+        }
+        return copyRange(count - selected, selected);
+    }
+
+    /**
+     * Удаляет сообщения по ссылке: добавленные позже совпадающие по тексту не затрагиваются
+     */
+    public synchronized void removeAll(List<Message> messages) {
+        Set<Message> toRemove = Collections.newSetFromMap(new IdentityHashMap<>());
+        toRemove.addAll(messages);
+
+        Message[] kept = new Message[ring.length];
+        int keptCount = 0;
+        long keptTokens = 0;
+        long keptBytes = 0;
+        for (int i = 0; i < count; i++) {
+            Message message = ring[(head + i) % ring.length];
+            if (!toRemove.contains(message)) {
+                kept[keptCount++] = message;
+                keptTokens += message.tokens;
+                keptBytes += message.estimatedBytes();
+            }
+        }
+
+        System.arraycopy(kept, 0, ring, 0, ring.length);
+        head = 0;
+        count = keptCount;
+        totalTokens = keptTokens;
+        totalBytes = keptBytes;
+    }
+
+    private List<Message> copyRange(int from, int length) {
+        Message[] result = new Message[length];
+        int start = (head + from) % ring.length;
+        int firstPart = Math.min(length, ring.length - start);
+        System.arraycopy(ring, start, result, 0, firstPart);
+        System.arraycopy(ring, 0, result, firstPart, length - firstPart);
+        return Collections.unmodifiableList(Arrays.asList(result));
+    }
+}
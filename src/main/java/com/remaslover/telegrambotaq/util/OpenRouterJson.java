@@ -0,0 +1,257 @@
+package com.remaslover.telegrambotaq.util;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Потоковая запись запросов chat completions и разбор ответов OpenRouter.
+ * <p>
+ * Тело запроса пишется через {@link JsonGenerator} прямо в поток соединения,
+ * без промежуточного HashMap и строки. Имена полей и системный промпт
+ * сериализуются один раз. Ответ читается {@link JsonParser} из потока:
+ * извлекаются только текст ответа, usage и сообщение об ошибке, остальное
+ * пропускается без построения дерева.
+ */
+public final class OpenRouterJson {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final SerializedString MODEL = new SerializedString("model");
+    private static final SerializedString MESSAGES = new SerializedString("messages");
+    private static final SerializedString ROLE = new SerializedString("role");
+    private static final SerializedString CONTENT = new SerializedString("content");
+    private static final SerializedString MAX_TOKENS = new SerializedString("max_tokens");
+    private static final SerializedString TEMPERATURE = new SerializedString("temperature");
+    private static final SerializedString STREAM = new SerializedString("stream");
+    private static final SerializedString USAGE = new SerializedString("usage");
+    private static final SerializedString INCLUDE = new SerializedString("include");
+
+    private OpenRouterJson() {
+    }
+
+    /**
+     * Расход токенов по данным OpenRouter.
+     * cost - стоимость запроса в кредитах (USD), 0 если OpenRouter ее не прислал.
+     */
+    public record Usage(int promptTokens, int completionTokens, int totalTokens, double cost) {
+
+        public static final Usage NONE = new Usage(0, 0, 0);
+
+        public Usage(int promptTokens, int completionTokens, int totalTokens) {
+            this(promptTokens, completionTokens, totalTokens, 0);
+        }
+    }
+
+    /**
+     * Нужные поля ответа: текст (choices[0].message.content или delta.content),
+     * usage и error.message. Отсутствующие поля - null.
+     */
+    public record ChatResult(String content, Usage usage, String errorMessage) {
+    }
+
+    /**
+     * Запись тела запроса с заранее сериализованным системным промптом
+     */
+    public static final class RequestWriter {
+        private final String systemPrompt;
+        private final SerializedString serializedSystemPrompt;
+
+        public RequestWriter(String systemPrompt) {
+            this.systemPrompt = systemPrompt;
+            this.serializedSystemPrompt = new SerializedString(systemPrompt);
+        }
+
+        /**
+         * Пишет тело запроса. Из сообщений берутся только role и content;
+         * содержимое, совпадающее с системным промптом, пишется готовыми байтами.
+         */
+        public void write(OutputStream out, String model, List<Map<String, String>> messages,
+                          int maxTokens, double temperature, boolean stream) throws IOException {
+            try (JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+                generator.writeStartObject();
+                generator.writeFieldName(MODEL);
+                generator.writeString(model);
+
+                generator.writeFieldName(MESSAGES);
+                generator.writeStartArray();
+                for (Map<String, String> message : messages) {
+                    String content = message.get("content");
+
+                    generator.writeStartObject();
+                    generator.writeFieldName(ROLE);
+                    generator.writeString(message.get("role"));
+                    generator.writeFieldName(CONTENT);
+                    if (content == systemPrompt || systemPrompt.equals(content)) {
+                        generator.writeString(serializedSystemPrompt);
+                    } else {
+                        generator.writeString(content);
+                    }
+                    generator.writeEndObject();
+                }
+                generator.writeEndArray();
+
+                generator.writeFieldName(MAX_TOKENS);
+                generator.writeNumber(maxTokens);
+                generator.writeFieldName(TEMPERATURE);
+                generator.writeNumber(temperature);
+
+                if (stream) {
+                    generator.writeFieldName(STREAM);
+                    generator.writeBoolean(true);
+                }
+                generator.writeFieldName(USAGE);
+                generator.writeStartObject();
+                generator.writeFieldName(INCLUDE);
+                generator.writeBoolean(true);
+                generator.writeEndObject();
+
+                generator.writeEndObject();
+            }
+        }
+    }
+
+    /**
+     * Разбирает ответ chat completions (обычный режим)
+     */
+    public static ChatResult readCompletion(InputStream body) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            return readResult(parser, "message");
+        }
+    }
+
+    /**
+     * Разбирает один фрагмент потокового ответа (данные события SSE)
+     */
+    public static ChatResult readStreamChunk(String payload) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(payload)) {
+            return readResult(parser, "delta");
+        }
+    }
+
+    private static ChatResult readResult(JsonParser parser, String contentHolder) throws IOException {
+        String content = null;
+        Usage usage = null;
+        String errorMessage = null;
+
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Expected JSON object in OpenRouter response");
+        }
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+
+            switch (field) {
+                case "choices" -> content = readFirstChoiceContent(parser, value, contentHolder);
+                case "usage" -> usage = readUsage(parser, value);
+                case "error" -> errorMessage = readErrorMessage(parser, value);
+                default -> parser.skipChildren();
+            }
+        }
+
+        return new ChatResult(content, usage, errorMessage);
+    }
+
+    /**
+     * choices[0].{message|delta}.content
+     */
+    private static String readFirstChoiceContent(JsonParser parser, JsonToken value, String contentHolder)
+            throws IOException {
+        if (value != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return null;
+        }
+
+        String content = null;
+        boolean first = true;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (!first || parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            first = false;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken fieldValue = parser.nextToken();
+                if (field.equals(contentHolder) && fieldValue == JsonToken.START_OBJECT) {
+                    content = readStringField(parser, "content");
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return content;
+    }
+
+    private static Usage readUsage(JsonParser parser, JsonToken value) throws IOException {
+        if (value != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return null;
+        }
+
+        int promptTokens = 0;
+        int completionTokens = 0;
+        int totalTokens = 0;
+        double cost = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken fieldValue = parser.nextToken();
+            if (fieldValue != JsonToken.VALUE_NUMBER_INT && fieldValue != JsonToken.VALUE_NUMBER_FLOAT) {
+                parser.skipChildren();
+                continue;
+            }
+            switch (field) {
+                case "prompt_tokens" -> promptTokens = parser.getIntValue();
+                case "completion_tokens" -> completionTokens = parser.getIntValue();
+                case "total_tokens" -> totalTokens = parser.getIntValue();
+                case "cost" -> cost = parser.getDoubleValue();
+                default -> {
+                }
+            }
+        }
+        return new Usage(promptTokens, completionTokens,
+                totalTokens > 0 ? totalTokens : promptTokens + completionTokens, cost);
+    }
+
+    private static String readErrorMessage(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_STRING) {
+            return parser.getText();
+        }
+        if (value != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return null;
+        }
+        String message = readStringField(parser, "message");
+        return message != null ? message : "unknown error";
+    }
+
+    /**
+     * Читает строковое поле текущего объекта и пропускает остальные поля до его конца
+     */
+    private static String readStringField(JsonParser parser, String name) throws IOException {
+        String result = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken fieldValue = parser.nextToken();
+            if (field.equals(name) && fieldValue == JsonToken.VALUE_STRING) {
+                result = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,54 @@
+package com.remaslover.telegrambotaq.util;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.client.HttpStatusCodeException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Разбор заголовка Retry-After: число секунд или HTTP-дата
+ */
+public final class RetryAfter {
+
+    private RetryAfter() {
+    }
+
+    /**
+     * Пауза, которую запросил сервис в ответе с ошибкой
+     *
+     * @return пауза или null, если заголовка нет или он не разобран
+     */
+    public static Duration from(Exception error) {
+        if (!(error instanceof HttpStatusCodeException statusError)) {
+            return null;
+        }
+        HttpHeaders headers = statusError.getResponseHeaders();
+        return headers == null ? null : parse(headers.getFirst(HttpHeaders.RETRY_AFTER));
+    }
+
+    public static Duration parse(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+
+        String trimmed = value.trim();
+        try {
+            long seconds = Long.parseLong(trimmed);
+            return seconds < 0 ? null : Duration.ofSeconds(seconds);
+        } catch (NumberFormatException ignored) {
+            // не число - пробуем HTTP-дату
+        }
+
+        try {
+            Instant until = ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            Duration pause = Duration.between(Instant.now(), until);
+            return pause.isNegative() ? Duration.ZERO : pause;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
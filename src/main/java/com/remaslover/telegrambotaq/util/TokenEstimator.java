@@ -0,0 +1,95 @@
+package com.remaslover.telegrambotaq.util;
+
+/**
+ * Локальная оценка числа токенов без загрузки словаря токенизатора.
+ * <p>
+ * BPE-токенизаторы современных моделей тратят примерно 1 токен на 4 символа
+ * латиницы и 1 токен на 2-2.5 символа кириллицы; знаки препинания и прочие
+ * символы обычно идут отдельными токенами. Оценка намеренно немного завышена,
+ * чтобы бюджет промпта не превышался.
+ */
+public final class TokenEstimator {
+
+    /**
+     * Служебные токены на каждое сообщение чата (роль, разделители)
+     */
+    public static final int MESSAGE_OVERHEAD_TOKENS = 4;
+
+    private static final byte WHITESPACE = 0;
+    private static final byte ASCII_WORD = 1;
+    private static final byte OTHER_WORD = 2;
+    private static final byte SYMBOL = 3;
+
+    /**
+     * Классы символов латиницы и кириллицы (до U+04FF), посчитанные теми же
+     * проверками Character: оценка длинного текста не ходит в таблицы Unicode
+     * на каждый символ
+     */
+    private static final byte[] CHAR_CLASSES = new byte[0x0500];
+
+    static {
+        for (int c = 0; c < CHAR_CLASSES.length; c++) {
+            CHAR_CLASSES[c] = classify(c);
+        }
+    }
+
+    private TokenEstimator() {
+    }
+
+    /**
+     * Оценивает число токенов в тексте
+     */
+    public static int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+
+        int asciiWordChars = 0;
+        int otherWordChars = 0;
+        int symbols = 0;
+
+        for (int i = 0; i < text.length(); ) {
+            char c = text.charAt(i);
+            byte charClass;
+            if (c < CHAR_CLASSES.length) {
+                charClass = CHAR_CLASSES[c];
+                i++;
+            } else {
+                int codePoint = text.codePointAt(i);
+                i += Character.charCount(codePoint);
+                charClass = classify(codePoint);
+            }
+
+            switch (charClass) {
+                case ASCII_WORD -> asciiWordChars++;
+                case OTHER_WORD -> otherWordChars++;
+                case SYMBOL -> symbols++;
+                default -> {
+                }
+            }
+        }
+
+        return ceilDiv(asciiWordChars * 10, 40) + ceilDiv(otherWordChars * 10, 22) + symbols;
+    }
+
+    /**
+     * Оценивает число токенов, которое сообщение займет в запросе к модели
+     */
+    public static int estimateMessage(String content) {
+        return estimate(content) + MESSAGE_OVERHEAD_TOKENS;
+    }
+
+    private static byte classify(int codePoint) {
+        if (Character.isWhitespace(codePoint)) {
+            return WHITESPACE;
+        }
+        if (Character.isLetterOrDigit(codePoint)) {
+            return codePoint < 128 ? ASCII_WORD : OTHER_WORD;
+        }
+        return SYMBOL;
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+}
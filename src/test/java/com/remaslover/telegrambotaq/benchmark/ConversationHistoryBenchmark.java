@@ -0,0 +1,230 @@
+package com.remaslover.telegrambotaq.benchmark;
+
+import com.remaslover.telegrambotaq.util.MessageRing;
+import com.remaslover.telegrambotaq.util.TokenEstimator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * История разговора: прежний ConcurrentLinkedDeque с String-временем
+ * против кольцевого буфера {@link MessageRing}.
+ * Добавление сообщения в заполненную историю и выбор сообщений в бюджет промпта.
+ * <p>
+ * Запуск: mvn test-compile, затем
+ * java -cp target/test-classes:target/classes:$(зависимости test) com.remaslover.telegrambotaq.benchmark.ConversationHistoryBenchmark
+ * <p>
+ * С аргументом heap вместо JMH печатает занятую кучу на 100 000 пользователей
+ * с полной историей (10 сообщений) для каждого представления.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversationHistoryBenchmark {
+
+    private static final int HISTORY_SIZE = 10;
+    private static final int PROMPT_BUDGET = 3000;
+    private static final int HEAP_USERS = 100_000;
+
+    private DequeHistory deque;
+    private MessageRing ring;
+    private MessageRing utf8Ring;
+    private String question;
+
+    @Setup
+    public void setUp() {
+        deque = new DequeHistory(HISTORY_SIZE);
+        ring = new MessageRing(HISTORY_SIZE, false);
+        utf8Ring = new MessageRing(HISTORY_SIZE, true);
+        for (int i = 0; i < HISTORY_SIZE; i++) {
+            String text = message(i);
+            deque.add("user", text);
+            ring.add(MessageRing.Role.USER, text, System.currentTimeMillis());
+            utf8Ring.add(MessageRing.Role.USER, text, System.currentTimeMillis());
+        }
+        question = "Как настроить кэш Caffeine в Spring Boot?";
+    }
+
+    @Benchmark
+    public int dequeAppend() {
+        deque.add("user", question);
+        return deque.size();
+    }
+
+    @Benchmark
+    public int ringAppend() {
+        ring.add(MessageRing.Role.USER, question, System.currentTimeMillis());
+        return ring.size();
+    }
+
+    @Benchmark
+    public int dequeAssemble() {
+        int chars = 0;
+        for (DequeHistory.Stored message : deque.newestWithinBudget(PROMPT_BUDGET)) {
+            chars += message.content().length();
+        }
+        return chars;
+    }
+
+    @Benchmark
+    public int ringAssemble() {
+        int chars = 0;
+        for (MessageRing.Message message : ring.newestWithinBudget(PROMPT_BUDGET)) {
+            chars += message.content().length();
+        }
+        return chars;
+    }
+
+    @Benchmark
+    public int utf8RingAssemble() {
+        int chars = 0;
+        for (MessageRing.Message message : utf8Ring.newestWithinBudget(PROMPT_BUDGET)) {
+            chars += message.content().length();
+        }
+        return chars;
+    }
+
+    private static String message(int i) {
+        // отдельный экземпляр строки на сообщение, как у настоящих сообщений
+        return new String(("Вопрос пользователя номер " + i + " про Java, Spring и кэширование?").toCharArray());
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && "heap".equals(args[0])) {
+            printHeapPerUser();
+            return;
+        }
+        new Runner(new OptionsBuilder()
+                .include(ConversationHistoryBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+
+    private static void printHeapPerUser() {
+        long contentBytes = usedHeapAfter(() -> {
+            List<String> texts = new ArrayList<>(HEAP_USERS * HISTORY_SIZE);
+            for (int u = 0; u < HEAP_USERS; u++) {
+                for (int i = 0; i < HISTORY_SIZE; i++) {
+                    texts.add(message(i));
+                }
+            }
+            return texts;
+        });
+        report("String content only (baseline)", contentBytes, 0);
+
+        report("ConcurrentLinkedDeque + String timestamp", usedHeapAfter(() -> {
+            List<DequeHistory> users = new ArrayList<>(HEAP_USERS);
+            for (int u = 0; u < HEAP_USERS; u++) {
+                DequeHistory history = new DequeHistory(HISTORY_SIZE);
+                for (int i = 0; i < HISTORY_SIZE; i++) {
+                    history.add(i % 2 == 0 ? "user" : "assistant", message(i));
+                }
+                users.add(history);
+            }
+            return users;
+        }), contentBytes);
+
+        for (boolean utf8 : new boolean[]{false, true}) {
+            report(utf8 ? "MessageRing, UTF-8 byte[] content" : "MessageRing, String content", usedHeapAfter(() -> {
+                List<MessageRing> users = new ArrayList<>(HEAP_USERS);
+                for (int u = 0; u < HEAP_USERS; u++) {
+                    MessageRing history = new MessageRing(HISTORY_SIZE, utf8);
+                    for (int i = 0; i < HISTORY_SIZE; i++) {
+                        history.add(i % 2 == 0 ? MessageRing.Role.USER : MessageRing.Role.ASSISTANT,
+                                message(i), System.currentTimeMillis());
+                    }
+                    users.add(history);
+                }
+                return users;
+            }), contentBytes);
+        }
+    }
+
+    private static void report(String name, long bytes, long contentBytes) {
+        System.out.printf("%-42s %7.1f MB, %5d B/user%s%n", name, bytes / 1_048_576.0, bytes / HEAP_USERS,
+                contentBytes == 0 ? "" : String.format(", structure %d B/user", (bytes - contentBytes) / HEAP_USERS));
+    }
+
+    private static long usedHeapAfter(Supplier<Object> allocation) {
+        long before = usedHeap();
+        Object retained = allocation.get();
+        long after = usedHeap();
+        Reference.reachabilityFence(retained);
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Прежнее представление истории: ConcurrentLinkedDeque, новые в начале,
+     * время - строка LocalDateTime, size() обходит очередь
+     */
+    private static final class DequeHistory {
+        record Stored(String role, String content, String timestamp, int tokens) {
+        }
+
+        private final Deque<Stored> messages = new ConcurrentLinkedDeque<>();
+        private final int maxSize;
+        private volatile LocalDateTime lastActivity;
+
+        DequeHistory(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        void add(String role, String content) {
+            messages.addFirst(new Stored(role, content, LocalDateTime.now().toString(),
+                    TokenEstimator.estimateMessage(content)));
+            if (messages.size() > maxSize) {
+                messages.removeLast();
+            }
+            lastActivity = LocalDateTime.now();
+        }
+
+        int size() {
+            return messages.size();
+        }
+
+        List<Stored> newestWithinBudget(int tokenBudget) {
+            List<Stored> result = new ArrayList<>();
+            int used = 0;
+            for (Stored message : messages) {
+                if (!result.isEmpty() && used + message.tokens() > tokenBudget) {
+                    break;
+                }
+                result.add(message);
+                used += message.tokens();
+            }
+            Collections.reverse(result);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.remaslover.telegrambotaq.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.remaslover.telegrambotaq.util.OpenRouterJson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Запрос и ответ chat completions: HashMap + ObjectMapper/readTree против
+ * потоковой записи и разбора ({@link OpenRouterJson}).
+ * Главная метрика - gc.alloc.rate.norm (байт на запрос).
+ * <p>
+ * Запуск: mvn test-compile, затем
+ * java -cp target/test-classes:target/classes:$(зависимости test) com.remaslover.telegrambotaq.benchmark.OpenRouterJsonBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpenRouterJsonBenchmark {
+
+    private static final String SYSTEM_PROMPT = """
+            You are a helpful assistant in a Telegram bot.
+            IMPORTANT: ALWAYS RESPOND IN THE SAME LANGUAGE AS THE USER'S QUESTION.
+            Use clean symbols without escaping for formatting.
+            Maximum response length: 1500 characters.
+            Remember conversation context and consider previous messages.
+            """;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final OpenRouterJson.RequestWriter requestWriter = new OpenRouterJson.RequestWriter(SYSTEM_PROMPT);
+
+    private List<Map<String, String>> history;
+    private byte[] responseBytes;
+
+    @Setup
+    public void setUp() throws IOException {
+        history = new ArrayList<>();
+        history.add(Map.of("role", "system", "content", SYSTEM_PROMPT));
+        for (int i = 0; i < 5; i++) {
+            history.add(Map.of("role", "user", "content", "Вопрос номер " + i + " про Java и Spring Boot?",
+                    "timestamp", "2026-01-01T10:00:00"));
+            history.add(Map.of("role", "assistant", "content", "Подробный ответ ассистента. ".repeat(20),
+                    "timestamp", "2026-01-01T10:00:05"));
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("id", "gen-1234567890");
+        response.put("provider", "Example");
+        response.put("model", "vendor/model:free");
+        response.put("object", "chat.completion");
+        response.put("created", 1767225600);
+        response.put("choices", List.of(Map.of(
+                "logprobs", "",
+                "finish_reason", "stop",
+                "index", 0,
+                "message", Map.of("role", "assistant", "content", "Ответ модели. ".repeat(80), "refusal", "")
+        )));
+        response.put("usage", Map.of("prompt_tokens", 812, "completion_tokens", 240, "total_tokens", 1052));
+        responseBytes = objectMapper.writeValueAsBytes(response);
+    }
+
+    @Benchmark
+    public String treeModel() throws IOException {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", "vendor/model:free");
+        requestBody.put("messages", history);
+        requestBody.put("max_tokens", 1500);
+        requestBody.put("temperature", 0.7);
+        objectMapper.writeValue(OutputStream.nullOutputStream(), requestBody);
+
+        String body = new String(new ByteArrayInputStream(responseBytes).readAllBytes(), StandardCharsets.UTF_8);
+        JsonNode root = objectMapper.readTree(body);
+        return root.path("choices").get(0).path("message").path("content").asText();
+    }
+
+    @Benchmark
+    public String streaming() throws IOException {
+        requestWriter.write(OutputStream.nullOutputStream(), "vendor/model:free", history, 1500, 0.7, false);
+
+        return OpenRouterJson.readCompletion(new ByteArrayInputStream(responseBytes)).content();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(OpenRouterJsonBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
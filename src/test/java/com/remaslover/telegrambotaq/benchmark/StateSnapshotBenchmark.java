@@ -0,0 +1,129 @@
+package com.remaslover.telegrambotaq.benchmark;
+
+import com.remaslover.telegrambotaq.config.CacheConfig;
+import com.remaslover.telegrambotaq.config.ColdTierConfig;
+import com.remaslover.telegrambotaq.config.ConversationStoreConfig;
+import com.remaslover.telegrambotaq.service.ConversationContextService;
+import com.remaslover.telegrambotaq.service.InMemoryConversationStore;
+import com.remaslover.telegrambotaq.service.RateLimitService;
+import com.remaslover.telegrambotaq.service.StateSnapshotService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Восстановление снимка состояния на 100 000 пользователей: счетчики лимитов
+ * и разговоры с полной историей (10 сообщений) в основном кэше.
+ * Каждый замер восстанавливает файл в новые сервисы, как при старте приложения;
+ * restoreAndReadAll дополнительно читает историю каждого пользователя.
+ * <p>
+ * Запуск: mvn test-compile, затем
+ * java -cp target/test-classes:target/classes:$(зависимости test) com.remaslover.telegrambotaq.benchmark.StateSnapshotBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class StateSnapshotBenchmark {
+
+    private static final int USERS = 100_000;
+    private static final int HISTORY_SIZE = 10;
+
+    private Path file;
+    private RateLimitService rateLimits;
+    private ConversationContextService conversations;
+    private StateSnapshotService snapshots;
+
+    @Setup(Level.Trial)
+    public void writeSnapshot() throws IOException {
+        file = Files.createTempFile("state-snapshot", ".bin");
+        RateLimitService sourceLimits = rateLimits();
+        ConversationContextService source = conversations();
+        for (long userId = 1; userId <= USERS; userId++) {
+            sourceLimits.registerAiRequest(userId);
+            for (int i = 0; i < HISTORY_SIZE; i++) {
+                if (i % 2 == 0) {
+                    source.addUserMessage(userId, "Вопрос пользователя номер " + i + " про Java, Spring и кэширование?");
+                } else {
+                    source.addAssistantMessage(userId, "Ответ ассистента " + i + ": настройте Caffeine через CacheConfig.");
+                }
+            }
+        }
+        long bytes = new StateSnapshotService(sourceLimits, source, true, file.toString()).write(file);
+        source.shutdown();
+        System.out.printf("%nState snapshot: %d users, %.1f MB%n", USERS, bytes / 1_048_576.0);
+    }
+
+    @Setup(Level.Invocation)
+    public void freshServices() {
+        rateLimits = rateLimits();
+        conversations = conversations();
+        snapshots = new StateSnapshotService(rateLimits, conversations, true, file.toString());
+    }
+
+    @Benchmark
+    public StateSnapshotService.RestoreResult restore() throws IOException {
+        return snapshots.restore(file);
+    }
+
+    /**
+     * Восстановление и первое обращение каждого пользователя: полная цена
+     * разбора разговоров, которую восстановление откладывает до запросов
+     */
+    @Benchmark
+    public int restoreAndReadAll() throws IOException {
+        snapshots.restore(file);
+        int messages = 0;
+        for (long userId = 1; userId <= USERS; userId++) {
+            messages += conversations.getConversationHistory(userId).size();
+        }
+        return messages;
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeServices() {
+        conversations.shutdown();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteSnapshot() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private static RateLimitService rateLimits() {
+        return new RateLimitService(10, "requests", 30_000, 500);
+    }
+
+    private static ConversationContextService conversations() {
+        return new ConversationContextService(CacheConfig.builder()
+                .evictionPolicy(CacheConfig.EVICTION_SIZE_BASED)
+                .maxSize(2 * USERS)
+                .historySize(HISTORY_SIZE)
+                .summarizeEnabled(false)
+                .build(), null, new InMemoryConversationStore(), new ConversationStoreConfig(), new ColdTierConfig());
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(StateSnapshotBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
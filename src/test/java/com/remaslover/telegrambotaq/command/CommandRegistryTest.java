@@ -0,0 +1,115 @@
+package com.remaslover.telegrambotaq.command;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
+import org.telegram.telegrambots.meta.api.objects.Chat;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.User;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandRegistryTest {
+
+    private AnnotationConfigApplicationContext context;
+    private CommandRegistry registry;
+    private TestCommands commands;
+
+    @BeforeEach
+    void setUp() {
+        context = new AnnotationConfigApplicationContext(CommandRegistry.class, TestCommands.class);
+        registry = context.getBean(CommandRegistry.class);
+        commands = context.getBean(TestCommands.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        context.close();
+    }
+
+    @Test
+    void resolvesCommandsAliasesAndButtons() {
+        invoke("/news_category технологии");
+        invoke("/newscategory спорт");
+        invoke("📋 Новости категории");
+        invoke("/news_category@TestBot наука");
+
+        assertEquals(List.of("технологии", "спорт", "", "наука"), commands.calls);
+        assertNull(registry.resolve("/unknown"));
+        assertNull(registry.resolve("просто вопрос"));
+    }
+
+    @Test
+    void parsesArgumentsWithoutSplitting() {
+        CommandRegistry.Match match = registry.resolve("/topnews  сша   наука и техника");
+        CommandContext ctx = match.forMessage(message("/topnews  сша   наука и техника"), "/topnews  сша   наука и техника");
+
+        assertTrue(ctx.hasArgs());
+        assertEquals(4, ctx.argCount());
+        assertEquals("сша", ctx.arg(0));
+        assertEquals("наука", ctx.arg(1));
+        assertEquals("наука и техника", ctx.argsFrom(1));
+        assertEquals("", ctx.arg(7));
+        assertTrue(match.route().isOwnerOnly());
+    }
+
+    @Test
+    void messageOnlyCommandIsNotInvokedFromCallback() {
+        CommandRegistry.Match match = registry.resolve("/my_data");
+        assertTrue(match.route().isMessageOnly());
+        assertFalse(registry.resolve("/topnews").route().isMessageOnly());
+
+        CallbackQuery callbackQuery = new CallbackQuery();
+        callbackQuery.setData("/my_data");
+        callbackQuery.setFrom(message("/my_data").getFrom());
+        callbackQuery.setMessage(message("Меню"));
+
+        assertThrows(IllegalStateException.class, () -> match.forCallback(callbackQuery));
+        invoke("/my_data");
+        assertEquals(List.of("/my_data"), commands.calls);
+    }
+
+    private void invoke(String text) {
+        CommandRegistry.Match match = registry.resolve(text);
+        assertNotNull(match, text);
+        match.route().invoke(match.forMessage(message(text), text));
+    }
+
+    private static Message message(String text) {
+        Chat chat = new Chat();
+        chat.setId(42L);
+        chat.setType("private");
+        User user = new User();
+        user.setId(7L);
+
+        Message message = new Message();
+        message.setChat(chat);
+        message.setFrom(user);
+        message.setText(text);
+        return message;
+    }
+
+    @CommandController
+    static class TestCommands {
+        final List<String> calls = new ArrayList<>();
+
+        @CommandMapping({"/news_category", "/newscategory", "📋 Новости категории"})
+        public void category(CommandContext context) {
+            calls.add(context.args());
+        }
+
+        @CommandMapping(value = "/my_data", messageOnly = true)
+        public void myData(CommandContext context) {
+            calls.add(context.getMessage().getText());
+        }
+
+        @CommandMapping(value = "/topnews", ownerOnly = true)
+        public void topNews(CommandContext context) {
+        }
+    }
+}
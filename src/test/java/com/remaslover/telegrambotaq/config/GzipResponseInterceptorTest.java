@@ -0,0 +1,55 @@
+package com.remaslover.telegrambotaq.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GzipResponseInterceptorTest {
+
+    private final GzipResponseInterceptor interceptor = new GzipResponseInterceptor();
+
+    @Test
+    void compressedBodyIsInflated() throws IOException {
+        ClientHttpResponse response = intercept(HttpStatus.OK, gzip("{\"ok\":true}"), "GZIP");
+
+        assertNull(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals("{\"ok\":true}", new String(response.getBody().readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void emptyCompressedBodyIsReadAsEmpty() throws IOException {
+        ClientHttpResponse response = intercept(HttpStatus.NO_CONTENT, new byte[0], "gzip");
+
+        assertEquals(0, response.getBody().readAllBytes().length);
+    }
+
+    private ClientHttpResponse intercept(HttpStatus status, byte[] body, String encoding) throws IOException {
+        MockClientHttpRequest request = new MockClientHttpRequest(HttpMethod.GET, URI.create("http://localhost/"));
+        return interceptor.intercept(request, new byte[0], (req, reqBody) -> {
+            assertEquals("gzip", req.getHeaders().getFirst(HttpHeaders.ACCEPT_ENCODING));
+            MockClientHttpResponse response = new MockClientHttpResponse(body, status);
+            response.getHeaders().set(HttpHeaders.CONTENT_ENCODING, encoding);
+            return response;
+        });
+    }
+
+    private static byte[] gzip(String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+}
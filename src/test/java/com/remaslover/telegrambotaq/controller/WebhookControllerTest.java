@@ -0,0 +1,91 @@
+package com.remaslover.telegrambotaq.controller;
+
+import com.remaslover.telegrambotaq.config.WebhookConfig;
+import com.remaslover.telegrambotaq.service.TelegramBotService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Прогоняет записанные обновления Telegram через webhook-эндпоинт
+ */
+class WebhookControllerTest {
+
+    private static final String PATH = "/telegram/webhook";
+    private static final String SECRET = "test-secret_42";
+
+    private TelegramBotService bot;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        bot = mock(TelegramBotService.class);
+
+        WebhookConfig webhookConfig = new WebhookConfig();
+        webhookConfig.setSecretToken(SECRET);
+
+        mockMvc = MockMvcBuilders.standaloneSetup(new WebhookController(bot, webhookConfig))
+                .addPlaceholderValue("bot.webhook.path", PATH)
+                .build();
+    }
+
+    @Test
+    void recordedMessageIsAcknowledgedAndDispatched() throws Exception {
+        mockMvc.perform(post(PATH)
+                        .header(WebhookConfig.SECRET_TOKEN_HEADER, SECRET)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(recorded("updates/text-message.json")))
+                .andExpect(status().isOk());
+
+        ArgumentCaptor<Update> captor = ArgumentCaptor.forClass(Update.class);
+        verify(bot).onUpdateReceived(captor.capture());
+        assertEquals("/time", captor.getValue().getMessage().getText());
+        assertEquals(123456789L, captor.getValue().getMessage().getChatId());
+    }
+
+    @Test
+    void recordedCallbackQueryIsDispatched() throws Exception {
+        mockMvc.perform(post(PATH)
+                        .header(WebhookConfig.SECRET_TOKEN_HEADER, SECRET)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(recorded("updates/callback-query.json")))
+                .andExpect(status().isOk());
+
+        ArgumentCaptor<Update> captor = ArgumentCaptor.forClass(Update.class);
+        verify(bot).onUpdateReceived(captor.capture());
+        assertEquals("/context stats", captor.getValue().getCallbackQuery().getData());
+    }
+
+    @Test
+    void requestWithWrongSecretIsRejected() throws Exception {
+        mockMvc.perform(post(PATH)
+                        .header(WebhookConfig.SECRET_TOKEN_HEADER, "wrong")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(recorded("updates/text-message.json")))
+                .andExpect(status().isForbidden());
+
+        mockMvc.perform(post(PATH)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(recorded("updates/text-message.json")))
+                .andExpect(status().isForbidden());
+
+        verify(bot, never()).onUpdateReceived(any());
+    }
+
+    private static String recorded(String path) throws Exception {
+        return new ClassPathResource(path).getContentAsString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,131 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.remaslover.telegrambotaq.config.CacheConfig;
+import com.remaslover.telegrambotaq.config.ModelRoutingConfig;
+import com.remaslover.telegrambotaq.config.ResilienceConfig;
+import com.remaslover.telegrambotaq.util.TelegramMessageSplitter;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Кэш ответов на вопросы без контекста против локальной заглушки OpenRouter
+ */
+class AiAnswerCacheTest {
+
+    private static final String ANSWER = "Java это язык программирования";
+
+    private HttpServer server;
+    private final AtomicInteger upstreamCalls = new AtomicInteger();
+    private volatile boolean primaryDown;
+    private OpenRouterService service;
+    private AiAnswerCache answerCache;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/v1/chat/completions", exchange -> {
+            String request = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            upstreamCalls.incrementAndGet();
+            if (primaryDown && request.contains("\"model\":\"test/model\"")) {
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+                return;
+            }
+            byte[] body = ("{\"choices\":[{\"message\":{\"content\":\"" + ANSWER + "\"}}]}")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        answerCache = new AiAnswerCache(true, 60, 1, false);
+        service = createService(new ModelRoutingConfig());
+    }
+
+    private OpenRouterService createService(ModelRoutingConfig routingConfig) {
+        ModelRouter modelRouter = new ModelRouter(routingConfig, "test/model");
+        String apiUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/api/v1";
+        ConversationContextService contextService = new ConversationContextService(CacheConfig.builder().build());
+        OpenRouterService service = new OpenRouterService(contextService,
+                new TelegramMessageSplitter(), new LanguageDetector(), new RestTemplate(), answerCache,
+                new AiRequestCoalescer(), modelRouter, new RequestHedger(routingConfig, modelRouter),
+                new OpenRouterGuard(new ResilienceConfig()), OpenRouterTestClients.chatClient(apiUrl),
+                OpenRouterTestClients.chatMemory(contextService), OpenRouterTestClients.SYSTEM_PROMPT,
+                OpenRouterTestClients.usageAccounting(), new AiRequestPipeline());
+        ReflectionTestUtils.setField(service, "apiKey", "test-key");
+        ReflectionTestUtils.setField(service, "model", "test/model");
+        ReflectionTestUtils.setField(service, "apiUrl", apiUrl);
+        return service;
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void sameFirstQuestionIsServedFromCache() {
+        assertTrue(service.findCachedAnswerParts(1L, "Что такое Java?").isEmpty());
+        assertEquals(List.of(ANSWER), service.generateResponseAsParts(1L, "Что такое Java?"));
+
+        List<String> cached = service.findCachedAnswerParts(2L, "  что такое   JAVA ");
+
+        assertEquals(List.of(ANSWER), cached);
+        assertEquals(1, upstreamCalls.get());
+        assertEquals(1L, answerCache.getStats().get("hits"));
+
+        String formatted = service.getFormattedAiStats();
+        assertTrue(formatted.contains("💾 Кэш ответов (вопросы без контекста):\n• Статус: включен\n• Попаданий: 1"), formatted);
+        assertTrue(formatted.contains("🛡 Защита OpenRouter:\n• Выключатель: замкнут"), formatted);
+        assertTrue(formatted.contains("📏 Размер промпта (оценка):"), formatted);
+    }
+
+    @Test
+    void questionsWithHistoryBypassTheCache() {
+        service.generateResponseAsParts(1L, "Что такое Java?");
+
+        assertTrue(service.findCachedAnswerParts(1L, "Что такое Java?").isEmpty(),
+                "follow-up questions depend on history and must not be served from cache");
+
+        ReflectionTestUtils.setField(service, "model", "other/model");
+        assertTrue(service.findCachedAnswerParts(3L, "Что такое Java?").isEmpty(),
+                "answers of another model must not be reused");
+    }
+
+    @Test
+    void fallbackAnswersAreNotCachedAsPrimaryAnswers() {
+        ModelRoutingConfig routingConfig = new ModelRoutingConfig();
+        routingConfig.setModels(List.of("spare/model"));
+        service = createService(routingConfig);
+        primaryDown = true;
+
+        assertEquals(List.of(ANSWER), service.generateResponseAsParts(1L, "Что такое Java?"));
+        assertTrue(upstreamCalls.get() >= 2, "primary failed, spare answered");
+
+        primaryDown = false;
+        assertTrue(service.findCachedAnswerParts(2L, "Что такое Java?").isEmpty(),
+                "answer of the spare model must not be served as the primary model's answer");
+        assertEquals(0L, answerCache.getStats().get("hits"));
+    }
+
+    @Test
+    void normalizationIgnoresCaseSpacesAndTrailingPunctuation() {
+        assertEquals("что такое java", AiAnswerCache.normalize("  Что   такое Java?! "));
+        assertEquals("how to sort a list", AiAnswerCache.normalize("How to sort a list..."));
+    }
+}
@@ -0,0 +1,172 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.remaslover.telegrambotaq.exception.UpstreamUnavailableException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AiJobSchedulerTest {
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final List<Future<?>> submitted = new ArrayList<>();
+    private final List<String> executionOrder = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void heavyUserDoesNotCrowdOutOthers() throws Exception {
+        AiJobScheduler scheduler = new AiJobScheduler(1, 100, 5, 10);
+        CountDownLatch release = occupySlot(scheduler);
+
+        submit(scheduler, 1L, false, "heavy-1");
+        submit(scheduler, 1L, false, "heavy-2");
+        submit(scheduler, 1L, false, "heavy-3");
+        submit(scheduler, 2L, false, "light-1");
+
+        release.countDown();
+        awaitAll();
+
+        assertEquals(List.of("heavy-1", "light-1", "heavy-2", "heavy-3"), executionOrder);
+    }
+
+    @Test
+    void ownerJobsJumpTheQueue() throws Exception {
+        AiJobScheduler scheduler = new AiJobScheduler(1, 100, 5, 10);
+        CountDownLatch release = occupySlot(scheduler);
+
+        submit(scheduler, 1L, false, "user-1");
+        submit(scheduler, 2L, false, "user-2");
+        submit(scheduler, 99L, true, "owner");
+
+        release.countDown();
+        awaitAll();
+
+        assertEquals(List.of("owner", "user-1", "user-2"), executionOrder);
+    }
+
+    @Test
+    void queuedJobReceivesPositionAndFullQueueRejects() throws Exception {
+        AiJobScheduler scheduler = new AiJobScheduler(1, 2, 5, 10);
+        CountDownLatch release = occupySlot(scheduler);
+        List<String> notifications = new CopyOnWriteArrayList<>();
+
+        submit(scheduler, 1L, false, "first");
+        submitted.add(executor.submit(() -> scheduler.execute(2L, 2L, false, 1,
+                (position, eta) -> notifications.add(position + "/" + eta), () -> "second")));
+        awaitWaiting(scheduler, 2);
+
+        assertThrows(UpstreamUnavailableException.class,
+                () -> scheduler.execute(3L, 3L, false, 1, null, () -> "rejected"));
+
+        release.countDown();
+        awaitAll();
+
+        assertEquals("2/20", notifications.get(0), "second in line, two rounds of ~10 s");
+        assertEquals(1L, scheduler.getStats().get("rejected"));
+    }
+
+    @Test
+    void concurrencyFollowsTheUpstreamLimit() throws Exception {
+        AtomicInteger upstreamLimit = new AtomicInteger(1);
+        AiJobScheduler scheduler = new AiJobScheduler(8, 100, 1, 10, upstreamLimit::get);
+        CountDownLatch release = occupySlot(scheduler);
+
+        // лимит OpenRouter сейчас 1: вторая задача ждет в очереди, а не отклоняется лимитом
+        submit(scheduler, 1L, false, "second");
+        assertEquals(1, scheduler.getStats().get("running"));
+        assertEquals(1, scheduler.getStats().get("concurrencyLimit"));
+
+        upstreamLimit.set(4);
+        awaitAll(1, 3);
+        assertEquals(List.of("second"), executionOrder);
+
+        release.countDown();
+        awaitAll();
+    }
+
+    @Test
+    void failingQueueListenerDoesNotWedgeTheQueue() throws Exception {
+        AiJobScheduler scheduler = new AiJobScheduler(1, 100, 5, 10);
+        CountDownLatch release = occupySlot(scheduler);
+
+        Future<String> survivesListenerFailure = executor.submit(() -> scheduler.execute(1L, 1L, false, 1,
+                (position, eta) -> {
+                    throw new IllegalStateException("message to edit not found");
+                }, () -> "answer"));
+        awaitWaiting(scheduler, 1);
+        Future<String> abortedByError = executor.submit(() -> scheduler.execute(2L, 2L, false, 1,
+                (position, eta) -> {
+                    throw new AssertionError("listener bug");
+                }, () -> "never"));
+
+        ExecutionException error = assertThrows(ExecutionException.class,
+                () -> abortedByError.get(1, TimeUnit.SECONDS));
+        assertInstanceOf(AssertionError.class, error.getCause());
+        submit(scheduler, 3L, false, "after");
+
+        release.countDown();
+        assertEquals("answer", survivesListenerFailure.get(2, TimeUnit.SECONDS));
+        awaitAll();
+        assertEquals(List.of("after"), executionOrder);
+        assertEquals(0, scheduler.getStats().get("waiting"));
+        assertEquals(0, scheduler.getStats().get("running"));
+    }
+
+    /**
+     * Занимает единственное место выполнения до countDown()
+     */
+    private CountDownLatch occupySlot(AiJobScheduler scheduler) throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        submitted.add(executor.submit(() -> scheduler.execute(0L, 0L, false, 1, null, () -> {
+            started.countDown();
+            release.await();
+            return null;
+        })));
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        return release;
+    }
+
+    private void submit(AiJobScheduler scheduler, long userId, boolean priority, String name) throws Exception {
+        int waitingBefore = (int) scheduler.getStats().get("waiting");
+        submitted.add(executor.submit(() -> scheduler.execute(userId, userId, priority, 1, null, () -> {
+            executionOrder.add(name);
+            return null;
+        })));
+        awaitWaiting(scheduler, waitingBefore + 1);
+    }
+
+    private static void awaitWaiting(AiJobScheduler scheduler, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while ((int) scheduler.getStats().get("waiting") < expected) {
+            assertTrue(System.nanoTime() < deadline, "job was not queued");
+            Thread.sleep(5);
+        }
+    }
+
+    private void awaitAll() throws Exception {
+        awaitAll(0, 2);
+    }
+
+    private void awaitAll(int from, long timeoutSeconds) throws Exception {
+        for (Future<?> future : submitted.subList(from, submitted.size())) {
+            future.get(timeoutSeconds, TimeUnit.SECONDS);
+        }
+    }
+}
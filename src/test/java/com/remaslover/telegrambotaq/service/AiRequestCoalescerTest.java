@@ -0,0 +1,131 @@
+package com.remaslover.telegrambotaq.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AiRequestCoalescerTest {
+
+    private static final int CALLERS = 20;
+
+    @Test
+    void identicalConcurrentRequestsShareOneUpstreamCall() throws Exception {
+        AiRequestCoalescer coalescer = new AiRequestCoalescer();
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        CountDownLatch allJoined = new CountDownLatch(1);
+        List<StringBuilder> streamed = new CopyOnWriteArrayList<>();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<String>> results = new CopyOnWriteArrayList<>();
+
+            for (int i = 0; i < CALLERS; i++) {
+                StringBuilder received = new StringBuilder();
+                streamed.add(received);
+                results.add(executor.submit(() -> coalescer.execute("model|same question", received::append,
+                        onDelta -> {
+                            upstreamCalls.incrementAndGet();
+                            onDelta.accept("Один ");
+                            allJoined.await(5, TimeUnit.SECONDS);
+                            onDelta.accept("ответ");
+                            return "Один ответ";
+                        })));
+            }
+
+            while ((long) coalescer.getStats().get("savedCalls") < CALLERS - 1) {
+                Thread.sleep(5);
+            }
+            allJoined.countDown();
+
+            for (Future<String> result : results) {
+                assertEquals("Один ответ", result.get(5, TimeUnit.SECONDS));
+            }
+        }
+
+        assertEquals(1, upstreamCalls.get());
+        assertEquals(1L, coalescer.getStats().get("upstreamCalls"));
+        assertEquals((long) CALLERS - 1, coalescer.getStats().get("savedCalls"));
+        assertEquals(0, coalescer.getStats().get("inFlight"));
+        streamed.forEach(received -> assertEquals("Один ответ", received.toString()));
+    }
+
+    @Test
+    void followersReceiveTheLeaderError() throws Exception {
+        AiRequestCoalescer coalescer = new AiRequestCoalescer();
+        CountDownLatch followerJoined = new CountDownLatch(1);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<String> leader = executor.submit(() -> coalescer.execute("key", delta -> {
+            }, onDelta -> {
+                followerJoined.await(5, TimeUnit.SECONDS);
+                throw new IllegalStateException("upstream failed");
+            }));
+
+            while ((long) coalescer.getStats().get("upstreamCalls") == 0) {
+                Thread.sleep(5);
+            }
+            Future<String> follower = executor.submit(() -> coalescer.execute("key", delta -> {
+            }, onDelta -> "should not run"));
+
+            while ((long) coalescer.getStats().get("savedCalls") == 0) {
+                Thread.sleep(5);
+            }
+            followerJoined.countDown();
+
+            Exception leaderError = assertThrows(Exception.class, () -> leader.get(5, TimeUnit.SECONDS));
+            Exception followerError = assertThrows(Exception.class, () -> follower.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalStateException.class, leaderError.getCause());
+            assertInstanceOf(IllegalStateException.class, followerError.getCause());
+        }
+    }
+
+    @Test
+    void followerRetriesItselfWhenLeaderIsCancelled() throws Exception {
+        AiRequestCoalescer coalescer = new AiRequestCoalescer();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<String> leader = executor.submit(() -> coalescer.execute("key", delta -> {
+            }, onDelta -> {
+                Thread.sleep(10_000);
+                return "cancelled answer";
+            }));
+
+            while ((long) coalescer.getStats().get("upstreamCalls") == 0) {
+                Thread.sleep(5);
+            }
+            Future<String> follower = executor.submit(() -> coalescer.execute("key", delta -> {
+            }, onDelta -> "own answer"));
+
+            while ((long) coalescer.getStats().get("savedCalls") == 0) {
+                Thread.sleep(5);
+            }
+            leader.cancel(true);
+
+            assertEquals("own answer", follower.get(5, TimeUnit.SECONDS));
+        }
+
+        assertEquals(1L, coalescer.getStats().get("abandonedCalls"));
+        assertEquals(2L, coalescer.getStats().get("upstreamCalls"));
+    }
+
+    @Test
+    void sequentialRequestsAreNotCoalesced() throws Exception {
+        AiRequestCoalescer coalescer = new AiRequestCoalescer();
+
+        coalescer.execute("key", delta -> {
+        }, onDelta -> "first");
+        String second = coalescer.execute("key", delta -> {
+        }, onDelta -> "second");
+
+        assertEquals("second", second);
+        assertEquals(0L, coalescer.getStats().get("savedCalls"));
+    }
+}
@@ -0,0 +1,203 @@
+package com.remaslover.telegrambotaq.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AiRequestPipelineTest {
+
+    private static final long USER = 10L;
+    private static final long OTHER_USER = 20L;
+
+    private final AiRequestPipeline pipeline = new AiRequestPipeline();
+    private final List<String> delivered = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        pipeline.shutdown();
+    }
+
+    @Test
+    void submitReturnsBeforeTheWorkIsDone() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+
+        long startedAt = System.nanoTime();
+        CompletableFuture<Void> done = pipeline.submit(1L, USER, () -> {
+            release.await();
+            return "answer";
+        }, delivered::add);
+        long submitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+
+        assertFalse(done.isDone());
+        assertTrue(submitMillis < 100, "handler thread must be released immediately");
+
+        release.countDown();
+        done.get(1, TimeUnit.SECONDS);
+        assertEquals(List.of("answer"), delivered);
+    }
+
+    @Test
+    void requestsOfOneChatAreDeliveredInOrderEvenAfterFailure() throws Exception {
+        pipeline.submit(1L, USER, () -> slow("first", 150), delivered::add);
+        CompletableFuture<Void> failing = pipeline.<String>submit(1L, USER, () -> {
+            throw new IllegalStateException("upstream down");
+        }, delivered::add);
+        CompletableFuture<Void> last = pipeline.submit(1L, USER, () -> "third", delivered::add);
+
+        last.get(2, TimeUnit.SECONDS);
+
+        assertTrue(failing.isCompletedExceptionally());
+        assertEquals(List.of("first", "third"), delivered);
+        assertEquals(1L, pipeline.getStats().get("failed"));
+        assertEquals(2L, pipeline.getStats().get("queuedBehindPrevious"));
+    }
+
+    @Test
+    void differentChatsRunInParallel() throws Exception {
+        CompletableFuture<Void> slowChat = pipeline.submit(1L, USER, () -> slow("slow chat", 500), delivered::add);
+        CompletableFuture<Void> fastChat = pipeline.submit(2L, OTHER_USER, () -> "fast chat", delivered::add);
+
+        fastChat.get(200, TimeUnit.MILLISECONDS);
+        assertFalse(slowChat.isDone());
+
+        slowChat.get(2, TimeUnit.SECONDS);
+        assertEquals(List.of("fast chat", "slow chat"), delivered);
+        assertEquals(0, pipeline.getStats().get("activeChats"));
+    }
+
+    @Test
+    void cancelInterruptsRunningWorkAndDropsQueuedAndStaleResults() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        List<String> history = new CopyOnWriteArrayList<>();
+
+        CompletableFuture<Void> running = pipeline.submit(1L, USER, () -> {
+            started.countDown();
+            try {
+                Thread.sleep(10_000);
+            } finally {
+                pipeline.commitIfActive(() -> history.add("stale answer"));
+            }
+            return "stale answer";
+        }, delivered::add);
+        CompletableFuture<Void> queued = pipeline.submit(1L, USER, () -> "stale queued", delivered::add);
+
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        long cancelledAt = System.nanoTime();
+        assertEquals(2, pipeline.cancel(USER));
+
+        CompletableFuture<Void> fresh = pipeline.submit(1L, USER, () -> "fresh", delivered::add);
+        CompletableFuture<Void> clear = pipeline.runAfterCurrent(1L, USER, () -> history.add("cleared"));
+        assertEquals(0, pipeline.cancel(OTHER_USER));
+        fresh.get(1, TimeUnit.SECONDS);
+        clear.get(1, TimeUnit.SECONDS);
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - cancelledAt) < 1000,
+                "running work must be interrupted, not awaited");
+        ExecutionException error = assertThrows(ExecutionException.class, () -> running.get(1, TimeUnit.SECONDS));
+        assertInstanceOf(CancellationException.class, error.getCause());
+        assertThrows(ExecutionException.class, () -> queued.get(1, TimeUnit.SECONDS));
+
+        assertEquals(List.of("fresh"), delivered);
+        assertEquals(List.of("cleared"), history);
+        assertEquals(2L, pipeline.getStats().get("cancelled"));
+        assertEquals(1L, pipeline.getStats().get("cancelledRunning"));
+        assertEquals(2L, pipeline.getStats().get("completed"));
+    }
+
+    @Test
+    void cancelInGroupChatAffectsOnlyTheRequestsOfThatUser() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Void> first = pipeline.submit(1L, USER, () -> {
+            started.countDown();
+            release.await();
+            return "answer of first user";
+        }, delivered::add);
+        CompletableFuture<Void> queued = pipeline.submit(1L, OTHER_USER, () -> "stale answer of second user",
+                delivered::add);
+
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        // второй участник задает новый вопрос: отменяется только его прежний запрос
+        assertEquals(1, pipeline.cancel(OTHER_USER));
+        CompletableFuture<Void> fresh = pipeline.submit(1L, OTHER_USER, () -> "answer of second user",
+                delivered::add);
+        assertEquals(0, pipeline.cancel(30L));
+
+        release.countDown();
+        first.get(1, TimeUnit.SECONDS);
+        fresh.get(1, TimeUnit.SECONDS);
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> queued.get(1, TimeUnit.SECONDS));
+        assertInstanceOf(CancellationException.class, error.getCause());
+        assertEquals(List.of("answer of first user", "answer of second user"), delivered);
+        assertEquals(1L, pipeline.getStats().get("cancelled"));
+        assertEquals(0L, pipeline.getStats().get("cancelledRunning"));
+    }
+
+    @Test
+    void clearInAnotherChatCancelsTheUsersRequestAndRunsAfterIt() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        List<String> history = new CopyOnWriteArrayList<>();
+
+        CompletableFuture<Void> running = pipeline.submit(1L, USER, () -> {
+            started.countDown();
+            try {
+                Thread.sleep(10_000);
+            } finally {
+                pipeline.commitIfActive(() -> history.add("stale answer"));
+            }
+            return "stale answer";
+        }, delivered::add);
+
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        // /context clear в личном чате, пока ответ готовится в групповом
+        assertEquals(1, pipeline.cancel(USER));
+        CompletableFuture<Void> clear = pipeline.runAfterCurrent(2L, USER, () -> history.add("cleared"));
+
+        clear.get(1, TimeUnit.SECONDS);
+        ExecutionException error = assertThrows(ExecutionException.class, () -> running.get(1, TimeUnit.SECONDS));
+        assertInstanceOf(CancellationException.class, error.getCause());
+        assertEquals(List.of("cleared"), history);
+        assertTrue(delivered.isEmpty());
+    }
+
+    @Test
+    void requestsOfOneUserInDifferentChatsDoNotOverlap() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> events = new CopyOnWriteArrayList<>();
+
+        CompletableFuture<Void> first = pipeline.submit(1L, USER, () -> {
+            release.await();
+            events.add("first finished");
+            return "first";
+        }, delivered::add);
+        CompletableFuture<Void> second = pipeline.submit(2L, USER, () -> {
+            events.add("second started");
+            return "second";
+        }, delivered::add);
+        CompletableFuture<Void> otherUser = pipeline.submit(3L, OTHER_USER, () -> "other user", delivered::add);
+
+        otherUser.get(1, TimeUnit.SECONDS);
+        assertFalse(second.isDone());
+
+        release.countDown();
+        first.get(1, TimeUnit.SECONDS);
+        second.get(1, TimeUnit.SECONDS);
+        assertEquals(List.of("first finished", "second started"), events);
+    }
+
+    private static String slow(String result, long millis) throws InterruptedException {
+        Thread.sleep(millis);
+        return result;
+    }
+}
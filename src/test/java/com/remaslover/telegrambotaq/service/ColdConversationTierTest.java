@@ -0,0 +1,128 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.remaslover.telegrambotaq.config.CacheConfig;
+import com.remaslover.telegrambotaq.config.ColdTierConfig;
+import com.remaslover.telegrambotaq.config.ConversationStoreConfig;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColdConversationTierTest {
+
+    @Test
+    void compressedSnapshotRoundTripsOnAndOffHeap() {
+        for (boolean offHeap : new boolean[]{false, true}) {
+            ColdTierConfig config = new ColdTierConfig();
+            config.setOffHeap(offHeap);
+            ColdConversationTier tier = new ColdConversationTier(config);
+
+            ConversationSnapshot snapshot = new ConversationSnapshot(7L, "краткое содержание",
+                    List.of(new ConversationSnapshot.Message("user", "Как работает Deflate?", 1_000L),
+                            new ConversationSnapshot.Message("assistant", "Ответ про сжатие. ".repeat(40), 2_000L)),
+                    LocalDateTime.of(2026, 1, 1, 10, 0, 5));
+
+            tier.put(snapshot);
+
+            assertEquals(snapshot, tier.take(7L).orElseThrow());
+            assertTrue(tier.take(7L).isEmpty(), "entry is moved back to the hot cache on take");
+
+            Map<String, Object> stats = tier.getStats();
+            assertEquals(1L, stats.get("hits"));
+            assertEquals(1L, stats.get("misses"));
+            assertEquals(offHeap, stats.get("offHeap"));
+            assertTrue((double) stats.get("compressionRatio") > 3, "ratio " + stats.get("compressionRatio"));
+        }
+    }
+
+    @Test
+    void truncatedOrMismatchedEntryFailsInsteadOfHanging() {
+        ColdConversationTier tier = new ColdConversationTier(new ColdTierConfig());
+        tier.put(new ConversationSnapshot(9L, null,
+                List.of(new ConversationSnapshot.Message("user", "Сообщение для сжатия. ".repeat(30), 1_000L)), null));
+        ColdConversationTier.Entry entry = tier.export().get(0);
+
+        ColdConversationTier.Entry truncated = new ColdConversationTier.Entry(9L, entry.rawLength(),
+                Arrays.copyOf(entry.data(), entry.data().length / 2));
+        ColdConversationTier.Entry longerThanStored = new ColdConversationTier.Entry(9L, entry.rawLength() + 10,
+                entry.data());
+        ColdConversationTier.Entry shorterThanStored = new ColdConversationTier.Entry(9L, entry.rawLength() - 10,
+                entry.data());
+
+        for (ColdConversationTier.Entry broken : List.of(truncated, longerThanStored, shorterThanStored)) {
+            ColdConversationTier restored = new ColdConversationTier(new ColdTierConfig());
+            restored.restore(broken);
+            assertTimeoutPreemptively(Duration.ofSeconds(5),
+                    () -> assertThrows(IllegalStateException.class, () -> restored.take(9L)));
+        }
+    }
+
+    @Test
+    void evictedConversationsAreServedFromColdTier() throws Exception {
+        ColdTierConfig coldTierConfig = new ColdTierConfig();
+        coldTierConfig.setEnabled(true);
+        ConversationStoreConfig storeConfig = new ConversationStoreConfig();
+        storeConfig.setFlushIntervalMs(100);
+
+        ConversationContextService service = new ConversationContextService(CacheConfig.builder()
+                .evictionPolicy(CacheConfig.EVICTION_WEIGHT_BASED)
+                .maxWeightMb(1)
+                .summarizeEnabled(false)
+                .build(), null, new ForgetfulStore(), storeConfig, coldTierConfig);
+
+        String longAnswer = "Подробный ответ ассистента про кэширование. ".repeat(25);
+        for (long userId = 1; userId <= 200; userId++) {
+            for (int i = 0; i < 10; i++) {
+                service.addAssistantMessage(userId, longAnswer);
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (((long) service.getCacheStats().get("weightedBytes") > 1024 * 1024
+                || (int) ((Map<String, Object>) service.getCacheStats().get("store")).get("pendingWrites") > 0)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+
+        // хранилище ничего не помнит: вытесненные разговоры может вернуть только холодный уровень
+        for (long userId = 1; userId <= 200; userId++) {
+            assertEquals(10, service.getConversationHistory(userId).size(), "user " + userId);
+        }
+
+        Map<String, Object> coldStats = (Map<String, Object>) service.getCacheStats().get("coldTier");
+        assertTrue((long) coldStats.get("hits") > 100, "cold hits " + coldStats.get("hits"));
+        assertTrue(service.getFormattedStats().contains("🧊 Холодный уровень:\n• Разговоров: "), service.getFormattedStats());
+        service.shutdown();
+    }
+
+    private static final class ForgetfulStore implements ConversationStore {
+        @Override
+        public Optional<ConversationSnapshot> load(Long userId) {
+            return Optional.empty();
+        }
+
+        @Override
+        public void saveAll(Collection<ConversationSnapshot> snapshots) {
+        }
+
+        @Override
+        public void deleteAll(Collection<Long> userIds) {
+        }
+
+        @Override
+        public void clear() {
+        }
+
+        @Override
+        public String name() {
+            return "forgetful";
+        }
+    }
+}
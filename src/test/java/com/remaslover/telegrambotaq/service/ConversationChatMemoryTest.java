@@ -0,0 +1,55 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.remaslover.telegrambotaq.config.CacheConfig;
+import com.remaslover.telegrambotaq.config.SystemPrompt;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversationChatMemoryTest {
+
+    private final ConversationContextService contextService =
+            new ConversationContextService(CacheConfig.builder().build());
+    private final ConversationChatMemory chatMemory =
+            new ConversationChatMemory(contextService, new SystemPrompt("You are a helpful assistant."));
+
+    @Test
+    void messagesAreStoredInConversationContext() {
+        chatMemory.add("42", List.of(new UserMessage("Привет"), new AssistantMessage("Здравствуйте!")));
+
+        assertEquals(2, contextService.getConversationHistory(42L).size());
+        assertEquals("user", contextService.getConversationHistory(42L).get(0).get("role"));
+        assertEquals("Здравствуйте!", contextService.getConversationHistory(42L).get(1).get("content"));
+    }
+
+    @Test
+    void historyIsReturnedWithoutSystemPrompt() {
+        contextService.addUserMessage(7L, "Что такое JIT?");
+        contextService.addAssistantMessage(7L, "Компиляция во время выполнения.");
+
+        List<Message> history = chatMemory.get(ConversationChatMemory.conversationId(7L));
+
+        assertEquals(List.of(MessageType.USER, MessageType.ASSISTANT),
+                history.stream().map(Message::getMessageType).toList());
+        assertEquals("Что такое JIT?", history.get(0).getText());
+        assertTrue(chatMemory.get("8").isEmpty());
+    }
+
+    @Test
+    void systemMessagesAreNotStoredAndClearRemovesHistory() {
+        chatMemory.add("5", List.of(new SystemMessage("ignored"), new UserMessage("Вопрос")));
+        assertEquals(1, contextService.getConversationHistory(5L).size());
+
+        chatMemory.clear("5");
+
+        assertFalse(contextService.hasActiveContext(5L));
+        assertThrows(IllegalArgumentException.class, () -> chatMemory.get("default"));
+    }
+}
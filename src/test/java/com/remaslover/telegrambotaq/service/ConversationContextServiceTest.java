@@ -0,0 +1,176 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.remaslover.telegrambotaq.config.CacheConfig;
+import com.remaslover.telegrambotaq.config.ResilienceConfig;
+import com.remaslover.telegrambotaq.util.TokenEstimator;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversationContextServiceTest {
+
+    private static final String SYSTEM_PROMPT = "You are a helpful assistant.";
+
+    @Test
+    void tokenBudgetKeepsNewestMessagesThatFit() {
+        ConversationContextService service = new ConversationContextService(CacheConfig.builder()
+                .promptTokenBudget(300)
+                .build());
+
+        String longAnswer = "Очень длинный ответ ассистента. ".repeat(100);
+        service.addUserMessage(1L, "Первый вопрос");
+        service.addAssistantMessage(1L, longAnswer);
+        service.addUserMessage(1L, "Второй вопрос");
+        service.addAssistantMessage(1L, "Короткий ответ");
+        service.addUserMessage(1L, "Третий вопрос");
+
+        List<Map<String, String>> conversation = service.getFullConversation(1L, SYSTEM_PROMPT);
+
+        assertEquals(List.of("system", "user", "assistant", "user"),
+                conversation.stream().map(message -> message.get("role")).toList());
+        assertEquals("Третий вопрос", conversation.get(conversation.size() - 1).get("content"));
+
+        Map<String, Object> stats = service.getPromptStats();
+        assertEquals(2L, stats.get("droppedMessages"));
+        assertTrue((long) stats.get("lastPromptTokens") <= 300);
+    }
+
+    @Test
+    void newestMessageIsSentEvenWhenItExceedsTheBudget() {
+        ConversationContextService service = new ConversationContextService(CacheConfig.builder()
+                .promptTokenBudget(50)
+                .build());
+
+        service.addUserMessage(1L, "Старый вопрос");
+        service.addUserMessage(1L, "очень длинный вопрос ".repeat(50));
+
+        List<Map<String, String>> conversation = service.getFullConversation(1L, SYSTEM_PROMPT);
+
+        assertEquals(2, conversation.size());
+        assertTrue(conversation.get(1).get("content").startsWith("очень длинный вопрос"));
+    }
+
+    @Test
+    void messageCountModeSendsWholeHistory() {
+        ConversationContextService service = new ConversationContextService(CacheConfig.builder()
+                .assemblyMode(CacheConfig.ASSEMBLY_MESSAGE_COUNT)
+                .promptTokenBudget(50)
+                .build());
+
+        service.addUserMessage(1L, "вопрос ".repeat(100));
+        service.addAssistantMessage(1L, "ответ ".repeat(100));
+        service.addUserMessage(1L, "ещё вопрос");
+
+        assertEquals(4, service.getFullConversation(1L, SYSTEM_PROMPT).size());
+        assertEquals(0L, service.getPromptStats().get("droppedMessages"));
+    }
+
+    @Test
+    void oldTurnsAreFoldedIntoSummary() {
+        ConversationContextService service = new ConversationContextService(CacheConfig.builder()
+                .summarizeThreshold(6)
+                .keepRecentMessages(2)
+                .build(), new FixedSummarizer("пользователь спрашивал про Java"));
+
+        for (int i = 1; i <= 3; i++) {
+            service.addUserMessage(1L, "Вопрос " + i + " " + "подробности ".repeat(30));
+            service.addAssistantMessage(1L, "Ответ " + i + " " + "объяснение ".repeat(60));
+        }
+
+        List<Map<String, String>> conversation = service.getFullConversation(1L, SYSTEM_PROMPT);
+
+        assertEquals(List.of("system", "system", "user", "assistant"),
+                conversation.stream().map(message -> message.get("role")).toList());
+        assertTrue(conversation.get(1).get("content").endsWith("пользователь спрашивал про Java"));
+        assertTrue(conversation.get(2).get("content").startsWith("Вопрос 3"));
+        assertEquals(1L, service.getPromptStats().get("compactions"));
+        assertEquals(4L, service.getPromptStats().get("compactedMessages"));
+    }
+
+    @Test
+    void failedSummaryKeepsHistory() {
+        ConversationContextService service = new ConversationContextService(CacheConfig.builder()
+                .summarizeThreshold(4)
+                .keepRecentMessages(2)
+                .build(), new FixedSummarizer(null));
+
+        for (int i = 1; i <= 2; i++) {
+            service.addUserMessage(1L, "Вопрос " + i);
+            service.addAssistantMessage(1L, "Ответ " + i);
+        }
+
+        assertEquals(5, service.getFullConversation(1L, SYSTEM_PROMPT).size());
+        assertEquals(1L, service.getPromptStats().get("compactionFailures"));
+    }
+
+    @Test
+    void weightBasedCacheEvictsByBytesAndReportsLiveWeight() throws Exception {
+        ConversationContextService service = new ConversationContextService(CacheConfig.builder()
+                .evictionPolicy(CacheConfig.EVICTION_WEIGHT_BASED)
+                .maxWeightMb(1)
+                .summarizeEnabled(false)
+                .build());
+
+        service.addUserMessage(0L, "hi");
+        long smallUserBytes = (long) service.getCacheStats().get("weightedBytes");
+
+        String longAnswer = "Подробный ответ ассистента про кэширование. ".repeat(25);
+        for (long userId = 1; userId <= 200; userId++) {
+            for (int i = 0; i < 10; i++) {
+                service.addAssistantMessage(userId, longAnswer);
+            }
+        }
+
+        // вытеснение Caffeine асинхронное
+        long deadline = System.currentTimeMillis() + 5_000;
+        while ((long) service.getCacheStats().get("weightedBytes") > 1024 * 1024
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+
+        Map<String, Object> stats = service.getCacheStats();
+        long weightedBytes = (long) stats.get("weightedBytes");
+        long bigUserBytes = (long) stats.get("averageBytesPerUser");
+
+        assertTrue(weightedBytes <= 1024 * 1024, "weighted bytes " + weightedBytes);
+        assertTrue((long) stats.get("activeUsers") < 100, "active users " + stats.get("activeUsers"));
+        assertTrue(bigUserBytes > 20 * smallUserBytes, smallUserBytes + " vs " + bigUserBytes);
+        service.shutdown();
+    }
+
+    @Test
+    void estimatorCountsCyrillicDenserThanLatin() {
+        int latin = TokenEstimator.estimate("This is a short English sentence about Java");
+        int cyrillic = TokenEstimator.estimate("Это короткое русское предложение о языке Java");
+
+        assertTrue(latin >= 8 && latin <= 14, "latin estimate " + latin);
+        assertTrue(cyrillic > latin, "cyrillic estimate " + cyrillic);
+        assertEquals(0, TokenEstimator.estimate(""));
+    }
+
+    /**
+     * Синхронная заглушка: сразу возвращает заданный текст или ошибку
+     */
+    private static class FixedSummarizer extends ConversationSummarizer {
+        private final String summary;
+
+        FixedSummarizer(String summary) {
+            super(new RestTemplate(), new OpenRouterGuard(new ResilienceConfig()),
+                    OpenRouterTestClients.usageAccounting(), new RateLimitService(10, "requests", 30_000, 500));
+            this.summary = summary;
+        }
+
+        @Override
+        public CompletableFuture<String> summarize(Long userId, String previousSummary,
+                                                   List<Map<String, String>> messages) {
+            return summary != null
+                    ? CompletableFuture.completedFuture(summary)
+                    : CompletableFuture.failedFuture(new IllegalStateException("summary model unavailable"));
+        }
+    }
+}
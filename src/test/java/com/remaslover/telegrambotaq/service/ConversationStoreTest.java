@@ -0,0 +1,177 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.remaslover.telegrambotaq.config.CacheConfig;
+import com.remaslover.telegrambotaq.config.ConversationStoreConfig;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversationStoreTest {
+
+    private static final String SYSTEM_PROMPT = "You are a helpful assistant.";
+
+    @Test
+    void manyMessagesOfOneUserAreWrittenAsOneSnapshot() {
+        RecordingStore store = new RecordingStore();
+        ConversationContextService service = newService(store);
+
+        for (int i = 0; i < 50; i++) {
+            service.addUserMessage(1L, "Вопрос " + i);
+        }
+        service.addUserMessage(2L, "Другой пользователь");
+        service.shutdown();
+
+        assertEquals(1, store.saveCalls.get());
+        assertEquals(List.of(1L, 2L), store.savedUsers.stream().sorted().toList());
+        assertEquals(10, store.load(1L).orElseThrow().messages().size());
+        assertEquals("Вопрос 49", store.load(1L).orElseThrow().messages().get(9).content());
+        assertTrue(service.getFormattedStats().contains(
+                "• Ожидают записи: 0\n• Записано: 2, удалено: 0, пачек: 1"), service.getFormattedStats());
+    }
+
+    @Test
+    void historySurvivesRestartThroughReadThrough() {
+        RecordingStore store = new RecordingStore();
+        ConversationContextService before = newService(store);
+        before.addUserMessage(1L, "Как зовут кота?");
+        before.addAssistantMessage(1L, "Барсик");
+        before.shutdown();
+        int loadsBeforeRestart = store.loadCalls.get();
+
+        ConversationContextService after = newService(store);
+        List<Map<String, String>> conversation = after.getFullConversation(1L, SYSTEM_PROMPT);
+
+        assertEquals(List.of("system", "user", "assistant"),
+                conversation.stream().map(message -> message.get("role")).toList());
+        assertEquals("Барсик", conversation.get(2).get("content"));
+
+        // повторный промах по пользователю без истории не ходит в хранилище
+        assertFalse(after.hasActiveContext(99L));
+        assertFalse(after.hasActiveContext(99L));
+        assertEquals(loadsBeforeRestart + 2, store.loadCalls.get());
+        assertEquals(1L, after.getCacheStats().get("readThroughHits"));
+        assertEquals(1L, after.getCacheStats().get("readThroughMisses"));
+        after.shutdown();
+    }
+
+    @Test
+    void clearedHistoryIsDeletedFromStoreAndNotReloaded() {
+        RecordingStore store = new RecordingStore();
+        ConversationContextService service = newService(store);
+        service.addUserMessage(1L, "Секрет");
+        service.shutdown();
+
+        ConversationContextService restarted = newService(store);
+        assertTrue(restarted.hasActiveContext(1L));
+        restarted.clearHistory(1L);
+        assertFalse(restarted.hasActiveContext(1L));
+        restarted.shutdown();
+
+        assertTrue(store.load(1L).isEmpty());
+    }
+
+    @Test
+    void pendingChangeIsReadBeforeStoreAndRetriedAfterFailure() {
+        RecordingStore store = new RecordingStore();
+        store.failSaves.set(1);
+        ConversationWriteBehind writeBehind = new ConversationWriteBehind(store, 60_000, 100);
+
+        ConversationSnapshot snapshot = new ConversationSnapshot(1L, null,
+                List.of(new ConversationSnapshot.Message("user", "Привет", System.currentTimeMillis())),
+                LocalDateTime.now());
+        writeBehind.markDirty(1L, () -> snapshot);
+
+        writeBehind.flush();
+        assertTrue(store.load(1L).isEmpty());
+        assertEquals(snapshot, writeBehind.pendingWrite(1L).orElseThrow().snapshot().get());
+
+        writeBehind.flush();
+        assertEquals(snapshot, store.load(1L).orElseThrow());
+        assertTrue(writeBehind.pendingWrite(1L).isEmpty());
+        assertEquals(1L, writeBehind.getStats().get("writeFailures"));
+        assertEquals(1L, writeBehind.getStats().get("savedConversations"));
+        writeBehind.close();
+    }
+
+    @Test
+    void pendingChangeStaysVisibleWhileBatchIsPrepared() {
+        RecordingStore store = new RecordingStore();
+        ConversationWriteBehind writeBehind = new ConversationWriteBehind(store, 60_000, 100);
+
+        ConversationSnapshot snapshot = new ConversationSnapshot(1L, null,
+                List.of(new ConversationSnapshot.Message("user", "Привет", System.currentTimeMillis())),
+                LocalDateTime.now());
+        List<Boolean> visibleDuringFlush = new ArrayList<>();
+        writeBehind.markDirty(1L, () -> {
+            visibleDuringFlush.add(writeBehind.pendingWrite(1L).isPresent());
+            return snapshot;
+        });
+
+        writeBehind.flush();
+        assertEquals(List.of(true), visibleDuringFlush);
+        assertEquals(snapshot, store.load(1L).orElseThrow());
+        assertTrue(writeBehind.pendingWrite(1L).isEmpty());
+        writeBehind.close();
+    }
+
+    @Test
+    void memoryStoreIsBoundedByWeight() {
+        ConversationStoreConfig storeConfig = new ConversationStoreConfig();
+        storeConfig.setMemoryMaxMb(1);
+        InMemoryConversationStore store = new InMemoryConversationStore(storeConfig);
+
+        // ~10 КБ на разговор: 200 разговоров вдвое больше лимита
+        String answer = "ответ ".repeat(850);
+        List<ConversationSnapshot> snapshots = new ArrayList<>();
+        for (long userId = 0; userId < 200; userId++) {
+            snapshots.add(new ConversationSnapshot(userId, null,
+                    List.of(new ConversationSnapshot.Message("assistant", answer, 0L)), LocalDateTime.now()));
+        }
+        store.saveAll(snapshots);
+
+        long size = store.size();
+        assertTrue(size > 0 && size <= 110, "stored conversations: " + size);
+
+        store.deleteAll(List.of(199L));
+        assertTrue(store.load(199L).isEmpty());
+        store.clear();
+        assertEquals(0, store.size());
+    }
+
+    private static ConversationContextService newService(ConversationStore store) {
+        ConversationStoreConfig storeConfig = new ConversationStoreConfig();
+        storeConfig.setFlushIntervalMs(60_000);
+        return new ConversationContextService(CacheConfig.builder().build(), null, store, storeConfig);
+    }
+
+    private static final class RecordingStore extends InMemoryConversationStore {
+        final AtomicInteger saveCalls = new AtomicInteger();
+        final AtomicInteger loadCalls = new AtomicInteger();
+        final AtomicInteger failSaves = new AtomicInteger();
+        final List<Long> savedUsers = new ArrayList<>();
+
+        @Override
+        public Optional<ConversationSnapshot> load(Long userId) {
+            loadCalls.incrementAndGet();
+            return super.load(userId);
+        }
+
+        @Override
+        public void saveAll(Collection<ConversationSnapshot> snapshots) {
+            if (failSaves.getAndUpdate(left -> Math.max(0, left - 1)) > 0) {
+                throw new IllegalStateException("connection refused");
+            }
+            saveCalls.incrementAndGet();
+            snapshots.forEach(snapshot -> savedUsers.add(snapshot.userId()));
+            super.saveAll(snapshots);
+        }
+    }
+}
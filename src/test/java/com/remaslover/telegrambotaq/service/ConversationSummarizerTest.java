@@ -0,0 +1,111 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.remaslover.telegrambotaq.config.ResilienceConfig;
+import com.remaslover.telegrambotaq.exception.UpstreamUnavailableException;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Сжатие истории против локальной заглушки OpenRouter
+ */
+class ConversationSummarizerTest {
+
+    private static final String COMPLETION = """
+            {"choices":[{"message":{"role":"assistant","content":"Пользователя зовут Анна."}}],
+             "usage":{"prompt_tokens":120,"completion_tokens":30,"total_tokens":150}}
+            """;
+
+    private static final List<Map<String, String>> MESSAGES = List.of(
+            Map.of("role", "user", "content", "Меня зовут Анна"),
+            Map.of("role", "assistant", "content", "Приятно познакомиться!"));
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final UsageAccountingService usageAccounting = OpenRouterTestClients.usageAccounting();
+    private final RateLimitService rateLimitService = new RateLimitService(10, "tokens", 10_000, 500);
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/v1/chat/completions", exchange -> {
+            requests.incrementAndGet();
+            exchange.getRequestBody().readAllBytes();
+            byte[] body = COMPLETION.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void summaryIsRequestedThroughTheGuardAndChargedToTheUser() throws Exception {
+        OpenRouterGuard guard = new OpenRouterGuard(new ResilienceConfig());
+        ConversationSummarizer summarizer = createSummarizer(guard);
+
+        String summary = summarizer.summarize(7L, null, MESSAGES).get(5, TimeUnit.SECONDS);
+
+        assertEquals("Пользователя зовут Анна.", summary);
+        assertEquals(1, requests.get());
+        assertEquals(1L, summarizer.getStats().get("summaries"));
+        assertEquals(1, guard.getStats().get("peakInFlight"));
+
+        // расход виден в /spend и уменьшает дневной бюджет, но запросом пользователя не считается
+        assertEquals(1L, usageAccounting.getStats().get("recordedRequests"));
+        assertEquals(150L, rateLimitService.getStats().get("backgroundTokens"));
+        assertEquals(150L, rateLimitService.getStats().get("totalTokens"));
+        assertEquals(10, rateLimitService.getRemainingAiRequests(7L));
+    }
+
+    @Test
+    void openCircuitPostponesSummaryWithoutCallingUpstream() {
+        ResilienceConfig config = new ResilienceConfig();
+        config.setBreakerConsecutiveFailures(1);
+        OpenRouterGuard guard = new OpenRouterGuard(config);
+        assertThrows(HttpServerErrorException.class, () -> guard.execute(() -> {
+            throw new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+        }));
+        ConversationSummarizer summarizer = createSummarizer(guard);
+
+        ExecutionException error = assertThrows(ExecutionException.class,
+                () -> summarizer.summarize(7L, null, MESSAGES).get(5, TimeUnit.SECONDS));
+
+        assertInstanceOf(UpstreamUnavailableException.class, error.getCause());
+        assertEquals(0, requests.get());
+        assertEquals(1L, summarizer.getStats().get("failures"));
+        assertEquals(0L, rateLimitService.getStats().get("backgroundTokens"));
+    }
+
+    private ConversationSummarizer createSummarizer(OpenRouterGuard guard) {
+        ConversationSummarizer summarizer = new ConversationSummarizer(OpenRouterTestClients.restTemplate(), guard,
+                usageAccounting, rateLimitService);
+        ReflectionTestUtils.setField(summarizer, "apiKey", "test-key");
+        ReflectionTestUtils.setField(summarizer, "apiUrl",
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/api/v1");
+        ReflectionTestUtils.setField(summarizer, "summaryModel", "summary/model");
+        return summarizer;
+    }
+}
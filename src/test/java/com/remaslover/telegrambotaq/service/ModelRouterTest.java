@@ -0,0 +1,123 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.remaslover.telegrambotaq.config.CacheConfig;
+import com.remaslover.telegrambotaq.config.ModelRoutingConfig;
+import com.remaslover.telegrambotaq.config.ResilienceConfig;
+import com.remaslover.telegrambotaq.util.TelegramMessageSplitter;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Выбор модели и переход на резервную против локальной заглушки OpenRouter:
+ * модель "busy/model" всегда отвечает 429.
+ */
+class ModelRouterTest {
+
+    private HttpServer server;
+    private final List<String> requestedModels = new CopyOnWriteArrayList<>();
+    private ModelRouter modelRouter;
+    private OpenRouterService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/v1/chat/completions", exchange -> {
+            String request = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            String requestedModel = request.contains("busy/model") ? "busy/model" : "spare/model";
+            requestedModels.add(requestedModel);
+
+            boolean busy = requestedModel.equals("busy/model");
+            byte[] body = (busy
+                    ? "{\"error\":{\"message\":\"Rate limit exceeded\",\"code\":429}}"
+                    : "{\"choices\":[{\"message\":{\"content\":\"Ответ резервной модели\"}}]}")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(busy ? 429 : 200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        ModelRoutingConfig config = new ModelRoutingConfig();
+        config.setModels(List.of("spare/model"));
+        modelRouter = new ModelRouter(config, "busy/model");
+
+        String apiUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/api/v1";
+        ConversationContextService contextService = new ConversationContextService(CacheConfig.builder().build());
+        service = new OpenRouterService(contextService,
+                new TelegramMessageSplitter(), new LanguageDetector(), new RestTemplate(),
+                new AiAnswerCache(false, 60, 1, false), new AiRequestCoalescer(), modelRouter,
+                new RequestHedger(config, modelRouter),
+                new OpenRouterGuard(new ResilienceConfig()), OpenRouterTestClients.chatClient(apiUrl),
+                OpenRouterTestClients.chatMemory(contextService), OpenRouterTestClients.SYSTEM_PROMPT,
+                OpenRouterTestClients.usageAccounting(), new AiRequestPipeline());
+        ReflectionTestUtils.setField(service, "apiKey", "test-key");
+        ReflectionTestUtils.setField(service, "model", "busy/model");
+        ReflectionTestUtils.setField(service, "apiUrl", apiUrl);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void rateLimitedModelFallsBackAndCoolsDown() {
+        assertEquals(List.of("Ответ резервной модели"), service.generateResponseAsParts(1L, "Привет"));
+        assertEquals(List.of("busy/model", "spare/model"), requestedModels);
+
+        requestedModels.clear();
+        service.generateResponseAsParts(2L, "Привет");
+        assertEquals(List.of("spare/model"), requestedModels,
+                "the rate-limited model should be skipped while cooling down");
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> busyStats = (Map<String, Object>) modelRouter.getStats().get("busy/model");
+        assertEquals(false, busyStats.get("healthy"));
+        assertEquals("0.0%", busyStats.get("successRate"));
+        assertEquals(1L, service.getAiStats().get("fallbackResponses"));
+    }
+
+    @Test
+    void fasterHealthyModelIsPreferred() {
+        ModelRoutingConfig config = new ModelRoutingConfig();
+        config.setModels(List.of("fast/model"));
+        ModelRouter router = new ModelRouter(config, "slow/model");
+
+        for (int i = 0; i < 5; i++) {
+            router.recordSuccess("slow/model", 2_000_000_000L);
+            router.recordSuccess("fast/model", 300_000_000L);
+        }
+
+        assertEquals("fast/model", router.route("Что такое Java?").primary());
+    }
+
+    @Test
+    void shortQuestionsGetSmallerGenerationBudget() {
+        ModelRoutingConfig config = new ModelRoutingConfig();
+        config.setShortQuestionModel("cheap/model");
+        ModelRouter router = new ModelRouter(config, "main/model");
+
+        ModelRouter.Route shortRoute = router.route("Сколько будет 2+2?");
+        ModelRouter.Route longRoute = router.route("Объясни подробно ".repeat(30));
+
+        assertEquals("cheap/model", shortRoute.primary());
+        assertEquals(config.getShortMaxTokens(), shortRoute.maxTokens());
+        assertEquals("main/model", longRoute.primary());
+        assertEquals(config.getMaxTokens(), longRoute.maxTokens());
+    }
+}
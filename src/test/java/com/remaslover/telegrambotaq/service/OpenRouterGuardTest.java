@@ -0,0 +1,134 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.remaslover.telegrambotaq.config.ResilienceConfig;
+import com.remaslover.telegrambotaq.exception.UpstreamUnavailableException;
+import com.remaslover.telegrambotaq.util.AimdConcurrencyLimiter;
+import com.remaslover.telegrambotaq.util.CircuitBreaker;
+import com.remaslover.telegrambotaq.util.RetryAfter;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OpenRouterGuardTest {
+
+    @Test
+    void openCircuitFailsFastWithoutCallingUpstream() {
+        ResilienceConfig config = new ResilienceConfig();
+        config.setBreakerConsecutiveFailures(3);
+        OpenRouterGuard guard = new OpenRouterGuard(config);
+        AtomicInteger upstreamCalls = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            assertThrows(HttpServerErrorException.class, () -> guard.execute(() -> {
+                upstreamCalls.incrementAndGet();
+                throw new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+            }));
+        }
+
+        long startedAt = System.nanoTime();
+        UpstreamUnavailableException rejected = assertThrows(UpstreamUnavailableException.class,
+                () -> guard.execute(() -> {
+                    upstreamCalls.incrementAndGet();
+                    return "ok";
+                }));
+
+        assertEquals(3, upstreamCalls.get());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt) < 50);
+        assertTrue(rejected.getMessage().startsWith("⏳"));
+        assertEquals("OPEN", guard.getStats().get("circuitState"));
+        assertEquals(1L, guard.getStats().get("rejectedOpen"));
+    }
+
+    @Test
+    void halfOpenProbeClosesOrReopensCircuit() {
+        AtomicLong now = new AtomicLong();
+        CircuitBreaker breaker = new CircuitBreaker(10, 5, 50, 2,
+                Duration.ofSeconds(30), Duration.ofMinutes(5), 1, now::get);
+
+        breaker.onFailure(null);
+        breaker.onFailure(null);
+        assertFalse(breaker.tryAcquire());
+
+        now.addAndGet(Duration.ofSeconds(30).toNanos());
+        assertTrue(breaker.tryAcquire(), "first probe after the pause");
+        assertFalse(breaker.tryAcquire(), "only one probe at a time");
+        breaker.onFailure(null);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(Duration.ofSeconds(60), breaker.getRemainingOpen(), "pause doubles after a failed probe");
+
+        now.addAndGet(Duration.ofSeconds(60).toNanos());
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    void errorInHalfOpenProbeReleasesTheProbe() {
+        ResilienceConfig config = new ResilienceConfig();
+        config.setBreakerConsecutiveFailures(1);
+        config.setHalfOpenProbes(1);
+        AtomicLong now = new AtomicLong();
+        OpenRouterGuard guard = new OpenRouterGuard(config, now::get);
+
+        assertThrows(HttpServerErrorException.class, () -> guard.execute(() -> {
+            throw new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+        }));
+        assertEquals("OPEN", guard.getStats().get("circuitState"));
+
+        now.addAndGet(Duration.ofSeconds(config.getBreakerOpenSeconds()).toNanos());
+        assertThrows(StackOverflowError.class, () -> guard.execute(() -> {
+            throw new StackOverflowError();
+        }));
+
+        assertDoesNotThrow(() -> assertEquals("ok", guard.execute(() -> "ok")));
+        assertEquals("CLOSED", guard.getStats().get("circuitState"));
+    }
+
+    @Test
+    void retryAfterExtendsOpenPause() {
+        AtomicLong now = new AtomicLong();
+        CircuitBreaker breaker = new CircuitBreaker(10, 5, 50, 1,
+                Duration.ofSeconds(30), Duration.ofMinutes(5), 1, now::get);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "120");
+        HttpClientErrorException tooManyRequests = HttpClientErrorException.create(
+                HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests", headers, new byte[0], null);
+
+        breaker.onFailure(RetryAfter.from(tooManyRequests));
+
+        assertEquals(Duration.ofSeconds(120), breaker.getRemainingOpen());
+    }
+
+    @Test
+    void limiterGrowsOnSuccessAndHalvesOnOverload() throws Exception {
+        AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(4, 1, 32, 0.5);
+
+        for (int i = 0; i < 20; i++) {
+            assertTrue(limiter.acquire(0, TimeUnit.MILLISECONDS));
+            limiter.release(AimdConcurrencyLimiter.Outcome.SUCCESS);
+        }
+        int grown = limiter.getLimit();
+        assertTrue(grown >= 7, "limit after successes " + grown);
+
+        assertTrue(limiter.acquire(0, TimeUnit.MILLISECONDS));
+        limiter.release(AimdConcurrencyLimiter.Outcome.OVERLOAD);
+        assertEquals(grown / 2, limiter.getLimit(), 1);
+
+        for (int i = 0; i < limiter.getLimit(); i++) {
+            assertTrue(limiter.acquire(0, TimeUnit.MILLISECONDS));
+        }
+        assertFalse(limiter.acquire(20, TimeUnit.MILLISECONDS), "no permits above the limit");
+    }
+}
@@ -0,0 +1,186 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.remaslover.telegrambotaq.config.CacheConfig;
+import com.remaslover.telegrambotaq.config.ModelRoutingConfig;
+import com.remaslover.telegrambotaq.config.ResilienceConfig;
+import com.remaslover.telegrambotaq.exception.AiServiceException;
+import com.remaslover.telegrambotaq.util.TelegramMessageSplitter;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Потоковый режим (ChatClient поверх WebClient) против локальной заглушки OpenRouter,
+ * отдающей SSE с задержками. Фрагменты должны приходить по мере генерации, а не одним ответом.
+ */
+class OpenRouterStreamingTest {
+
+    private static final List<String> CHUNKS = List.of("Привет", ", ", "это ", "потоковый ", "ответ.");
+    private static final long CHUNK_DELAY_MS = 150;
+
+    private HttpServer server;
+    private OpenRouterService service;
+    private ConversationContextService contextService;
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/v1/chat/completions", exchange -> {
+            requests.add(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                write(out, ": OPENROUTER PROCESSING\n\n");
+                for (String chunk : CHUNKS) {
+                    write(out, "data: {\"choices\":[{\"delta\":{\"content\":\"" + chunk + "\"}}]}\n\n");
+                    sleep(CHUNK_DELAY_MS);
+                }
+                write(out, "data: [DONE]\n\n");
+            }
+        });
+        server.createContext("/broken/chat/completions", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                write(out, "data: {\"choices\":[{\"delta\":{\"content\":\"Нач\"}}]}\n\n");
+                write(out, "data: {\"error\":{\"message\":\"Provider returned error\"},"
+                        + "\"choices\":[{\"delta\":{\"content\":\"\"},\"finish_reason\":\"error\"}]}\n\n");
+            }
+        });
+        server.createContext("/empty/chat/completions", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                write(out, "data: [DONE]\n\n");
+            }
+        });
+        server.start();
+
+        contextService = new ConversationContextService(CacheConfig.builder().build());
+        service = createService(baseUrl() + "/api/v1");
+    }
+
+    private OpenRouterService createService(String apiUrl) {
+        ModelRoutingConfig routingConfig = new ModelRoutingConfig();
+        ModelRouter modelRouter = new ModelRouter(routingConfig, "test/model");
+        OpenRouterService openRouterService = new OpenRouterService(contextService, new TelegramMessageSplitter(),
+                new LanguageDetector(), OpenRouterTestClients.restTemplate(), new AiAnswerCache(false, 60, 1, false),
+                new AiRequestCoalescer(), modelRouter, new RequestHedger(routingConfig, modelRouter),
+                new OpenRouterGuard(new ResilienceConfig()), OpenRouterTestClients.chatClient(apiUrl),
+                OpenRouterTestClients.chatMemory(contextService), OpenRouterTestClients.SYSTEM_PROMPT,
+                OpenRouterTestClients.usageAccounting(), new AiRequestPipeline());
+        ReflectionTestUtils.setField(openRouterService, "apiKey", "test-key");
+        ReflectionTestUtils.setField(openRouterService, "model", "test/model");
+        ReflectionTestUtils.setField(openRouterService, "apiUrl", apiUrl);
+        return openRouterService;
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void deltasArriveBeforeTheStreamEnds() {
+        service.streamResponse(0L, "warm-up", delta -> {
+        });
+
+        List<Long> arrivals = new CopyOnWriteArrayList<>();
+        List<String> deltas = new CopyOnWriteArrayList<>();
+        long startedAt = System.nanoTime();
+
+        String content = service.streamResponse(1L, "Привет", delta -> {
+            arrivals.add(System.nanoTime() - startedAt);
+            deltas.add(delta);
+        });
+
+        long totalNanos = System.nanoTime() - startedAt;
+        long firstTokenNanos = arrivals.get(0);
+
+        assertEquals(String.join("", CHUNKS), content);
+        assertEquals(CHUNKS, deltas);
+        assertTrue(firstTokenNanos * 3 < totalNanos,
+                "first token should arrive long before the whole answer");
+        assertTrue(arrivals.get(arrivals.size() - 1) - firstTokenNanos
+                        >= (CHUNKS.size() - 2) * CHUNK_DELAY_MS * 1_000_000,
+                "deltas should be delivered as they are produced, not buffered");
+
+        Map<String, Object> stats = service.getAiStats();
+        assertEquals(2L, stats.get("streamedRequests"));
+        assertEquals(2, contextService.getConversationHistory(1L).size());
+    }
+
+    @Test
+    void requestCarriesSystemPromptAndHistoryFromChatMemory() throws Exception {
+        contextService.addUserMessage(3L, "Меня зовут Анна");
+        contextService.addAssistantMessage(3L, "Приятно познакомиться!");
+
+        service.streamResponse(3L, "Как меня зовут?", delta -> {
+        });
+
+        JsonNode request = new ObjectMapper().readTree(requests.get(0));
+        JsonNode messages = request.path("messages");
+
+        assertTrue(request.path("stream").asBoolean());
+        assertEquals("test/model", request.path("model").asText());
+        assertEquals(4, messages.size());
+        assertEquals("system", messages.get(0).path("role").asText());
+        assertEquals(OpenRouterTestClients.SYSTEM_PROMPT.text(), messages.get(0).path("content").asText());
+        assertEquals("Как меня зовут?", messages.get(3).path("content").asText());
+        assertEquals(4, contextService.getConversationHistory(3L).size());
+    }
+
+    @Test
+    void errorEventInStreamFailsTheRequest() {
+        service = createService(baseUrl() + "/broken");
+
+        assertThrows(AiServiceException.class, () -> service.streamResponse(2L, "Привет", delta -> {
+        }));
+        assertEquals(1L, service.getAiStats().get("streamFailures"));
+    }
+
+    @Test
+    void emptyStreamFailsTheRequest() {
+        service = createService(baseUrl() + "/empty");
+
+        AiServiceException error = assertThrows(AiServiceException.class,
+                () -> service.streamResponse(4L, "Привет", delta -> {
+                }));
+        assertEquals("❌ Ошибка: пустой ответ от AI сервиса", error.getMessage());
+        assertEquals(1L, service.getAiStats().get("streamFailures"));
+        assertEquals(1, contextService.getConversationHistory(4L).size());
+    }
+
+    private String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private static void write(OutputStream out, String text) throws java.io.IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.remaslover.telegrambotaq.config.HttpClientConfig;
+import com.remaslover.telegrambotaq.config.OpenRouterConfig;
+import com.remaslover.telegrambotaq.config.SystemPrompt;
+import com.remaslover.telegrambotaq.config.UsageAccountingConfig;
+import com.remaslover.telegrambotaq.repository.AiUsageDailyRepository;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.http.HttpClient;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Клиенты OpenRouter для тестов против локальной заглушки, собранные так же, как в приложении
+ */
+final class OpenRouterTestClients {
+
+    static final SystemPrompt SYSTEM_PROMPT = SystemPrompt.load(new ClassPathResource("prompts/system-prompt.txt"));
+
+    private static final HttpClientConfig HTTP_CLIENT_CONFIG = new HttpClientConfig();
+    private static final HttpClient HTTP_CLIENT = HTTP_CLIENT_CONFIG.upstreamHttpClient();
+
+    private OpenRouterTestClients() {
+    }
+
+    static RestTemplate restTemplate() {
+        return HTTP_CLIENT_CONFIG.openRouterRestTemplate(HTTP_CLIENT_CONFIG.openRouterRequestFactory(HTTP_CLIENT));
+    }
+
+    static ChatClient chatClient(String apiUrl) {
+        OpenRouterConfig config = new OpenRouterConfig();
+        ReflectionTestUtils.setField(config, "apiKey", "test-key");
+        ReflectionTestUtils.setField(config, "baseUrl", apiUrl);
+        ReflectionTestUtils.setField(config, "model", "test/model");
+
+        OpenAiApi openAiApi = config.openAiApi(config.responseErrorHandler(),
+                HTTP_CLIENT_CONFIG.openRouterRequestFactory(HTTP_CLIENT),
+                HTTP_CLIENT_CONFIG.openRouterHttpConnector(HTTP_CLIENT));
+        return config.chatClient(config.openRouterChatModel(openAiApi, config.openAiChatOptions()), SYSTEM_PROMPT);
+    }
+
+    static ConversationChatMemory chatMemory(ConversationContextService contextService) {
+        return new ConversationChatMemory(contextService, SYSTEM_PROMPT);
+    }
+
+    static UsageAccountingService usageAccounting() {
+        return new UsageAccountingService(mock(AiUsageDailyRepository.class), mock(TransactionTemplate.class),
+                new UsageAccountingConfig());
+    }
+}
@@ -0,0 +1,74 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.remaslover.telegrambotaq.util.OpenRouterJson;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimitServiceTest {
+
+    @Test
+    void requestModeHonorsConfiguredDailyLimit() {
+        RateLimitService service = new RateLimitService(3, "requests", 30_000, 500);
+
+        for (int i = 0; i < 3; i++) {
+            RateLimitService.Reservation reservation = service.reserve(1L, 100);
+            assertNotNull(reservation);
+            service.settle(reservation);
+        }
+
+        assertNull(service.reserve(1L, 100));
+        assertEquals(0, service.getRemainingAiRequests(1L));
+        assertTrue(service.getLimitExceededMessage().contains("3/день"));
+    }
+
+    @Test
+    void tokenModeChargesActualUsageSoLightUsersGetMoreTurns() {
+        RateLimitService service = new RateLimitService(10, "tokens", 10_000, 500);
+
+        int heavyTurns = turnsUntilLimit(service, 1L, 2_500, new OpenRouterJson.Usage(2_500, 500, 3_000));
+        int lightTurns = turnsUntilLimit(service, 2L, 50, new OpenRouterJson.Usage(50, 150, 200));
+
+        // 3 x 3000 токенов; четвертый резерв (2500 + 500) уже не помещается
+        assertEquals(3, heavyTurns);
+        // 48 x 200 = 9600, следующий резерв 550 не помещается
+        assertEquals(48, lightTurns);
+        assertEquals(3L * 3_000 + 48L * 200, service.getStats().get("totalTokens"));
+    }
+
+    @Test
+    void refundReleasesReservationAndSettleIsCountedOnce() {
+        RateLimitService service = new RateLimitService(10, "tokens", 1_000, 500);
+
+        RateLimitService.Reservation first = service.reserve(1L, 300);
+        assertNotNull(first);
+        // 800 зарезервировано, второй такой запрос не помещается
+        assertNull(service.reserve(1L, 300));
+
+        service.refund(first);
+        service.settle(first);
+        assertEquals("осталось токенов: 1000", service.describeRemaining(1L));
+
+        RateLimitService.Reservation second = service.reserve(1L, 300);
+        assertNotNull(second);
+        service.settle(second);
+        service.refund(second);
+
+        // usage не пришел - списана оценка
+        assertEquals("осталось токенов: 200", service.describeRemaining(1L));
+        assertEquals(1L, service.getStats().get("refundedReservations"));
+        assertEquals(1L, service.getStats().get("settledReservations"));
+    }
+
+    private static int turnsUntilLimit(RateLimitService service, Long userId, int promptEstimate,
+                                       OpenRouterJson.Usage usage) {
+        int turns = 0;
+        RateLimitService.Reservation reservation;
+        while ((reservation = service.reserve(userId, promptEstimate)) != null && turns < 1000) {
+            reservation.addUsage(usage);
+            service.settle(reservation);
+            turns++;
+        }
+        return turns;
+    }
+}
@@ -0,0 +1,130 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.remaslover.telegrambotaq.config.ModelRoutingConfig;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestHedgerTest {
+
+    private static ModelRoutingConfig config(int budgetPercent) {
+        ModelRoutingConfig config = new ModelRoutingConfig();
+        config.setModels(List.of("spare/model"));
+        config.setHedgeBudgetPercent(budgetPercent);
+        config.setHedgeMinDelayMs(20);
+        return config;
+    }
+
+    private static ModelRouter warmedRouter(ModelRoutingConfig config) {
+        ModelRouter router = new ModelRouter(config, "main/model");
+        for (int i = 0; i < config.getLatencyWindow(); i++) {
+            router.recordSuccess("main/model", TimeUnit.MILLISECONDS.toNanos(10));
+            router.recordFirstToken("main/model", TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        return router;
+    }
+
+    @Test
+    void slowRequestIsHedgedAndLoserCancelled() throws Exception {
+        ModelRoutingConfig config = config(100);
+        RequestHedger hedger = new RequestHedger(config, warmedRouter(config));
+        CountDownLatch primaryInterrupted = new CountDownLatch(1);
+
+        RequestHedger.Outcome outcome = hedger.execute("main/model", "spare/model", false, delta -> {
+        }, (model, onDelta) -> {
+            if (model.equals("main/model")) {
+                try {
+                    Thread.sleep(5_000);
+                } catch (InterruptedException e) {
+                    primaryInterrupted.countDown();
+                    throw e;
+                }
+                return "slow";
+            }
+            return "fast";
+        });
+
+        assertEquals(new RequestHedger.Outcome("spare/model", "fast"), outcome);
+        assertTrue(primaryInterrupted.await(1, TimeUnit.SECONDS), "losing request should be cancelled");
+        assertEquals(1L, hedger.getStats().get("hedgeWins"));
+    }
+
+    @Test
+    void streamingDeltasComeOnlyFromTheWinner() throws Exception {
+        ModelRoutingConfig config = config(100);
+        RequestHedger hedger = new RequestHedger(config, warmedRouter(config));
+        List<String> deltas = new CopyOnWriteArrayList<>();
+
+        RequestHedger.Outcome outcome = hedger.execute("main/model", "spare/model", true, deltas::add,
+                (model, onDelta) -> {
+                    if (model.equals("main/model")) {
+                        Thread.sleep(300);
+                    }
+                    onDelta.accept(model + " 1");
+                    onDelta.accept(model + " 2");
+                    return model;
+                });
+
+        assertEquals("spare/model", outcome.model());
+        assertEquals(List.of("spare/model 1", "spare/model 2"), deltas);
+    }
+
+    @Test
+    void budgetLimitsExtraRequests() throws Exception {
+        ModelRoutingConfig config = config(10);
+        config.setLatencyWindow(1000);
+        RequestHedger hedger = new RequestHedger(config, warmedRouter(config));
+
+        for (int i = 0; i < 30; i++) {
+            hedger.execute("main/model", "spare/model", false, delta -> {
+            }, (model, onDelta) -> {
+                if (model.equals("main/model")) {
+                    Thread.sleep(100);
+                }
+                return model;
+            });
+        }
+
+        long hedges = (long) hedger.getStats().get("hedges");
+        assertEquals(3L, hedges);
+        assertEquals(27L, hedger.getStats().get("budgetDenied"));
+    }
+
+    /**
+     * Каждый двадцатый основной запрос "зависает" на 400 мс, остальные отвечают сразу:
+     * запасная модель должна ответить за каждый зависший запрос, а подстраховок
+     * не больше бюджета
+     */
+    @Test
+    void everyStalledRequestIsRescuedByHedge() throws Exception {
+        ModelRoutingConfig config = config(10);
+        RequestHedger hedger = new RequestHedger(config, warmedRouter(config));
+        List<String> winners = new ArrayList<>();
+
+        for (int i = 0; i < 100; i++) {
+            boolean stalled = i % 20 == 19;
+            RequestHedger.Outcome outcome = hedger.execute("main/model", "spare/model", false, delta -> {
+            }, (model, onDelta) -> {
+                if (stalled && model.equals("main/model")) {
+                    Thread.sleep(400);
+                }
+                return model;
+            });
+            winners.add(outcome.model());
+        }
+
+        for (int i = 19; i < winners.size(); i += 20) {
+            assertEquals("spare/model", winners.get(i), "stalled request " + i);
+        }
+        long hedges = (long) hedger.getStats().get("hedges");
+        assertTrue(hedges >= 5 && hedges <= 10, "hedges within 10% budget: " + hedges);
+        assertTrue((long) hedger.getStats().get("hedgeWins") >= 5);
+    }
+}
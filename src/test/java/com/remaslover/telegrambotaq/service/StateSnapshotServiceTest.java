@@ -0,0 +1,79 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.remaslover.telegrambotaq.config.CacheConfig;
+import com.remaslover.telegrambotaq.config.ColdTierConfig;
+import com.remaslover.telegrambotaq.config.ConversationStoreConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StateSnapshotServiceTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void snapshotWrittenOnShutdownIsRestoredOnStartupAndDeleted() {
+        Path file = dir.resolve("state.bin");
+
+        RateLimitService rateLimits = rateLimits();
+        ConversationContextService conversations = conversations(new InMemoryConversationStore());
+        rateLimits.registerAiRequest(1L);
+        rateLimits.registerAiRequest(1L);
+        conversations.addUserMessage(1L, "Как работает отображение файла в память?");
+        conversations.addAssistantMessage(1L, "Через FileChannel.map");
+        new StateSnapshotService(rateLimits, conversations, true, file.toString()).snapshotOnShutdown();
+        conversations.shutdown();
+        assertTrue(Files.exists(file));
+
+        // новое хранилище пусто: история может прийти только из снимка
+        RateLimitService restoredLimits = rateLimits();
+        ConversationContextService restoredConversations = conversations(new InMemoryConversationStore());
+        new StateSnapshotService(restoredLimits, restoredConversations, true, file.toString()).restoreOnStartup();
+
+        assertEquals(2, restoredLimits.getUsedAiRequests(1L));
+        assertEquals(List.of("Как работает отображение файла в память?", "Через FileChannel.map"),
+                restoredConversations.getConversationHistory(1L).stream().map(m -> m.get("content")).toList());
+        assertFalse(Files.exists(file), "snapshot is applied only once");
+        restoredConversations.shutdown();
+    }
+
+    @Test
+    void corruptedSnapshotIsIgnored() throws IOException {
+        Path file = dir.resolve("state.bin");
+        RateLimitService rateLimits = rateLimits();
+        ConversationContextService conversations = conversations(new InMemoryConversationStore());
+        rateLimits.registerAiRequest(5L);
+        StateSnapshotService snapshots = new StateSnapshotService(rateLimits, conversations, true, file.toString());
+        snapshots.write(file);
+
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[20] ^= 0x7f;
+        Files.write(file, bytes, StandardOpenOption.TRUNCATE_EXISTING);
+
+        IOException error = assertThrows(IOException.class, () -> snapshots.restore(file));
+        assertTrue(error.getMessage().contains("checksum"));
+
+        RateLimitService restoredLimits = rateLimits();
+        new StateSnapshotService(restoredLimits, conversations, true, file.toString()).restoreOnStartup();
+        assertEquals(0, restoredLimits.getUsedAiRequests(5L));
+        assertFalse(Files.exists(file));
+        conversations.shutdown();
+    }
+
+    private static RateLimitService rateLimits() {
+        return new RateLimitService(10, "requests", 30_000, 500);
+    }
+
+    private static ConversationContextService conversations(ConversationStore store) {
+        return new ConversationContextService(CacheConfig.builder().summarizeEnabled(false).build(), null,
+                store, new ConversationStoreConfig(), new ColdTierConfig());
+    }
+}
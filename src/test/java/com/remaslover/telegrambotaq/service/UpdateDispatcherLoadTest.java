@@ -0,0 +1,130 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.remaslover.telegrambotaq.config.DispatcherConfig;
+import com.remaslover.telegrambotaq.config.DispatcherConfig.ExecutionMode;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Нагрузочный тест диспетчера: блокирующие обработчики (имитация вызова AI)
+ * в двух режимах исполнения. Проверяет пиковую параллельность и порядок внутри чата.
+ */
+class UpdateDispatcherLoadTest {
+
+    private static final int CHATS = 2_000;
+    private static final int LANES = 16;
+    private static final long UPSTREAM_LATENCY_MS = 200;
+
+    @Test
+    void virtualThreadsHoldThousandsOfBlockingRequests() throws Exception {
+        int peakConcurrency = runLoad(ExecutionMode.VIRTUAL, CHATS);
+
+        assertTrue(peakConcurrency >= CHATS / 2,
+                "virtual mode should run most blocking requests at once, peak=" + peakConcurrency);
+    }
+
+    @Test
+    void platformLanesAreCappedByLaneCount() throws Exception {
+        int requests = LANES * 10;
+        int peakConcurrency = runLoad(ExecutionMode.PLATFORM, requests);
+
+        assertEquals(LANES, peakConcurrency, "every lane runs one blocking request at a time");
+    }
+
+    @Test
+    void updatesOfOneChatStayInOrder() throws Exception {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            UpdateDispatcher dispatcher = new UpdateDispatcher(config(mode));
+            int perChat = 200;
+            int chats = 20;
+            List<List<Integer>> seen = new CopyOnWriteArrayList<>();
+            for (int c = 0; c < chats; c++) {
+                seen.add(new CopyOnWriteArrayList<>());
+            }
+            CountDownLatch done = new CountDownLatch(perChat * chats);
+
+            for (int i = 0; i < perChat; i++) {
+                for (int c = 0; c < chats; c++) {
+                    int chat = c;
+                    int seq = i;
+                    assertTrue(dispatcher.dispatch(chat, () -> {
+                        seen.get(chat).add(seq);
+                        done.countDown();
+                    }));
+                }
+            }
+
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+            for (List<Integer> chatSeen : seen) {
+                for (int i = 0; i < perChat; i++) {
+                    assertEquals(i, chatSeen.get(i), mode + " reordered updates of one chat");
+                }
+            }
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    void errorInHandlerDoesNotStopTheChatQueue() throws Exception {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            UpdateDispatcher dispatcher = new UpdateDispatcher(config(mode));
+            CountDownLatch next = new CountDownLatch(1);
+
+            assertTrue(dispatcher.dispatch(1L, () -> {
+                throw new StackOverflowError("handler recursion");
+            }));
+            assertTrue(dispatcher.dispatch(1L, next::countDown));
+
+            assertTrue(next.await(5, TimeUnit.SECONDS), mode + " stopped draining the chat after an Error");
+            assertEquals(1L, dispatcher.getStats().get("failed"));
+            dispatcher.shutdown();
+        }
+    }
+
+    /**
+     * Прогоняет requests блокирующих обработчиков в разных чатах
+     *
+     * @return пиковое число одновременно выполнявшихся обработчиков
+     */
+    private int runLoad(ExecutionMode mode, int requests) throws Exception {
+        UpdateDispatcher dispatcher = new UpdateDispatcher(config(mode));
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(requests);
+
+        for (int chatId = 0; chatId < requests; chatId++) {
+            assertTrue(dispatcher.dispatch(chatId, () -> {
+                peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(UPSTREAM_LATENCY_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            }));
+        }
+
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        dispatcher.shutdown();
+
+        return peak.get();
+    }
+
+    private static DispatcherConfig config(ExecutionMode mode) {
+        DispatcherConfig config = new DispatcherConfig();
+        config.setExecutionMode(mode);
+        config.setLanes(LANES);
+        config.setQueueCapacity(CHATS);
+        config.setMaxInFlight(CHATS * 5);
+        return config;
+    }
+}
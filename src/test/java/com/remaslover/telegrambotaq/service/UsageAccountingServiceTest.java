@@ -0,0 +1,85 @@
+package com.remaslover.telegrambotaq.service;
+
+import com.remaslover.telegrambotaq.config.UsageAccountingConfig;
+import com.remaslover.telegrambotaq.repository.AiUsageDailyRepository;
+import com.remaslover.telegrambotaq.util.OpenRouterJson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class UsageAccountingServiceTest {
+
+    private AiUsageDailyRepository repository;
+    private UsageAccountingService service;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(AiUsageDailyRepository.class);
+
+        UsageAccountingConfig config = new UsageAccountingConfig();
+        config.setPrices(Map.of("paid/model", new UsageAccountingConfig.Price(2.0, 8.0)));
+
+        service = new UsageAccountingService(repository,
+                new TransactionTemplate(mock(PlatformTransactionManager.class)), config);
+    }
+
+    @Test
+    void concurrentRecordsAreFlushedAsOneRowPerUserAndModel() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 1000; i++) {
+            executor.execute(() -> service.record(42L, "free/model",
+                    new OpenRouterJson.Usage(100, 20, 120, 0.0001), TimeUnit.MILLISECONDS.toNanos(50)));
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        service.flush();
+
+        verify(repository).upsert(LocalDate.now(), 42L, "free/model",
+                1000, 100_000, 20_000, 100_000, 50_000);
+        verifyNoMoreInteractions(repository);
+    }
+
+    @Test
+    void costIsEstimatedFromPriceTableWhenProviderDidNotReportIt() {
+        service.record(7L, "paid/model", new OpenRouterJson.Usage(1000, 500, 1500), 0);
+        service.record(7L, "paid/model", null, 0);
+
+        service.flush();
+
+        // 1000 * $2/M + 500 * $8/M = $0.006
+        verify(repository).upsert(LocalDate.now(), 7L, "paid/model", 2, 1000, 500, 6000, 0);
+        assertEquals(1L, service.getStats().get("requestsWithoutUsage"));
+    }
+
+    @Test
+    void failedFlushKeepsCountersForNextFlush() {
+        doThrow(new DataAccessResourceFailureException("connection refused"))
+                .doNothing()
+                .when(repository).upsert(any(), anyLong(), anyString(), anyLong(), anyLong(), anyLong(), anyLong(), anyLong());
+
+        service.record(1L, "free/model", new OpenRouterJson.Usage(10, 5, 15), 0);
+        service.flush();
+
+        service.record(1L, "free/model", new OpenRouterJson.Usage(10, 5, 15), 0);
+        service.flush();
+
+        verify(repository, times(2)).upsert(any(), anyLong(), anyString(), anyLong(), anyLong(), anyLong(), anyLong(), anyLong());
+        verify(repository).upsert(LocalDate.now(), 1L, "free/model", 2, 20, 10, 0, 0);
+        assertEquals(1L, service.getStats().get("flushFailures"));
+        assertEquals(1L, service.getStats().get("flushedRows"));
+    }
+}
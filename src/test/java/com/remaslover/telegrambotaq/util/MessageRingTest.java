@@ -0,0 +1,69 @@
+package com.remaslover.telegrambotaq.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageRingTest {
+
+    @Test
+    void fullRingOverwritesOldestAndKeepsOrder() {
+        MessageRing ring = new MessageRing(3, false);
+
+        for (int i = 1; i <= 5; i++) {
+            ring.add(MessageRing.Role.USER, "m" + i, i);
+        }
+
+        assertEquals(3, ring.size());
+        assertEquals(List.of("m3", "m4", "m5"), contents(ring.snapshot()));
+        assertEquals(List.of(3L, 4L, 5L), ring.snapshot().stream().map(MessageRing.Message::timestamp).toList());
+        assertEquals(List.of("m3"), contents(ring.oldestExcept(2)));
+        assertEquals(3L * TokenEstimator.estimateMessage("m1"), ring.totalTokens());
+    }
+
+    @Test
+    void budgetSelectionTakesNewestAcrossWrapAround() {
+        MessageRing ring = new MessageRing(4, true);
+        String longText = "Длинное сообщение ассистента. ".repeat(50);
+
+        ring.add(MessageRing.Role.USER, "старое", 1);
+        ring.add(MessageRing.Role.ASSISTANT, longText, 2);
+        ring.add(MessageRing.Role.USER, "вопрос", 3);
+        ring.add(MessageRing.Role.ASSISTANT, "ответ", 4);
+        ring.add(MessageRing.Role.USER, "последний", 5);
+
+        List<MessageRing.Message> selected = ring.newestWithinBudget(50);
+        assertEquals(List.of("вопрос", "ответ", "последний"), contents(selected));
+        assertEquals("assistant", selected.get(1).toMap().get("role"));
+
+        // последнее сообщение возвращается, даже если не влезает в бюджет
+        ring.add(MessageRing.Role.ASSISTANT, longText, 6);
+        assertEquals(List.of(longText), contents(ring.newestWithinBudget(1)));
+    }
+
+    @Test
+    void removeAllDropsFoldedMessagesByReference() {
+        MessageRing ring = new MessageRing(5, false);
+        ring.add(MessageRing.Role.USER, "a", 1);
+        ring.add(MessageRing.Role.ASSISTANT, "b", 2);
+        ring.add(MessageRing.Role.USER, "c", 3);
+
+        List<MessageRing.Message> folded = ring.oldestExcept(1);
+        ring.add(MessageRing.Role.ASSISTANT, "a", 4);
+        ring.removeAll(folded);
+
+        assertEquals(List.of("c", "a"), contents(ring.snapshot()));
+        assertEquals(2 * TokenEstimator.estimateMessage("a"), ring.totalTokens());
+
+        for (int i = 0; i < 4; i++) {
+            ring.add(MessageRing.Role.USER, "n" + i, 10 + i);
+        }
+        assertEquals(List.of("n0", "n1", "n2", "n3"), contents(ring.snapshot()).subList(1, 5));
+    }
+
+    private static List<String> contents(List<MessageRing.Message> messages) {
+        return messages.stream().map(MessageRing.Message::content).toList();
+    }
+}
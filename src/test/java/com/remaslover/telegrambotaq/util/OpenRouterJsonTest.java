@@ -0,0 +1,70 @@
+package com.remaslover.telegrambotaq.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OpenRouterJsonTest {
+
+    private static final String SYSTEM_PROMPT = "You are a \"helpful\" assistant.\nAnswer briefly.";
+
+    @Test
+    void requestContainsOnlyRoleAndContent() throws Exception {
+        OpenRouterJson.RequestWriter writer = new OpenRouterJson.RequestWriter(SYSTEM_PROMPT);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        writer.write(out, "vendor/model", List.of(
+                Map.of("role", "system", "content", SYSTEM_PROMPT),
+                Map.of("role", "user", "content", "Привет! Что такое \"JIT\"?", "timestamp", "2026-01-01T10:00")
+        ), 600, 0.7, true);
+
+        JsonNode request = new ObjectMapper().readTree(out.toByteArray());
+
+        assertEquals("vendor/model", request.path("model").asText());
+        assertEquals(SYSTEM_PROMPT, request.path("messages").get(0).path("content").asText());
+        assertEquals("Привет! Что такое \"JIT\"?", request.path("messages").get(1).path("content").asText());
+        assertFalse(request.path("messages").get(1).has("timestamp"));
+        assertEquals(600, request.path("max_tokens").asInt());
+        assertTrue(request.path("stream").asBoolean());
+        assertTrue(request.path("usage").path("include").asBoolean());
+    }
+
+    @Test
+    void completionParserExtractsContentAndUsage() throws Exception {
+        String body = """
+                {"id":"gen-1","choices":[{"index":0,"message":{"role":"assistant","content":"Ответ","refusal":null},
+                "logprobs":{"content":[{"token":"x"}]}},{"message":{"content":"second"}}],
+                "provider":{"name":"x"},"usage":{"prompt_tokens":12,"completion_tokens":5,"total_tokens":17,
+                "cost":0.00042,"prompt_tokens_details":{"cached_tokens":0}}}
+                """;
+
+        OpenRouterJson.ChatResult result = OpenRouterJson.readCompletion(
+                new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals("Ответ", result.content());
+        assertEquals(new OpenRouterJson.Usage(12, 5, 17, 0.00042), result.usage());
+        assertNull(result.errorMessage());
+    }
+
+    @Test
+    void streamChunkParserReadsDeltaAndError() throws Exception {
+        OpenRouterJson.ChatResult delta = OpenRouterJson.readStreamChunk(
+                "{\"choices\":[{\"delta\":{\"role\":\"assistant\",\"content\":\"При\"},\"finish_reason\":null}]}");
+        OpenRouterJson.ChatResult error = OpenRouterJson.readStreamChunk(
+                "{\"error\":{\"code\":502,\"message\":\"Provider returned error\"}}");
+        OpenRouterJson.ChatResult usage = OpenRouterJson.readStreamChunk(
+                "{\"choices\":[{\"delta\":{\"content\":\"\"}}],\"usage\":{\"prompt_tokens\":3,\"completion_tokens\":4}}");
+
+        assertEquals("При", delta.content());
+        assertEquals("Provider returned error", error.errorMessage());
+        assertEquals(new OpenRouterJson.Usage(3, 4, 7), usage.usage());
+    }
+}